@@ -0,0 +1,143 @@
+package cloud.isaura.niby.agents;
+
+import cloud.isaura.niby.agents.act.ActAgent;
+import cloud.isaura.niby.agents.base.BasicAgent;
+import cloud.isaura.niby.agents.plan.PlanAgent;
+import cloud.isaura.niby.memory.ConversationSummarizer;
+import cloud.isaura.niby.rag.QueryRewriter;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.model.anthropic.AnthropicTokenUsage;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.listener.ChatModelResponseContext;
+import dev.langchain4j.model.output.TokenUsage;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the input tokens of the Anthropic calls of each AI service by how they were billed:
+ * read from the prompt cache, written to it, or processed uncached.
+ * <p>
+ * All services share one chat model, so a call is attributed to a service by its system prompt,
+ * the first system message of the request. Calls with another prompt are counted as {@code other}.
+ */
+@ApplicationScoped
+public class PromptCacheMetrics implements ChatModelListener
+{
+    private static final Logger LOG = LoggerFactory.getLogger(PromptCacheMetrics.class);
+
+    private static final Map<String, Class<?>> SERVICES = Map.of(
+            "basic", BasicAgent.class,
+            "plan", PlanAgent.class,
+            "act", ActAgent.class,
+            "summarizer", ConversationSummarizer.class,
+            "query-rewriter", QueryRewriter.class);
+
+    /**
+     * @param cachedShare cache reads over all input tokens
+     */
+    public record Stats(long requests, long inputTokens, long cacheReadTokens, long cacheWriteTokens,
+                        long outputTokens, double cachedShare)
+    {
+    }
+
+    private final Map<String, String> servicesByPrompt = new ConcurrentHashMap<>();
+    private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init()
+    {
+        SERVICES.forEach((name, service) -> {
+            for (Method method : service.getMethods()) {
+                dev.langchain4j.service.SystemMessage prompt = method.getAnnotation(dev.langchain4j.service.SystemMessage.class);
+                if (prompt != null && !prompt.fromResource().isEmpty()) {
+                    String text = load(prompt.fromResource());
+                    if (text != null) {
+                        servicesByPrompt.putIfAbsent(text.strip(), name);
+                    }
+                }
+            }
+        });
+    }
+
+    private static String load(String resource)
+    {
+        try (InputStream in = PromptCacheMetrics.class.getResourceAsStream(resource)) {
+            return in == null ? null : new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            LOG.warn("Cannot read system prompt {}: {}", resource, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void onResponse(ChatModelResponseContext context)
+    {
+        TokenUsage usage = context.chatResponse().tokenUsage();
+        if (usage == null) {
+            return;
+        }
+        Counters service = counters.computeIfAbsent(service(context), ignored -> new Counters());
+        service.requests.increment();
+        service.input.add(orZero(usage.inputTokenCount()));
+        service.output.add(orZero(usage.outputTokenCount()));
+        if (usage instanceof AnthropicTokenUsage anthropic) {
+            service.cacheRead.add(orZero(anthropic.cacheReadInputTokens()));
+            service.cacheWrite.add(orZero(anthropic.cacheCreationInputTokens()));
+        }
+    }
+
+    private String service(ChatModelResponseContext context)
+    {
+        for (ChatMessage message : context.chatRequest().messages()) {
+            if (message instanceof SystemMessage system) {
+                return servicesByPrompt.getOrDefault(system.text().strip(), "other");
+            }
+        }
+        return "other";
+    }
+
+    private static long orZero(Integer count)
+    {
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * @return statistics by AI service, since startup
+     */
+    public Map<String, Stats> stats()
+    {
+        Map<String, Stats> stats = new TreeMap<>();
+        counters.forEach((service, counter) -> stats.put(service, counter.stats()));
+        return stats;
+    }
+
+    private static final class Counters
+    {
+        final LongAdder requests = new LongAdder();
+        // Uncached input tokens, Anthropic reports cache reads and writes separately
+        final LongAdder input = new LongAdder();
+        final LongAdder cacheRead = new LongAdder();
+        final LongAdder cacheWrite = new LongAdder();
+        final LongAdder output = new LongAdder();
+
+        Stats stats()
+        {
+            long read = cacheRead.sum();
+            long total = input.sum() + read + cacheWrite.sum();
+            return new Stats(requests.sum(), input.sum(), read, cacheWrite.sum(), output.sum(),
+                    total == 0 ? 0 : (double) read / total);
+        }
+    }
+}
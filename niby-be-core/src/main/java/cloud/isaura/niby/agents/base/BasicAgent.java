@@ -1,5 +1,6 @@
 package cloud.isaura.niby.agents.base;
 
+import cloud.isaura.niby.config.ChatMemoryConfiguration;
 import cloud.isaura.niby.rag.RagRetrievalAugmentor;
 import dev.langchain4j.service.MemoryId;
 import dev.langchain4j.service.SystemMessage;
@@ -9,7 +10,7 @@ import io.smallrye.mutiny.Multi;
 import jakarta.enterprise.context.ApplicationScoped;
 
 @ApplicationScoped
-@RegisterAiService(retrievalAugmentor = RagRetrievalAugmentor.class, chatMemoryProviderSupplier = RegisterAiService.BeanChatMemoryProviderSupplier.class)
+@RegisterAiService(retrievalAugmentor = RagRetrievalAugmentor.class, chatMemoryProviderSupplier = ChatMemoryConfiguration.BasicAgentMemory.class)
 public interface BasicAgent
 {
     @SystemMessage(fromResource = "/system-messages/basic-agent.txt")
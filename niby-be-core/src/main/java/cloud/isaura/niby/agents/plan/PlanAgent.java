@@ -1,5 +1,6 @@
 package cloud.isaura.niby.agents.plan;
 
+import cloud.isaura.niby.config.ChatMemoryConfiguration;
 import dev.langchain4j.service.MemoryId;
 import dev.langchain4j.service.SystemMessage;
 import dev.langchain4j.service.UserMessage;
@@ -8,7 +9,7 @@ import io.smallrye.mutiny.Multi;
 import jakarta.enterprise.context.ApplicationScoped;
 
 @ApplicationScoped
-@RegisterAiService(chatMemoryProviderSupplier = RegisterAiService.BeanChatMemoryProviderSupplier.class)
+@RegisterAiService(chatMemoryProviderSupplier = ChatMemoryConfiguration.PlanAgentMemory.class)
 public interface PlanAgent
 {
     @SystemMessage(fromResource = "/system-messages/prototype-system.txt")
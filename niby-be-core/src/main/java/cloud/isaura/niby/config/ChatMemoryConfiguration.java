@@ -1,24 +1,104 @@
 package cloud.isaura.niby.config;
 
+import cloud.isaura.niby.memory.ChatMemoryCompactor;
+import cloud.isaura.niby.memory.PostgresChatMemoryStore;
+import cloud.isaura.niby.memory.TokenBudgetChatMemory;
+import cloud.isaura.niby.memory.TokenEstimator;
 import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.ChatMemoryProvider;
 import dev.langchain4j.memory.chat.MessageWindowChatMemory;
-import dev.langchain4j.store.memory.chat.ChatMemoryStore;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import java.util.function.Supplier;
 
+/**
+ * Chat memory of the agents: a token-budgeted memory with a rolling summary, or a plain message
+ * window with {@code niby.chat-memory.mode=window}. The budget can be set per agent with
+ * {@code niby.chat-memory.token-budget.<agent>}.
+ */
 @ApplicationScoped
-public class ChatMemoryConfiguration implements Supplier<ChatMemory> {
+public class ChatMemoryConfiguration implements ChatMemoryProvider {
 
     @Inject
-    ChatMemoryStore chatMemoryStore;
+    PostgresChatMemoryStore chatMemoryStore;
+
+    @Inject
+    TokenEstimator tokenEstimator;
+
+    @Inject
+    ChatMemoryCompactor compactor;
+
+    @ConfigProperty(name = "niby.chat-memory.mode", defaultValue = "token-budget")
+    String mode;
+
+    @ConfigProperty(name = "niby.chat-memory.max-messages", defaultValue = "20")
+    int maxMessages;
+
+    @ConfigProperty(name = "niby.chat-memory.token-budget", defaultValue = "4000")
+    int tokenBudget;
 
     @Override
-    public ChatMemory get() {
-        return MessageWindowChatMemory.builder()
-                .chatMemoryStore(chatMemoryStore)
-                .maxMessages(20)
-                .build();
+    public ChatMemory get(Object memoryId) {
+        return create(memoryId, tokenBudget);
+    }
+
+    /**
+     * Memory provider of one agent, using its own token budget if configured
+     */
+    public ChatMemoryProvider forAgent(String agent) {
+        int budget = ConfigProvider.getConfig()
+                .getOptionalValue("niby.chat-memory.token-budget." + agent, Integer.class)
+                .orElse(tokenBudget);
+        return memoryId -> create(memoryId, budget);
+    }
+
+    private ChatMemory create(Object memoryId, int budget) {
+        if ("window".equalsIgnoreCase(mode)) {
+            return MessageWindowChatMemory.builder()
+                    .id(memoryId)
+                    .chatMemoryStore(chatMemoryStore)
+                    .maxMessages(maxMessages)
+                    .build();
+        }
+        return new TokenBudgetChatMemory(memoryId, chatMemoryStore, budget, tokenEstimator, compactor);
+    }
+
+    @ApplicationScoped
+    public static class BasicAgentMemory implements Supplier<ChatMemoryProvider> {
+
+        @Inject
+        ChatMemoryConfiguration configuration;
+
+        @Override
+        public ChatMemoryProvider get() {
+            return configuration.forAgent("basic");
+        }
+    }
+
+    @ApplicationScoped
+    public static class PlanAgentMemory implements Supplier<ChatMemoryProvider> {
+
+        @Inject
+        ChatMemoryConfiguration configuration;
+
+        @Override
+        public ChatMemoryProvider get() {
+            return configuration.forAgent("plan");
+        }
+    }
+
+    @ApplicationScoped
+    public static class ActAgentMemory implements Supplier<ChatMemoryProvider> {
+
+        @Inject
+        ChatMemoryConfiguration configuration;
+
+        @Override
+        public ChatMemoryProvider get() {
+            return configuration.forAgent("act");
+        }
     }
 }
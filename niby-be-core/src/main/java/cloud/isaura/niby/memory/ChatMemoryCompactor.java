@@ -0,0 +1,207 @@
+package cloud.isaura.niby.memory;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import io.quarkus.runtime.ShutdownEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Folds the oldest turns of over-budget conversations into their rolling summary, off the request path.
+ * <p>
+ * The newest turns worth half the budget are kept verbatim. The summary is asked for outside the
+ * memory lock; it is applied only if the summarized turns are still at the head of the conversation,
+ * otherwise the next message schedules a new attempt.
+ */
+@ApplicationScoped
+public class ChatMemoryCompactor
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ChatMemoryCompactor.class);
+
+    private static final int LOCK_STRIPES = 64;
+    private static final int MAX_RENDERED_CHARS = 2000;
+
+    @Inject
+    ConversationSummarizer summarizer;
+
+    @Inject
+    TokenEstimator estimator;
+
+    @ConfigProperty(name = "niby.chat-memory.summarize", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "niby.chat-memory.summarizer-threads", defaultValue = "2")
+    int threads;
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private volatile ExecutorService executor;
+
+    public ChatMemoryCompactor()
+    {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    void onStop(@Observes ShutdownEvent event)
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Lock guarding the read-modify-write of one memory id.
+     */
+    Object lock(Object memoryId)
+    {
+        return locks[Math.floorMod(memoryId.hashCode(), LOCK_STRIPES)];
+    }
+
+    /**
+     * Compact a conversation in the background, unless compaction is disabled or already running for it.
+     */
+    void schedule(Object memoryId, ChatMemoryStore store, int budget)
+    {
+        if (!enabled || !inFlight.add(memoryId.toString())) {
+            return;
+        }
+        executor().submit(() -> {
+            try {
+                compact(memoryId, store, budget);
+            } catch (Exception e) {
+                LOG.warn("Summarizing chat memory [{}] failed: {}", memoryId, e.getMessage());
+            } finally {
+                inFlight.remove(memoryId.toString());
+            }
+        });
+    }
+
+    private void compact(Object memoryId, ChatMemoryStore store, int budget)
+    {
+        List<ChatMessage> summarized;
+        String previousSummary;
+        synchronized (lock(memoryId)) {
+            TokenBudgetChatMemory.Layout layout = TokenBudgetChatMemory.Layout.of(store.getMessages(memoryId));
+            int keepFrom = keepFrom(layout.conversation(), budget / 2);
+            if (keepFrom <= 0) {
+                return;
+            }
+            summarized = List.copyOf(layout.conversation().subList(0, keepFrom));
+            previousSummary = layout.summary() == null ? null
+                    : layout.summary().text().substring(ChatMessages.SUMMARY_PREFIX.length());
+        }
+
+        long start = System.currentTimeMillis();
+        String summary = summarizer.summarize(previousSummary == null ? "(none)" : previousSummary, render(summarized));
+
+        synchronized (lock(memoryId)) {
+            TokenBudgetChatMemory.Layout layout = TokenBudgetChatMemory.Layout.of(store.getMessages(memoryId));
+            List<ChatMessage> conversation = layout.conversation();
+            if (!startsWith(conversation, summarized)) {
+                LOG.info("Chat memory [{}] changed while summarizing, summary discarded", memoryId);
+                return;
+            }
+            TokenBudgetChatMemory.Layout compacted = new TokenBudgetChatMemory.Layout(layout.prompt(),
+                    SystemMessage.from(ChatMessages.SUMMARY_PREFIX + summary.strip()), conversation);
+            store.updateMessages(memoryId,
+                    compacted.toMessages(conversation.subList(summarized.size(), conversation.size())));
+        }
+        LOG.info("Summarized {} messages of chat memory [{}] in {} ms",
+                summarized.size(), memoryId, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Index of the first message kept verbatim: the newest messages within {@code keepTokens}, moved
+     * to a user message so a kept turn is never cut in half.
+     */
+    private int keepFrom(List<ChatMessage> conversation, int keepTokens)
+    {
+        int index = conversation.size() - 1;
+        int tokens = 0;
+        while (index > 0 && tokens + estimator.count(conversation.get(index - 1)) <= keepTokens) {
+            index--;
+            tokens += estimator.count(conversation.get(index));
+        }
+        int boundary = index;
+        while (boundary < conversation.size() && !(conversation.get(boundary) instanceof UserMessage)) {
+            boundary++;
+        }
+        if (boundary == conversation.size()) {
+            boundary = index;
+            while (boundary > 0 && !(conversation.get(boundary) instanceof UserMessage)) {
+                boundary--;
+            }
+        }
+        return boundary;
+    }
+
+    private static boolean startsWith(List<ChatMessage> conversation, List<ChatMessage> head)
+    {
+        if (conversation.size() < head.size()) {
+            return false;
+        }
+        for (int i = 0; i < head.size(); i++) {
+            // Retrieved content may have been stripped meanwhile
+            if (!ChatMessages.stripRetrievedContent(conversation.get(i))
+                    .equals(ChatMessages.stripRetrievedContent(head.get(i)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String render(List<ChatMessage> messages)
+    {
+        StringBuilder text = new StringBuilder();
+        for (ChatMessage message : messages) {
+            String role = switch (message) {
+                case UserMessage user -> "User";
+                case AiMessage ai -> "Assistant";
+                case ToolExecutionResultMessage result -> "Tool " + result.toolName();
+                default -> message.type().name();
+            };
+            String content = ChatMessages.text(ChatMessages.stripRetrievedContent(message));
+            if (content.length() > MAX_RENDERED_CHARS) {
+                content = content.substring(0, MAX_RENDERED_CHARS) + " [...]";
+            }
+            text.append(role).append(": ").append(content).append("\n\n");
+        }
+        return text.toString();
+    }
+
+    private ExecutorService executor()
+    {
+        ExecutorService current = executor;
+        if (current == null) {
+            synchronized (this) {
+                if (executor == null) {
+                    AtomicInteger count = new AtomicInteger();
+                    executor = Executors.newFixedThreadPool(threads, r -> {
+                        Thread thread = new Thread(r, "memory-summarizer-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+                current = executor;
+            }
+        }
+        return current;
+    }
+}
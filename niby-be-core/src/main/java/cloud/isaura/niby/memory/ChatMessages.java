@@ -0,0 +1,73 @@
+package cloud.isaura.niby.memory;
+
+import cloud.isaura.niby.rag.RagRetrievalAugmentor;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+
+import java.util.stream.Collectors;
+
+/**
+ * Helpers over the message types stored in chat memory.
+ */
+final class ChatMessages
+{
+    /**
+     * Prefix of the system message holding the rolling summary, which tells it apart from the agent prompt.
+     */
+    static final String SUMMARY_PREFIX = "Summary of the earlier conversation:\n";
+
+    private ChatMessages()
+    {
+    }
+
+    static String text(ChatMessage message)
+    {
+        if (message instanceof SystemMessage system) {
+            return system.text();
+        }
+        if (message instanceof UserMessage user) {
+            return user.hasSingleText() ? user.singleText() : user.contents().stream()
+                    .filter(TextContent.class::isInstance)
+                    .map(content -> ((TextContent) content).text())
+                    .collect(Collectors.joining("\n"));
+        }
+        if (message instanceof AiMessage ai) {
+            String text = ai.text() == null ? "" : ai.text();
+            if (ai.hasToolExecutionRequests()) {
+                text += ai.toolExecutionRequests().stream()
+                        .map(request -> request.name() + "(" + request.arguments() + ")")
+                        .collect(Collectors.joining("\n", "\n", ""));
+            }
+            return text;
+        }
+        if (message instanceof ToolExecutionResultMessage result) {
+            return result.text();
+        }
+        return message.toString();
+    }
+
+    static boolean isSummary(ChatMessage message)
+    {
+        return message instanceof SystemMessage system && system.text().startsWith(SUMMARY_PREFIX);
+    }
+
+    /**
+     * Remove the documentation injected by the retrieval augmentor from a user message, keeping the question.
+     */
+    static ChatMessage stripRetrievedContent(ChatMessage message)
+    {
+        if (message instanceof UserMessage user && user.hasSingleText()) {
+            String text = user.singleText();
+            int context = text.indexOf(RagRetrievalAugmentor.CONTEXT_HEADER);
+            if (context >= 0) {
+                String question = text.substring(0, context);
+                return user.name() == null ? UserMessage.from(question) : UserMessage.from(user.name(), question);
+            }
+        }
+        return message;
+    }
+}
@@ -0,0 +1,25 @@
+package cloud.isaura.niby.memory;
+
+import dev.langchain4j.service.SystemMessage;
+import dev.langchain4j.service.UserMessage;
+import dev.langchain4j.service.V;
+import io.quarkiverse.langchain4j.RegisterAiService;
+import jakarta.enterprise.context.ApplicationScoped;
+
+/**
+ * Folds old conversation turns into the rolling summary kept by {@link TokenBudgetChatMemory}.
+ */
+@ApplicationScoped
+@RegisterAiService(chatMemoryProviderSupplier = RegisterAiService.NoChatMemoryProviderSupplier.class,
+        retrievalAugmentor = RegisterAiService.NoRetrievalAugmentorSupplier.class)
+public interface ConversationSummarizer
+{
+    @SystemMessage(fromResource = "/system-messages/conversation-summarizer.txt")
+    @UserMessage("""
+            Summary so far:
+            {summary}
+
+            Messages to add:
+            {messages}""")
+    String summarize(@V("summary") String summary, @V("messages") String messages);
+}
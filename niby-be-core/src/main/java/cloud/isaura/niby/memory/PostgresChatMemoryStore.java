@@ -0,0 +1,251 @@
+package cloud.isaura.niby.memory;
+
+import cloud.isaura.niby.shared.cache.LruTtlCache;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageDeserializer;
+import dev.langchain4j.data.message.ChatMessageSerializer;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.inject.Typed;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * {@link ChatMemoryStore} persisting conversations in Postgres, one JSON row per memory id.
+ * <p>
+ * Recently used conversations are served from a bounded LRU/TTL hot tier. Updates are applied to
+ * the hot tier at once and written behind in batches by a background thread, the latest state per
+ * conversation only; pending writes are flushed on shutdown. Conversations idle longer than the
+ * retention are deleted from the table.
+ * <p>
+ * A conversation missing from the hot tier is loaded under the lock its updates take, so an
+ * update cannot land while the older state read from the table is being cached.
+ */
+@ApplicationScoped
+@Typed(PostgresChatMemoryStore.class)
+public class PostgresChatMemoryStore implements ChatMemoryStore
+{
+    private static final Logger LOG = LoggerFactory.getLogger(PostgresChatMemoryStore.class);
+
+    private static final int LOCK_STRIPES = 64;
+
+    @Inject
+    DataSource dataSource;
+
+    @ConfigProperty(name = "niby.chat-memory.table", defaultValue = "niby.chat_memory")
+    String table;
+
+    @ConfigProperty(name = "niby.chat-memory.hot.max-entries", defaultValue = "1000")
+    int hotMaxEntries;
+
+    @ConfigProperty(name = "niby.chat-memory.hot.ttl", defaultValue = "30m")
+    Duration hotTtl;
+
+    @ConfigProperty(name = "niby.chat-memory.flush-interval", defaultValue = "500ms")
+    Duration flushInterval;
+
+    @ConfigProperty(name = "niby.chat-memory.retention", defaultValue = "30d")
+    Duration retention;
+
+    // Message JSON of the langchain4j codec in use, the Quarkus one at runtime
+    Function<List<ChatMessage>, String> toJson = ChatMessageSerializer::messagesToJson;
+    Function<String, List<ChatMessage>> fromJson = ChatMessageDeserializer::messagesFromJson;
+
+    private LruTtlCache<String, List<ChatMessage>> hot;
+
+    // Latest state not yet written, by memory id
+    private final Map<String, PendingWrite> pending = new ConcurrentHashMap<>();
+
+    // Updates and loads of a conversation, striped by memory id
+    private final Object[] locks = IntStream.range(0, LOCK_STRIPES).mapToObj(i -> new Object()).toArray();
+
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "chat-memory-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    void onStart(@Observes StartupEvent event) throws SQLException
+    {
+        hot = new LruTtlCache<>(hotMaxEntries, hotTtl);
+        createTable();
+        long flushMillis = flushInterval.toMillis();
+        writer.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        writer.scheduleWithFixedDelay(this::deleteIdle, 1, 60, TimeUnit.MINUTES);
+    }
+
+    void onStop(@Observes ShutdownEvent event)
+    {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    @Override
+    public List<ChatMessage> getMessages(Object memoryId)
+    {
+        String id = memoryId.toString();
+        PendingWrite write = pending.get(id);
+        List<ChatMessage> messages = write == null ? hot.get(id) : write.messages();
+        if (messages != null) {
+            return messages;
+        }
+        synchronized (lock(id)) {
+            // An update that landed meanwhile is still pending, or already in the table
+            write = pending.get(id);
+            if (write != null) {
+                return write.messages();
+            }
+            messages = load(id);
+            hot.put(id, messages);
+            return messages;
+        }
+    }
+
+    @Override
+    public void updateMessages(Object memoryId, List<ChatMessage> messages)
+    {
+        String id = memoryId.toString();
+        List<ChatMessage> copy = List.copyOf(messages);
+        synchronized (lock(id)) {
+            hot.put(id, copy);
+            pending.put(id, new PendingWrite(copy, false));
+        }
+    }
+
+    @Override
+    public void deleteMessages(Object memoryId)
+    {
+        String id = memoryId.toString();
+        synchronized (lock(id)) {
+            hot.remove(id);
+            pending.put(id, new PendingWrite(List.of(), true));
+        }
+    }
+
+    private Object lock(String id)
+    {
+        return locks[Math.floorMod(id.hashCode(), LOCK_STRIPES)];
+    }
+
+    public int pendingWrites()
+    {
+        return pending.size();
+    }
+
+    public LruTtlCache.Stats hotStats()
+    {
+        return hot.stats();
+    }
+
+    /**
+     * Write every pending update in one batch. An entry is dropped from the queue only if it was not
+     * replaced meanwhile; failed writes stay queued for the next round.
+     */
+    synchronized void flush()
+    {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<String, PendingWrite> batch = new HashMap<>(pending);
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement upsert = connection.prepareStatement(
+                     "INSERT INTO " + table + " (memory_id, messages, updated_at) VALUES (?, ?::jsonb, now()) "
+                             + "ON CONFLICT (memory_id) DO UPDATE SET messages = EXCLUDED.messages, updated_at = now()");
+             PreparedStatement delete = connection.prepareStatement(
+                     "DELETE FROM " + table + " WHERE memory_id = ?")) {
+            for (Map.Entry<String, PendingWrite> entry : batch.entrySet()) {
+                if (entry.getValue().delete()) {
+                    delete.setString(1, entry.getKey());
+                    delete.addBatch();
+                } else {
+                    upsert.setString(1, entry.getKey());
+                    upsert.setString(2, toJson.apply(entry.getValue().messages()));
+                    upsert.addBatch();
+                }
+            }
+            upsert.executeBatch();
+            delete.executeBatch();
+        } catch (SQLException e) {
+            LOG.warn("Writing {} chat memories failed, will retry: {}", batch.size(), e.getMessage());
+            return;
+        }
+        batch.forEach(pending::remove);
+        LOG.debug("Wrote {} chat memories", batch.size());
+    }
+
+    private List<ChatMessage> load(String id)
+    {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT messages::text FROM " + table + " WHERE memory_id = ?")) {
+            statement.setString(1, id);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? List.copyOf(fromJson.apply(rs.getString(1))) : List.of();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to load chat memory " + id, e);
+        }
+    }
+
+    private void deleteIdle()
+    {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "DELETE FROM " + table + " WHERE updated_at < now() - ? * interval '1 second'")) {
+            statement.setLong(1, retention.toSeconds());
+            int deleted = statement.executeUpdate();
+            if (deleted > 0) {
+                LOG.info("Deleted {} chat memories idle for more than {}", deleted, retention);
+            }
+        } catch (SQLException e) {
+            LOG.warn("Deleting idle chat memories failed: {}", e.getMessage());
+        }
+    }
+
+    private void createTable() throws SQLException
+    {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS " + table + " ("
+                    + "memory_id TEXT PRIMARY KEY, "
+                    + "messages JSONB NOT NULL, "
+                    + "updated_at TIMESTAMPTZ NOT NULL)");
+            statement.execute("CREATE INDEX IF NOT EXISTS " + table.substring(table.indexOf('.') + 1)
+                    + "_updated_at_idx ON " + table + " (updated_at)");
+        }
+    }
+
+    /**
+     * State of a conversation waiting to be written: its messages, or a delete.
+     */
+    private record PendingWrite(List<ChatMessage> messages, boolean delete)
+    {
+    }
+}
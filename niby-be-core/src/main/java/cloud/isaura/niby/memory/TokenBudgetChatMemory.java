@@ -0,0 +1,140 @@
+package cloud.isaura.niby.memory;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chat memory bounded by an estimated token budget instead of a message count.
+ * <p>
+ * When a new user message arrives, the documentation the retrieval augmentor injected into earlier
+ * user messages is stripped, as it can be retrieved again. When the stored conversation exceeds the
+ * budget, {@link ChatMemoryCompactor} folds its oldest turns into a rolling summary in the
+ * background; meanwhile the prompt holds the agent prompt, the summary and as many recent messages
+ * as fit the budget, starting on a user message.
+ */
+public class TokenBudgetChatMemory implements ChatMemory
+{
+    private final Object id;
+    private final ChatMemoryStore store;
+    private final int budget;
+    private final TokenEstimator estimator;
+    private final ChatMemoryCompactor compactor;
+
+    public TokenBudgetChatMemory(Object id, ChatMemoryStore store, int budget,
+                                 TokenEstimator estimator, ChatMemoryCompactor compactor)
+    {
+        this.id = id;
+        this.store = store;
+        this.budget = budget;
+        this.estimator = estimator;
+        this.compactor = compactor;
+    }
+
+    /**
+     * Stored messages split into the agent prompt, the rolling summary and the conversation.
+     * <p>
+     * The summary directly follows the prompt: Anthropic prompt caching marks the last system message,
+     * so the prompt and the summary form one cached prefix that stays valid until the next compaction.
+     */
+    record Layout(SystemMessage prompt, SystemMessage summary, List<ChatMessage> conversation)
+    {
+        static Layout of(List<ChatMessage> messages)
+        {
+            SystemMessage prompt = null;
+            SystemMessage summary = null;
+            List<ChatMessage> conversation = new ArrayList<>(messages.size());
+            for (ChatMessage message : messages) {
+                if (ChatMessages.isSummary(message)) {
+                    summary = (SystemMessage) message;
+                } else if (message instanceof SystemMessage system) {
+                    prompt = system;
+                } else {
+                    conversation.add(message);
+                }
+            }
+            return new Layout(prompt, summary, conversation);
+        }
+
+        List<ChatMessage> toMessages(List<ChatMessage> conversation)
+        {
+            List<ChatMessage> messages = new ArrayList<>(conversation.size() + 2);
+            if (prompt != null) {
+                messages.add(prompt);
+            }
+            if (summary != null) {
+                messages.add(summary);
+            }
+            messages.addAll(conversation);
+            return messages;
+        }
+    }
+
+    @Override
+    public Object id()
+    {
+        return id;
+    }
+
+    @Override
+    public void add(ChatMessage message)
+    {
+        synchronized (compactor.lock(id)) {
+            Layout layout = Layout.of(store.getMessages(id));
+            List<ChatMessage> conversation = layout.conversation();
+            if (message instanceof SystemMessage system) {
+                if (system.equals(layout.prompt())) {
+                    return;
+                }
+                layout = new Layout(system, layout.summary(), conversation);
+            } else {
+                if (message instanceof UserMessage) {
+                    conversation.replaceAll(ChatMessages::stripRetrievedContent);
+                }
+                conversation.add(message);
+            }
+            store.updateMessages(id, layout.toMessages(conversation));
+
+            if (estimator.count(conversation) > budget) {
+                compactor.schedule(id, store, budget);
+            }
+        }
+    }
+
+    @Override
+    public List<ChatMessage> messages()
+    {
+        Layout layout = Layout.of(store.getMessages(id));
+        List<ChatMessage> conversation = layout.conversation();
+        int remaining = budget - estimator.count(layout.toMessages(List.of()));
+
+        // Newest messages first, always keeping the last one
+        int start = conversation.size();
+        while (start > 0) {
+            int tokens = estimator.count(conversation.get(start - 1));
+            if (tokens > remaining && start < conversation.size()) {
+                break;
+            }
+            remaining -= tokens;
+            start--;
+        }
+        // Start on a user message, so tool results keep the request they answer
+        while (start < conversation.size() - 1 && !(conversation.get(start) instanceof UserMessage)) {
+            start++;
+        }
+        return layout.toMessages(conversation.subList(start, conversation.size()));
+    }
+
+    @Override
+    public void clear()
+    {
+        synchronized (compactor.lock(id)) {
+            store.deleteMessages(id);
+        }
+    }
+}
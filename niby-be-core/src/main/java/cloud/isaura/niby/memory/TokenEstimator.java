@@ -0,0 +1,60 @@
+package cloud.isaura.niby.memory;
+
+import cloud.isaura.niby.shared.cache.LruTtlCache;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.TokenCountEstimator;
+import dev.langchain4j.model.embedding.onnx.HuggingFaceTokenCountEstimator;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+
+/**
+ * Token counts of chat messages for the memory budget.
+ * <p>
+ * Counts come from the WordPiece tokenizer bundled with the embedding model, scaled by
+ * {@code niby.chat-memory.token-factor} to approximate the chat model's tokenizer, which is not
+ * available offline. Counts are cached by message text, since the same history is measured on every turn.
+ */
+@ApplicationScoped
+public class TokenEstimator
+{
+    // Role and framing overhead per message
+    private static final int MESSAGE_OVERHEAD = 4;
+
+    @ConfigProperty(name = "niby.chat-memory.token-factor", defaultValue = "1.2")
+    double factor;
+
+    private final LruTtlCache<String, Integer> counts = new LruTtlCache<>(10_000, Duration.ofHours(1));
+    private volatile TokenCountEstimator tokenizer;
+
+    public int count(ChatMessage message)
+    {
+        String text = ChatMessages.text(message);
+        return MESSAGE_OVERHEAD + counts.computeIfAbsent(text,
+                key -> (int) Math.ceil(tokenizer().estimateTokenCountInText(key) * factor));
+    }
+
+    public int count(Iterable<ChatMessage> messages)
+    {
+        int total = 0;
+        for (ChatMessage message : messages) {
+            total += count(message);
+        }
+        return total;
+    }
+
+    private TokenCountEstimator tokenizer()
+    {
+        TokenCountEstimator current = tokenizer;
+        if (current == null) {
+            synchronized (this) {
+                if (tokenizer == null) {
+                    tokenizer = new HuggingFaceTokenCountEstimator();
+                }
+                current = tokenizer;
+            }
+        }
+        return current;
+    }
+}
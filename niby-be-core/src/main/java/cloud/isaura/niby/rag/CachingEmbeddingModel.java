@@ -0,0 +1,132 @@
+package cloud.isaura.niby.rag;
+
+import cloud.isaura.niby.shared.cache.LruTtlCache;
+import cloud.isaura.niby.telemetry.ChatTelemetry;
+import cloud.isaura.niby.shared.embedding.EmbeddingEngine;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Typed;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Query-side {@link EmbeddingModel} that caches embeddings by normalized text, so repeated
+ * questions skip ONNX inference on the request path.
+ * <p>
+ * Keys are lower-cased with collapsed whitespace. AllMiniLmL6V2 uses an uncased tokenizer
+ * that also ignores whitespace runs, so normalized variants have the exact same embedding.
+ * Vectors are kept as plain {@code float[]} and copied on the way out.
+ * Misses go through the query lane of the shared {@link EmbeddingEngine}.
+ * <p>
+ * Typed to its own class so that it does not compete with the shared {@link EmbeddingModel} bean.
+ */
+@ApplicationScoped
+@Typed(CachingEmbeddingModel.class)
+public class CachingEmbeddingModel implements EmbeddingModel
+{
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    @Inject
+    EmbeddingEngine delegate;
+
+    @Inject
+    ChatTelemetry telemetry;
+
+    @ConfigProperty(name = "rag.embedding-cache.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "rag.embedding-cache.max-entries", defaultValue = "5000")
+    int maxEntries;
+
+    @ConfigProperty(name = "rag.embedding-cache.ttl", defaultValue = "1h")
+    Duration ttl;
+
+    private LruTtlCache<String, float[]> cache;
+
+    @PostConstruct
+    void init()
+    {
+        cache = new LruTtlCache<>(maxEntries, ttl);
+    }
+
+    @Override
+    public Response<Embedding> embed(String text)
+    {
+        return embed(TextSegment.from(text));
+    }
+
+    @Override
+    public Response<Embedding> embed(TextSegment textSegment)
+    {
+        return telemetry.stage("query-embedding", () -> {
+            if (!enabled) {
+                return delegate.embed(textSegment);
+            }
+            float[] vector = cache.computeIfAbsent(normalize(textSegment.text()),
+                    key -> delegate.embed(textSegment).content().vector());
+            return Response.from(Embedding.from(vector.clone()));
+        });
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments)
+    {
+        if (!enabled) {
+            return delegate.embedAll(textSegments, EmbeddingEngine.Lane.QUERY);
+        }
+
+        Embedding[] embeddings = new Embedding[textSegments.size()];
+        List<TextSegment> missing = new ArrayList<>();
+        List<Integer> missingIndexes = new ArrayList<>();
+        for (int i = 0; i < textSegments.size(); i++) {
+            float[] vector = cache.get(normalize(textSegments.get(i).text()));
+            if (vector != null) {
+                embeddings[i] = Embedding.from(vector.clone());
+            } else {
+                missing.add(textSegments.get(i));
+                missingIndexes.add(i);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            List<Embedding> computed = delegate.embedAll(missing, EmbeddingEngine.Lane.QUERY).content();
+            for (int i = 0; i < computed.size(); i++) {
+                float[] vector = computed.get(i).vector();
+                cache.put(normalize(missing.get(i).text()), vector.clone());
+                embeddings[missingIndexes.get(i)] = computed.get(i);
+            }
+        }
+        return Response.from(List.of(embeddings));
+    }
+
+    @Override
+    public int dimension()
+    {
+        return delegate.dimension();
+    }
+
+    public LruTtlCache.Stats stats()
+    {
+        return cache.stats();
+    }
+
+    public void invalidateAll()
+    {
+        cache.invalidateAll();
+    }
+
+    static String normalize(String text)
+    {
+        return WHITESPACE.matcher(text.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,140 @@
+package cloud.isaura.niby.rag;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Listens on the Postgres channel niby-rag notifies after ingestion and fires {@link CorpusChanged}.
+ * <p>
+ * Holds one dedicated connection on a daemon thread, opened with {@link DriverManager} outside the
+ * Agroal pool so that it takes no pool slot and is not reported as leaked. After a connection loss
+ * it reconnects with backoff and fires an event anyway, since notifications sent in between are
+ * lost. The connection is closed on shutdown.
+ */
+@ApplicationScoped
+public class CorpusChangeListener
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CorpusChangeListener.class);
+
+    private static final int POLL_TIMEOUT_MILLIS = 5000;
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+
+    @ConfigProperty(name = "quarkus.datasource.jdbc.url")
+    String jdbcUrl;
+
+    @ConfigProperty(name = "quarkus.datasource.username")
+    String username;
+
+    @ConfigProperty(name = "quarkus.datasource.password")
+    String password;
+
+    @Inject
+    Event<CorpusChanged> corpusChanged;
+
+    @ConfigProperty(name = "niby.corpus.notify-channel", defaultValue = "niby_corpus_changed")
+    String channel;
+
+    @ConfigProperty(name = "niby.corpus.listen", defaultValue = "true")
+    boolean enabled;
+
+    private volatile boolean running;
+    private volatile Connection listenConnection;
+    private Thread thread;
+
+    void onStart(@Observes StartupEvent event)
+    {
+        if (!enabled) {
+            LOG.info("Corpus change listener disabled, retrieval cache relies on its TTL only");
+            return;
+        }
+        running = true;
+        thread = new Thread(this::listen, "corpus-change-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void onStop(@Observes ShutdownEvent event)
+    {
+        close();
+    }
+
+    @PreDestroy
+    void close()
+    {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        Connection current = listenConnection;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (SQLException e) {
+                LOG.debug("Error closing the corpus change listener connection", e);
+            }
+        }
+    }
+
+    private void listen()
+    {
+        long backoffMillis = 1000;
+        boolean connectedBefore = false;
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(jdbcUrl, username, password)) {
+                listenConnection = connection;
+                if (!running) {
+                    // Closed while connecting
+                    return;
+                }
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + channel);
+                }
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                LOG.info("Listening for corpus changes on channel {}", channel);
+                if (connectedBefore) {
+                    corpusChanged.fire(new CorpusChanged("reconnected"));
+                }
+                connectedBefore = true;
+                backoffMillis = 1000;
+
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MILLIS);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        LOG.info("Corpus changed: {}", notification.getParameter());
+                        corpusChanged.fire(new CorpusChanged(notification.getParameter()));
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                listenConnection = null;
+                if (!running) {
+                    return;
+                }
+                LOG.warn("Corpus change listener lost its connection, retrying in {} ms", backoffMillis, e);
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package cloud.isaura.niby.rag;
+
+/**
+ * CDI event fired when the ingested corpus may have changed.
+ *
+ * @param reason notification payload sent by niby-rag, or {@code reconnected} when
+ *               notifications may have been missed while the listener was disconnected
+ */
+public record CorpusChanged(String reason)
+{
+}
@@ -0,0 +1,122 @@
+package cloud.isaura.niby.rag;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Postgres full-text search over the segment texts of the embedding table, served by the GIN
+ * expression index niby-rag creates on {@code to_tsvector(config, text)}.
+ * <p>
+ * Query terms are OR-ed and ranked by cover density, so a segment containing the exact processor
+ * or property names of a question ranks first even when the rest of the question does not match.
+ */
+@ApplicationScoped
+public class FullTextSearch
+{
+    @Inject
+    DataSource dataSource;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @ConfigProperty(name = "quarkus.langchain4j.pgvector.table", defaultValue = "niby.nifi_doc_embeddings")
+    String table;
+
+    // Must match the configuration of the index created by niby-rag
+    @ConfigProperty(name = "rag.full-text.config", defaultValue = "english")
+    String textSearchConfig;
+
+    @ConfigProperty(name = "rag.full-text.threads", defaultValue = "4")
+    int threads;
+
+    private volatile ExecutorService executor;
+
+    /**
+     * @return matching segments, best first, with their rank as {@link ContentMetadata#SCORE}
+     */
+    public List<Content> search(String query, int maxResults) throws SQLException
+    {
+        String tsQuery = "replace(plainto_tsquery(?::regconfig, ?)::text, '&', '|')::tsquery";
+        String document = "to_tsvector('" + textSearchConfig.replace("'", "") + "'::regconfig, text)";
+        List<Content> contents = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT embedding_id, text, metadata::text, ts_rank_cd(" + document + ", q) AS rank "
+                             + "FROM " + table + ", " + tsQuery + " q "
+                             + "WHERE q IS NOT NULL AND " + document + " @@ q "
+                             + "ORDER BY rank DESC LIMIT ?")) {
+            statement.setString(1, textSearchConfig);
+            statement.setString(2, query);
+            statement.setInt(3, maxResults);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    TextSegment segment = TextSegment.from(rs.getString(2),
+                            SegmentMetadata.fromJson(objectMapper, rs.getString(3)));
+                    contents.add(Content.from(segment, Map.of(
+                            ContentMetadata.EMBEDDING_ID, rs.getString(1),
+                            ContentMetadata.SCORE, rs.getDouble(4))));
+                }
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * Run {@link #search(String, int)} on the full-text thread pool.
+     */
+    public CompletableFuture<List<Content>> searchAsync(String query, int maxResults)
+    {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return search(query, maxResults);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, executor());
+    }
+
+    private ExecutorService executor()
+    {
+        if (executor == null) {
+            synchronized (this) {
+                if (executor == null) {
+                    AtomicInteger count = new AtomicInteger();
+                    executor = Executors.newFixedThreadPool(threads, runnable -> {
+                        Thread thread = new Thread(runnable, "full-text-search-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return executor;
+    }
+
+    @PreDestroy
+    void shutdown()
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package cloud.isaura.niby.rag;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.inject.Typed;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Read-only {@link EmbeddingStore} answering searches from an in-memory HNSW graph built from the
+ * pgvector embedding table, which stays the source of truth.
+ * <p>
+ * The graph is loaded at startup and rebuilt in the background on every {@link CorpusChanged}
+ * event; searches keep using the previous graph until the new one is swapped in. Until the first
+ * build completes, and for searches with a metadata filter, it answers from pgvector.
+ * <p>
+ * Writes go through niby-rag, so the add and remove operations are not supported.
+ */
+@ApplicationScoped
+@Typed(HnswEmbeddingStore.class)
+public class HnswEmbeddingStore implements EmbeddingStore<TextSegment>
+{
+    private static final Logger LOG = LoggerFactory.getLogger(HnswEmbeddingStore.class);
+
+    /**
+     * An immutable built graph with the id and segment of each node.
+     */
+    record Snapshot(HnswIndex index, String[] ids, TextSegment[] segments, long buildMillis)
+    {
+    }
+
+    @Inject
+    DataSource dataSource;
+
+    @Inject
+    EmbeddingStore<TextSegment> pgVectorStore;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @ConfigProperty(name = "rag.store.type", defaultValue = "pgvector")
+    String storeType;
+
+    @ConfigProperty(name = "quarkus.langchain4j.pgvector.table", defaultValue = "niby.nifi_doc_embeddings")
+    String table;
+
+    @ConfigProperty(name = "quarkus.langchain4j.pgvector.dimension", defaultValue = "384")
+    int dimension;
+
+    @ConfigProperty(name = "rag.hnsw.m", defaultValue = "16")
+    int m;
+
+    @ConfigProperty(name = "rag.hnsw.ef-construction", defaultValue = "100")
+    int efConstruction;
+
+    @ConfigProperty(name = "rag.hnsw.ef-search", defaultValue = "64")
+    int efSearch;
+
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "hnsw-builder");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean rebuildPending = new AtomicBoolean();
+    private volatile Snapshot snapshot;
+
+    void onStart(@Observes StartupEvent event)
+    {
+        if (isEnabled()) {
+            scheduleRebuild("startup");
+        }
+    }
+
+    void onStop(@Observes ShutdownEvent event)
+    {
+        builder.shutdownNow();
+    }
+
+    void onCorpusChanged(@Observes CorpusChanged event)
+    {
+        if (isEnabled()) {
+            scheduleRebuild(event.reason());
+        }
+    }
+
+    public boolean isEnabled()
+    {
+        return "hnsw".equalsIgnoreCase(storeType);
+    }
+
+    /**
+     * @return whether a graph has been built and searches are served from memory
+     */
+    public boolean isReady()
+    {
+        return snapshot != null;
+    }
+
+    public int size()
+    {
+        Snapshot current = snapshot;
+        return current == null ? 0 : current.index().size();
+    }
+
+    public long lastBuildMillis()
+    {
+        Snapshot current = snapshot;
+        return current == null ? -1 : current.buildMillis();
+    }
+
+    public int efSearch()
+    {
+        return efSearch;
+    }
+
+    /**
+     * Rebuild the graph in the background. Requests arriving while a rebuild is queued are merged into it.
+     */
+    public void scheduleRebuild(String reason)
+    {
+        if (!rebuildPending.compareAndSet(false, true)) {
+            return;
+        }
+        builder.submit(() -> {
+            rebuildPending.set(false);
+            try {
+                snapshot = load();
+                LOG.info("HNSW index rebuilt ({}): {} segments in {} ms",
+                        reason, snapshot.index().size(), snapshot.buildMillis());
+            } catch (Exception e) {
+                LOG.error("HNSW index rebuild failed ({}), keeping the previous index", reason, e);
+            }
+        });
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request)
+    {
+        Snapshot current = snapshot;
+        if (current == null || request.filter() != null) {
+            return pgVectorStore.search(request);
+        }
+        List<HnswIndex.Candidate> candidates = current.index().search(
+                request.queryEmbedding().vector(), request.maxResults(), efSearch);
+        return toResult(current, candidates, request.minScore());
+    }
+
+    /**
+     * Exact search over the same snapshot, used as ground truth when evaluating recall.
+     */
+    EmbeddingSearchResult<TextSegment> exactSearch(EmbeddingSearchRequest request)
+    {
+        Snapshot current = requireSnapshot();
+        return toResult(current, current.index().exactSearch(
+                request.queryEmbedding().vector(), request.maxResults()), request.minScore());
+    }
+
+    Snapshot requireSnapshot()
+    {
+        Snapshot current = snapshot;
+        if (current == null) {
+            throw new IllegalStateException("HNSW index is not built yet");
+        }
+        return current;
+    }
+
+    private static EmbeddingSearchResult<TextSegment> toResult(Snapshot current,
+                                                               List<HnswIndex.Candidate> candidates,
+                                                               double minScore)
+    {
+        List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(candidates.size());
+        for (HnswIndex.Candidate candidate : candidates) {
+            double score = RelevanceScore.fromCosineSimilarity(1 - candidate.distance());
+            if (score >= minScore) {
+                int node = candidate.node();
+                matches.add(new EmbeddingMatch<>(score, current.ids()[node],
+                        Embedding.from(current.index().vector(node)), current.segments()[node]));
+            }
+        }
+        return new EmbeddingSearchResult<>(matches);
+    }
+
+    private Snapshot load() throws SQLException
+    {
+        long start = System.currentTimeMillis();
+        HnswIndex index = new HnswIndex(dimension, m, efConstruction, countRows());
+        List<String> ids = new ArrayList<>();
+        List<TextSegment> segments = new ArrayList<>();
+
+        try (Connection connection = dataSource.getConnection()) {
+            // Stream rows with a server-side cursor instead of materializing the table
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT embedding_id, embedding::text, text, metadata::text FROM " + table)) {
+                statement.setFetchSize(1000);
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        index.add(parseVector(rs.getString(2), dimension));
+                        ids.add(rs.getString(1));
+                        String text = rs.getString(3);
+                        segments.add(text == null ? null
+                                : TextSegment.from(text, SegmentMetadata.fromJson(objectMapper, rs.getString(4))));
+                    }
+                }
+            } finally {
+                connection.commit();
+            }
+        }
+        return new Snapshot(index, ids.toArray(String[]::new), segments.toArray(TextSegment[]::new),
+                System.currentTimeMillis() - start);
+    }
+
+    private int countRows() throws SQLException
+    {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT count(*) FROM " + table);
+             ResultSet rs = statement.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    /**
+     * Parse the pgvector text form {@code [0.1,0.2,...]}.
+     */
+    static float[] parseVector(String text, int dimension)
+    {
+        float[] vector = new float[dimension];
+        int position = 0;
+        int start = 1;
+        for (int i = 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == ',' || c == ']') {
+                vector[position++] = Float.parseFloat(text.substring(start, i));
+                start = i + 1;
+            }
+        }
+        if (position != dimension) {
+            throw new IllegalStateException("Expected dimension " + dimension + " but got " + position);
+        }
+        return vector;
+    }
+
+    @Override
+    public String add(Embedding embedding)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void add(String id, Embedding embedding)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings)
+    {
+        throw readOnly();
+    }
+
+    private static UnsupportedOperationException readOnly()
+    {
+        return new UnsupportedOperationException("The HNSW store is a read-only replica, ingest through niby-rag");
+    }
+}
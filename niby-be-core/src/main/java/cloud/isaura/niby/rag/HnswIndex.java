@@ -0,0 +1,343 @@
+package cloud.isaura.niby.rag;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+/**
+ * Hierarchical navigable small world graph over cosine similarity (Malkov and Yashunin).
+ * <p>
+ * Vectors are normalized and kept in a single flat {@code float[]}, neighbor lists in
+ * {@code int[]} arrays whose first element is the neighbor count, so a search touches
+ * primitive arrays only. Nodes are addressed by insertion order.
+ * <p>
+ * Insertion is single-threaded; once built the index can be searched concurrently.
+ */
+final class HnswIndex
+{
+    /**
+     * A node and its cosine distance ({@code 1 - cosine similarity}) to the query.
+     */
+    record Candidate(int node, float distance)
+    {
+    }
+
+    private static final Comparator<Candidate> NEAREST_FIRST = Comparator.comparingDouble(Candidate::distance);
+    private static final Comparator<Candidate> FARTHEST_FIRST = NEAREST_FIRST.reversed();
+
+    private final int dimension;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    private float[] vectors;
+    private int[][][] neighbors;
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    HnswIndex(int dimension, int m, int efConstruction, int expectedSize)
+    {
+        if (m < 2) {
+            throw new IllegalArgumentException("m must be at least 2: " + m);
+        }
+        this.dimension = dimension;
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levelMultiplier = 1 / Math.log(m);
+        int capacity = Math.max(expectedSize, 16);
+        this.vectors = new float[capacity * dimension];
+        this.neighbors = new int[capacity][][];
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    int dimension()
+    {
+        return dimension;
+    }
+
+    /**
+     * @return a copy of the normalized vector of a node
+     */
+    float[] vector(int node)
+    {
+        float[] copy = new float[dimension];
+        System.arraycopy(vectors, node * dimension, copy, 0, dimension);
+        return copy;
+    }
+
+    /**
+     * Add a vector, returning its node number.
+     */
+    int add(float[] vector)
+    {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("Expected dimension " + dimension + " but got " + vector.length);
+        }
+        ensureCapacity(size + 1);
+        int node = size;
+        normalizeInto(vector, vectors, node * dimension);
+
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        neighbors[node] = new int[level + 1][];
+        for (int lc = 0; lc <= level; lc++) {
+            neighbors[node][lc] = new int[maxNeighbors(lc) + 1];
+        }
+        size++;
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return node;
+        }
+
+        float[] query = vector(node);
+        int current = entryPoint;
+        for (int lc = maxLevel; lc > level; lc--) {
+            current = greedyClosest(query, current, lc);
+        }
+        for (int lc = Math.min(level, maxLevel); lc >= 0; lc--) {
+            List<Candidate> found = searchLayer(query, current, efConstruction, lc);
+            List<Candidate> selected = selectNeighbors(found, m);
+            for (Candidate neighbor : selected) {
+                append(node, lc, neighbor.node());
+                connect(neighbor.node(), node, lc);
+            }
+            current = found.get(0).node();
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+        return node;
+    }
+
+    /**
+     * Approximate nearest neighbors of a query, nearest first.
+     *
+     * @param ef size of the dynamic candidate list, at least {@code k}; higher is slower and more accurate
+     */
+    List<Candidate> search(float[] query, int k, int ef)
+    {
+        if (size == 0) {
+            return List.of();
+        }
+        float[] normalized = new float[dimension];
+        normalizeInto(query, normalized, 0);
+        int current = entryPoint;
+        for (int lc = maxLevel; lc > 0; lc--) {
+            current = greedyClosest(normalized, current, lc);
+        }
+        List<Candidate> found = searchLayer(normalized, current, Math.max(ef, k), 0);
+        return found.size() > k ? found.subList(0, k) : found;
+    }
+
+    /**
+     * Exact nearest neighbors by scanning every vector, nearest first.
+     */
+    List<Candidate> exactSearch(float[] query, int k)
+    {
+        float[] normalized = new float[dimension];
+        normalizeInto(query, normalized, 0);
+        PriorityQueue<Candidate> results = new PriorityQueue<>(FARTHEST_FIRST);
+        for (int node = 0; node < size; node++) {
+            float distance = distance(normalized, node);
+            if (results.size() < k) {
+                results.add(new Candidate(node, distance));
+            } else if (distance < results.peek().distance()) {
+                results.poll();
+                results.add(new Candidate(node, distance));
+            }
+        }
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(NEAREST_FIRST);
+        return sorted;
+    }
+
+    private int greedyClosest(float[] query, int start, int level)
+    {
+        int current = start;
+        float currentDistance = distance(query, current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] links = neighbors[current][level];
+            for (int i = 1; i <= links[0]; i++) {
+                float distance = distance(query, links[i]);
+                if (distance < currentDistance) {
+                    current = links[i];
+                    currentDistance = distance;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best-first search of one layer from an entry node, returning up to {@code ef} nodes nearest first.
+     */
+    private List<Candidate> searchLayer(float[] query, int entry, int ef, int level)
+    {
+        BitSet visited = new BitSet(size);
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(NEAREST_FIRST);
+        PriorityQueue<Candidate> results = new PriorityQueue<>(FARTHEST_FIRST);
+
+        Candidate start = new Candidate(entry, distance(query, entry));
+        visited.set(entry);
+        candidates.add(start);
+        results.add(start);
+
+        while (!candidates.isEmpty()) {
+            Candidate closest = candidates.poll();
+            if (closest.distance() > results.peek().distance() && results.size() >= ef) {
+                break;
+            }
+            int[] links = neighbors[closest.node()][level];
+            for (int i = 1; i <= links[0]; i++) {
+                int neighbor = links[i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float distance = distance(query, neighbor);
+                if (results.size() < ef || distance < results.peek().distance()) {
+                    Candidate candidate = new Candidate(neighbor, distance);
+                    candidates.add(candidate);
+                    results.add(candidate);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(NEAREST_FIRST);
+        return sorted;
+    }
+
+    /**
+     * Neighbor selection heuristic: keep a candidate only if it is closer to the base node than
+     * to every neighbor already kept, then fill up with the nearest pruned ones. This keeps links
+     * spread over different directions, which matters for clustered data like document chunks.
+     *
+     * @param candidates sorted nearest first
+     */
+    private List<Candidate> selectNeighbors(List<Candidate> candidates, int max)
+    {
+        List<Candidate> selected = new ArrayList<>(max);
+        List<Candidate> pruned = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (selected.size() >= max) {
+                break;
+            }
+            boolean diverse = true;
+            for (Candidate kept : selected) {
+                if (distanceBetween(candidate.node(), kept.node()) < candidate.distance()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate);
+            } else {
+                pruned.add(candidate);
+            }
+        }
+        for (int i = 0; i < pruned.size() && selected.size() < max; i++) {
+            selected.add(pruned.get(i));
+        }
+        return selected;
+    }
+
+    /**
+     * Link {@code from} to {@code to}, pruning the neighbor list of {@code from} when it is full.
+     */
+    private void connect(int from, int to, int level)
+    {
+        int[] links = neighbors[from][level];
+        if (links[0] < links.length - 1) {
+            links[++links[0]] = to;
+            return;
+        }
+        List<Candidate> candidates = new ArrayList<>(links[0] + 1);
+        candidates.add(new Candidate(to, distanceBetween(from, to)));
+        for (int i = 1; i <= links[0]; i++) {
+            candidates.add(new Candidate(links[i], distanceBetween(from, links[i])));
+        }
+        candidates.sort(NEAREST_FIRST);
+        List<Candidate> selected = selectNeighbors(candidates, maxNeighbors(level));
+        links[0] = selected.size();
+        for (int i = 0; i < selected.size(); i++) {
+            links[i + 1] = selected.get(i).node();
+        }
+    }
+
+    private void append(int node, int level, int neighbor)
+    {
+        int[] links = neighbors[node][level];
+        links[++links[0]] = neighbor;
+    }
+
+    private int maxNeighbors(int level)
+    {
+        return level == 0 ? maxM0 : m;
+    }
+
+    private float distance(float[] query, int node)
+    {
+        int offset = node * dimension;
+        float dot = 0;
+        for (int i = 0; i < dimension; i++) {
+            dot += query[i] * vectors[offset + i];
+        }
+        return 1 - dot;
+    }
+
+    private float distanceBetween(int a, int b)
+    {
+        int offsetA = a * dimension;
+        int offsetB = b * dimension;
+        float dot = 0;
+        for (int i = 0; i < dimension; i++) {
+            dot += vectors[offsetA + i] * vectors[offsetB + i];
+        }
+        return 1 - dot;
+    }
+
+    private void ensureCapacity(int required)
+    {
+        if (required <= neighbors.length) {
+            return;
+        }
+        int capacity = Math.max(required, neighbors.length + (neighbors.length >> 1));
+        float[] grownVectors = new float[capacity * dimension];
+        System.arraycopy(vectors, 0, grownVectors, 0, size * dimension);
+        vectors = grownVectors;
+        int[][][] grownNeighbors = new int[capacity][][];
+        System.arraycopy(neighbors, 0, grownNeighbors, 0, size);
+        neighbors = grownNeighbors;
+    }
+
+    private static void normalizeInto(float[] vector, float[] target, int offset)
+    {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        float scale = norm > 0 ? (float) (1 / Math.sqrt(norm)) : 0;
+        for (int i = 0; i < vector.length; i++) {
+            target[offset + i] = vector[i] * scale;
+        }
+    }
+}
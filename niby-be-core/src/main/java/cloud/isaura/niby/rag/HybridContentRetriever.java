@@ -0,0 +1,100 @@
+package cloud.isaura.niby.rag;
+
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Runs the vector retriever and a full-text search in parallel and merges the two rankings with
+ * reciprocal rank fusion: each segment scores {@code sum(1 / (k + rank))} over the lists it appears in.
+ * <p>
+ * Lexical matches catch exact identifiers (processor class names, property keys) that MiniLM
+ * embeddings rank poorly, so fewer segments are needed for the same precision. If the full-text
+ * query fails, the vector results are used alone.
+ */
+public class HybridContentRetriever implements ContentRetriever
+{
+    private static final Logger LOG = LoggerFactory.getLogger(HybridContentRetriever.class);
+
+    private final ContentRetriever vectorRetriever;
+    private final FullTextSearch fullTextSearch;
+    private final int candidates;
+    private final int maxResults;
+    private final int rrfK;
+
+    /**
+     * @param vectorRetriever returns up to {@code candidates} results
+     * @param candidates      results taken from each ranking before fusion
+     * @param maxResults      results returned after fusion
+     * @param rrfK            rank offset damping the weight of the top ranks, 60 in the original paper
+     */
+    public HybridContentRetriever(ContentRetriever vectorRetriever, FullTextSearch fullTextSearch,
+                                  int candidates, int maxResults, int rrfK)
+    {
+        this.vectorRetriever = vectorRetriever;
+        this.fullTextSearch = fullTextSearch;
+        this.candidates = candidates;
+        this.maxResults = maxResults;
+        this.rrfK = rrfK;
+    }
+
+    @Override
+    public List<Content> retrieve(Query query)
+    {
+        CompletableFuture<List<Content>> lexical = fullTextSearch.searchAsync(query.text(), candidates);
+        List<Content> vector = vectorRetriever.retrieve(query);
+        List<Content> fullText;
+        try {
+            fullText = lexical.join();
+        } catch (RuntimeException e) {
+            LOG.warn("Full-text search failed, using vector results only", e);
+            fullText = List.of();
+        }
+        LOG.debug("Hybrid retrieval: {} vector and {} full-text candidates", vector.size(), fullText.size());
+        return fuse(List.of(vector, fullText), rrfK, maxResults);
+    }
+
+    /**
+     * Reciprocal rank fusion of rankings, keyed by embedding id (or text when a result has no id).
+     */
+    static List<Content> fuse(List<List<Content>> rankings, int rrfK, int maxResults)
+    {
+        Map<String, Double> scores = new HashMap<>();
+        Map<String, Content> contents = new LinkedHashMap<>();
+        for (List<Content> ranking : rankings) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                Content content = ranking.get(rank);
+                String key = key(content);
+                scores.merge(key, 1.0 / (rrfK + rank + 1), Double::sum);
+                contents.putIfAbsent(key, content);
+            }
+        }
+
+        List<String> keys = new ArrayList<>(contents.keySet());
+        keys.sort((a, b) -> Double.compare(scores.get(b), scores.get(a)));
+        List<Content> fused = new ArrayList<>(Math.min(maxResults, keys.size()));
+        for (String key : keys.subList(0, Math.min(maxResults, keys.size()))) {
+            Content content = contents.get(key);
+            Map<ContentMetadata, Object> metadata = new HashMap<>(content.metadata());
+            metadata.put(ContentMetadata.SCORE, scores.get(key));
+            fused.add(Content.from(content.textSegment(), metadata));
+        }
+        return fused;
+    }
+
+    private static String key(Content content)
+    {
+        Object id = content.metadata().get(ContentMetadata.EMBEDDING_ID);
+        return id != null ? "id:" + id : "text:" + content.textSegment().text();
+    }
+}
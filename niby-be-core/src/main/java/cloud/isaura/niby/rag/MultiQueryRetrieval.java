@@ -0,0 +1,295 @@
+package cloud.isaura.niby.rag;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import io.opentelemetry.context.Context;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Retrieval of a conversation turn through several search queries, fused with reciprocal rank fusion.
+ * <p>
+ * Besides the question itself, a follow-up question is searched together with the previous
+ * question of the conversation, so that "and the other one?" still finds its subject. With
+ * {@code rag.multi-query.rewrites} above zero, the chat model ({@link QueryRewriter}) instead
+ * writes that many standalone rephrasings from the recent conversation.
+ * <p>
+ * The queries are embedded and searched concurrently on a bounded pool, each through the wrapped
+ * (cached) retriever. After {@code rag.multi-query.budget} the rankings that are complete are fused
+ * and the remaining searches are cancelled. The question's own search is never dropped: if it is
+ * still queued at the deadline it runs in the calling thread, and if it is running it is waited
+ * for, so a slow store degrades to single-query retrieval rather than to no context. The pool
+ * queue holds {@code queue-capacity} tasks; when it is full, further sub-queries are skipped and a
+ * turn whose own search cannot be queued is retrieved directly. A question without history and
+ * without rewrites is searched directly in the calling thread.
+ */
+@ApplicationScoped
+public class MultiQueryRetrieval
+{
+    private static final Logger LOG = LoggerFactory.getLogger(MultiQueryRetrieval.class);
+
+    // Length of an earlier answer kept in the history given to the rewriter
+    private static final int ANSWER_CHARS = 500;
+
+    @ConfigProperty(name = "rag.multi-query.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "rag.multi-query.rewrites", defaultValue = "0")
+    int rewrites;
+
+    @ConfigProperty(name = "rag.multi-query.history-messages", defaultValue = "4")
+    int historyMessages;
+
+    @ConfigProperty(name = "rag.multi-query.budget", defaultValue = "800ms")
+    Duration budget;
+
+    @ConfigProperty(name = "rag.multi-query.threads", defaultValue = "4")
+    int threads;
+
+    @ConfigProperty(name = "rag.multi-query.queue-capacity", defaultValue = "16")
+    int queueCapacity;
+
+    @Inject
+    QueryRewriter queryRewriter;
+
+    private volatile ExecutorService executor;
+
+    /**
+     * @param retriever  retrieves one query
+     * @param maxResults results returned after fusion
+     * @param rrfK       rank offset of the fusion, see {@link HybridContentRetriever}
+     */
+    public ContentRetriever wrap(ContentRetriever retriever, int maxResults, int rrfK)
+    {
+        if (!enabled) {
+            return retriever;
+        }
+        return query -> retrieve(query, retriever, maxResults, rrfK);
+    }
+
+    private List<Content> retrieve(Query query, ContentRetriever retriever, int maxResults, int rrfK)
+    {
+        List<ChatMessage> history = history(query);
+        String previousQuestion = previousQuestion(history, query.text());
+        if (rewrites <= 0 && previousQuestion == null) {
+            return retriever.retrieve(query);
+        }
+
+        long deadline = System.nanoTime() + budget.toNanos();
+        ExecutorService pool = executor();
+        // Claimed by the pool thread that runs the question's own search, or at the deadline by this thread
+        AtomicBoolean primaryClaimed = new AtomicBoolean();
+        CompletableFuture<List<Content>> primary =
+                submit(pool, () -> primaryClaimed.compareAndSet(false, true) ? retriever.retrieve(query) : null);
+        if (primary == null) {
+            LOG.debug("Multi-query pool saturated, retrieving the question alone");
+            return retriever.retrieve(query);
+        }
+        List<CompletableFuture<List<Content>>> searches = new ArrayList<>();
+        searches.add(primary);
+        CompletableFuture<List<String>> rewritten = null;
+        if (rewrites > 0) {
+            String conversation = conversation(history);
+            rewritten = submit(pool, () -> parse(queryRewriter.rewrite(conversation, query.text(), rewrites), query.text()));
+        } else {
+            addSearch(searches, pool, retriever, query, previousQuestion + "\n" + query.text());
+        }
+
+        if (rewritten != null) {
+            List<String> queries = await(rewritten, deadline);
+            if (queries == null) {
+                rewritten.cancel(false);
+            } else {
+                queries.forEach(text -> addSearch(searches, pool, retriever, query, text));
+            }
+        }
+
+        List<List<Content>> rankings = new ArrayList<>(searches.size());
+        List<Content> primaryRanking = null;
+        for (CompletableFuture<List<Content>> search : searches) {
+            List<Content> ranking = await(search, deadline);
+            if (search == primary) {
+                primaryRanking = ranking;
+            } else if (ranking != null) {
+                rankings.add(ranking);
+            } else {
+                search.cancel(false);
+            }
+        }
+        if (primaryRanking == null && primaryClaimed.compareAndSet(false, true)) {
+            // Still queued behind the searches of other turns: run it here rather than wait for a thread
+            LOG.debug("Retrieval budget of {} ms exceeded before the question's own search started", budget.toMillis());
+            primary.cancel(false);
+            primaryRanking = retriever.retrieve(query);
+        } else if (primaryRanking == null) {
+            // Running past the budget, or failed: the question alone, in the calling thread if need be
+            LOG.debug("Retrieval budget of {} ms exceeded, waiting for the question's own results", budget.toMillis());
+            primaryRanking = primary.exceptionally(error -> null).join();
+            if (primaryRanking == null) {
+                primaryRanking = retriever.retrieve(query);
+            }
+        }
+        rankings.addFirst(primaryRanking);
+        LOG.debug("Multi-query retrieval: {} of {} queries within the budget", rankings.size(), searches.size());
+        return HybridContentRetriever.fuse(rankings, rrfK, maxResults);
+    }
+
+    private static void addSearch(List<CompletableFuture<List<Content>>> searches, ExecutorService pool,
+                                  ContentRetriever retriever, Query query, String text)
+    {
+        Query subQuery = query.metadata() == null ? Query.from(text) : Query.from(text, query.metadata());
+        CompletableFuture<List<Content>> search = submit(pool, () -> retriever.retrieve(subQuery));
+        if (search != null) {
+            searches.add(search);
+        }
+    }
+
+    /**
+     * @return the task's future, or {@code null} if the pool queue is full; the sub-query is then skipped
+     */
+    private static <T> CompletableFuture<T> submit(ExecutorService pool, Supplier<T> task)
+    {
+        try {
+            return CompletableFuture.supplyAsync(task, pool);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the result, or {@code null} if it failed or did not complete before the deadline
+     */
+    private static <T> T await(CompletableFuture<T> future, long deadline)
+    {
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (ExecutionException e) {
+            LOG.warn("Sub-query failed: {}", e.getCause().getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private List<ChatMessage> history(Query query)
+    {
+        if (query.metadata() == null || query.metadata().chatMemory() == null) {
+            return List.of();
+        }
+        List<ChatMessage> messages = query.metadata().chatMemory();
+        return messages.subList(Math.max(0, messages.size() - historyMessages), messages.size());
+    }
+
+    /**
+     * Last user question of the history other than the current one.
+     */
+    private static String previousQuestion(List<ChatMessage> history, String question)
+    {
+        for (int i = history.size() - 1; i >= 0; i--) {
+            if (history.get(i) instanceof UserMessage user && user.hasSingleText()) {
+                String text = question(user);
+                if (!text.isBlank() && !text.equals(question.strip())) {
+                    return text;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String conversation(List<ChatMessage> history)
+    {
+        StringBuilder conversation = new StringBuilder();
+        for (ChatMessage message : history) {
+            if (message instanceof UserMessage user && user.hasSingleText()) {
+                conversation.append("User: ").append(question(user)).append('\n');
+            } else if (message instanceof AiMessage ai && ai.text() != null) {
+                String text = ai.text();
+                conversation.append("Assistant: ")
+                        .append(text.length() > ANSWER_CHARS ? text.substring(0, ANSWER_CHARS) + "..." : text)
+                        .append('\n');
+            }
+        }
+        return conversation.isEmpty() ? "(none)" : conversation.toString();
+    }
+
+    /**
+     * Question of a user message, without the documentation injected by {@link RagRetrievalAugmentor}.
+     */
+    private static String question(UserMessage user)
+    {
+        String text = user.singleText();
+        int context = text.indexOf(RagRetrievalAugmentor.CONTEXT_HEADER);
+        return (context >= 0 ? text.substring(0, context) : text).strip();
+    }
+
+    private List<String> parse(String reply, String question)
+    {
+        Set<String> queries = new LinkedHashSet<>();
+        String original = question.strip().toLowerCase(Locale.ROOT);
+        for (String line : reply.split("\n")) {
+            String text = line.strip();
+            if (!text.isEmpty() && !text.toLowerCase(Locale.ROOT).equals(original) && queries.size() < rewrites) {
+                queries.add(text);
+            }
+        }
+        return List.copyOf(queries);
+    }
+
+    private ExecutorService executor()
+    {
+        if (executor == null) {
+            synchronized (this) {
+                if (executor == null) {
+                    AtomicInteger count = new AtomicInteger();
+                    // Bounded queue: under load extra sub-queries are skipped rather than delay every turn
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                                Thread thread = new Thread(runnable, "multi-query-" + count.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            });
+                    // Sub-queries run in the trace of the turn
+                    executor = Context.taskWrapping(pool);
+                }
+            }
+        }
+        return executor;
+    }
+
+    @PreDestroy
+    void shutdown()
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
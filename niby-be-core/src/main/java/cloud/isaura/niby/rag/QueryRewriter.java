@@ -0,0 +1,27 @@
+package cloud.isaura.niby.rag;
+
+import dev.langchain4j.service.SystemMessage;
+import dev.langchain4j.service.UserMessage;
+import dev.langchain4j.service.V;
+import io.quarkiverse.langchain4j.RegisterAiService;
+import jakarta.enterprise.context.ApplicationScoped;
+
+/**
+ * Turns the latest question of a conversation into standalone search queries for {@link MultiQueryRetrieval}.
+ */
+@ApplicationScoped
+@RegisterAiService(chatMemoryProviderSupplier = RegisterAiService.NoChatMemoryProviderSupplier.class,
+        retrievalAugmentor = RegisterAiService.NoRetrievalAugmentorSupplier.class)
+public interface QueryRewriter
+{
+    @SystemMessage(fromResource = "/system-messages/query-rewriter.txt")
+    @UserMessage("""
+            Conversation so far:
+            {history}
+
+            Latest question:
+            {question}
+
+            Number of queries: {count}""")
+    String rewrite(@V("history") String history, @V("question") String question, @V("count") int count);
+}
@@ -1,9 +1,13 @@
 package cloud.isaura.niby.rag;
 
-import dev.langchain4j.model.embedding.EmbeddingModel;
+import cloud.isaura.niby.shared.logging.PayloadLog;
+import cloud.isaura.niby.telemetry.ChatTelemetry;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.input.PromptTemplate;
 import dev.langchain4j.rag.DefaultRetrievalAugmentor;
 import dev.langchain4j.rag.RetrievalAugmentor;
 import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.injector.DefaultContentInjector;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
 import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
 import dev.langchain4j.rag.query.Query;
@@ -22,44 +26,107 @@ public class RagRetrievalAugmentor implements Supplier<RetrievalAugmentor>
 {
     private static final Logger LOG = LoggerFactory.getLogger(RagRetrievalAugmentor.class);
 
+    /**
+     * Separates the question from the retrieved documentation in an augmented user message, so chat
+     * memory can strip the documentation from earlier turns.
+     */
+    public static final String CONTEXT_HEADER = "\n\nAnswer using the following information:\n";
+
     @ConfigProperty(name = "rag.retrieval.max-results", defaultValue = "5")
     int maxResults;
 
+    @ConfigProperty(name = "rag.hybrid.enabled", defaultValue = "true")
+    boolean hybridEnabled;
+
+    @ConfigProperty(name = "rag.hybrid.candidates", defaultValue = "20")
+    int hybridCandidates;
+
+    @ConfigProperty(name = "rag.hybrid.rrf-k", defaultValue = "60")
+    int rrfK;
+
+    @Inject
+    CachingEmbeddingModel embeddingModel;
+    @Inject
+    EmbeddingStore<TextSegment> embeddingStore;
+    @Inject
+    HnswEmbeddingStore hnswStore;
+    @Inject
+    RescoringEmbeddingStore rescoringStore;
+    @Inject
+    RetrievalCache retrievalCache;
+    @Inject
+    FullTextSearch fullTextSearch;
     @Inject
-    EmbeddingModel embeddingModel;
+    ChatTelemetry telemetry;
     @Inject
-    EmbeddingStore embeddingStore;
+    PayloadLog payloadLog;
+    @Inject
+    MultiQueryRetrieval multiQueryRetrieval;
 
     @Override
     public RetrievalAugmentor get() {
-        EmbeddingStoreContentRetriever baseRetriever =
+        RetrievalAugmentor augmentor = DefaultRetrievalAugmentor.builder()
+                .contentRetriever(multiQueryRetrieval.wrap(contentRetriever(), maxResults, rrfK))
+                .contentInjector(DefaultContentInjector.builder()
+                        .promptTemplate(PromptTemplate.from("{{userMessage}}" + CONTEXT_HEADER + "{{contents}}"))
+                        .build())
+                .build();
+        return request -> telemetry.stage("prompt-assembly", () -> augmentor.augment(request));
+    }
+
+    /**
+     * The cached retriever of a single query, expanded by {@link MultiQueryRetrieval} for the agents.
+     * Also used by {@link SemanticAnswerCache} to fingerprint the documentation of a question.
+     */
+    public ContentRetriever contentRetriever() {
+        EmbeddingStoreContentRetriever vectorRetriever =
                 EmbeddingStoreContentRetriever.builder()
                         .embeddingModel(embeddingModel)
-                        .embeddingStore(embeddingStore)
-                        .maxResults(maxResults)
+                        .embeddingStore(new TracedEmbeddingStore(vectorStore(), telemetry))
+                        .maxResults(hybridEnabled ? Math.max(hybridCandidates, maxResults) : maxResults)
                         .build();
+        ContentRetriever baseRetriever = hybridEnabled
+                ? new HybridContentRetriever(vectorRetriever, fullTextSearch,
+                        Math.max(hybridCandidates, maxResults), maxResults, rrfK)
+                : vectorRetriever;
 
         // Wrap retriever to add logging
         ContentRetriever loggingRetriever = new ContentRetriever() {
             @Override
             public List<Content> retrieve(Query query) {
-                LOG.info("RAG Query: {}", query.text());
                 List<Content> contents = baseRetriever.retrieve(query);
                 LOG.info("RAG retrieved {} documents", contents.size());
-                for (int i = 0; i < contents.size(); i++) {
-                    Content content = contents.get(i);
-                    String textPreview = content.textSegment().text().substring(0, Math.min(200, content.textSegment().text().length()));
-                    LOG.info("RAG Document {}: {}... (score: {})",
-                            i + 1,
-                            textPreview,
-                            content);
+                if (payloadLog.enabled(LOG, session(query))) {
+                    LOG.info("RAG Query: {}", payloadLog.preview(query.text()));
+                    for (int i = 0; i < contents.size(); i++) {
+                        Content content = contents.get(i);
+                        LOG.info("RAG Document {}: {} (metadata: {})",
+                                i + 1,
+                                payloadLog.preview(content.textSegment().text()),
+                                content.metadata());
+                    }
                 }
                 return contents;
             }
         };
 
-        return DefaultRetrievalAugmentor.builder()
-                .contentRetriever(loggingRetriever)
-                .build();
+        return retrievalCache.wrap((hybridEnabled ? "hybrid-top" : "top") + maxResults, loggingRetriever);
+    }
+
+    /**
+     * Chat session of a query, the one payload debugging is switched on for; {@code null} if unknown.
+     */
+    private static String session(Query query) {
+        if (query.metadata() == null || query.metadata().chatMemoryId() == null) {
+            return null;
+        }
+        return query.metadata().chatMemoryId().toString();
+    }
+
+    private EmbeddingStore<TextSegment> vectorStore() {
+        if (hnswStore.isEnabled()) {
+            return hnswStore;
+        }
+        return rescoringStore.isEnabled() ? rescoringStore : embeddingStore;
     }
 }
\ No newline at end of file
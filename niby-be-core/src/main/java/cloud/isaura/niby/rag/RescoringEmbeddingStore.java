@@ -0,0 +1,194 @@
+package cloud.isaura.niby.rag;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Typed;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Read-only two-stage {@link EmbeddingStore} over the pgvector table for a quantized ANN index
+ * built by niby-rag ({@code vector-index.quantization}).
+ * <p>
+ * The index is searched on the quantized vectors (halfvec, or bits compared by Hamming distance)
+ * for a shortlist of {@code maxResults x oversample} candidates, which are then reranked by exact
+ * cosine distance on the full-precision column. The index stays 2x (halfvec) to 32x (binary)
+ * smaller than a full-precision one while the final ranking is exact within the shortlist.
+ * For the shortlist query, {@code hnsw.ef_search} is raised to cover the shortlist and
+ * {@code ivfflat.probes} is multiplied by the oversample factor, so either index type fills it.
+ * <p>
+ * Searches with a metadata filter go to the regular pgvector store. Writes go through niby-rag.
+ */
+@ApplicationScoped
+@Typed(RescoringEmbeddingStore.class)
+public class RescoringEmbeddingStore implements EmbeddingStore<TextSegment>
+{
+    public static final String FULL = "full";
+    public static final String HALFVEC = "halfvec";
+    public static final String BINARY = "binary";
+
+    // Upper bounds of hnsw.ef_search and ivfflat.probes in pgvector
+    private static final int MAX_EF_SEARCH = 1000;
+    private static final int MAX_PROBES = 32768;
+
+    @Inject
+    DataSource dataSource;
+
+    @Inject
+    EmbeddingStore<TextSegment> pgVectorStore;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @ConfigProperty(name = "quarkus.langchain4j.pgvector.table", defaultValue = "niby.nifi_doc_embeddings")
+    String table;
+
+    @ConfigProperty(name = "quarkus.langchain4j.pgvector.dimension", defaultValue = "384")
+    int dimension;
+
+    // Must match vector-index.quantization in niby-rag, otherwise the shortlist query scans the table
+    @ConfigProperty(name = "rag.store.quantization", defaultValue = FULL)
+    String quantization;
+
+    @ConfigProperty(name = "rag.store.rescore.oversample", defaultValue = "8")
+    int oversample;
+
+    public boolean isEnabled()
+    {
+        return HALFVEC.equalsIgnoreCase(quantization) || BINARY.equalsIgnoreCase(quantization);
+    }
+
+    public String quantization()
+    {
+        return quantization.toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request)
+    {
+        if (!isEnabled() || request.filter() != null) {
+            return pgVectorStore.search(request);
+        }
+        String query = toVectorLiteral(request.queryEmbedding().vector());
+        int factor = Math.max(1, oversample);
+        int shortlist = request.maxResults() * factor;
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                try (Statement statement = connection.createStatement()) {
+                    // An HNSW scan returns at most ef_search rows, so it must cover the shortlist
+                    statement.execute("SET LOCAL hnsw.ef_search = " + Math.min(MAX_EF_SEARCH, Math.max(40, shortlist)));
+                    // An IVFFlat scan returns only rows of the probed lists, so probe as many times more lists
+                    // as the shortlist is longer than the result
+                    statement.execute("SELECT set_config('ivfflat.probes', least(" + MAX_PROBES
+                            + ", current_setting('ivfflat.probes')::int * " + factor + ")::text, true)");
+                }
+                return new EmbeddingSearchResult<>(rescore(connection, query, shortlist, request));
+            } finally {
+                connection.commit();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Quantized vector search failed", e);
+        }
+    }
+
+    private List<EmbeddingMatch<TextSegment>> rescore(Connection connection, String query, int shortlist,
+                                                      EmbeddingSearchRequest request) throws SQLException
+    {
+        List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(request.maxResults());
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT embedding_id, embedding::text, text, metadata::text, 1 - (embedding <=> ?::vector) "
+                        + "FROM (SELECT embedding_id, embedding, text, metadata FROM " + table
+                        + " ORDER BY " + shortlistOrder() + " LIMIT ?) shortlist "
+                        + "ORDER BY embedding <=> ?::vector LIMIT ?")) {
+            statement.setString(1, query);
+            statement.setString(2, query);
+            statement.setInt(3, shortlist);
+            statement.setString(4, query);
+            statement.setInt(5, request.maxResults());
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    double score = RelevanceScore.fromCosineSimilarity(rs.getDouble(5));
+                    if (score < request.minScore()) {
+                        continue;
+                    }
+                    String text = rs.getString(3);
+                    matches.add(new EmbeddingMatch<>(score, rs.getString(1),
+                            Embedding.from(HnswEmbeddingStore.parseVector(rs.getString(2), dimension)),
+                            text == null ? null
+                                    : TextSegment.from(text, SegmentMetadata.fromJson(objectMapper, rs.getString(4)))));
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Distance on the quantized vectors, written exactly like the indexed expression so the planner uses the index.
+     */
+    private String shortlistOrder()
+    {
+        return BINARY.equalsIgnoreCase(quantization)
+                ? "binary_quantize(embedding)::bit(" + dimension + ") <~> binary_quantize(?::vector)"
+                : "embedding::halfvec(" + dimension + ") <=> ?::halfvec(" + dimension + ")";
+    }
+
+    private static String toVectorLiteral(float[] vector)
+    {
+        StringBuilder literal = new StringBuilder(vector.length * 12).append('[');
+        for (int i = 0; i < vector.length; i++) {
+            if (i > 0) {
+                literal.append(',');
+            }
+            literal.append(vector[i]);
+        }
+        return literal.append(']').toString();
+    }
+
+    @Override
+    public String add(Embedding embedding)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void add(String id, Embedding embedding)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings)
+    {
+        throw readOnly();
+    }
+
+    private static UnsupportedOperationException readOnly()
+    {
+        return new UnsupportedOperationException("The rescoring store is read-only, ingest through niby-rag");
+    }
+}
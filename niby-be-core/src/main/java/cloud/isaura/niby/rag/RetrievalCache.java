@@ -0,0 +1,98 @@
+package cloud.isaura.niby.rag;
+
+import cloud.isaura.niby.shared.cache.LruTtlCache;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of retrieval results by normalized query text, invalidated whenever niby-rag reports a
+ * corpus change. Normalized queries have the same embedding (see {@link CachingEmbeddingModel}),
+ * so they also have the same nearest segments.
+ * <p>
+ * A generation counter guards against a retrieval that started before an invalidation
+ * putting its now outdated result back into the cache.
+ */
+@ApplicationScoped
+public class RetrievalCache
+{
+    private static final Logger LOG = LoggerFactory.getLogger(RetrievalCache.class);
+
+    @ConfigProperty(name = "rag.retrieval-cache.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "rag.retrieval-cache.max-entries", defaultValue = "2000")
+    int maxEntries;
+
+    @ConfigProperty(name = "rag.retrieval-cache.ttl", defaultValue = "10m")
+    Duration ttl;
+
+    private final AtomicLong generation = new AtomicLong();
+    private LruTtlCache<String, List<Content>> cache;
+
+    @PostConstruct
+    void init()
+    {
+        cache = new LruTtlCache<>(maxEntries, ttl);
+    }
+
+    /**
+     * Wrap a retriever so that its results are served from this cache.
+     *
+     * @param scope distinguishes retrievers with different settings, e.g. their max results
+     */
+    public ContentRetriever wrap(String scope, ContentRetriever retriever)
+    {
+        if (!enabled) {
+            return retriever;
+        }
+        return query -> retrieve(scope, query, retriever);
+    }
+
+    private List<Content> retrieve(String scope, Query query, ContentRetriever retriever)
+    {
+        String key = scope + "|" + CachingEmbeddingModel.normalize(query.text());
+        List<Content> cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        long startGeneration = generation.get();
+        List<Content> contents = List.copyOf(retriever.retrieve(query));
+        if (generation.get() == startGeneration) {
+            cache.put(key, contents);
+            if (generation.get() != startGeneration) {
+                // Invalidated while putting
+                cache.remove(key);
+            }
+        }
+        return contents;
+    }
+
+    void onCorpusChanged(@Observes CorpusChanged event)
+    {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+        LOG.info("Retrieval cache invalidated after corpus change ({})", event.reason());
+    }
+
+    public LruTtlCache.Stats stats()
+    {
+        return cache.stats();
+    }
+
+    public void invalidateAll()
+    {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+}
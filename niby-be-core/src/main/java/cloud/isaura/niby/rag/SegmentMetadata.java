@@ -0,0 +1,51 @@
+package cloud.isaura.niby.rag;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.data.document.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Reads the JSON metadata column of the pgvector embedding table for queries that bypass the store.
+ */
+final class SegmentMetadata
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentMetadata.class);
+
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {
+    };
+
+    private SegmentMetadata()
+    {
+    }
+
+    /**
+     * Parse metadata JSON, turning values of types {@link Metadata} does not support into strings.
+     */
+    static Metadata fromJson(ObjectMapper objectMapper, String json)
+    {
+        if (json == null || json.isBlank()) {
+            return new Metadata();
+        }
+        try {
+            Map<String, Object> values = new HashMap<>();
+            objectMapper.readValue(json, METADATA_TYPE).forEach((key, value) -> {
+                if (value instanceof String || value instanceof UUID || value instanceof Integer
+                        || value instanceof Long || value instanceof Float || value instanceof Double) {
+                    values.put(key, value);
+                } else if (value != null) {
+                    values.put(key, value.toString());
+                }
+            });
+            return Metadata.from(values);
+        } catch (Exception e) {
+            LOG.warn("Ignoring unreadable segment metadata: {}", json, e);
+            return new Metadata();
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package cloud.isaura.niby.rag;
+
+import cloud.isaura.niby.config.ChatMemoryConfiguration;
+import cloud.isaura.niby.memory.PostgresChatMemoryStore;
+import cloud.isaura.niby.shared.logging.PayloadLog;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.query.Query;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Opt-in cache of complete agent answers, looked up by question similarity.
+ * <p>
+ * A question is embedded with the query embedding model and compared by cosine similarity with
+ * the past questions of the same mode; the answer of the closest one is replayed as a stream when
+ * the similarity reaches {@code rag.answer-cache.similarity-threshold} and the question retrieves
+ * the same documentation as when the answer was generated. The documentation is fingerprinted
+ * by the text of the retrieved segments, so re-ingested or changed segments turn entries into
+ * misses without a global invalidation. The retrieval goes through {@link RetrievalCache}, which
+ * the agent then hits for the same question.
+ * <p>
+ * Each mode keeps at most {@code max-entries} entries, evicted least recently used or after
+ * {@code ttl}, and searched linearly: a few hundred vectors of 384 floats are scanned in
+ * microseconds. Only modes listed in {@code rag.answer-cache.modes} are cached, by default the
+ * basic agent only, since replaying a plan or act answer would skip its tool calls. With
+ * {@code first-turn-only} a question is only cached or served when it opens a conversation,
+ * as follow-up questions depend on the earlier turns. A replayed answer is added to the chat
+ * memory of the session like a generated one.
+ */
+@ApplicationScoped
+public class SemanticAnswerCache
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SemanticAnswerCache.class);
+
+    @ConfigProperty(name = "rag.answer-cache.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "rag.answer-cache.modes", defaultValue = "basic")
+    Set<String> modes;
+
+    @ConfigProperty(name = "rag.answer-cache.similarity-threshold", defaultValue = "0.95")
+    double similarityThreshold;
+
+    @ConfigProperty(name = "rag.answer-cache.max-entries", defaultValue = "500")
+    int maxEntries;
+
+    @ConfigProperty(name = "rag.answer-cache.ttl", defaultValue = "24h")
+    Duration ttl;
+
+    @ConfigProperty(name = "rag.answer-cache.first-turn-only", defaultValue = "true")
+    boolean firstTurnOnly;
+
+    @Inject
+    CachingEmbeddingModel embeddingModel;
+
+    @Inject
+    PayloadLog payloadLog;
+
+    @Inject
+    RagRetrievalAugmentor retrievalAugmentor;
+
+    @Inject
+    PostgresChatMemoryStore chatMemoryStore;
+
+    @Inject
+    ChatMemoryConfiguration chatMemory;
+
+    private final Map<String, Scope> scopes = new ConcurrentHashMap<>();
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Answer of a question, replayed from the cache or streamed by the agent and cached once complete.
+     *
+     * @param mode      agent mode, entries are only shared within a mode
+     * @param sessionId chat memory id of the conversation
+     * @param question  user text
+     * @param agent     generates the answer on a miss
+     */
+    public Multi<String> answer(String mode, String sessionId, String question, Supplier<Multi<String>> agent)
+    {
+        if (!enabled || !modes.contains(mode)) {
+            return agent.get();
+        }
+        Scope scope = scopes.computeIfAbsent(mode, ignored -> new Scope());
+        // Embedding and retrieval block, they must not run on the WebSocket event loop
+        return Uni.createFrom().item(() -> lookup(scope, mode, sessionId, question))
+                .runSubscriptionOn(Infrastructure.getDefaultWorkerPool())
+                .onItem().transformToMulti(lookup -> {
+                    if (lookup.answer() != null) {
+                        return replay(lookup.answer());
+                    }
+                    if (lookup.vector() == null) {
+                        return agent.get();
+                    }
+                    StringBuilder answer = new StringBuilder();
+                    return agent.get()
+                            .onItem().invoke(answer::append)
+                            // Not on failure or cancellation, a partial answer is never cached
+                            .onCompletion().invoke(() -> scope.put(question, lookup, answer.toString()));
+                });
+    }
+
+    private Lookup lookup(Scope scope, String mode, String sessionId, String question)
+    {
+        try {
+            if (firstTurnOnly && chatMemoryStore.getMessages(sessionId).stream().anyMatch(UserMessage.class::isInstance)) {
+                scope.bypassed.increment();
+                return Lookup.BYPASS;
+            }
+            float[] vector = normalized(embeddingModel.embed(question).content().vector());
+            String fingerprint = fingerprint(retrievalAugmentor.contentRetriever().retrieve(Query.from(question)));
+            Hit hit = scope.find(vector, fingerprint);
+            if (hit == null) {
+                scope.misses.increment();
+                return new Lookup(vector, fingerprint, null);
+            }
+            scope.hits.increment();
+            if (payloadLog.enabled(LOG, sessionId)) {
+                LOG.info("Answer cache hit in mode {} (similarity {}) for '{}', cached question '{}'",
+                        mode, String.format("%.3f", hit.similarity()), payloadLog.preview(question),
+                        payloadLog.preview(hit.entry().question()));
+            }
+            ChatMemory memory = chatMemory.forAgent(mode).get(sessionId);
+            memory.add(UserMessage.from(question));
+            memory.add(AiMessage.from(hit.entry().answer()));
+            return new Lookup(vector, fingerprint, hit.entry().answer());
+        } catch (RuntimeException e) {
+            LOG.warn("Answer cache lookup failed, asking the agent: {}", e.getMessage());
+            scope.bypassed.increment();
+            return Lookup.BYPASS;
+        }
+    }
+
+    /**
+     * Replay an answer word by word, so that clients render it like a generated one.
+     */
+    private static Multi<String> replay(String answer)
+    {
+        return Multi.createFrom().items(answer.split("(?<=\\s)"));
+    }
+
+    /**
+     * Hash of the retrieved segment texts, independent of their order.
+     */
+    static String fingerprint(List<Content> contents)
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            contents.stream()
+                    .map(content -> content.textSegment().text())
+                    .sorted()
+                    .forEach(text -> {
+                        digest.update(text.getBytes(StandardCharsets.UTF_8));
+                        digest.update((byte) 0);
+                    });
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static float[] normalized(float[] vector)
+    {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        float[] copy = vector.clone();
+        if (norm > 0) {
+            float scale = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] *= scale;
+            }
+        }
+        return copy;
+    }
+
+    private static double dot(float[] a, float[] b)
+    {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @return statistics by mode
+     */
+    public Map<String, Stats> stats()
+    {
+        Map<String, Stats> stats = new TreeMap<>();
+        scopes.forEach((mode, scope) -> stats.put(mode, scope.stats()));
+        return stats;
+    }
+
+    public void invalidateAll()
+    {
+        scopes.values().forEach(Scope::clear);
+    }
+
+    /**
+     * @param hitRate  hits over lookups, bypassed questions excluded
+     * @param bypassed questions not looked up: follow-up turns, or failed lookups
+     */
+    public record Stats(long hits, long misses, long bypassed, long stores, long evictions, int size, int maxEntries,
+                        double hitRate)
+    {
+    }
+
+    private record Lookup(float[] vector, String fingerprint, String answer)
+    {
+        static final Lookup BYPASS = new Lookup(null, null, null);
+    }
+
+    private record Entry(String question, float[] vector, String fingerprint, String answer, long expiresAt)
+    {
+    }
+
+    private record Hit(Entry entry, double similarity)
+    {
+    }
+
+    /**
+     * Entries of one mode, in access order.
+     */
+    private final class Scope
+    {
+        private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final AtomicLong ids = new AtomicLong();
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder bypassed = new LongAdder();
+        final LongAdder stores = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+
+        synchronized Hit find(float[] vector, String fingerprint)
+        {
+            long now = System.nanoTime();
+            Long bestId = null;
+            Hit best = null;
+            Iterator<Map.Entry<Long, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, Entry> next = iterator.next();
+                Entry entry = next.getValue();
+                if (now - entry.expiresAt() > 0) {
+                    iterator.remove();
+                    evictions.increment();
+                    continue;
+                }
+                if (!entry.fingerprint().equals(fingerprint)) {
+                    continue;
+                }
+                double similarity = dot(vector, entry.vector());
+                if (similarity >= similarityThreshold && (best == null || similarity > best.similarity())) {
+                    bestId = next.getKey();
+                    best = new Hit(entry, similarity);
+                }
+            }
+            if (bestId != null) {
+                // Refresh the access order
+                entries.get(bestId);
+            }
+            return best;
+        }
+
+        synchronized void put(String question, Lookup lookup, String answer)
+        {
+            if (answer.isBlank()) {
+                return;
+            }
+            // A near-duplicate question answered from the same documentation is replaced
+            entries.values().removeIf(entry -> entry.fingerprint().equals(lookup.fingerprint())
+                    && dot(lookup.vector(), entry.vector()) >= similarityThreshold);
+            entries.put(ids.incrementAndGet(),
+                    new Entry(question, lookup.vector(), lookup.fingerprint(), answer, System.nanoTime() + ttl.toNanos()));
+            stores.increment();
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (entries.size() > maxEntries && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+
+        synchronized void clear()
+        {
+            entries.clear();
+        }
+
+        synchronized Stats stats()
+        {
+            long hitCount = hits.sum();
+            long lookups = hitCount + misses.sum();
+            return new Stats(hitCount, misses.sum(), bypassed.sum(), stores.sum(), evictions.sum(), entries.size(),
+                    maxEntries, lookups == 0 ? 0 : (double) hitCount / lookups);
+        }
+    }
+}
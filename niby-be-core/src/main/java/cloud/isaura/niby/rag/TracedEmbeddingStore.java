@@ -0,0 +1,61 @@
+package cloud.isaura.niby.rag;
+
+import cloud.isaura.niby.telemetry.ChatTelemetry;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.util.List;
+
+/**
+ * Read-only view of the retrieval store whose searches are traced and timed as the
+ * {@code vector-search} stage of a chat turn.
+ */
+class TracedEmbeddingStore implements EmbeddingStore<TextSegment>
+{
+    private final EmbeddingStore<TextSegment> delegate;
+    private final ChatTelemetry telemetry;
+
+    TracedEmbeddingStore(EmbeddingStore<TextSegment> delegate, ChatTelemetry telemetry)
+    {
+        this.delegate = delegate;
+        this.telemetry = telemetry;
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request)
+    {
+        return telemetry.stage("vector-search", () -> delegate.search(request));
+    }
+
+    @Override
+    public String add(Embedding embedding)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void add(String id, Embedding embedding)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings)
+    {
+        throw readOnly();
+    }
+
+    private static UnsupportedOperationException readOnly()
+    {
+        return new UnsupportedOperationException("The retrieval store is read-only, ingest through niby-rag");
+    }
+}
@@ -0,0 +1,137 @@
+package cloud.isaura.niby.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.function.Function;
+
+/**
+ * Compares recall and latency of the in-memory HNSW store, the pgvector store and, when a quantized
+ * index is configured, the two-stage rescoring store.
+ * <p>
+ * Ground truth is an exact scan of the HNSW snapshot, so both stores are measured against the
+ * same corpus. Without explicit queries, stored segment vectors are sampled as queries.
+ */
+@ApplicationScoped
+public class VectorStoreEvaluator
+{
+    private static final Logger LOG = LoggerFactory.getLogger(VectorStoreEvaluator.class);
+
+    @Inject
+    HnswEmbeddingStore hnswStore;
+
+    @Inject
+    EmbeddingStore<TextSegment> pgVectorStore;
+
+    @Inject
+    RescoringEmbeddingStore rescoringStore;
+
+    @Inject
+    CachingEmbeddingModel embeddingModel;
+
+    /**
+     * Recall against the exact result and search latency of one store.
+     */
+    public record StoreResult(double recall, double meanMicros, long p50Micros, long p95Micros, long p99Micros)
+    {
+    }
+
+    /**
+     * @param rescored quantized pgvector search with full-precision rescoring, {@code null} unless enabled
+     */
+    public record Evaluation(int queries, int k, int indexSize, int efSearch,
+                             StoreResult exact, StoreResult hnsw, StoreResult pgvector, StoreResult rescored)
+    {
+    }
+
+    /**
+     * @param queryTexts queries to embed, or empty to sample {@code samples} stored vectors
+     */
+    public Evaluation evaluate(List<String> queryTexts, int samples, int k)
+    {
+        HnswEmbeddingStore.Snapshot snapshot = hnswStore.requireSnapshot();
+        List<Embedding> queries = new ArrayList<>();
+        if (queryTexts.isEmpty()) {
+            SplittableRandom random = new SplittableRandom(7);
+            for (int i = 0; i < samples && snapshot.index().size() > 0; i++) {
+                queries.add(Embedding.from(snapshot.index().vector(random.nextInt(snapshot.index().size()))));
+            }
+        } else {
+            queryTexts.forEach(text -> queries.add(embeddingModel.embed(text).content()));
+        }
+
+        List<Set<String>> truth = new ArrayList<>();
+        StoreResult exact = measure(queries, k, null, hnswStore::exactSearch, truth);
+        StoreResult hnsw = measure(queries, k, truth, hnswStore::search, null);
+        StoreResult pgvector = measure(queries, k, truth, pgVectorStore::search, null);
+        StoreResult rescored = rescoringStore.isEnabled()
+                ? measure(queries, k, truth, rescoringStore::search, null)
+                : null;
+
+        Evaluation evaluation = new Evaluation(queries.size(), k, snapshot.index().size(), hnswStore.efSearch(),
+                exact, hnsw, pgvector, rescored);
+        LOG.info("Vector store evaluation: {}", evaluation);
+        return evaluation;
+    }
+
+    /**
+     * Run every query against one store.
+     *
+     * @param truth     expected ids per query, or {@code null} when measuring the ground truth itself
+     * @param collected receives the ids returned per query, may be {@code null}
+     */
+    private StoreResult measure(List<Embedding> queries, int k, List<Set<String>> truth,
+                                Function<EmbeddingSearchRequest, EmbeddingSearchResult<TextSegment>> search,
+                                List<Set<String>> collected)
+    {
+        long[] micros = new long[queries.size()];
+        double recallSum = 0;
+        for (int i = 0; i < queries.size(); i++) {
+            EmbeddingSearchRequest request = EmbeddingSearchRequest.builder()
+                    .queryEmbedding(queries.get(i))
+                    .maxResults(k)
+                    .build();
+            long start = System.nanoTime();
+            List<EmbeddingMatch<TextSegment>> matches = search.apply(request).matches();
+            micros[i] = (System.nanoTime() - start) / 1000;
+
+            Set<String> ids = new HashSet<>();
+            matches.forEach(match -> ids.add(match.embeddingId()));
+            if (collected != null) {
+                collected.add(ids);
+            }
+            if (truth != null && !truth.get(i).isEmpty()) {
+                long found = truth.get(i).stream().filter(ids::contains).count();
+                recallSum += (double) found / truth.get(i).size();
+            } else {
+                recallSum += 1;
+            }
+        }
+        if (queries.isEmpty()) {
+            return new StoreResult(0, 0, 0, 0, 0);
+        }
+        Arrays.sort(micros);
+        return new StoreResult(recallSum / queries.size(), Arrays.stream(micros).average().orElse(0),
+                percentile(micros, 50), percentile(micros, 95), percentile(micros, 99));
+    }
+
+    private static long percentile(long[] sorted, int percentile)
+    {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
@@ -0,0 +1,27 @@
+package cloud.isaura.niby.resources;
+
+import cloud.isaura.niby.shared.embedding.EmbeddingEngine;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+import java.util.List;
+
+/**
+ * Throughput and latency of the embedding engine, per lane.
+ */
+@Path("/api/embedding/stats")
+public class EmbeddingStatsResource
+{
+    @Inject
+    EmbeddingEngine embeddingEngine;
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<EmbeddingEngine.LaneStats> stats()
+    {
+        return embeddingEngine.stats();
+    }
+}
@@ -0,0 +1,70 @@
+package cloud.isaura.niby.resources;
+
+import cloud.isaura.niby.shared.logging.PayloadLog;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.PUT;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Payload logging: sampling state, and per-session debug mode switched on at runtime.
+ */
+@Path("/api/admin/logging")
+public class LoggingResource
+{
+    @Inject
+    PayloadLog payloadLog;
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> state()
+    {
+        Map<String, Object> response = new HashMap<>();
+        response.put("payloadLinesPerSecond", payloadLog.perSecond());
+        response.put("suppressedPayloadLines", payloadLog.suppressed());
+        response.put("debugSessions", payloadLog.debugSessions());
+        return response;
+    }
+
+    /**
+     * @param duration ISO-8601 duration of the debug mode, e.g. {@code PT30M}
+     */
+    @PUT
+    @Path("/sessions/{session}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response debugSession(@PathParam("session") String session,
+                                 @QueryParam("duration") @DefaultValue("PT15M") String duration)
+    {
+        Duration parsed;
+        try {
+            parsed = Duration.parse(duration);
+        } catch (DateTimeParseException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(Map.of("status", "error", "message", "Invalid duration: " + duration))
+                    .build();
+        }
+        payloadLog.debugSession(session, parsed);
+        return Response.ok(Map.of("status", "success", "session", session, "seconds", parsed.toSeconds())).build();
+    }
+
+    @DELETE
+    @Path("/sessions/{session}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> stopDebugSession(@PathParam("session") String session)
+    {
+        boolean stopped = payloadLog.stopDebugSession(session);
+        return Map.of("status", "success", "session", session, "stopped", stopped);
+    }
+}
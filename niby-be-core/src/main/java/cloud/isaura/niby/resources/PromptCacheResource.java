@@ -0,0 +1,27 @@
+package cloud.isaura.niby.resources;
+
+import cloud.isaura.niby.agents.PromptCacheMetrics;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+import java.util.Map;
+
+/**
+ * Cached and uncached input tokens of the Anthropic calls, per AI service.
+ */
+@Path("/api/agents/prompt-cache")
+public class PromptCacheResource
+{
+    @Inject
+    PromptCacheMetrics promptCacheMetrics;
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, PromptCacheMetrics.Stats> stats()
+    {
+        return promptCacheMetrics.stats();
+    }
+}
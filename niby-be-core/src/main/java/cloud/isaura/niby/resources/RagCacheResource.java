@@ -0,0 +1,81 @@
+package cloud.isaura.niby.resources;
+
+import cloud.isaura.niby.rag.CachingEmbeddingModel;
+import cloud.isaura.niby.rag.RetrievalCache;
+import cloud.isaura.niby.rag.SemanticAnswerCache;
+import cloud.isaura.niby.shared.cache.LruTtlCache;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hit/miss statistics and manual invalidation of the RAG caches.
+ */
+@Path("/api/rag/cache")
+public class RagCacheResource
+{
+    @Inject
+    CachingEmbeddingModel embeddingCache;
+
+    @Inject
+    RetrievalCache retrievalCache;
+
+    @Inject
+    SemanticAnswerCache answerCache;
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> stats()
+    {
+        Map<String, Object> response = new HashMap<>();
+        response.put("queryEmbeddings", toMap(embeddingCache.stats()));
+        response.put("retrievals", toMap(retrievalCache.stats()));
+        Map<String, Object> answers = new HashMap<>();
+        answers.put("enabled", answerCache.isEnabled());
+        answerCache.stats().forEach((mode, stats) -> answers.put(mode, toMap(stats)));
+        response.put("answers", answers);
+        return response;
+    }
+
+    @DELETE
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> invalidate()
+    {
+        embeddingCache.invalidateAll();
+        retrievalCache.invalidateAll();
+        answerCache.invalidateAll();
+        return Map.of("status", "success", "message", "RAG caches invalidated");
+    }
+
+    private static Map<String, Object> toMap(LruTtlCache.Stats stats)
+    {
+        Map<String, Object> map = new HashMap<>();
+        map.put("hits", stats.hits());
+        map.put("misses", stats.misses());
+        map.put("hitRate", stats.hitRate());
+        map.put("evictions", stats.evictions());
+        map.put("size", stats.size());
+        map.put("maxEntries", stats.maxEntries());
+        return map;
+    }
+
+    private static Map<String, Object> toMap(SemanticAnswerCache.Stats stats)
+    {
+        Map<String, Object> map = new HashMap<>();
+        map.put("hits", stats.hits());
+        map.put("misses", stats.misses());
+        map.put("bypassed", stats.bypassed());
+        map.put("hitRate", stats.hitRate());
+        map.put("stores", stats.stores());
+        map.put("evictions", stats.evictions());
+        map.put("size", stats.size());
+        map.put("maxEntries", stats.maxEntries());
+        return map;
+    }
+}
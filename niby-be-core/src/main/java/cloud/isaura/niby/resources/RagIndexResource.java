@@ -0,0 +1,110 @@
+package cloud.isaura.niby.resources;
+
+import cloud.isaura.niby.rag.HnswEmbeddingStore;
+import cloud.isaura.niby.rag.RescoringEmbeddingStore;
+import cloud.isaura.niby.rag.VectorStoreEvaluator;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State, rebuild and evaluation of the in-memory HNSW index used when {@code rag.store.type=hnsw}.
+ */
+@Path("/api/rag/index")
+public class RagIndexResource
+{
+    @Inject
+    HnswEmbeddingStore hnswStore;
+
+    @Inject
+    RescoringEmbeddingStore rescoringStore;
+
+    @Inject
+    VectorStoreEvaluator evaluator;
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> state()
+    {
+        Map<String, Object> response = new HashMap<>();
+        response.put("storeType", hnswStore.isEnabled() ? "hnsw" : "pgvector");
+        response.put("quantization", rescoringStore.quantization());
+        response.put("hnswReady", hnswStore.isReady());
+        response.put("hnswSize", hnswStore.size());
+        response.put("hnswBuildMillis", hnswStore.lastBuildMillis());
+        return response;
+    }
+
+    /**
+     * Build the HNSW index in the background, also when it is not the configured store, so that it can be evaluated.
+     */
+    @POST
+    @Path("/rebuild")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response rebuild()
+    {
+        hnswStore.scheduleRebuild("manual");
+        return Response.accepted(Map.of("status", "success", "message", "HNSW index rebuild scheduled")).build();
+    }
+
+    /**
+     * Compare recall and latency of the HNSW index, pgvector and the quantized rescoring search.
+     * Request keys: {@code queries} (list of texts, optional), {@code samples} (default 100), {@code k} (default 5).
+     */
+    @POST
+    @Path("/evaluate")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response evaluate(Map<String, Object> request)
+    {
+        Map<String, Object> body = request == null ? Map.of() : request;
+        Object queries = body.getOrDefault("queries", List.of());
+        if (!(queries instanceof List<?> texts) || !texts.stream().allMatch(String.class::isInstance)) {
+            return badRequest("queries must be a list of texts");
+        }
+        Integer samples = positive(body.getOrDefault("samples", 100));
+        if (samples == null) {
+            return badRequest("samples must be a positive integer");
+        }
+        Integer k = positive(body.getOrDefault("k", 5));
+        if (k == null) {
+            return badRequest("k must be a positive integer");
+        }
+        if (!hnswStore.isReady()) {
+            return Response.status(Response.Status.CONFLICT)
+                    .entity(Map.of("status", "error", "message", "HNSW index is not built yet, POST /api/rag/index/rebuild first"))
+                    .build();
+        }
+        @SuppressWarnings("unchecked")
+        List<String> queryTexts = (List<String>) texts;
+        return Response.ok(evaluator.evaluate(queryTexts, samples, k)).build();
+    }
+
+    /**
+     * @return the value as a positive int, {@code null} if it is not a positive integral number
+     */
+    private static Integer positive(Object value)
+    {
+        if (!(value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)) {
+            return null;
+        }
+        long number = ((Number) value).longValue();
+        return number > 0 && number <= Integer.MAX_VALUE ? (int) number : null;
+    }
+
+    private static Response badRequest(String message)
+    {
+        return Response.status(Response.Status.BAD_REQUEST)
+                .entity(Map.of("status", "error", "message", message))
+                .build();
+    }
+}
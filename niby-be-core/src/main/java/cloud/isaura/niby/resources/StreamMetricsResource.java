@@ -0,0 +1,25 @@
+package cloud.isaura.niby.resources;
+
+import cloud.isaura.niby.ws.StreamMetrics;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+/**
+ * Token and frame counts of the WebSocket answer streams.
+ */
+@Path("/api/stream/stats")
+public class StreamMetricsResource
+{
+    @Inject
+    StreamMetrics streamMetrics;
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public StreamMetrics.Stats stats()
+    {
+        return streamMetrics.stats();
+    }
+}
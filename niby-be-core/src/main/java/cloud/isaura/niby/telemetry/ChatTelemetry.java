@@ -0,0 +1,169 @@
+package cloud.isaura.niby.telemetry;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.context.propagation.TextMapGetter;
+import io.smallrye.mutiny.Multi;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Spans and latency histograms of a chat turn.
+ * <p>
+ * A turn is one span, {@code niby.chat.turn}, parented to the trace context niby-ui sends along
+ * with the message, with the time to first token, the total time and the token rate recorded by
+ * agent mode. The steps of the answer (query embedding, vector search, prompt assembly) are child
+ * spans, timed in {@code niby.chat.stage} by stage; LangChain4j adds the spans of the model call.
+ * Metrics are exported on {@code /q/metrics}, spans over OTLP.
+ */
+@ApplicationScoped
+public class ChatTelemetry
+{
+    private static final TextMapGetter<Map<String, String>> MAP_GETTER = new TextMapGetter<>()
+    {
+        @Override
+        public Iterable<String> keys(Map<String, String> carrier)
+        {
+            return carrier.keySet();
+        }
+
+        @Override
+        public String get(Map<String, String> carrier, String key)
+        {
+            return carrier == null ? null : carrier.get(key);
+        }
+    };
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    Tracer tracer;
+
+    @Inject
+    OpenTelemetry openTelemetry;
+
+    /**
+     * Trace context propagated by the sender of a frame, or the current one when there is none.
+     */
+    public Context extract(Map<String, String> carrier)
+    {
+        if (carrier == null || carrier.isEmpty()) {
+            return Context.current();
+        }
+        return openTelemetry.getPropagators().getTextMapPropagator().extract(Context.current(), carrier, MAP_GETTER);
+    }
+
+    /**
+     * Run a step of a turn in its own span and time it.
+     *
+     * @param stage e.g. {@code query-embedding}, also the span name under {@code niby.}
+     */
+    public <T> T stage(String stage, Supplier<T> work)
+    {
+        Span span = tracer.spanBuilder("niby." + stage).startSpan();
+        long start = System.nanoTime();
+        String outcome = "success";
+        try (Scope ignored = span.makeCurrent()) {
+            return work.get();
+        } catch (RuntimeException e) {
+            outcome = "failure";
+            span.recordException(e);
+            span.setStatus(StatusCode.ERROR);
+            throw e;
+        } finally {
+            Timer.builder("niby.chat.stage")
+                    .description("Duration of a step of a chat turn")
+                    .tag("stage", stage)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(registry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            span.end();
+        }
+    }
+
+    /**
+     * Trace and time the answer of a turn.
+     *
+     * @param mode   agent mode the metrics are tagged with
+     * @param answer creates the answer stream; called with the turn span current so that the spans of
+     *               the answer are its children
+     */
+    public Multi<String> turn(String mode, Supplier<Multi<String>> answer)
+    {
+        Span span = tracer.spanBuilder("niby.chat.turn").setAttribute("niby.mode", mode).startSpan();
+        Context context = Context.current().with(span);
+        Multi<String> stream;
+        try (Scope ignored = context.makeCurrent()) {
+            stream = answer.get();
+        } catch (RuntimeException e) {
+            span.recordException(e);
+            span.setStatus(StatusCode.ERROR);
+            span.end();
+            throw e;
+        }
+
+        AtomicLong start = new AtomicLong();
+        AtomicLong firstToken = new AtomicLong();
+        AtomicLong tokens = new AtomicLong();
+        return stream
+                // The agent does its work when subscribed, possibly on another thread
+                .runSubscriptionOn(context.wrap((Executor) Runnable::run))
+                .onSubscription().invoke(() -> start.set(System.nanoTime()))
+                .onItem().invoke(token -> {
+                    if (tokens.getAndIncrement() == 0) {
+                        long now = System.nanoTime();
+                        firstToken.set(now);
+                        span.addEvent("first-token");
+                        Timer.builder("niby.chat.first.token")
+                                .description("Time to the first token of an answer")
+                                .tag("mode", mode)
+                                .publishPercentileHistogram()
+                                .register(registry)
+                                .record(now - start.get(), TimeUnit.NANOSECONDS);
+                    }
+                })
+                .onTermination().invoke((failure, cancelled) -> {
+                    long end = System.nanoTime();
+                    String outcome = failure != null ? "failure" : cancelled ? "cancelled" : "success";
+                    Timer.builder("niby.chat.turn")
+                            .description("Total duration of a chat turn")
+                            .tag("mode", mode)
+                            .tag("outcome", outcome)
+                            .publishPercentileHistogram()
+                            .register(registry)
+                            .record(end - start.get(), TimeUnit.NANOSECONDS);
+                    long count = tokens.get();
+                    long streaming = end - firstToken.get();
+                    if (count > 1 && streaming > 0) {
+                        DistributionSummary.builder("niby.chat.tokens.per.second")
+                                .description("Token rate of an answer after its first token")
+                                .tag("mode", mode)
+                                .publishPercentileHistogram()
+                                .register(registry)
+                                .record((count - 1) / (streaming / 1e9));
+                    }
+                    span.setAttribute("niby.tokens", count);
+                    if (failure != null) {
+                        span.recordException(failure);
+                        span.setStatus(StatusCode.ERROR);
+                    }
+                    span.setAttribute("niby.outcome", outcome);
+                    span.end();
+                });
+    }
+}
@@ -0,0 +1,211 @@
+package cloud.isaura.niby.ws;
+
+import cloud.isaura.niby.shared.logging.PayloadLog;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Framed chat protocol shared by the browser and the multiplexed endpoints.
+ * <p>
+ * The client sends a {@code message} frame with a turn id it generates; the answer comes back as a
+ * {@code start} frame, {@code chunk} frames with increasing sequence numbers and an {@code end} or
+ * {@code error} frame. A chunk frame is sent only against credit: the message frame carries the
+ * initial credit and {@code credit} frames grant more. After reconnecting, a {@code resume} frame
+ * with the last sequence number received replays the rest of the turn from its buffer, and a
+ * message frame repeating a known turn id resumes that turn instead of asking the model again. A
+ * chunk frame also carries the sequence number of its first chunk, so a client that sees a gap
+ * resumes the same way rather than render an answer with holes.
+ * A {@code cancel} frame stops a turn and its model call; the turn ends with a {@code cancelled}
+ * frame, as does a turn superseded by a newer message of the same session (see {@link TurnRegistry}).
+ * <p>
+ * The session, which keys the chat memory, is issued by the server: a message without a valid
+ * session token starts a new session and gets a {@code session} frame with its token (see
+ * {@link SessionTokens}), which later messages and resumes carry. Credit and cancel frames are
+ * accepted only from the client the turn is attached to, and a turn is resumed only by its session.
+ * <p>
+ * Frames without a type, and plain text, are read as messages with unlimited credit, as sent by
+ * clients of the earlier raw-text protocol.
+ */
+@ApplicationScoped
+public class ChatProtocol
+{
+    private static final Logger log = LoggerFactory.getLogger(ChatProtocol.class);
+
+    @Inject
+    ChatRouter chatRouter;
+
+    @Inject
+    TurnRegistry turnRegistry;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    PayloadLog payloadLog;
+
+    @Inject
+    SessionTokens sessionTokens;
+
+    @ConfigProperty(name = "niby.ws.protocol.default-credit", defaultValue = "64")
+    int defaultCredit;
+
+    // Session of each client, for the frames that do not carry its token
+    private final Map<String, String> channelSessions = new ConcurrentHashMap<>();
+
+    public void opened(ClientChannel channel)
+    {
+        send(channel, new ServerFrame(ServerFrame.NOTICE, null, null, ChatRouter.WELCOME));
+    }
+
+    /**
+     * @return session issued to a client, {@code null} before its first message
+     */
+    public String session(String channelId)
+    {
+        return channelSessions.get(channelId);
+    }
+
+    public void closed(ClientChannel channel)
+    {
+        channelSessions.remove(channel.id());
+        turnRegistry.detachAll(channel);
+    }
+
+    public void handle(ClientChannel channel, String text)
+    {
+        ClientFrame frame;
+        try {
+            frame = objectMapper.readValue(text, ClientFrame.class);
+        } catch (JsonProcessingException e) {
+            log.warn("Failed to parse JSON, treating as plain text: {}", e.getMessage());
+            frame = new ClientFrame(null, null, null, "basic", text, null, null);
+        }
+
+        String type = frame.type() == null ? ClientFrame.MESSAGE : frame.type();
+        switch (type) {
+            case ClientFrame.MESSAGE -> onMessage(channel, frame);
+            case ClientFrame.CREDIT -> {
+                Turn turn = turnRegistry.find(frame.turn());
+                if (turn != null && frame.credit() != null && frame.credit() > 0) {
+                    turn.grant(channel, frame.credit());
+                }
+            }
+            case ClientFrame.RESUME -> {
+                Turn turn = turnRegistry.find(frame.turn());
+                if (turn == null || !turn.session().equals(session(channel, frame))) {
+                    send(channel, new ServerFrame(ServerFrame.ERROR, frame.turn(), null, "Unknown or expired turn"));
+                    return;
+                }
+                log.info("Resuming turn [{}] after chunk {}", turn.id(), frame.after());
+                turn.attach(channel, this::send, frame.after() == null ? -1 : frame.after(), credit(frame));
+            }
+            case ClientFrame.CANCEL -> {
+                Turn turn = turnRegistry.find(frame.turn());
+                if (turn != null && turn.attachedTo(channel)) {
+                    log.info("Turn [{}] cancelled by the client", turn.id());
+                    turn.cancel("Cancelled");
+                } else if (turn != null) {
+                    log.warn("Ignoring cancel of turn [{}] from a client it is not attached to", turn.id());
+                }
+            }
+            default -> log.warn("Ignoring frame of unknown type '{}'", type);
+        }
+    }
+
+    private void onMessage(ClientChannel channel, ClientFrame frame)
+    {
+        if (frame.message() == null) {
+            send(channel, new ServerFrame(ServerFrame.ERROR, frame.turn(), null, "Empty message"));
+            return;
+        }
+        String session = session(channel, frame);
+        if (session == null) {
+            session = sessionTokens.newSession();
+            channelSessions.put(channel.id(), session);
+            send(channel, new ServerFrame(ServerFrame.SESSION, null, null, sessionTokens.token(session)));
+        }
+
+        String turnId = frame.turn() == null ? UUID.randomUUID().toString() : frame.turn();
+        Turn existing = turnRegistry.find(turnId);
+        if (existing != null) {
+            if (!existing.session().equals(session)) {
+                send(channel, new ServerFrame(ServerFrame.ERROR, turnId, null, "Unknown or expired turn"));
+                return;
+            }
+            log.info("Message for known turn [{}], resuming it", turnId);
+            existing.attach(channel, this::send, -1, credit(frame));
+            return;
+        }
+
+        log.info("Message in mode '{}', session [{}], turn [{}]", frame.mode(), session, turnId);
+        if (payloadLog.enabled(log, session)) {
+            log.info("Message of turn [{}]: {}", turnId, payloadLog.preview(frame.message()));
+        }
+        Turn turn;
+        try {
+            // A queued turn starts later, in the trace of the message that created it
+            Context trace = Context.current();
+            String memoryId = session;
+            turn = turnRegistry.start(turnId, session, () -> {
+                try (Scope ignored = trace.makeCurrent()) {
+                    return chatRouter.route(memoryId, frame.message(), frame.mode());
+                }
+            });
+        } catch (IllegalStateException e) {
+            send(channel, new ServerFrame(ServerFrame.ERROR, turnId, null, e.getMessage()));
+            return;
+        }
+        if (!turn.session().equals(session)) {
+            // Same turn id registered meanwhile by another session
+            send(channel, new ServerFrame(ServerFrame.ERROR, turnId, null, "Unknown or expired turn"));
+            return;
+        }
+        turn.attach(channel, this::send, -1, credit(frame));
+    }
+
+    /**
+     * Session of a frame: the one of its token if valid, otherwise the one already issued to the
+     * client, {@code null} if none.
+     */
+    private String session(ClientChannel channel, ClientFrame frame)
+    {
+        if (frame.session() != null && !frame.session().isBlank()) {
+            String session = sessionTokens.session(frame.session());
+            if (session != null) {
+                channelSessions.put(channel.id(), session);
+                return session;
+            }
+            log.warn("Ignoring invalid session token from client [{}]", channel.id());
+        }
+        return channelSessions.get(channel.id());
+    }
+
+    private long credit(ClientFrame frame)
+    {
+        if (frame.credit() != null) {
+            return Math.max(1, frame.credit());
+        }
+        // Clients of the raw-text protocol never grant credit
+        return frame.type() == null ? Long.MAX_VALUE / 2 : defaultCredit;
+    }
+
+    private void send(ClientChannel channel, ServerFrame frame)
+    {
+        try {
+            channel.sender().accept(objectMapper.writeValueAsString(frame));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package cloud.isaura.niby.ws;
+
+import cloud.isaura.niby.agents.act.ActAgent;
+import cloud.isaura.niby.agents.base.BasicAgent;
+import cloud.isaura.niby.agents.plan.PlanAgent;
+import cloud.isaura.niby.rag.SemanticAnswerCache;
+import cloud.isaura.niby.shared.logging.PayloadLog;
+import cloud.isaura.niby.telemetry.ChatTelemetry;
+import io.smallrye.mutiny.Multi;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+
+/**
+ * Streams the answer of the agent selected by the mode of a chat message, grouped into frames.
+ * Used by {@link ChatProtocol} for the per-client and the multiplexed WebSocket endpoints.
+ */
+@ApplicationScoped
+public class ChatRouter
+{
+    private static final Logger log = LoggerFactory.getLogger(ChatRouter.class);
+
+    static final String WELCOME = "Welcome to Niby! How can I help you today?";
+
+    @Inject
+    BasicAgent basicAgent;
+
+    @Inject
+    PlanAgent planAgent;
+
+    @Inject
+    ActAgent actAgent;
+
+    @Inject
+    TokenCoalescer tokenCoalescer;
+
+    @Inject
+    SemanticAnswerCache answerCache;
+
+    @Inject
+    ChatTelemetry chatTelemetry;
+
+    @Inject
+    PayloadLog payloadLog;
+
+    /**
+     * @param sessionId chat memory id of the conversation
+     * @param message   user text
+     * @param mode      {@code basic}, {@code plan} or {@code act}; unknown or absent modes use the basic agent
+     */
+    public Multi<String> route(String sessionId, String message, String mode) {
+        String normalizedMode = (mode == null ? "basic" : mode.toLowerCase(Locale.ROOT));
+        String agent;
+        switch (normalizedMode) {
+            case "plan":
+                log.info("Routing to PlanAgent");
+                agent = "plan";
+                break;
+            case "act":
+                log.info("Routing to ActAgent");
+                agent = "act";
+                break;
+            case "basic":
+            default:
+                if (!"basic".equals(normalizedMode)) {
+                    log.warn("Unknown mode '{}', falling back to BasicAgent", mode);
+                } else {
+                    log.info("Routing to BasicAgent");
+                }
+                agent = "basic";
+                break;
+        }
+        Multi<String> response = chatTelemetry.turn(agent,
+                () -> answerCache.answer(agent, sessionId, message, () -> chat(agent, sessionId, message)));
+
+        return tokenCoalescer.coalesce(response)
+                .onItem().invoke(frame -> {
+                    if (payloadLog.enabled(log, sessionId)) {
+                        log.info("Streaming frame of session [{}]: {}", sessionId, payloadLog.preview(frame));
+                    }
+                })
+                .onFailure().invoke(error -> log.error("Stream error: {}", error.getMessage(), error))
+                .onCompletion().invoke(() -> log.info("Stream completed"));
+    }
+
+    private Multi<String> chat(String agent, String sessionId, String message) {
+        return switch (agent) {
+            case "plan" -> planAgent.chat(sessionId, message);
+            case "act" -> actAgent.chat(sessionId, message);
+            default -> basicAgent.chat(sessionId, message);
+        };
+    }
+}
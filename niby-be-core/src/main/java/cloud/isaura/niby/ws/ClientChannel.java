@@ -0,0 +1,13 @@
+package cloud.isaura.niby.ws;
+
+import java.util.function.Consumer;
+
+/**
+ * A chat client as seen by {@link ChatProtocol}: a browser connection, or one client of a mux connection.
+ *
+ * @param id     connection id, unique per client
+ * @param sender sends a text frame without blocking
+ */
+public record ClientChannel(String id, Consumer<String> sender)
+{
+}
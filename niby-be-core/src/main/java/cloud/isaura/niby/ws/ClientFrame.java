@@ -0,0 +1,24 @@
+package cloud.isaura.niby.ws;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * Frame sent by a chat client, see {@link ChatProtocol}.
+ *
+ * @param type    {@code message}, {@code credit}, {@code resume} or {@code cancel}; a frame without type is a message
+ * @param session token of the conversation, as received in a {@code session} frame; a new session when absent or invalid
+ * @param turn    client-generated id of the turn the frame belongs to
+ * @param mode    agent of a message: {@code basic}, {@code plan} or {@code act}
+ * @param message user text of a message
+ * @param credit  number of chunk frames the client is ready to receive
+ * @param after   resume: sequence number of the last chunk received, {@code -1} for none
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record ClientFrame(String type, String session, String turn, String mode, String message,
+                          Integer credit, Long after)
+{
+    public static final String MESSAGE = "message";
+    public static final String CREDIT = "credit";
+    public static final String RESUME = "resume";
+    public static final String CANCEL = "cancel";
+}
@@ -0,0 +1,23 @@
+package cloud.isaura.niby.ws;
+
+import java.util.Map;
+
+/**
+ * Frame of the multiplexed protocol between niby-ui and {@link NibyMuxWebSocket}.
+ *
+ * @param type    {@code open}, {@code message} or {@code close} from niby-ui; {@code message} back to it
+ * @param cid     id of the browser connection the frame belongs to
+ * @param payload {@link ChatProtocol} frame, absent for open and close
+ * @param trace   W3C trace context of a message from niby-ui ({@code traceparent}, {@code tracestate})
+ */
+public record MuxFrame(String type, String cid, String payload, Map<String, String> trace)
+{
+    public static final String OPEN = "open";
+    public static final String MESSAGE = "message";
+    public static final String CLOSE = "close";
+
+    public MuxFrame(String type, String cid, String payload)
+    {
+        this(type, cid, payload, null);
+    }
+}
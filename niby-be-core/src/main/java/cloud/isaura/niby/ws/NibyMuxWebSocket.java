@@ -0,0 +1,117 @@
+package cloud.isaura.niby.ws;
+
+import cloud.isaura.niby.telemetry.ChatTelemetry;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.opentelemetry.context.Scope;
+import io.quarkus.websockets.next.OnClose;
+import io.quarkus.websockets.next.OnError;
+import io.quarkus.websockets.next.OnTextMessage;
+import io.quarkus.websockets.next.WebSocket;
+import io.quarkus.websockets.next.WebSocketConnection;
+import jakarta.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Multiplexed chat endpoint for niby-ui: one long-lived connection carries the conversations of many
+ * browser connections, each frame tagged with the browser connection id ({@link MuxFrame}).
+ * <p>
+ * Payloads are {@link ChatProtocol} frames, relayed by niby-ui as they are. Conversations and turns
+ * are identified by the session and turn ids inside them, so they survive a reconnection of the
+ * browser or of the pooled connection they travel on.
+ */
+@WebSocket(path = "/niby-ws-mux")
+public class NibyMuxWebSocket
+{
+    private static final Logger log = LoggerFactory.getLogger(NibyMuxWebSocket.class);
+
+    @Inject
+    ChatProtocol chatProtocol;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    ChatTelemetry chatTelemetry;
+
+    // Clients per mux connection, by browser connection id
+    private final Map<String, Map<String, ClientChannel>> channels = new ConcurrentHashMap<>();
+
+    @OnTextMessage
+    void onTextMessage(String text, WebSocketConnection connection)
+    {
+        MuxFrame frame;
+        try {
+            frame = objectMapper.readValue(text, MuxFrame.class);
+        } catch (JsonProcessingException e) {
+            log.warn("Ignoring malformed mux frame on [{}]: {}", connection.id(), e.getMessage());
+            return;
+        }
+        if (frame.cid() == null) {
+            log.warn("Ignoring mux frame without cid on [{}]", connection.id());
+            return;
+        }
+
+        Map<String, ClientChannel> connectionChannels =
+                channels.computeIfAbsent(connection.id(), id -> new ConcurrentHashMap<>());
+        switch (frame.type()) {
+            case MuxFrame.OPEN -> chatProtocol.opened(
+                    connectionChannels.computeIfAbsent(frame.cid(), cid -> channel(connection, cid)));
+            case MuxFrame.MESSAGE -> {
+                log.info("Received mux message for client [{}]", frame.cid());
+                // Continue the trace of the niby-ui relay
+                try (Scope ignored = chatTelemetry.extract(frame.trace()).makeCurrent()) {
+                    chatProtocol.handle(connectionChannels.computeIfAbsent(frame.cid(), cid -> channel(connection, cid)),
+                            frame.payload());
+                }
+            }
+            case MuxFrame.CLOSE -> {
+                ClientChannel channel = connectionChannels.remove(frame.cid());
+                if (channel != null) {
+                    chatProtocol.closed(channel);
+                }
+            }
+            default -> log.warn("Ignoring mux frame of unknown type '{}'", frame.type());
+        }
+    }
+
+    @OnClose
+    void onClose(WebSocketConnection connection)
+    {
+        Map<String, ClientChannel> connectionChannels = channels.remove(connection.id());
+        if (connectionChannels != null) {
+            connectionChannels.values().forEach(chatProtocol::closed);
+            log.info("Mux connection [{}] closed with {} client(s)", connection.id(), connectionChannels.size());
+        }
+    }
+
+    @OnError
+    void onError(Throwable t, WebSocketConnection connection)
+    {
+        log.error("WebSocket error in mux connection [{}]: {}", connection.id(), t.toString(), t);
+    }
+
+    private ClientChannel channel(WebSocketConnection connection, String cid)
+    {
+        return new ClientChannel(cid, payload -> send(connection, cid, payload));
+    }
+
+    private void send(WebSocketConnection connection, String cid, String payload)
+    {
+        String frame;
+        try {
+            frame = objectMapper.writeValueAsString(new MuxFrame(MuxFrame.MESSAGE, cid, payload));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+        // Writes are queued on the connection in call order; never block the streaming thread
+        connection.sendText(frame).subscribe().with(
+                ignored -> {
+                },
+                error -> log.warn("Failed to send frame to client [{}]: {}", cid, error.getMessage()));
+    }
+}
@@ -1,95 +1,61 @@
 package cloud.isaura.niby.ws;
 
-import cloud.isaura.niby.dto.ChatMessage;
-import cloud.isaura.niby.agents.act.ActAgent;
-import cloud.isaura.niby.agents.base.BasicAgent;
-import cloud.isaura.niby.agents.plan.PlanAgent;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import cloud.isaura.niby.shared.logging.PayloadLog;
 import io.quarkus.websockets.next.*;
-import io.smallrye.mutiny.Multi;
 import jakarta.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Locale;
-
+/**
+ * Browser chat endpoint speaking the framed {@link ChatProtocol}.
+ */
 @WebSocket(path = "/niby-ws")
 public class NibyWebSocket {
 
     private static final Logger log = LoggerFactory.getLogger(NibyWebSocket.class);
 
-    private final BasicAgent basicAgent;
-    private final PlanAgent planAgent;
-    private final ActAgent actAgent;
-    private final ObjectMapper objectMapper;
+    private final ChatProtocol chatProtocol;
+    private final PayloadLog payloadLog;
 
     @Inject
-    public NibyWebSocket(BasicAgent basicAgent,
-                         PlanAgent planAgent,
-                         ActAgent actAgent,
-                         ObjectMapper objectMapper) {
-        this.basicAgent = basicAgent;
-        this.planAgent = planAgent;
-        this.actAgent = actAgent;
-        this.objectMapper = objectMapper;
+    public NibyWebSocket(ChatProtocol chatProtocol, PayloadLog payloadLog) {
+        this.chatProtocol = chatProtocol;
+        this.payloadLog = payloadLog;
     }
 
     @OnOpen
-    public String onOpen() {
-        return "Welcome to Niby! How can I help you today?";
+    public void onOpen(WebSocketConnection connection) {
+        chatProtocol.opened(channel(connection));
     }
 
     @OnTextMessage
-    public Multi<String> onTextMessage(String message, WebSocketConnection connection) {
-        log.info("Received message from WebSocket");
-        log.info("Raw message content: {}", message);
-
-        String sessionId = connection.id();
-
-        try {
-            ChatMessage chatMessage = objectMapper.readValue(message, ChatMessage.class);
-            String mode = chatMessage.getMode();
-            String text = chatMessage.getMessage();
-            log.info("Parsed message: '{}', mode: '{}'", text, mode);
-            return routeToAgent(sessionId, text, mode);
-        } catch (Exception e) {
-            log.warn("Failed to parse JSON, treating as plain text: {}", e.getMessage());
-            return routeToAgent(sessionId, message, "basic");
+    public void onTextMessage(String message, WebSocketConnection connection) {
+        // Also called for every credit frame of a streamed answer
+        // Keyed by chat session like the other payload lines, so one debug session traces the whole turn
+        String session = chatProtocol.session(connection.id());
+        if (payloadLog.enabled(log, session)) {
+            log.info("Received frame from [{}] of session [{}]: {}", connection.id(), session,
+                    payloadLog.preview(message));
         }
-    }
 
-    private Multi<String> routeToAgent(String sessionId, String message, String mode) {
-        String normalizedMode = (mode == null ? "basic" : mode.toLowerCase(Locale.ROOT));
-        Multi<String> response;
-        switch (normalizedMode) {
-            case "plan":
-                log.info("Routing to PlanAgent");
-                response = planAgent.chat(sessionId, message);
-                break;
-            case "act":
-                log.info("Routing to ActAgent");
-                response = actAgent.chat(sessionId, message);
-                break;
-            case "basic":
-            default:
-                if (!"basic".equals(normalizedMode)) {
-                    log.warn("Unknown mode '{}', falling back to BasicAgent", mode);
-                } else {
-                    log.info("Routing to BasicAgent");
-                }
-                response = basicAgent.chat(sessionId, message);
-                break;
-        }
+        chatProtocol.handle(channel(connection), message);
+    }
 
-        // Add logging to debug streaming
-        return response
-                .onItem().invoke(item -> log.info("Streaming chunk: {}", item))
-                .onFailure().invoke(error -> log.error("Stream error: {}", error.getMessage(), error))
-                .onCompletion().invoke(() -> log.info("Stream completed"));
+    @OnClose
+    public void onClose(WebSocketConnection connection) {
+        chatProtocol.closed(channel(connection));
     }
 
     @OnError
     void onError(Throwable t, WebSocketConnection connection) {
         log.error("WebSocket error in session [{}]: {}", connection.id(), t.toString(), t);
     }
+
+    private static ClientChannel channel(WebSocketConnection connection) {
+        // Writes are queued on the connection in call order; never block the streaming thread
+        return new ClientChannel(connection.id(), text -> connection.sendText(text).subscribe().with(
+                ignored -> {
+                },
+                error -> log.warn("Failed to send frame to [{}]: {}", connection.id(), error.getMessage())));
+    }
 }
@@ -0,0 +1,29 @@
+package cloud.isaura.niby.ws;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Frame sent to a chat client, see {@link ChatProtocol}.
+ *
+ * @param type  {@code session}, {@code notice}, {@code start}, {@code chunk}, {@code end}, {@code error} or {@code cancelled}
+ * @param turn  id of the turn, absent for notices
+ * @param first chunk: sequence number of the first chunk in the frame, so the client can detect a gap
+ * @param seq   chunk: sequence number of the last chunk in the frame; end: of the last chunk of the turn
+ * @param text  session token, notice or chunk text, error message or cancellation reason
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ServerFrame(String type, String turn, Long first, Long seq, String text)
+{
+    public static final String SESSION = "session";
+    public static final String NOTICE = "notice";
+    public static final String START = "start";
+    public static final String CHUNK = "chunk";
+    public static final String END = "end";
+    public static final String ERROR = "error";
+    public static final String CANCELLED = "cancelled";
+
+    public ServerFrame(String type, String turn, Long seq, String text)
+    {
+        this(type, turn, null, seq, text);
+    }
+}
@@ -0,0 +1,95 @@
+package cloud.isaura.niby.ws;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Session tokens handed to chat clients: a server-generated session id, which is also the chat
+ * memory id, followed by its HMAC.
+ * <p>
+ * Clients present the token to continue a conversation after reconnecting, but cannot choose the
+ * memory id themselves. The key is {@code niby.ws.session.secret}; without it a random key is
+ * used, and sessions do not survive a restart.
+ */
+@ApplicationScoped
+public class SessionTokens
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SessionTokens.class);
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    @ConfigProperty(name = "niby.ws.session.secret")
+    Optional<String> secret;
+
+    private SecretKeySpec key;
+
+    @PostConstruct
+    void init()
+    {
+        byte[] bytes;
+        if (secret.isPresent() && !secret.get().isBlank()) {
+            bytes = secret.get().getBytes(StandardCharsets.UTF_8);
+        } else {
+            LOG.warn("niby.ws.session.secret is not set, chat sessions will not survive a restart");
+            bytes = new byte[32];
+            new SecureRandom().nextBytes(bytes);
+        }
+        key = new SecretKeySpec(bytes, ALGORITHM);
+    }
+
+    /**
+     * @return the session id of a new session
+     */
+    public String newSession()
+    {
+        return UUID.randomUUID().toString();
+    }
+
+    public String token(String session)
+    {
+        return session + "." + mac(session);
+    }
+
+    /**
+     * @return the session id of a valid token, {@code null} otherwise
+     */
+    public String session(String token)
+    {
+        if (token == null) {
+            return null;
+        }
+        int dot = token.lastIndexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        String session = token.substring(0, dot);
+        byte[] expected = mac(session).getBytes(StandardCharsets.US_ASCII);
+        byte[] actual = token.substring(dot + 1).getBytes(StandardCharsets.US_ASCII);
+        return MessageDigest.isEqual(expected, actual) ? session : null;
+    }
+
+    private String mac(String session)
+    {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(mac.doFinal(session.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " not available", e);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package cloud.isaura.niby.ws;
+
+import cloud.isaura.niby.shared.metrics.RollingRate;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the tokens produced by the agents and the WebSocket frames they are sent in.
+ * <p>
+ * Totals are kept since startup; the frame rate is computed over the last minute (see {@link RollingRate}).
+ */
+@ApplicationScoped
+public class StreamMetrics
+{
+    public record Stats(long tokens, long frames, long chars, double tokensPerFrame, double averageFrameChars,
+                        double framesPerSecond)
+    {
+    }
+
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder chars = new LongAdder();
+
+    // Frames per second of the last minute
+    private final RollingRate frameRate = new RollingRate();
+
+    void token()
+    {
+        tokens.increment();
+    }
+
+    void frame(String text)
+    {
+        frames.increment();
+        chars.add(text.length());
+        frameRate.add(1);
+    }
+
+    public Stats stats()
+    {
+        long frameCount = frames.sum();
+        long charCount = chars.sum();
+        long tokenCount = tokens.sum();
+        return new Stats(tokenCount, frameCount, charCount,
+                frameCount == 0 ? 0 : (double) tokenCount / frameCount,
+                frameCount == 0 ? 0 : (double) charCount / frameCount,
+                frameRate.perSecond());
+    }
+}
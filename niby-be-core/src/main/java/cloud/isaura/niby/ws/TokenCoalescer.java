@@ -0,0 +1,123 @@
+package cloud.isaura.niby.ws;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import io.smallrye.mutiny.subscription.Cancellable;
+import io.smallrye.mutiny.subscription.MultiEmitter;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups streamed model tokens into larger WebSocket frames.
+ * <p>
+ * A token arriving after the stream has been quiet for a whole window is sent at once, so the first
+ * token of an answer is never delayed. Tokens arriving faster are buffered and sent together when
+ * the window since the first buffered token elapses, when the buffer reaches the size limit, or
+ * when the stream ends.
+ */
+@ApplicationScoped
+public class TokenCoalescer
+{
+    @ConfigProperty(name = "niby.ws.coalesce.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "niby.ws.coalesce.window", defaultValue = "30ms")
+    Duration window;
+
+    @ConfigProperty(name = "niby.ws.coalesce.max-chars", defaultValue = "512")
+    int maxChars;
+
+    @Inject
+    StreamMetrics metrics;
+
+    public Multi<String> coalesce(Multi<String> tokens)
+    {
+        if (!enabled) {
+            return tokens.onItem().invoke(token -> {
+                metrics.token();
+                metrics.frame(token);
+            });
+        }
+        return Multi.createFrom().emitter(emitter -> {
+            Buffer buffer = new Buffer(emitter);
+            Cancellable upstream = tokens.subscribe().with(buffer::onToken, buffer::onFailure, buffer::onComplete);
+            emitter.onTermination(() -> {
+                upstream.cancel();
+                buffer.cancelTimer();
+            });
+        });
+    }
+
+    /**
+     * Coalescing state of one stream. Emission happens under the lock so frames keep token order.
+     */
+    private final class Buffer
+    {
+        private final MultiEmitter<? super String> emitter;
+        private final StringBuilder pending = new StringBuilder();
+        private final long windowNanos = window.toNanos();
+        private long lastEmitNanos = System.nanoTime() - windowNanos;
+        private ScheduledFuture<?> timer;
+
+        Buffer(MultiEmitter<? super String> emitter)
+        {
+            this.emitter = emitter;
+        }
+
+        synchronized void onToken(String token)
+        {
+            metrics.token();
+            if (pending.isEmpty() && System.nanoTime() - lastEmitNanos >= windowNanos) {
+                emit(token);
+                return;
+            }
+            pending.append(token);
+            if (pending.length() >= maxChars) {
+                flush();
+            } else if (timer == null) {
+                timer = Infrastructure.getDefaultWorkerPool().schedule(this::flush, windowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        synchronized void onFailure(Throwable failure)
+        {
+            flush();
+            emitter.fail(failure);
+        }
+
+        synchronized void onComplete()
+        {
+            flush();
+            emitter.complete();
+        }
+
+        synchronized void flush()
+        {
+            cancelTimer();
+            if (!pending.isEmpty()) {
+                emit(pending.toString());
+                pending.setLength(0);
+            }
+        }
+
+        synchronized void cancelTimer()
+        {
+            if (timer != null) {
+                timer.cancel(false);
+                timer = null;
+            }
+        }
+
+        private void emit(String frame)
+        {
+            lastEmitNanos = System.nanoTime();
+            metrics.frame(frame);
+            emitter.emit(frame);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package cloud.isaura.niby.ws;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.subscription.Cancellable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * One answer being streamed, kept independently of the connection it was requested on.
+ * <p>
+ * Every chunk produced by the agent is recorded with its sequence number, so a client that
+ * reconnects can attach again and get the chunks it missed without running the model again.
+ * Chunks are sent only while the attached client has credit; chunks that piled up meanwhile are
+ * merged into one frame when credit arrives.
+ * <p>
+ * The answer stream is subscribed when {@link TurnRegistry} starts the turn, which may be after it
+ * waited for earlier turns of its session. The done callback runs outside the turn lock.
+ */
+final class Turn
+{
+    private static final int MAX_FRAME_CHARS = 8192;
+
+    private final String id;
+    private final String session;
+    private final Supplier<Multi<String>> answer;
+    private final List<String> chunks = new ArrayList<>();
+
+    private Runnable onDone = () -> {
+    };
+    private Cancellable upstream;
+    private boolean done;
+    private String outcome = ServerFrame.END;
+    private String detail;
+    private long finishedAt;
+
+    private ClientChannel channel;
+    private BiConsumer<ClientChannel, ServerFrame> sender;
+    private int nextSeq;
+    private long credit;
+    private boolean endSent;
+    private long detachedAt;
+
+    Turn(String id, String session, Supplier<Multi<String>> answer)
+    {
+        this.id = id;
+        this.session = session;
+        this.answer = answer;
+        this.detachedAt = System.currentTimeMillis();
+    }
+
+    String id()
+    {
+        return id;
+    }
+
+    String session()
+    {
+        return session;
+    }
+
+    synchronized void onDone(Runnable onDone)
+    {
+        this.onDone = onDone;
+    }
+
+    /**
+     * Subscribe to the answer stream, unless the turn was cancelled while it waited. A stream that
+     * cannot be created fails the turn.
+     */
+    void start()
+    {
+        synchronized (this) {
+            if (done || upstream != null) {
+                return;
+            }
+        }
+        Multi<String> stream;
+        try {
+            stream = answer.get();
+        } catch (RuntimeException e) {
+            // Ends the turn, so the next one of the session starts
+            onFailure(e);
+            return;
+        }
+        Cancellable subscription = stream.subscribe().with(this::onChunk, this::onFailure, this::onComplete);
+        synchronized (this) {
+            upstream = subscription;
+            if (done) {
+                subscription.cancel();
+            }
+        }
+    }
+
+    synchronized void onChunk(String chunk)
+    {
+        if (!done) {
+            chunks.add(chunk);
+            pump();
+        }
+    }
+
+    void onComplete()
+    {
+        finish(ServerFrame.END, null);
+    }
+
+    void onFailure(Throwable failure)
+    {
+        finish(ServerFrame.ERROR,
+                failure.getMessage() == null ? failure.getClass().getSimpleName() : failure.getMessage());
+    }
+
+    /**
+     * Stop the agent stream, which cancels the model call; an attached client gets a cancelled frame.
+     */
+    void cancel(String reason)
+    {
+        Cancellable subscription;
+        synchronized (this) {
+            subscription = upstream;
+        }
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        finish(ServerFrame.CANCELLED, reason);
+    }
+
+    /**
+     * Attach a client and send it every chunk after {@code after}, as far as its credit allows.
+     */
+    synchronized void attach(ClientChannel channel, BiConsumer<ClientChannel, ServerFrame> sender,
+                             long after, long credit)
+    {
+        this.channel = channel;
+        this.sender = sender;
+        this.nextSeq = (int) Math.max(0, Math.min(after + 1, chunks.size()));
+        this.credit = credit;
+        this.endSent = false;
+        if (after < 0) {
+            sender.accept(channel, new ServerFrame(ServerFrame.START, id, null, null));
+        }
+        pump();
+    }
+
+    synchronized void grant(ClientChannel from, long credit)
+    {
+        if (channel != null && channel.id().equals(from.id())) {
+            this.credit = Math.min(Long.MAX_VALUE - credit, this.credit) + credit;
+            pump();
+        }
+    }
+
+    synchronized boolean attachedTo(ClientChannel client)
+    {
+        return channel != null && channel.id().equals(client.id());
+    }
+
+    synchronized void detach(ClientChannel from)
+    {
+        if (channel != null && channel.id().equals(from.id())) {
+            channel = null;
+            sender = null;
+            detachedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return whether the turn finished longer than {@code retentionMillis} ago
+     */
+    synchronized boolean expired(long now, long retentionMillis)
+    {
+        return done && now - finishedAt > retentionMillis;
+    }
+
+    /**
+     * @return whether the turn is still running with no client attached for longer than {@code graceMillis}
+     */
+    synchronized boolean abandoned(long now, long graceMillis)
+    {
+        return !done && channel == null && now - detachedAt > graceMillis;
+    }
+
+    synchronized boolean isDone()
+    {
+        return done;
+    }
+
+    private void finish(String outcome, String detail)
+    {
+        Runnable callback;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            done = true;
+            this.outcome = outcome;
+            this.detail = detail;
+            finishedAt = System.currentTimeMillis();
+            pump();
+            callback = onDone;
+        }
+        callback.run();
+    }
+
+    private void pump()
+    {
+        if (channel == null) {
+            return;
+        }
+        while (credit > 0 && nextSeq < chunks.size()) {
+            long first = nextSeq;
+            StringBuilder frame = new StringBuilder(chunks.get(nextSeq++));
+            while (nextSeq < chunks.size() && frame.length() + chunks.get(nextSeq).length() <= MAX_FRAME_CHARS) {
+                frame.append(chunks.get(nextSeq++));
+            }
+            credit--;
+            sender.accept(channel, new ServerFrame(ServerFrame.CHUNK, id, first, (long) nextSeq - 1, frame.toString()));
+        }
+        if (done && !endSent && nextSeq == chunks.size()) {
+            endSent = true;
+            sender.accept(channel, new ServerFrame(outcome, id, (long) chunks.size() - 1, detail));
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package cloud.isaura.niby.ws;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.smallrye.mutiny.Multi;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Turns that can still be resumed, by turn id, and the turns in progress of every session.
+ * <p>
+ * Turns of one session run one at a time, since they share its chat memory. With
+ * {@code niby.ws.session.new-message=cancel} a new message cancels the turn in progress, so an
+ * abandoned answer stops using tokens at once; with {@code queue} it waits for it. A session has at
+ * most {@code niby.ws.session.max-turns} turns running or waiting.
+ * <p>
+ * A finished turn is kept for {@code niby.ws.turn.retention} so it can be replayed. An unfinished
+ * turn left without a client for {@code niby.ws.turn.abandon-after} is cancelled.
+ */
+@ApplicationScoped
+public class TurnRegistry
+{
+    private static final Logger LOG = LoggerFactory.getLogger(TurnRegistry.class);
+
+    @ConfigProperty(name = "niby.ws.turn.retention", defaultValue = "5m")
+    Duration retention;
+
+    @ConfigProperty(name = "niby.ws.turn.abandon-after", defaultValue = "30s")
+    Duration abandonAfter;
+
+    @ConfigProperty(name = "niby.ws.turn.max-turns", defaultValue = "2000")
+    int maxTurns;
+
+    @ConfigProperty(name = "niby.ws.session.new-message", defaultValue = "cancel")
+    String newMessagePolicy;
+
+    @ConfigProperty(name = "niby.ws.session.max-turns", defaultValue = "3")
+    int maxTurnsPerSession;
+
+    private final Map<String, Turn> turns = new ConcurrentHashMap<>();
+
+    // Running turn first, then the waiting ones
+    private final Map<String, Deque<Turn>> sessions = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "turn-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    void onStart(@Observes StartupEvent event)
+    {
+        sweeper.scheduleWithFixedDelay(this::sweep, 5, 5, TimeUnit.SECONDS);
+    }
+
+    void onStop(@Observes ShutdownEvent event)
+    {
+        sweeper.shutdownNow();
+        turns.values().forEach(turn -> turn.cancel("Server shutting down"));
+    }
+
+    Turn find(String turnId)
+    {
+        return turnId == null ? null : turns.get(turnId);
+    }
+
+    /**
+     * Register a turn and run it once the earlier turns of its session are done; the answer stream
+     * runs whether or not a client is attached.
+     *
+     * @param answer creates the answer stream when the turn starts
+     * @return the registered turn, or an existing one with the same id
+     * @throws IllegalStateException if the server or the session has too many turns
+     */
+    Turn start(String turnId, String session, Supplier<Multi<String>> answer)
+    {
+        if (turns.size() >= maxTurns) {
+            sweep();
+            if (turns.size() >= maxTurns) {
+                throw new IllegalStateException("Too many turns in progress");
+            }
+        }
+        Turn turn = new Turn(turnId, session, answer);
+        Turn existing = turns.putIfAbsent(turnId, turn);
+        if (existing != null) {
+            return existing;
+        }
+
+        if ("cancel".equalsIgnoreCase(newMessagePolicy)) {
+            // Taken out of the session queue before any is cancelled, so that cancelling the running
+            // turn does not start a waiting one that is cancelled next
+            Deque<Turn> current = sessions.get(session);
+            List<Turn> previous = List.of();
+            if (current != null) {
+                synchronized (current) {
+                    previous = new ArrayList<>(current);
+                    current.clear();
+                }
+            }
+            for (Turn cancelled : previous) {
+                LOG.info("Cancelling turn [{}] of session [{}] for a new message", cancelled.id(), session);
+                cancelled.cancel("Cancelled by a newer message");
+            }
+        }
+
+        boolean runNow;
+        while (true) {
+            Deque<Turn> queue = sessions.computeIfAbsent(session, key -> new ArrayDeque<>());
+            synchronized (queue) {
+                if (sessions.get(session) != queue) {
+                    // Emptied and removed meanwhile
+                    continue;
+                }
+                if (queue.size() >= maxTurnsPerSession) {
+                    turns.remove(turnId);
+                    throw new IllegalStateException("Too many turns in progress for this conversation");
+                }
+                turn.onDone(() -> next(session, turn));
+                queue.addLast(turn);
+                runNow = queue.size() == 1;
+                break;
+            }
+        }
+        if (runNow) {
+            turn.start();
+        }
+        return turn;
+    }
+
+    /**
+     * Detach a client from every turn it is attached to.
+     */
+    void detachAll(ClientChannel channel)
+    {
+        turns.values().forEach(turn -> turn.detach(channel));
+    }
+
+    /**
+     * Remove a finished turn from its session and start the next waiting one.
+     */
+    private void next(String session, Turn done)
+    {
+        Deque<Turn> queue = sessions.get(session);
+        if (queue == null) {
+            return;
+        }
+        Turn next = null;
+        synchronized (queue) {
+            boolean wasRunning = queue.peekFirst() == done;
+            queue.remove(done);
+            if (queue.isEmpty()) {
+                sessions.remove(session, queue);
+            } else if (wasRunning) {
+                next = queue.peekFirst();
+            }
+        }
+        if (next != null) {
+            next.start();
+        }
+    }
+
+    private void sweep()
+    {
+        long now = System.currentTimeMillis();
+        long retentionMillis = retention.toMillis();
+        long abandonMillis = abandonAfter.toMillis();
+        List<Turn> abandoned = new ArrayList<>();
+        turns.values().removeIf(turn -> {
+            if (turn.abandoned(now, abandonMillis)) {
+                abandoned.add(turn);
+            }
+            return turn.expired(now, retentionMillis);
+        });
+        for (Turn turn : abandoned) {
+            LOG.info("Cancelling turn [{}] of session [{}], abandoned by its client", turn.id(), turn.session());
+            turn.cancel("Abandoned");
+        }
+    }
+}
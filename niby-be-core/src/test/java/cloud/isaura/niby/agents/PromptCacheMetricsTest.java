@@ -0,0 +1,99 @@
+package cloud.isaura.niby.agents;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.anthropic.AnthropicTokenUsage;
+import dev.langchain4j.model.chat.listener.ChatModelResponseContext;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.TokenUsage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PromptCacheMetricsTest
+{
+    private final PromptCacheMetrics metrics = new PromptCacheMetrics();
+
+    @BeforeEach
+    void setUp()
+    {
+        metrics.init();
+    }
+
+    @Test
+    void callIsAttributedToTheServiceOfItsSystemPrompt() throws IOException
+    {
+        String basicPrompt = resource("/system-messages/basic-agent.txt");
+
+        respond(List.of(SystemMessage.from(basicPrompt + "\n"), UserMessage.from("How does PutFile work?")),
+                anthropicUsage(100, 900, 0, 50));
+        respond(List.of(SystemMessage.from(basicPrompt), UserMessage.from("And GetFile?")),
+                anthropicUsage(100, 0, 900, 50));
+
+        assertEquals(new PromptCacheMetrics.Stats(2, 200, 900, 900, 100, 0.45), metrics.stats().get("basic"));
+    }
+
+    @Test
+    void callsWithAnUnknownOrNoSystemPromptAreCountedAsOther()
+    {
+        respond(List.of(SystemMessage.from("You are a helpful assistant."), UserMessage.from("Hello")),
+                anthropicUsage(10, 0, 0, 5));
+        respond(List.of(UserMessage.from("Hello")), anthropicUsage(10, 0, 0, 5));
+
+        assertEquals(Set.of("other"), metrics.stats().keySet());
+        assertEquals(2, metrics.stats().get("other").requests());
+    }
+
+    @Test
+    void usageWithoutCacheFieldsCountsAsUncached()
+    {
+        respond(List.of(UserMessage.from("Hello")), new TokenUsage(40, 10));
+
+        assertEquals(new PromptCacheMetrics.Stats(1, 40, 0, 0, 10, 0), metrics.stats().get("other"));
+    }
+
+    @Test
+    void responseWithoutUsageIsNotCounted()
+    {
+        respond(List.of(UserMessage.from("Hello")), null);
+
+        assertEquals(Map.of(), metrics.stats());
+    }
+
+    private void respond(List<ChatMessage> messages, TokenUsage usage)
+    {
+        ChatRequest request = ChatRequest.builder().messages(messages).build();
+        ChatResponse response = ChatResponse.builder().aiMessage(AiMessage.from("Answer")).tokenUsage(usage).build();
+        metrics.onResponse(new ChatModelResponseContext(response, request, ModelProvider.ANTHROPIC, new HashMap<>()));
+    }
+
+    private static AnthropicTokenUsage anthropicUsage(int input, int cacheRead, int cacheWrite, int output)
+    {
+        return AnthropicTokenUsage.builder()
+                .inputTokenCount(input)
+                .cacheReadInputTokens(cacheRead)
+                .cacheCreationInputTokens(cacheWrite)
+                .outputTokenCount(output)
+                .build();
+    }
+
+    private static String resource(String name) throws IOException
+    {
+        try (InputStream in = PromptCacheMetricsTest.class.getResourceAsStream(name)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
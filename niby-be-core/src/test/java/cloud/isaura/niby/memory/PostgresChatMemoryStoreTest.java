@@ -0,0 +1,240 @@
+package cloud.isaura.niby.memory;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.JacksonChatMessageJsonCodec;
+import dev.langchain4j.data.message.UserMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class PostgresChatMemoryStoreTest
+{
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final List<ChatMessage> FIRST_TURN =
+            List.of(UserMessage.from("How does PutFile work?"), AiMessage.from("It writes flow files to disk."));
+    private static final List<ChatMessage> SECOND_TURN = List.of(UserMessage.from("How does PutFile work?"),
+            AiMessage.from("It writes flow files to disk."), UserMessage.from("And GetFile?"));
+
+    private static final JacksonChatMessageJsonCodec CODEC = new JacksonChatMessageJsonCodec();
+
+    private final PostgresChatMemoryStore store = new PostgresChatMemoryStore();
+
+    // The chat memory table of the fake database: memory id to messages JSON
+    private final Map<String, String> table = new ConcurrentHashMap<>();
+    private final AtomicInteger loads = new AtomicInteger();
+    private final AtomicInteger batches = new AtomicInteger();
+    private volatile boolean failWrites;
+    private volatile CountDownLatch loadStarted = new CountDownLatch(0);
+    private volatile CountDownLatch loadGate = new CountDownLatch(0);
+
+    @BeforeEach
+    void setUp() throws SQLException
+    {
+        store.dataSource = fake(DataSource.class, (proxy, method, args) -> switch (method.getName()) {
+            case "getConnection" -> connection();
+            default -> null;
+        });
+        store.table = "niby.chat_memory";
+        // One conversation in the hot tier, so a second one pushes the first out
+        store.hotMaxEntries = 1;
+        store.hotTtl = Duration.ofMinutes(30);
+        // Flushes are triggered by the tests
+        store.flushInterval = Duration.ofHours(1);
+        store.retention = Duration.ofDays(30);
+        // The Quarkus codec needs the CDI container
+        store.toJson = CODEC::messagesToJson;
+        store.fromJson = CODEC::messagesFromJson;
+        store.onStart(null);
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        loadGate.countDown();
+        store.onStop(null);
+    }
+
+    @Test
+    void updatesAreWrittenBehindInOneBatch()
+    {
+        store.updateMessages("s1", FIRST_TURN);
+        store.updateMessages("s2", FIRST_TURN);
+        store.updateMessages("s1", SECOND_TURN);
+        assertEquals(Map.of(), table);
+        assertEquals(2, store.pendingWrites());
+
+        store.flush();
+
+        assertEquals(Map.of("s1", json(SECOND_TURN), "s2", json(FIRST_TURN)), table);
+        assertEquals(1, batches.get());
+        assertEquals(0, store.pendingWrites());
+    }
+
+    @Test
+    void readDuringAPendingWriteSeesTheUpdate()
+    {
+        store.updateMessages("s1", FIRST_TURN);
+        // Pushes s1 out of the hot tier while its write is still pending
+        store.updateMessages("s2", FIRST_TURN);
+
+        assertEquals(FIRST_TURN, store.getMessages("s1"));
+        assertEquals(0, loads.get());
+    }
+
+    @Test
+    void missIsLoadedOnceAndThenServedFromTheHotTier()
+    {
+        table.put("s1", json(FIRST_TURN));
+
+        assertEquals(FIRST_TURN, store.getMessages("s1"));
+        assertEquals(FIRST_TURN, store.getMessages("s1"));
+
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void failedWriteStaysQueuedForTheNextFlush()
+    {
+        store.updateMessages("s1", FIRST_TURN);
+        failWrites = true;
+
+        store.flush();
+        assertEquals(1, store.pendingWrites());
+
+        failWrites = false;
+        store.flush();
+        assertEquals(Map.of("s1", json(FIRST_TURN)), table);
+        assertEquals(0, store.pendingWrites());
+    }
+
+    @Test
+    void deleteIsWrittenBehind()
+    {
+        table.put("s1", json(FIRST_TURN));
+
+        store.deleteMessages("s1");
+        assertEquals(List.of(), store.getMessages("s1"));
+        store.flush();
+
+        assertEquals(Map.of(), table);
+        assertEquals(List.of(), store.getMessages("s1"));
+    }
+
+    @Test
+    void updateRacingALoadIsNotOverwrittenByTheLoadedState()
+    {
+        table.put("s1", json(FIRST_TURN));
+        loadStarted = new CountDownLatch(1);
+        loadGate = new CountDownLatch(1);
+        AtomicReference<List<ChatMessage>> read = new AtomicReference<>();
+        Thread reader = new Thread(() -> read.set(store.getMessages("s1")));
+        Thread writer = new Thread(() -> {
+            store.updateMessages("s1", SECOND_TURN);
+            store.flush();
+        });
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            reader.start();
+            loadStarted.await();
+            writer.start();
+            // The update waits for the load of the same conversation
+            while (writer.getState() != Thread.State.BLOCKED) {
+                Thread.sleep(1);
+            }
+            loadGate.countDown();
+            reader.join();
+            writer.join();
+        });
+
+        assertEquals(FIRST_TURN, read.get());
+        assertEquals(SECOND_TURN, store.getMessages("s1"));
+        assertEquals(json(SECOND_TURN), table.get("s1"));
+    }
+
+    private static String json(List<ChatMessage> messages)
+    {
+        return CODEC.messagesToJson(messages);
+    }
+
+    private Connection connection()
+    {
+        return fake(Connection.class, (proxy, method, args) -> switch (method.getName()) {
+            case "createStatement" -> fake(Statement.class, (statement, call, arguments) ->
+                    call.getName().equals("execute") ? false : null);
+            case "prepareStatement" -> preparedStatement((String) args[0]);
+            default -> null;
+        });
+    }
+
+    private PreparedStatement preparedStatement(String sql)
+    {
+        Map<Integer, String> parameters = new HashMap<>();
+        List<Map<Integer, String>> batch = new ArrayList<>();
+        return fake(PreparedStatement.class, (proxy, method, args) -> switch (method.getName()) {
+            case "setString" -> {
+                parameters.put((Integer) args[0], (String) args[1]);
+                yield null;
+            }
+            case "addBatch" -> {
+                batch.add(new HashMap<>(parameters));
+                yield null;
+            }
+            case "executeBatch" -> {
+                if (failWrites) {
+                    throw new SQLException("Connection reset");
+                }
+                if (sql.startsWith("INSERT")) {
+                    batches.incrementAndGet();
+                    batch.forEach(row -> table.put(row.get(1), row.get(2)));
+                } else {
+                    batch.forEach(row -> table.remove(row.get(1)));
+                }
+                yield new int[batch.size()];
+            }
+            case "executeQuery" -> {
+                loads.incrementAndGet();
+                loadStarted.countDown();
+                loadGate.await();
+                yield resultSet(table.get(parameters.get(1)));
+            }
+            default -> null;
+        });
+    }
+
+    private static ResultSet resultSet(String messages)
+    {
+        AtomicInteger position = new AtomicInteger();
+        return fake(ResultSet.class, (proxy, method, args) -> switch (method.getName()) {
+            case "next" -> messages != null && position.getAndIncrement() == 0;
+            case "getString" -> messages;
+            default -> null;
+        });
+    }
+
+    private static <T> T fake(Class<T> type, InvocationHandler handler)
+    {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}
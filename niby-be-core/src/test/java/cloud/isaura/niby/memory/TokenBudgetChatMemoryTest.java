@@ -0,0 +1,143 @@
+package cloud.isaura.niby.memory;
+
+import cloud.isaura.niby.rag.RagRetrievalAugmentor;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.store.memory.chat.InMemoryChatMemoryStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBudgetChatMemoryTest
+{
+    private static final String MEMORY_ID = "session-1";
+    // Every message counts as this many tokens
+    private static final int MESSAGE_TOKENS = 10;
+
+    private static final SystemMessage PROMPT = SystemMessage.from("You are a NiFi assistant.");
+
+    private final InMemoryChatMemoryStore store = new InMemoryChatMemoryStore();
+    private final List<String> summarized = new ArrayList<>();
+    private final ChatMemoryCompactor compactor = new ChatMemoryCompactor();
+
+    @AfterEach
+    void stopCompactor()
+    {
+        compactor.onStop(null);
+    }
+
+    @Test
+    void keepsTheNewestMessagesWithinTheBudgetStartingOnAUserMessage()
+    {
+        TokenBudgetChatMemory memory = memory(45, false);
+        memory.add(PROMPT);
+        conversation(3).forEach(memory::add);
+
+        // 35 tokens left after the prompt fit three messages, the first of them an AI message
+        assertEquals(List.of(PROMPT, UserMessage.from("question 3"), AiMessage.from("answer 3")), memory.messages());
+        assertEquals(7, store.getMessages(MEMORY_ID).size());
+    }
+
+    @Test
+    void alwaysKeepsTheLastMessage()
+    {
+        TokenBudgetChatMemory memory = memory(5, false);
+        memory.add(PROMPT);
+        conversation(2).forEach(memory::add);
+
+        assertEquals(List.of(PROMPT, AiMessage.from("answer 2")), memory.messages());
+    }
+
+    @Test
+    void newUserMessageStripsRetrievedContentOfEarlierOnes()
+    {
+        TokenBudgetChatMemory memory = memory(1000, false);
+        memory.add(UserMessage.from("question 1" + RagRetrievalAugmentor.CONTEXT_HEADER + "PutFile writes flow files"));
+        memory.add(AiMessage.from("answer 1"));
+        memory.add(UserMessage.from("question 2" + RagRetrievalAugmentor.CONTEXT_HEADER + "GetFile reads files"));
+
+        List<ChatMessage> messages = memory.messages();
+
+        assertEquals(UserMessage.from("question 1"), messages.get(0));
+        // The documentation of the message being answered stays
+        assertTrue(((UserMessage) messages.get(2)).singleText().endsWith("GetFile reads files"));
+    }
+
+    @Test
+    void systemPromptIsStoredOnceAndReplaced()
+    {
+        TokenBudgetChatMemory memory = memory(1000, false);
+        memory.add(PROMPT);
+        memory.add(UserMessage.from("question 1"));
+        memory.add(PROMPT);
+        SystemMessage newPrompt = SystemMessage.from("You are a NiFi expert.");
+        memory.add(newPrompt);
+
+        assertEquals(List.of(newPrompt, UserMessage.from("question 1")), memory.messages());
+    }
+
+    @Test
+    void overBudgetConversationIsCompactedIntoTheSummary()
+    {
+        List<ChatMessage> messages = new ArrayList<>();
+        messages.add(PROMPT);
+        messages.addAll(conversation(3));
+        AiMessage last = (AiMessage) messages.remove(messages.size() - 1);
+        store.updateMessages(MEMORY_ID, messages);
+        TokenBudgetChatMemory memory = memory(40, true);
+
+        memory.add(last);
+        List<ChatMessage> compacted = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            while (store.getMessages(MEMORY_ID).stream().noneMatch(ChatMessages::isSummary)) {
+                Thread.sleep(10);
+            }
+            return store.getMessages(MEMORY_ID);
+        });
+
+        // The newest turns worth half the budget stay verbatim, the summary follows the prompt
+        assertEquals(List.of(PROMPT, SystemMessage.from(ChatMessages.SUMMARY_PREFIX + "summary of 4 messages"),
+                UserMessage.from("question 3"), AiMessage.from("answer 3")), compacted);
+        assertEquals(1, summarized.size());
+        assertTrue(summarized.get(0).startsWith("User: question 1"), summarized.get(0));
+        assertEquals(compacted, memory.messages());
+    }
+
+    private TokenBudgetChatMemory memory(int budget, boolean summarize)
+    {
+        TokenEstimator estimator = new TokenEstimator()
+        {
+            @Override
+            public int count(ChatMessage message)
+            {
+                return MESSAGE_TOKENS;
+            }
+        };
+        compactor.estimator = estimator;
+        compactor.enabled = summarize;
+        compactor.threads = 1;
+        compactor.summarizer = (summary, text) -> {
+            summarized.add(text);
+            return "summary of " + text.split("\n\n").length + " messages";
+        };
+        return new TokenBudgetChatMemory(MEMORY_ID, store, budget, estimator, compactor);
+    }
+
+    private static List<ChatMessage> conversation(int turns)
+    {
+        List<ChatMessage> messages = new ArrayList<>();
+        for (int turn = 1; turn <= turns; turn++) {
+            messages.add(UserMessage.from("question " + turn));
+            messages.add(AiMessage.from("answer " + turn));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,104 @@
+package cloud.isaura.niby.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HnswIndexTest
+{
+    private static final int DIMENSION = 32;
+    private static final int NODES = 2000;
+    private static final int QUERIES = 100;
+    private static final int K = 10;
+
+    private final SplittableRandom random = new SplittableRandom(7);
+
+    @Test
+    void approximateSearchRecallsTheExactNeighbors()
+    {
+        HnswIndex index = new HnswIndex(DIMENSION, 16, 100, NODES);
+        for (int i = 0; i < NODES; i++) {
+            index.add(randomVector());
+        }
+
+        int found = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            float[] query = randomVector();
+            Set<Integer> exact = nodes(index.exactSearch(query, K));
+            found += (int) index.search(query, K, 64).stream().filter(c -> exact.contains(c.node())).count();
+        }
+
+        double recall = (double) found / (QUERIES * K);
+        assertTrue(recall >= 0.9, "recall@" + K + " = " + recall);
+    }
+
+    @Test
+    void resultsAreNearestFirst()
+    {
+        HnswIndex index = new HnswIndex(DIMENSION, 8, 50, 16);
+        for (int i = 0; i < 300; i++) {
+            index.add(randomVector());
+        }
+
+        List<HnswIndex.Candidate> results = index.search(randomVector(), K, 32);
+
+        assertEquals(K, results.size());
+        for (int i = 1; i < results.size(); i++) {
+            assertTrue(results.get(i - 1).distance() <= results.get(i).distance());
+        }
+    }
+
+    @Test
+    void findsAnIndexedVectorItself()
+    {
+        HnswIndex index = new HnswIndex(DIMENSION, 8, 50, 16);
+        for (int i = 0; i < 300; i++) {
+            index.add(randomVector());
+        }
+        float[] vector = index.vector(123);
+        // Scaling does not change the cosine distance
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= 3;
+        }
+
+        HnswIndex.Candidate nearest = index.search(vector, 1, 32).get(0);
+
+        assertEquals(123, nearest.node());
+        assertEquals(0, nearest.distance(), 1e-5);
+    }
+
+    @Test
+    void emptyIndexReturnsNothing()
+    {
+        assertTrue(new HnswIndex(DIMENSION, 8, 50, 16).search(randomVector(), K, 32).isEmpty());
+    }
+
+    @Test
+    void rejectsAWrongDimension()
+    {
+        HnswIndex index = new HnswIndex(DIMENSION, 8, 50, 16);
+
+        assertThrows(IllegalArgumentException.class, () -> index.add(new float[DIMENSION + 1]));
+    }
+
+    private float[] randomVector()
+    {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) (random.nextDouble() * 2 - 1);
+        }
+        return vector;
+    }
+
+    private static Set<Integer> nodes(List<HnswIndex.Candidate> candidates)
+    {
+        return candidates.stream().map(HnswIndex.Candidate::node).collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,79 @@
+package cloud.isaura.niby.rag;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HybridContentRetrieverTest
+{
+    private static final int RRF_K = 60;
+
+    @Test
+    void segmentsInBothRankingsComeFirst()
+    {
+        List<Content> vector = List.of(content("a"), content("b"), content("c"));
+        List<Content> fullText = List.of(content("c"), content("d"));
+
+        List<Content> fused = HybridContentRetriever.fuse(List.of(vector, fullText), RRF_K, 10);
+
+        assertEquals(List.of("c", "a", "b", "d"), texts(fused));
+        assertEquals(1.0 / (RRF_K + 3) + 1.0 / (RRF_K + 1), score(fused.get(0)), 1e-12);
+        assertEquals(1.0 / (RRF_K + 1), score(fused.get(1)), 1e-12);
+    }
+
+    @Test
+    void keepsAtMostMaxResults()
+    {
+        List<Content> vector = List.of(content("a"), content("b"), content("c"));
+
+        List<Content> fused = HybridContentRetriever.fuse(List.of(vector, List.of()), RRF_K, 2);
+
+        assertEquals(List.of("a", "b"), texts(fused));
+    }
+
+    @Test
+    void matchesResultsByEmbeddingId()
+    {
+        Content byVector = Content.from(TextSegment.from("Routes flow files"),
+                Map.of(ContentMetadata.EMBEDDING_ID, "42", ContentMetadata.SCORE, 0.8));
+        // Same segment, text trimmed differently by the full-text search
+        Content byFullText = Content.from(TextSegment.from("Routes flow files "),
+                Map.of(ContentMetadata.EMBEDDING_ID, "42"));
+
+        List<Content> fused = HybridContentRetriever.fuse(
+                List.of(List.of(content("a"), byVector), List.of(byFullText)), RRF_K, 10);
+
+        assertEquals(2, fused.size());
+        assertEquals("Routes flow files", fused.get(0).textSegment().text());
+        assertEquals("42", fused.get(0).metadata().get(ContentMetadata.EMBEDDING_ID));
+        // The fused score replaces the original one
+        assertEquals(1.0 / (RRF_K + 2) + 1.0 / (RRF_K + 1), score(fused.get(0)), 1e-12);
+    }
+
+    @Test
+    void emptyRankingsFuseToNothing()
+    {
+        assertEquals(List.of(), HybridContentRetriever.fuse(List.of(List.of(), List.of()), RRF_K, 10));
+    }
+
+    private static Content content(String text)
+    {
+        return Content.from(TextSegment.from(text));
+    }
+
+    private static List<String> texts(List<Content> contents)
+    {
+        return contents.stream().map(content -> content.textSegment().text()).toList();
+    }
+
+    private static double score(Content content)
+    {
+        return (Double) content.metadata().get(ContentMetadata.SCORE);
+    }
+}
@@ -0,0 +1,258 @@
+package cloud.isaura.niby.rag;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Metadata;
+import dev.langchain4j.rag.query.Query;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MultiQueryRetrievalTest
+{
+    private static final String QUESTION = "and the other one?";
+    private static final String PREVIOUS = "How does PutFile handle conflicts?";
+    private static final String FOLLOW_UP = PREVIOUS + "\n" + QUESTION;
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private final MultiQueryRetrieval retrieval = new MultiQueryRetrieval();
+
+    // Query texts searched, each followed by the name of the thread that searched it
+    private final Queue<String> searched = new ConcurrentLinkedQueue<>();
+    private final Map<String, Duration> delays = new ConcurrentHashMap<>();
+    private final Map<String, CountDownLatch> gates = new ConcurrentHashMap<>();
+
+    private final ContentRetriever retriever = query -> {
+        searched.add(query.text() + " @" + Thread.currentThread().getName());
+        CountDownLatch gate = gates.get(query.text());
+        if (gate != null) {
+            await(gate);
+        }
+        Duration delay = delays.get(query.text());
+        if (delay != null) {
+            sleep(delay);
+        }
+        if (query.text().equals("fails")) {
+            throw new IllegalStateException("Store unavailable");
+        }
+        return List.of(Content.from("result of " + query.text()));
+    };
+
+    @AfterEach
+    void shutdown()
+    {
+        gates.values().forEach(CountDownLatch::countDown);
+        retrieval.shutdown();
+    }
+
+    @Test
+    void firstQuestionIsSearchedDirectly()
+    {
+        configure(Duration.ofSeconds(5), 0, 4, 16);
+
+        List<Content> results = retrieve(Query.from(QUESTION));
+
+        assertEquals(List.of("result of " + QUESTION), texts(results));
+        assertEquals(List.of(QUESTION + " @" + Thread.currentThread().getName()), List.copyOf(searched));
+    }
+
+    @Test
+    void followUpIsAlsoSearchedWithThePreviousQuestion()
+    {
+        configure(Duration.ofSeconds(5), 0, 4, 16);
+
+        List<Content> results = retrieve(followUp());
+
+        // Both rank first in their own list, the question's own result wins the tie
+        assertEquals(List.of("result of " + QUESTION, "result of " + FOLLOW_UP), texts(results));
+    }
+
+    @Test
+    void subQueryPastTheBudgetIsDropped()
+    {
+        configure(Duration.ofMillis(200), 0, 4, 16);
+        delays.put(FOLLOW_UP, Duration.ofSeconds(5));
+
+        long start = System.nanoTime();
+        List<Content> results = retrieve(followUp());
+
+        assertEquals(List.of("result of " + QUESTION), texts(results));
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofSeconds(2)) < 0);
+    }
+
+    @Test
+    void questionsOwnSearchIsWaitedForPastTheBudget()
+    {
+        configure(Duration.ofMillis(100), 0, 4, 16);
+        delays.put(QUESTION, Duration.ofMillis(500));
+
+        List<Content> results = retrieve(followUp());
+
+        assertEquals("result of " + QUESTION, texts(results).get(0));
+        assertEquals(1, searched.stream().filter(text -> text.startsWith(QUESTION)).count());
+    }
+
+    @Test
+    void queuedQuestionRunsInTheCallerAtTheDeadline()
+    {
+        configure(Duration.ofMillis(200), 0, 1, 16);
+        // Another turn holds the only pool thread
+        gates.put("blocked", new CountDownLatch(1));
+        CompletableFuture<List<Content>> other = CompletableFuture.supplyAsync(() -> retrieve(blockedTurn()));
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            while (searched.isEmpty()) {
+                Thread.sleep(1);
+            }
+        });
+
+        List<Content> results = retrieve(followUp());
+
+        assertEquals(List.of("result of " + QUESTION), texts(results));
+        assertTrue(searched.contains(QUESTION + " @" + Thread.currentThread().getName()), searched.toString());
+        gates.get("blocked").countDown();
+        assertEquals("result of blocked", texts(other.join()).get(0));
+    }
+
+    @Test
+    void saturatedPoolRetrievesTheQuestionAlone()
+    {
+        configure(Duration.ofSeconds(5), 0, 1, 1);
+        // Another turn holds the only pool thread and fills the queue with its follow-up search
+        gates.put("blocked", new CountDownLatch(1));
+        CompletableFuture<List<Content>> other = CompletableFuture.supplyAsync(() -> retrieve(blockedTurn()));
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            while (searched.isEmpty()) {
+                Thread.sleep(1);
+            }
+            // Let the other turn queue its second search
+            Thread.sleep(50);
+        });
+
+        List<Content> results = retrieve(followUp());
+
+        assertEquals(List.of("result of " + QUESTION), texts(results));
+        assertTrue(searched.contains(QUESTION + " @" + Thread.currentThread().getName()), searched.toString());
+        gates.get("blocked").countDown();
+        assertEquals(2, texts(other.join()).size());
+    }
+
+    @Test
+    void failedSubQueryIsIgnored()
+    {
+        configure(Duration.ofSeconds(5), 2, 4, 16);
+        retrieval.queryRewriter = (history, question, count) -> "fails\nPutFile conflict resolution";
+
+        List<Content> results = retrieve(followUp());
+
+        assertEquals(List.of("result of " + QUESTION, "result of PutFile conflict resolution"), texts(results));
+    }
+
+    @Test
+    void rewritesReplaceThePreviousQuestionSearch()
+    {
+        configure(Duration.ofSeconds(5), 2, 4, 16);
+        retrieval.queryRewriter = (history, question, count) -> {
+            assertTrue(history.contains("User: " + PREVIOUS), history);
+            return "GetFile conflict resolution\n" + QUESTION.toUpperCase(Locale.ROOT)
+                    + "\n\nGetFile conflict resolution\nGetFile file handling\nextra rewrite";
+        };
+
+        List<Content> results = retrieve(followUp());
+
+        // The question itself, a duplicate and rewrites beyond the count are dropped
+        assertEquals(List.of("result of " + QUESTION, "result of GetFile conflict resolution",
+                "result of GetFile file handling"), texts(results));
+        assertTrue(searched.stream().noneMatch(text -> text.startsWith(FOLLOW_UP)));
+    }
+
+    @Test
+    void slowRewriterFallsBackToTheQuestion()
+    {
+        configure(Duration.ofMillis(200), 2, 4, 16);
+        retrieval.queryRewriter = (history, question, count) -> {
+            sleep(Duration.ofSeconds(5));
+            return "GetFile conflict resolution";
+        };
+
+        List<Content> results = retrieve(followUp());
+
+        assertEquals(List.of("result of " + QUESTION), texts(results));
+        assertEquals(1, searched.size());
+    }
+
+    private void configure(Duration budget, int rewrites, int threads, int queueCapacity)
+    {
+        retrieval.enabled = true;
+        retrieval.budget = budget;
+        retrieval.rewrites = rewrites;
+        retrieval.historyMessages = 4;
+        retrieval.threads = threads;
+        retrieval.queueCapacity = queueCapacity;
+    }
+
+    private List<Content> retrieve(Query query)
+    {
+        return retrieval.wrap(retriever, 5, 60).retrieve(query);
+    }
+
+    private static Query followUp()
+    {
+        return Query.from(QUESTION, metadata(List.of(
+                UserMessage.from(PREVIOUS + RagRetrievalAugmentor.CONTEXT_HEADER + "PutFile documentation"),
+                AiMessage.from("It replaces or ignores the file."),
+                UserMessage.from(QUESTION))));
+    }
+
+    /**
+     * Follow-up whose own search waits for the {@code blocked} gate.
+     */
+    private static Query blockedTurn()
+    {
+        return Query.from("blocked",
+                metadata(List.of(UserMessage.from("earlier"), AiMessage.from("answer"), UserMessage.from("blocked"))));
+    }
+
+    private static Metadata metadata(List<ChatMessage> memory)
+    {
+        return Metadata.from(memory.get(memory.size() - 1), "session-1", memory);
+    }
+
+    private static List<String> texts(List<Content> contents)
+    {
+        return contents.stream().map(content -> content.textSegment().text()).toList();
+    }
+
+    private static void await(CountDownLatch latch)
+    {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(Duration duration)
+    {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package cloud.isaura.niby.rag;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RescoringEmbeddingStoreTest
+{
+    private static final String QUERY = "[1.0,0.0,0.0]";
+
+    private final RescoringEmbeddingStore store = new RescoringEmbeddingStore();
+
+    // SQL run on the fake database, and the parameters of the prepared statement
+    private final List<String> executed = new ArrayList<>();
+    private final List<Object> parameters = new ArrayList<>();
+    // Rows of the rescoring query: id, full-precision vector, text, cosine similarity
+    private List<Object[]> rows = List.of();
+
+    @BeforeEach
+    void setUp()
+    {
+        store.dataSource = fake(DataSource.class, (proxy, method, args) -> switch (method.getName()) {
+            case "getConnection" -> connection();
+            default -> null;
+        });
+        store.objectMapper = new ObjectMapper();
+        store.dimension = 3;
+        store.quantization = RescoringEmbeddingStore.BINARY;
+        store.oversample = 4;
+    }
+
+    @Test
+    void shortlistOfTheQuantizedIndexIsRerankedAtFullPrecision()
+    {
+        rows = List.of(
+                new Object[]{"near", "[1.0,0.0,0.0]", "PutFile", 1.0},
+                new Object[]{"far", "[0.0,1.0,0.0]", "GetFile", 0.0});
+
+        List<EmbeddingMatch<TextSegment>> matches = search(2, 0.0).matches();
+
+        assertEquals(List.of("near", "far"), matches.stream().map(EmbeddingMatch::embeddingId).toList());
+        assertEquals(List.of(1.0, 0.5), matches.stream().map(EmbeddingMatch::score).toList());
+        assertEquals("PutFile", matches.get(0).embedded().text());
+        String sql = executed.get(executed.size() - 1);
+        assertTrue(sql.contains("ORDER BY binary_quantize(embedding)::bit(3) <~> binary_quantize(?::vector) LIMIT ?) "
+                + "shortlist ORDER BY embedding <=> ?::vector LIMIT ?"), sql);
+        assertEquals(List.of(QUERY, QUERY, 8, QUERY, 2), parameters);
+    }
+
+    @Test
+    void indexScanIsWidenedForTheShortlist()
+    {
+        search(10, 0.0);
+
+        assertEquals("SET LOCAL hnsw.ef_search = 40", executed.get(0));
+        assertTrue(executed.get(1).contains("current_setting('ivfflat.probes')::int * 4"), executed.get(1));
+    }
+
+    @Test
+    void matchesBelowTheMinimumScoreAreDropped()
+    {
+        rows = List.of(
+                new Object[]{"near", "[1.0,0.0,0.0]", "PutFile", 0.8},
+                new Object[]{"opposite", "[-1.0,0.0,0.0]", "GetFile", -1.0});
+
+        List<EmbeddingMatch<TextSegment>> matches = search(2, 0.5).matches();
+
+        assertEquals(List.of("near"), matches.stream().map(EmbeddingMatch::embeddingId).toList());
+    }
+
+    @Test
+    void filteredSearchGoesToPgvector()
+    {
+        EmbeddingSearchResult<TextSegment> pgvectorResult = new EmbeddingSearchResult<>(List.of());
+        store.pgVectorStore = pgVectorStore(pgvectorResult);
+
+        EmbeddingSearchResult<TextSegment> result = store.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(Embedding.from(new float[]{1, 0, 0}))
+                .maxResults(2)
+                .filter(metadataKey("file_name").isEqualTo("PutFile.md"))
+                .build());
+
+        assertEquals(pgvectorResult, result);
+        assertEquals(List.of(), executed);
+    }
+
+    @Test
+    void quantizationDoesNotDependOnTheDefaultLocale()
+    {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(Locale.forLanguageTag("tr"));
+        try {
+            store.quantization = "BINARY";
+
+            assertEquals(RescoringEmbeddingStore.BINARY, store.quantization());
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    private EmbeddingSearchResult<TextSegment> search(int maxResults, double minScore)
+    {
+        return store.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(Embedding.from(new float[]{1, 0, 0}))
+                .maxResults(maxResults)
+                .minScore(minScore)
+                .build());
+    }
+
+    private Connection connection()
+    {
+        return fake(Connection.class, (proxy, method, args) -> switch (method.getName()) {
+            case "createStatement" -> fake(Statement.class, (statement, call, arguments) -> {
+                if (call.getName().equals("execute")) {
+                    executed.add((String) arguments[0]);
+                    return false;
+                }
+                return null;
+            });
+            case "prepareStatement" -> {
+                executed.add((String) args[0]);
+                yield preparedStatement();
+            }
+            default -> null;
+        });
+    }
+
+    private PreparedStatement preparedStatement()
+    {
+        return fake(PreparedStatement.class, (proxy, method, args) -> switch (method.getName()) {
+            case "setString", "setInt" -> {
+                parameters.add(args[1]);
+                yield null;
+            }
+            case "executeQuery" -> resultSet();
+            default -> null;
+        });
+    }
+
+    private ResultSet resultSet()
+    {
+        Iterator<Object[]> remaining = rows.iterator();
+        Object[][] current = new Object[1][];
+        return fake(ResultSet.class, (proxy, method, args) -> switch (method.getName()) {
+            case "next" -> {
+                current[0] = remaining.hasNext() ? remaining.next() : null;
+                yield current[0] != null;
+            }
+            case "getString" -> switch ((int) args[0]) {
+                case 1 -> current[0][0];
+                case 2 -> current[0][1];
+                case 3 -> current[0][2];
+                default -> "{}";
+            };
+            case "getDouble" -> current[0][3];
+            default -> null;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static EmbeddingStore<TextSegment> pgVectorStore(EmbeddingSearchResult<TextSegment> result)
+    {
+        return fake(EmbeddingStore.class, (proxy, method, args) -> method.getName().equals("search") ? result : null);
+    }
+
+    private static <T> T fake(Class<T> type, InvocationHandler handler)
+    {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}
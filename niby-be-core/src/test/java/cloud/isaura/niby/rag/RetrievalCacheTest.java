@@ -0,0 +1,97 @@
+package cloud.isaura.niby.rag;
+
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RetrievalCacheTest
+{
+    private final RetrievalCache cache = new RetrievalCache();
+    private final AtomicInteger searches = new AtomicInteger();
+    private Runnable duringSearch = () -> {
+    };
+
+    private final ContentRetriever retriever = query -> {
+        searches.incrementAndGet();
+        duringSearch.run();
+        return List.of(Content.from("result " + searches.get()));
+    };
+
+    @BeforeEach
+    void setUp()
+    {
+        cache.enabled = true;
+        cache.maxEntries = 10;
+        cache.ttl = Duration.ofMinutes(10);
+        cache.init();
+    }
+
+    @Test
+    void normalizedQueriesShareTheResult()
+    {
+        ContentRetriever cached = cache.wrap("basic", retriever);
+
+        List<Content> first = cached.retrieve(Query.from("How does PutFile work?"));
+        List<Content> second = cached.retrieve(Query.from("  how does   putfile work?"));
+
+        assertEquals(first, second);
+        assertEquals(1, searches.get());
+    }
+
+    @Test
+    void scopesAreCachedSeparately()
+    {
+        cache.wrap("basic", retriever).retrieve(Query.from("PutFile"));
+        cache.wrap("plan", retriever).retrieve(Query.from("PutFile"));
+
+        assertEquals(2, searches.get());
+    }
+
+    @Test
+    void corpusChangeInvalidatesTheResults()
+    {
+        ContentRetriever cached = cache.wrap("basic", retriever);
+        cached.retrieve(Query.from("PutFile"));
+
+        cache.onCorpusChanged(new CorpusChanged("directory-ingestion"));
+        List<Content> results = cached.retrieve(Query.from("PutFile"));
+
+        assertEquals(List.of(Content.from("result 2")), results);
+        assertEquals(2, searches.get());
+    }
+
+    @Test
+    void resultOfASearchOverlappingAChangeIsNotCached()
+    {
+        ContentRetriever cached = cache.wrap("basic", retriever);
+        duringSearch = () -> cache.onCorpusChanged(new CorpusChanged("directory-ingestion"));
+        cached.retrieve(Query.from("PutFile"));
+
+        duringSearch = () -> {
+        };
+        cached.retrieve(Query.from("PutFile"));
+        cached.retrieve(Query.from("PutFile"));
+
+        assertEquals(2, searches.get());
+    }
+
+    @Test
+    void disabledCacheSearchesEveryTime()
+    {
+        cache.enabled = false;
+        ContentRetriever cached = cache.wrap("basic", retriever);
+
+        cached.retrieve(Query.from("PutFile"));
+        cached.retrieve(Query.from("PutFile"));
+
+        assertEquals(2, searches.get());
+    }
+}
@@ -0,0 +1,210 @@
+package cloud.isaura.niby.rag;
+
+import cloud.isaura.niby.config.ChatMemoryConfiguration;
+import cloud.isaura.niby.memory.PostgresChatMemoryStore;
+import cloud.isaura.niby.shared.logging.PayloadLog;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.memory.chat.ChatMemoryProvider;
+import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.store.memory.chat.InMemoryChatMemoryStore;
+import io.smallrye.mutiny.Multi;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SemanticAnswerCacheTest
+{
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    // Question vectors; "similar" is at cosine 0.98 of "question" and "different" at 0.9
+    private static final Map<String, float[]> VECTORS = Map.of(
+            "question", new float[]{1, 0, 0},
+            "similar", new float[]{0.98f, 0.199f, 0},
+            "different", new float[]{0.9f, 0.436f, 0},
+            "other", new float[]{0, 1, 0},
+            "third", new float[]{0, 0, 1});
+
+    private final SemanticAnswerCache cache = new SemanticAnswerCache();
+    private final InMemoryChatMemoryStore memories = new InMemoryChatMemoryStore();
+    private final AtomicInteger agentCalls = new AtomicInteger();
+    private volatile List<Content> documentation = List.of(Content.from("PutFile writes flow files to disk."));
+
+    @BeforeEach
+    void setUp()
+    {
+        cache.enabled = true;
+        cache.modes = Set.of("basic");
+        cache.similarityThreshold = 0.95;
+        cache.maxEntries = 10;
+        cache.ttl = Duration.ofHours(1);
+        cache.firstTurnOnly = true;
+        cache.payloadLog = new PayloadLog();
+        cache.embeddingModel = new CachingEmbeddingModel()
+        {
+            @Override
+            public Response<Embedding> embed(String text)
+            {
+                return Response.from(Embedding.from(VECTORS.get(text)));
+            }
+        };
+        cache.retrievalAugmentor = new RagRetrievalAugmentor()
+        {
+            @Override
+            public ContentRetriever contentRetriever()
+            {
+                return query -> documentation;
+            }
+        };
+        cache.chatMemoryStore = new PostgresChatMemoryStore()
+        {
+            @Override
+            public List<ChatMessage> getMessages(Object memoryId)
+            {
+                return memories.getMessages(memoryId);
+            }
+        };
+        cache.chatMemory = new ChatMemoryConfiguration()
+        {
+            @Override
+            public ChatMemoryProvider forAgent(String agent)
+            {
+                return id -> MessageWindowChatMemory.builder().id(id).chatMemoryStore(memories).maxMessages(10).build();
+            }
+        };
+    }
+
+    @Test
+    void similarQuestionReplaysTheCachedAnswer()
+    {
+        assertEquals("Use the PutFile processor.", ask("s1", "question"));
+
+        assertEquals("Use the PutFile processor.", ask("s2", "similar"));
+
+        assertEquals(1, agentCalls.get());
+        SemanticAnswerCache.Stats stats = cache.stats().get("basic");
+        assertEquals(1, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(1, stats.stores());
+        // The replayed turn is in the conversation like a generated one
+        assertEquals(List.of(UserMessage.from("similar"), AiMessage.from("Use the PutFile processor.")),
+                memories.getMessages("s2"));
+    }
+
+    @Test
+    void questionBelowTheThresholdIsAMiss()
+    {
+        ask("s1", "question");
+
+        ask("s2", "different");
+
+        assertEquals(2, agentCalls.get());
+        assertEquals(2, cache.stats().get("basic").misses());
+    }
+
+    @Test
+    void changedDocumentationIsAMiss()
+    {
+        ask("s1", "question");
+        documentation = List.of(Content.from("PutFile writes flow files to a local directory."));
+
+        ask("s2", "question");
+
+        assertEquals(2, agentCalls.get());
+    }
+
+    @Test
+    void fingerprintIgnoresTheOrderOfTheSegments()
+    {
+        Content first = Content.from(TextSegment.from("PutFile"));
+        Content second = Content.from(TextSegment.from("GetFile"));
+
+        assertEquals(SemanticAnswerCache.fingerprint(List.of(first, second)),
+                SemanticAnswerCache.fingerprint(List.of(second, first)));
+        assertNotEquals(SemanticAnswerCache.fingerprint(List.of(first)),
+                SemanticAnswerCache.fingerprint(List.of(first, second)));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntry()
+    {
+        cache.maxEntries = 2;
+        ask("s1", "question");
+        ask("s2", "other");
+        // Hitting the first entry makes the second the eldest
+        ask("s3", "question");
+
+        ask("s4", "third");
+        ask("s5", "other");
+
+        assertEquals(4, agentCalls.get());
+        SemanticAnswerCache.Stats stats = cache.stats().get("basic");
+        assertEquals(2, stats.size());
+        assertEquals(2, stats.evictions());
+    }
+
+    @Test
+    void followUpQuestionsAreNotCached()
+    {
+        memories.updateMessages("s1", List.of(UserMessage.from("hello"), AiMessage.from("Hi")));
+
+        ask("s1", "question");
+        ask("s2", "question");
+
+        assertEquals(2, agentCalls.get());
+        assertEquals(1, cache.stats().get("basic").bypassed());
+    }
+
+    @Test
+    void failedAnswerIsNotCached()
+    {
+        Multi<String> failing = Multi.createFrom().<String>emitter(emitter -> {
+            emitter.emit("Use the ");
+            emitter.fail(new IllegalStateException("Model unavailable"));
+        });
+        assertThrows(IllegalStateException.class, () -> cache.answer("basic", "s1", "question", () -> failing)
+                .collect().asList().await().atMost(TIMEOUT));
+
+        ask("s2", "question");
+
+        assertEquals(1, agentCalls.get());
+        assertEquals(1, cache.stats().get("basic").stores());
+    }
+
+    @Test
+    void otherModesGoStraightToTheAgent()
+    {
+        cache.answer("plan", "s1", "question", this::agent).collect().asList().await().atMost(TIMEOUT);
+        cache.answer("plan", "s2", "question", this::agent).collect().asList().await().atMost(TIMEOUT);
+
+        assertEquals(2, agentCalls.get());
+        assertEquals(Map.of(), cache.stats());
+    }
+
+    private String ask(String sessionId, String question)
+    {
+        return String.join("", cache.answer("basic", sessionId, question, this::agent)
+                .collect().asList().await().atMost(TIMEOUT));
+    }
+
+    private Multi<String> agent()
+    {
+        agentCalls.incrementAndGet();
+        return Multi.createFrom().items("Use ", "the ", "PutFile ", "processor.");
+    }
+}
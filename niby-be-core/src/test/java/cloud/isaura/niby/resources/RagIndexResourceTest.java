@@ -0,0 +1,56 @@
+package cloud.isaura.niby.resources;
+
+import cloud.isaura.niby.rag.HnswEmbeddingStore;
+import jakarta.ws.rs.core.Response;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RagIndexResourceTest
+{
+    private final RagIndexResource resource = new RagIndexResource();
+
+    RagIndexResourceTest()
+    {
+        resource.hnswStore = new HnswEmbeddingStore()
+        {
+            @Override
+            public boolean isReady()
+            {
+                return false;
+            }
+        };
+    }
+
+    @Test
+    void rejectsAnInvalidRequestWithABadRequest()
+    {
+        assertBadRequest(Map.of("k", "5"), "k must be a positive integer");
+        assertBadRequest(Map.of("k", 0), "k must be a positive integer");
+        assertBadRequest(Map.of("k", 2.5), "k must be a positive integer");
+        assertBadRequest(Map.of("samples", -1), "samples must be a positive integer");
+        assertBadRequest(Map.of("samples", 10_000_000_000L), "samples must be a positive integer");
+        assertBadRequest(Map.of("queries", "PutFile"), "queries must be a list of texts");
+        assertBadRequest(Map.of("queries", List.of("PutFile", 3)), "queries must be a list of texts");
+    }
+
+    @Test
+    void validRequestReachesTheIndexCheck()
+    {
+        Response response = resource.evaluate(Map.of("queries", List.of("PutFile"), "samples", 10, "k", 3));
+
+        assertEquals(Response.Status.CONFLICT.getStatusCode(), response.getStatus());
+        assertEquals(Response.Status.CONFLICT.getStatusCode(), resource.evaluate(null).getStatus());
+    }
+
+    private void assertBadRequest(Map<String, Object> request, String message)
+    {
+        Response response = resource.evaluate(request);
+
+        assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), response.getStatus(), request.toString());
+        assertEquals(Map.of("status", "error", "message", message), response.getEntity());
+    }
+}
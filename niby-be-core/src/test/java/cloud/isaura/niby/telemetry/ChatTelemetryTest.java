@@ -0,0 +1,87 @@
+package cloud.isaura.niby.telemetry;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.context.Context;
+import io.smallrye.mutiny.Multi;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChatTelemetryTest
+{
+    private final ChatTelemetry telemetry = new ChatTelemetry();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void setUp()
+    {
+        telemetry.registry = registry;
+        telemetry.openTelemetry = OpenTelemetry.noop();
+        telemetry.tracer = telemetry.openTelemetry.getTracer("test");
+    }
+
+    @Test
+    void answeredTurnRecordsFirstTokenAndSuccess()
+    {
+        List<String> tokens = telemetry.turn("basic", () -> Multi.createFrom().items("a", "b", "c"))
+                .collect().asList().await().indefinitely();
+
+        assertEquals(List.of("a", "b", "c"), tokens);
+        assertEquals(1, timer("niby.chat.first.token", "mode", "basic").count());
+        assertEquals(1, timer("niby.chat.turn", "mode", "basic", "outcome", "success").count());
+    }
+
+    @Test
+    void failedStreamIsRecordedAsAFailure()
+    {
+        Multi<String> turn = telemetry.turn("advanced",
+                () -> Multi.createFrom().failure(new IllegalStateException("Model unavailable")));
+
+        assertThrows(IllegalStateException.class, () -> turn.collect().asList().await().indefinitely());
+        assertEquals(1, timer("niby.chat.turn", "mode", "advanced", "outcome", "failure").count());
+        assertNull(registry.find("niby.chat.first.token").timer());
+    }
+
+    @Test
+    void cancelledTurnIsRecordedAsCancelled()
+    {
+        telemetry.turn("basic", () -> Multi.createFrom().items("a", "b", "c"))
+                .select().first()
+                .collect().asList().await().indefinitely();
+
+        assertEquals(1, timer("niby.chat.turn", "mode", "basic", "outcome", "cancelled").count());
+    }
+
+    @Test
+    void failingStageIsTimedAndRethrown()
+    {
+        assertEquals("vector", telemetry.stage("vector-search", () -> "vector"));
+        assertThrows(IllegalStateException.class, () -> telemetry.stage("vector-search", () -> {
+            throw new IllegalStateException("Store unavailable");
+        }));
+
+        assertEquals(1, timer("niby.chat.stage", "stage", "vector-search", "outcome", "success").count());
+        assertEquals(1, timer("niby.chat.stage", "stage", "vector-search", "outcome", "failure").count());
+    }
+
+    @Test
+    void frameWithoutTraceContextKeepsTheCurrentOne()
+    {
+        assertSame(Context.current(), telemetry.extract(Map.of()));
+        assertSame(Context.current(), telemetry.extract(null));
+    }
+
+    private Timer timer(String name, String... tags)
+    {
+        return registry.get(name).tags(tags).timer();
+    }
+}
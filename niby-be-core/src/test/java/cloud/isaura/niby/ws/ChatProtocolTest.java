@@ -0,0 +1,210 @@
+package cloud.isaura.niby.ws;
+
+import cloud.isaura.niby.shared.logging.PayloadLog;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.operators.multi.processors.UnicastProcessor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChatProtocolTest
+{
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ChatProtocol protocol = new ChatProtocol();
+    private final SessionTokens sessionTokens = new SessionTokens();
+    private final TurnRegistry turnRegistry = new TurnRegistry();
+
+    // Memory id and answer stream of every routed message, by message text
+    private final Map<String, String> memoryIds = new HashMap<>();
+    private final Map<String, UnicastProcessor<String>> answers = new HashMap<>();
+
+    private final Client alice = new Client("alice");
+    private final Client mallory = new Client("mallory");
+
+    @BeforeEach
+    void setUp()
+    {
+        sessionTokens.secret = Optional.of("test-secret");
+        sessionTokens.init();
+
+        turnRegistry.retention = Duration.ofMinutes(5);
+        turnRegistry.abandonAfter = Duration.ofMinutes(1);
+        turnRegistry.maxTurns = 100;
+        turnRegistry.newMessagePolicy = "cancel";
+        turnRegistry.maxTurnsPerSession = 3;
+
+        protocol.chatRouter = new ChatRouter()
+        {
+            @Override
+            public Multi<String> route(String sessionId, String message, String mode)
+            {
+                UnicastProcessor<String> answer = UnicastProcessor.create();
+                memoryIds.put(message, sessionId);
+                answers.put(message, answer);
+                return answer;
+            }
+        };
+        protocol.turnRegistry = turnRegistry;
+        protocol.objectMapper = objectMapper;
+        protocol.payloadLog = new PayloadLog();
+        protocol.sessionTokens = sessionTokens;
+        protocol.defaultCredit = 64;
+    }
+
+    @Test
+    void firstMessageGetsAServerIssuedSession()
+    {
+        alice.send("{\"type\":\"message\",\"turn\":\"t1\",\"message\":\"hello\"}");
+
+        ServerFrame session = alice.frames().get(0);
+        assertEquals(ServerFrame.SESSION, session.type());
+        String memoryId = sessionTokens.session(session.text());
+        assertEquals(memoryId, memoryIds.get("hello"));
+        assertEquals(ServerFrame.START, alice.frames().get(1).type());
+    }
+
+    @Test
+    void laterMessagesOfTheClientKeepItsSession()
+    {
+        alice.send("{\"type\":\"message\",\"turn\":\"t1\",\"message\":\"hello\"}");
+        alice.send("{\"type\":\"message\",\"turn\":\"t2\",\"message\":\"again\"}");
+
+        assertEquals(memoryIds.get("hello"), memoryIds.get("again"));
+        assertEquals(1, alice.frames().stream().filter(frame -> ServerFrame.SESSION.equals(frame.type())).count());
+    }
+
+    @Test
+    void clientIsMappedToItsSessionUntilItCloses()
+    {
+        assertNull(protocol.session(alice.channel.id()));
+        alice.send("{\"type\":\"message\",\"turn\":\"t1\",\"message\":\"hello\"}");
+
+        // Payload debugging of frames arriving on the connection is keyed by this session
+        assertEquals(memoryIds.get("hello"), protocol.session(alice.channel.id()));
+        protocol.closed(alice.channel);
+        assertNull(protocol.session(alice.channel.id()));
+    }
+
+    @Test
+    void forgedSessionTokenStartsANewSession()
+    {
+        alice.send("{\"type\":\"message\",\"turn\":\"t1\",\"message\":\"hello\"}");
+        String aliceSession = memoryIds.get("hello");
+
+        mallory.send("{\"type\":\"message\",\"session\":\"" + aliceSession + ".forged\",\"turn\":\"t2\","
+                + "\"message\":\"steal\"}");
+
+        assertNotEquals(aliceSession, memoryIds.get("steal"));
+        assertEquals(ServerFrame.SESSION, mallory.frames().get(0).type());
+    }
+
+    @Test
+    void sessionTokenContinuesTheConversationAfterReconnecting()
+    {
+        alice.send("{\"type\":\"message\",\"turn\":\"t1\",\"message\":\"hello\"}");
+        String token = alice.frames().get(0).text();
+        Client reconnected = new Client("alice-2");
+
+        reconnected.send("{\"type\":\"message\",\"session\":\"" + token + "\",\"turn\":\"t2\",\"message\":\"again\"}");
+
+        assertEquals(memoryIds.get("hello"), memoryIds.get("again"));
+        assertFalse(reconnected.frames().stream().anyMatch(frame -> ServerFrame.SESSION.equals(frame.type())));
+    }
+
+    @Test
+    void turnIsResumedOnlyByItsSession()
+    {
+        alice.send("{\"type\":\"message\",\"turn\":\"t1\",\"message\":\"hello\"}");
+        String token = alice.frames().get(0).text();
+        answers.get("hello").onNext("Hi");
+        mallory.send("{\"type\":\"message\",\"turn\":\"t2\",\"message\":\"other\"}");
+        mallory.frames.clear();
+
+        mallory.send("{\"type\":\"resume\",\"turn\":\"t1\",\"after\":-1}");
+        mallory.send("{\"type\":\"message\",\"turn\":\"t1\",\"message\":\"hello\"}");
+
+        assertEquals(List.of(
+                new ServerFrame(ServerFrame.ERROR, "t1", null, "Unknown or expired turn"),
+                new ServerFrame(ServerFrame.ERROR, "t1", null, "Unknown or expired turn")), mallory.frames());
+
+        Client reconnected = new Client("alice-2");
+        reconnected.send("{\"type\":\"resume\",\"session\":\"" + token + "\",\"turn\":\"t1\",\"after\":-1}");
+        assertEquals(List.of(
+                new ServerFrame(ServerFrame.START, "t1", null, null),
+                new ServerFrame(ServerFrame.CHUNK, "t1", 0L, 0L, "Hi")), reconnected.frames());
+    }
+
+    @Test
+    void cancelIsAcceptedOnlyFromTheAttachedClient()
+    {
+        alice.send("{\"type\":\"message\",\"turn\":\"t1\",\"message\":\"hello\"}");
+        Turn turn = turnRegistry.find("t1");
+
+        mallory.send("{\"type\":\"cancel\",\"turn\":\"t1\"}");
+        assertFalse(turn.isDone());
+
+        alice.send("{\"type\":\"cancel\",\"turn\":\"t1\"}");
+        assertTrue(turn.isDone());
+        assertEquals(ServerFrame.CANCELLED, alice.frames().get(alice.frames().size() - 1).type());
+    }
+
+    @Test
+    void plainTextIsAMessageWithUnlimitedCredit()
+    {
+        alice.send("hello");
+        List.of("a", "b", "c").forEach(answers.get("hello")::onNext);
+        answers.get("hello").onComplete();
+
+        List<String> types = alice.frames().stream().map(ServerFrame::type).toList();
+        assertEquals(List.of(ServerFrame.SESSION, ServerFrame.START, ServerFrame.CHUNK, ServerFrame.CHUNK,
+                ServerFrame.CHUNK, ServerFrame.END), types);
+        assertNull(alice.frames().get(1).seq());
+    }
+
+    /**
+     * A client channel recording the frames sent to it.
+     */
+    private final class Client
+    {
+        final List<String> frames = new ArrayList<>();
+        final ClientChannel channel;
+
+        Client(String id)
+        {
+            channel = new ClientChannel(id, frames::add);
+        }
+
+        void send(String text)
+        {
+            protocol.handle(channel, text);
+        }
+
+        List<ServerFrame> frames()
+        {
+            return frames.stream().map(this::parse).toList();
+        }
+
+        private ServerFrame parse(String text)
+        {
+            try {
+                return objectMapper.readValue(text, ServerFrame.class);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package cloud.isaura.niby.ws;
+
+import io.smallrye.mutiny.helpers.test.AssertSubscriber;
+import io.smallrye.mutiny.operators.multi.processors.UnicastProcessor;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TokenCoalescerTest
+{
+    private static final Duration LONG_WINDOW = Duration.ofHours(1);
+
+    private final StreamMetrics metrics = new StreamMetrics();
+    private final UnicastProcessor<String> tokens = UnicastProcessor.create();
+
+    @Test
+    void sendsTheFirstTokenAtOnceAndBuffersTheRest()
+    {
+        AssertSubscriber<String> frames = subscribe(coalescer(true, LONG_WINDOW, 512));
+
+        tokens.onNext("Hello");
+        frames.assertItems("Hello");
+        tokens.onNext(", ");
+        tokens.onNext("world");
+        frames.assertItems("Hello");
+
+        tokens.onComplete();
+
+        frames.assertCompleted().assertItems("Hello", ", world");
+        StreamMetrics.Stats stats = metrics.stats();
+        assertEquals(3, stats.tokens());
+        assertEquals(2, stats.frames());
+    }
+
+    @Test
+    void flushesWhenTheBufferReachesTheSizeLimit()
+    {
+        AssertSubscriber<String> frames = subscribe(coalescer(true, LONG_WINDOW, 4));
+
+        List.of("a", "bc", "de", "f").forEach(tokens::onNext);
+        frames.assertItems("a", "bcde");
+        tokens.onComplete();
+
+        frames.assertCompleted().assertItems("a", "bcde", "f");
+    }
+
+    @Test
+    void flushesWhenTheWindowElapses()
+    {
+        AssertSubscriber<String> frames = subscribe(coalescer(true, Duration.ofMillis(50), 512));
+
+        tokens.onNext("a");
+        tokens.onNext("b");
+        tokens.onNext("c");
+
+        frames.awaitItems(2, Duration.ofSeconds(5)).assertItems("a", "bc").assertNotTerminated();
+    }
+
+    @Test
+    void flushesBufferedTokensBeforeAFailure()
+    {
+        AssertSubscriber<String> frames = subscribe(coalescer(true, LONG_WINDOW, 512));
+
+        tokens.onNext("a");
+        tokens.onNext("b");
+        tokens.onError(new IllegalStateException("Model unavailable"));
+
+        frames.assertFailedWith(IllegalStateException.class, "Model unavailable").assertItems("a", "b");
+    }
+
+    @Test
+    void passesTokensThroughWhenDisabled()
+    {
+        AssertSubscriber<String> frames = subscribe(coalescer(false, LONG_WINDOW, 512));
+
+        List.of("a", "b", "c").forEach(tokens::onNext);
+        tokens.onComplete();
+
+        frames.assertCompleted().assertItems("a", "b", "c");
+        assertEquals(3, metrics.stats().frames());
+    }
+
+    private TokenCoalescer coalescer(boolean enabled, Duration window, int maxChars)
+    {
+        TokenCoalescer coalescer = new TokenCoalescer();
+        coalescer.enabled = enabled;
+        coalescer.window = window;
+        coalescer.maxChars = maxChars;
+        coalescer.metrics = metrics;
+        return coalescer;
+    }
+
+    private AssertSubscriber<String> subscribe(TokenCoalescer coalescer)
+    {
+        return coalescer.coalesce(tokens).subscribe().withSubscriber(AssertSubscriber.create(Long.MAX_VALUE));
+    }
+}
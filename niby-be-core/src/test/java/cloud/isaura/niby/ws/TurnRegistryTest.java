@@ -0,0 +1,145 @@
+package cloud.isaura.niby.ws;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.operators.multi.processors.UnicastProcessor;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TurnRegistryTest
+{
+    // Answer stream of every started turn, by turn id
+    private final Map<String, UnicastProcessor<String>> answers = new HashMap<>();
+    private final List<String> started = new ArrayList<>();
+
+    @Test
+    void queuedTurnStartsWhenThePreviousOneEnds()
+    {
+        TurnRegistry registry = registry("queue", 3);
+
+        Turn first = registry.start("t1", "s1", answer("t1"));
+        Turn second = registry.start("t2", "s1", answer("t2"));
+        assertEquals(List.of("t1"), started);
+
+        answers.get("t1").onComplete();
+
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        assertEquals(List.of("t1", "t2"), started);
+    }
+
+    @Test
+    void sessionsDoNotWaitForEachOther()
+    {
+        TurnRegistry registry = registry("queue", 3);
+
+        registry.start("t1", "s1", answer("t1"));
+        registry.start("t2", "s2", answer("t2"));
+
+        assertEquals(List.of("t1", "t2"), started);
+    }
+
+    @Test
+    void newMessageCancelsTheRunningAndWaitingTurns()
+    {
+        TurnRegistry registry = registry("queue", 3);
+        Turn first = registry.start("t1", "s1", answer("t1"));
+        Turn second = registry.start("t2", "s1", answer("t2"));
+        registry.newMessagePolicy = "cancel";
+
+        Turn third = registry.start("t3", "s1", answer("t3"));
+
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        assertFalse(third.isDone());
+        // The waiting turn never asked the model
+        assertEquals(List.of("t1", "t3"), started);
+    }
+
+    @Test
+    void cancellingTheRunningTurnStartsTheNextOne()
+    {
+        TurnRegistry registry = registry("queue", 3);
+        Turn first = registry.start("t1", "s1", answer("t1"));
+        registry.start("t2", "s1", answer("t2"));
+
+        first.cancel("Cancelled");
+
+        assertEquals(List.of("t1", "t2"), started);
+    }
+
+    @Test
+    void turnWhoseAnswerCannotBeCreatedFailsAndStartsTheNextOne()
+    {
+        TurnRegistry registry = registry("queue", 3);
+        Turn first = registry.start("t1", "s1", () -> {
+            throw new IllegalArgumentException("No agent for mode 'unknown'");
+        });
+        List<ServerFrame> frames = new ArrayList<>();
+
+        registry.start("t2", "s1", answer("t2"));
+        first.attach(new ClientChannel("browser-1", text -> {
+        }), (channel, frame) -> frames.add(frame), 0, 1);
+
+        assertTrue(first.isDone());
+        assertEquals(List.of(new ServerFrame(ServerFrame.ERROR, "t1", -1L, "No agent for mode 'unknown'")), frames);
+        assertEquals(List.of("t2"), started);
+    }
+
+    @Test
+    void limitsTheTurnsOfASession()
+    {
+        TurnRegistry registry = registry("queue", 2);
+        registry.start("t1", "s1", answer("t1"));
+        registry.start("t2", "s1", answer("t2"));
+
+        assertThrows(IllegalStateException.class, () -> registry.start("t3", "s1", answer("t3")));
+        assertNull(registry.find("t3"));
+    }
+
+    @Test
+    void knownTurnIdReturnsTheExistingTurn()
+    {
+        TurnRegistry registry = registry("cancel", 3);
+        Turn first = registry.start("t1", "s1", answer("t1"));
+
+        Turn again = registry.start("t1", "s2", answer("t1"));
+
+        assertSame(first, again);
+        assertFalse(first.isDone());
+        assertEquals(List.of("t1"), started);
+    }
+
+    private TurnRegistry registry(String newMessagePolicy, int maxTurnsPerSession)
+    {
+        TurnRegistry registry = new TurnRegistry();
+        registry.retention = Duration.ofMinutes(5);
+        registry.abandonAfter = Duration.ofMinutes(1);
+        registry.maxTurns = 100;
+        registry.newMessagePolicy = newMessagePolicy;
+        registry.maxTurnsPerSession = maxTurnsPerSession;
+        return registry;
+    }
+
+    private Supplier<Multi<String>> answer(String turnId)
+    {
+        return () -> {
+            started.add(turnId);
+            UnicastProcessor<String> answer = UnicastProcessor.create();
+            answers.put(turnId, answer);
+            return answer;
+        };
+    }
+}
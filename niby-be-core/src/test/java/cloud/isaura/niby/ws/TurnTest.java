@@ -0,0 +1,138 @@
+package cloud.isaura.niby.ws;
+
+import io.smallrye.mutiny.operators.multi.processors.UnicastProcessor;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TurnTest
+{
+    private final UnicastProcessor<String> answer = UnicastProcessor.create();
+    private final AtomicInteger subscriptions = new AtomicInteger();
+    private final Turn turn = new Turn("turn-1", "session-1", () -> {
+        subscriptions.incrementAndGet();
+        return answer;
+    });
+
+    private final ClientChannel browser = new ClientChannel("browser-1", text -> {
+    });
+    private final ClientChannel other = new ClientChannel("browser-2", text -> {
+    });
+    private final List<ServerFrame> frames = new ArrayList<>();
+
+    @Test
+    void sendsNumberedChunksAgainstCredit()
+    {
+        turn.start();
+        turn.attach(browser, (channel, frame) -> frames.add(frame), -1, 2);
+
+        answer.onNext("a");
+        answer.onNext("b");
+        answer.onNext("c");
+        answer.onNext("d");
+
+        assertEquals(List.of(
+                new ServerFrame(ServerFrame.START, "turn-1", null, null),
+                new ServerFrame(ServerFrame.CHUNK, "turn-1", 0L, 0L, "a"),
+                new ServerFrame(ServerFrame.CHUNK, "turn-1", 1L, 1L, "b")), frames);
+    }
+
+    @Test
+    void mergesChunksThatPiledUpWhenCreditArrives()
+    {
+        turn.start();
+        turn.attach(browser, (channel, frame) -> frames.add(frame), -1, 1);
+        List.of("a", "b", "c", "d").forEach(answer::onNext);
+        answer.onComplete();
+
+        turn.grant(browser, 1);
+
+        assertEquals(List.of(
+                new ServerFrame(ServerFrame.START, "turn-1", null, null),
+                new ServerFrame(ServerFrame.CHUNK, "turn-1", 0L, 0L, "a"),
+                new ServerFrame(ServerFrame.CHUNK, "turn-1", 1L, 3L, "bcd"),
+                new ServerFrame(ServerFrame.END, "turn-1", 3L, null)), frames);
+    }
+
+    @Test
+    void ignoresCreditFromAnotherClient()
+    {
+        turn.start();
+        turn.attach(browser, (channel, frame) -> frames.add(frame), -1, 1);
+        answer.onNext("a");
+        answer.onNext("b");
+
+        turn.grant(other, 10);
+
+        assertEquals(2, frames.size());
+        assertFalse(turn.attachedTo(other));
+        assertTrue(turn.attachedTo(browser));
+    }
+
+    @Test
+    void resumeReplaysTheChunksAfterTheLastOneReceived()
+    {
+        turn.start();
+        List.of("a", "b", "c").forEach(answer::onNext);
+        answer.onComplete();
+
+        turn.attach(other, (channel, frame) -> frames.add(frame), 0, 10);
+
+        assertEquals(List.of(
+                new ServerFrame(ServerFrame.CHUNK, "turn-1", 1L, 2L, "bc"),
+                new ServerFrame(ServerFrame.END, "turn-1", 2L, null)), frames);
+        assertEquals(1, subscriptions.get());
+    }
+
+    @Test
+    void detachedTurnKeepsRecordingChunks()
+    {
+        turn.start();
+        turn.attach(browser, (channel, frame) -> frames.add(frame), -1, 10);
+        answer.onNext("a");
+        turn.detach(browser);
+        answer.onNext("b");
+        frames.clear();
+        assertTrue(turn.abandoned(System.currentTimeMillis() + 1, 0));
+
+        turn.attach(other, (channel, frame) -> frames.add(frame), 0, 10);
+
+        assertEquals(List.of(new ServerFrame(ServerFrame.CHUNK, "turn-1", 1L, 1L, "b")), frames);
+        assertFalse(turn.abandoned(System.currentTimeMillis() + 1, 0));
+    }
+
+    @Test
+    void cancelStopsTheStreamAndEndsTheTurn()
+    {
+        AtomicInteger done = new AtomicInteger();
+        turn.onDone(done::incrementAndGet);
+        turn.start();
+        turn.attach(browser, (channel, frame) -> frames.add(frame), -1, 10);
+        answer.onNext("a");
+
+        turn.cancel("Cancelled");
+        answer.onNext("b");
+
+        assertTrue(turn.isDone());
+        assertEquals(1, done.get());
+        assertEquals(new ServerFrame(ServerFrame.CANCELLED, "turn-1", 0L, "Cancelled"), frames.get(frames.size() - 1));
+        assertEquals(3, frames.size());
+    }
+
+    @Test
+    void turnCancelledBeforeStartingNeverSubscribes()
+    {
+        turn.cancel("Cancelled by a newer message");
+
+        turn.start();
+
+        assertEquals(0, subscriptions.get());
+        assertTrue(turn.isDone());
+    }
+}
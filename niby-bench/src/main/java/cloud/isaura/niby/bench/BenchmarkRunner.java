@@ -0,0 +1,47 @@
+package cloud.isaura.niby.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Entry point of the benchmark jar. Accepts the usual JMH command line and, unless {@code -rf}/{@code -rff}
+ * are given, writes JSON results to {@code jmh-results/<label>.json} so runs of different releases can be
+ * compared (e.g. with jmh.morethan.io). The label defaults to the run timestamp, set it with
+ * {@code -Dniby.bench.label=1.2.0}.
+ */
+public class BenchmarkRunner
+{
+    public static void main(String[] args) throws Exception
+    {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        }
+        if (commandLine.shouldList()) {
+            new Runner(commandLine).list();
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            String label = System.getProperty("niby.bench.label",
+                    LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")));
+            Path results = Path.of("jmh-results");
+            Files.createDirectories(results);
+            options.result(results.resolve(label + ".json").toString());
+        }
+        new Runner(options.build()).run();
+    }
+}
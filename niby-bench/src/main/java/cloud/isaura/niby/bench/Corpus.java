@@ -0,0 +1,128 @@
+package cloud.isaura.niby.bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark input: the NiFi documentation shipped in niby-rag.
+ * <p>
+ * The corpus directory is taken from {@code -Dniby.bench.corpus-dir}, defaulting to {@code niby-rag/nifi-doc}
+ * relative to the repository root or to this module.
+ */
+final class Corpus
+{
+    private Corpus()
+    {
+    }
+
+    /**
+     * @return text of every {@code .adoc} and {@code .txt} file of the corpus
+     */
+    static List<String> texts()
+    {
+        return read(directory(), ".adoc", ".txt");
+    }
+
+    /**
+     * HTML pages to convert: the real component pages when {@code -Dniby.bench.html-dir} points to them,
+     * otherwise pages built from the text corpus with the headings, paragraphs, lists and property
+     * tables found in the component documentation.
+     */
+    static List<String> htmlPages()
+    {
+        String htmlDir = System.getProperty("niby.bench.html-dir");
+        if (htmlDir != null) {
+            return read(Path.of(htmlDir), ".html", ".htm");
+        }
+        List<String> pages = new ArrayList<>();
+        for (String text : texts()) {
+            String[] paragraphs = text.split("\\n\\s*\\n");
+            for (int start = 0; start < paragraphs.length; start += 40) {
+                pages.add(toHtml(paragraphs, start, Math.min(start + 40, paragraphs.length)));
+            }
+        }
+        return pages;
+    }
+
+    private static String toHtml(String[] paragraphs, int from, int to)
+    {
+        StringBuilder html = new StringBuilder("<html><head><title>")
+                .append(escape(firstLine(paragraphs[from])))
+                .append("</title><style>body { margin: 0 }</style><script>var x = 1;</script></head><body>")
+                .append("<nav><a href=\"#\">Home</a></nav>");
+        for (int i = from; i < to; i++) {
+            String paragraph = paragraphs[i].strip();
+            if (paragraph.startsWith("=")) {
+                html.append("<h2>").append(escape(paragraph.replaceFirst("^=+\\s*", ""))).append("</h2>");
+            } else if (paragraph.startsWith("*") || paragraph.startsWith("-")) {
+                html.append("<ul>");
+                for (String item : paragraph.split("\\n")) {
+                    html.append("<li>").append(escape(item.replaceFirst("^[*-]+\\s*", ""))).append("</li>");
+                }
+                html.append("</ul>");
+            } else if (paragraph.startsWith("|")) {
+                html.append("<table><tr><th>Name</th><th>Default Value</th><th>Description</th></tr>");
+                for (String row : paragraph.split("\\n")) {
+                    html.append("<tr><td>").append(escape(row.replace("|", " "))).append("</td><td></td><td></td></tr>");
+                }
+                html.append("</table>");
+            } else {
+                html.append("<p>").append(escape(paragraph).replace("\n", "<br>")).append("</p>");
+            }
+        }
+        return html.append("<footer>Apache NiFi</footer></body></html>").toString();
+    }
+
+    private static String firstLine(String text)
+    {
+        String stripped = text.strip();
+        int newline = stripped.indexOf('\n');
+        return newline < 0 ? stripped : stripped.substring(0, newline);
+    }
+
+    private static String escape(String text)
+    {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private static Path directory()
+    {
+        String configured = System.getProperty("niby.bench.corpus-dir");
+        if (configured != null) {
+            return Path.of(configured);
+        }
+        for (Path candidate : List.of(Path.of("niby-rag/nifi-doc"), Path.of("../niby-rag/nifi-doc"))) {
+            if (Files.isDirectory(candidate)) {
+                return candidate;
+            }
+        }
+        throw new IllegalStateException("NiFi corpus not found, set -Dniby.bench.corpus-dir");
+    }
+
+    private static List<String> read(Path directory, String... extensions)
+    {
+        try (Stream<Path> files = Files.walk(directory)) {
+            List<String> texts = new ArrayList<>();
+            for (Path file : files.filter(Files::isRegularFile).sorted().toList()) {
+                String name = file.getFileName().toString().toLowerCase();
+                for (String extension : extensions) {
+                    if (name.endsWith(extension)) {
+                        texts.add(Files.readString(file));
+                        break;
+                    }
+                }
+            }
+            if (texts.isEmpty()) {
+                throw new IllegalStateException("No corpus files found in " + directory.toAbsolutePath());
+            }
+            return texts;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package cloud.isaura.niby.bench;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static dev.langchain4j.data.document.splitter.DocumentSplitters.recursive;
+
+/**
+ * {@code AllMiniLmL6V2EmbeddingModel.embedAll} on real corpus segments, by batch size and number of
+ * concurrent callers sharing one model instance (as the ingestion embed stage and the query path do).
+ * Scores are per batch; divide by the batch size for per-segment figures.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EmbeddingBenchmark
+{
+    @Param({"1", "16", "64", "128"})
+    int batchSize;
+
+    private EmbeddingModel model;
+    private List<TextSegment> segments;
+
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        model = new AllMiniLmL6V2EmbeddingModel();
+        segments = new ArrayList<>();
+        for (String text : Corpus.texts()) {
+            segments.addAll(recursive(1500, 200).split(Document.from(text)));
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<Embedding> embedAllOneThread(Cursor cursor)
+    {
+        return embedBatch(cursor);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public List<Embedding> embedAllTwoThreads(Cursor cursor)
+    {
+        return embedBatch(cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<Embedding> embedAllFourThreads(Cursor cursor)
+    {
+        return embedBatch(cursor);
+    }
+
+    private List<Embedding> embedBatch(Cursor cursor)
+    {
+        List<TextSegment> batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            batch.add(segments.get(cursor.next));
+            cursor.next = (cursor.next + 1) % segments.size();
+        }
+        return model.embedAll(batch).content();
+    }
+}
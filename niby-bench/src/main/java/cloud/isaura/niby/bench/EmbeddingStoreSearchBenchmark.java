@@ -0,0 +1,100 @@
+package cloud.isaura.niby.bench;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Top-k search latency of the LangChain4j {@link InMemoryEmbeddingStore} (exact scan) by corpus size,
+ * on random unit vectors of the AllMiniLmL6V2 dimension. Baseline for the in-process and pgvector indexes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EmbeddingStoreSearchBenchmark
+{
+    private static final int DIMENSION = 384;
+    private static final int QUERIES = 256;
+
+    @Param({"10000", "50000"})
+    int size;
+
+    @Param({"5", "20"})
+    int maxResults;
+
+    private InMemoryEmbeddingStore<TextSegment> store;
+    private List<Embedding> queries;
+
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        SplittableRandom random = new SplittableRandom(42);
+        store = new InMemoryEmbeddingStore<>();
+        List<Embedding> embeddings = new ArrayList<>(size);
+        List<TextSegment> segments = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            embeddings.add(randomUnitVector(random));
+            segments.add(TextSegment.from("segment " + i));
+        }
+        store.addAll(embeddings, segments);
+
+        queries = new ArrayList<>(QUERIES);
+        for (int i = 0; i < QUERIES; i++) {
+            queries.add(randomUnitVector(random));
+        }
+    }
+
+    @Benchmark
+    public EmbeddingSearchResult<TextSegment> search(Cursor cursor)
+    {
+        Embedding query = queries.get(cursor.next);
+        cursor.next = (cursor.next + 1) % QUERIES;
+        return store.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(query)
+                .maxResults(maxResults)
+                .build());
+    }
+
+    private static Embedding randomUnitVector(SplittableRandom random)
+    {
+        float[] vector = new float[DIMENSION];
+        double norm = 0;
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) (random.nextDouble() * 2 - 1);
+            norm += vector[i] * vector[i];
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] *= scale;
+        }
+        return Embedding.from(vector);
+    }
+}
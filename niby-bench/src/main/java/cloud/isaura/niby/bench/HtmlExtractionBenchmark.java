@@ -0,0 +1,52 @@
+package cloud.isaura.niby.bench;
+
+import cloud.isaura.niby.rag.ingestion.service.HtmlContentExtractor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTML to text conversion of {@link HtmlContentExtractor}, parsing included, one page per operation.
+ * Point {@code -Dniby.bench.html-dir} at the NiFi component pages to measure the real input.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class HtmlExtractionBenchmark
+{
+    private List<String> pages;
+
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        pages = Corpus.htmlPages();
+    }
+
+    @Benchmark
+    public String extractText(Cursor cursor)
+    {
+        String page = pages.get(cursor.next);
+        cursor.next = (cursor.next + 1) % pages.size();
+        return HtmlContentExtractor.extractText(page);
+    }
+}
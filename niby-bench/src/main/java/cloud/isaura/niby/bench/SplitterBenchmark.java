@@ -0,0 +1,54 @@
+package cloud.isaura.niby.bench;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.segment.TextSegment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static dev.langchain4j.data.document.splitter.DocumentSplitters.recursive;
+
+/**
+ * {@code DocumentSplitters.recursive(1500, 200)}, the splitter used by ingestion, over the whole NiFi corpus.
+ * Each operation splits every document once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SplitterBenchmark
+{
+    private DocumentSplitter splitter;
+    private List<Document> documents;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        splitter = recursive(1500, 200);
+        documents = Corpus.texts().stream().map(Document::from).toList();
+    }
+
+    @Benchmark
+    public void splitCorpus(Blackhole blackhole)
+    {
+        for (Document document : documents) {
+            List<TextSegment> segments = splitter.split(document);
+            blackhole.consume(segments);
+        }
+    }
+}
@@ -19,4 +19,43 @@ ALTER DEFAULT PRIVILEGES IN SCHEMA niby GRANT ALL ON TABLES TO niby;
 CREATE EXTENSION IF NOT EXISTS vector;
 
 -- Note: The nifi_doc_embeddings table will be created automatically by LangChain4j
--- when the application starts (quarkus.langchain4j.pgvector.create-table=true)
\ No newline at end of file
+-- when the application starts (quarkus.langchain4j.pgvector.create-table=true)
+
+-- Ingestion manifest used by niby-rag for incremental re-ingestion
+-- (also created at startup if missing)
+CREATE TABLE IF NOT EXISTS niby.nifi_doc_files (
+  file_path TEXT PRIMARY KEY,
+  content_hash TEXT NOT NULL,
+  segment_count INT NOT NULL,
+  ingested_at TIMESTAMPTZ NOT NULL DEFAULT now()
+);
+
+CREATE TABLE IF NOT EXISTS niby.nifi_doc_segments (
+  embedding_id UUID PRIMARY KEY,
+  file_path TEXT NOT NULL,
+  segment_hash TEXT NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS nifi_doc_segments_file_path_idx ON niby.nifi_doc_segments (file_path);
+
+-- Asynchronous ingestion jobs (also created at startup if missing)
+CREATE TABLE IF NOT EXISTS niby.ingestion_jobs (
+  job_id UUID PRIMARY KEY,
+  status TEXT NOT NULL,
+  full_rebuild BOOLEAN NOT NULL,
+  created_at TIMESTAMPTZ NOT NULL,
+  started_at TIMESTAMPTZ,
+  finished_at TIMESTAMPTZ,
+  files_done INT NOT NULL DEFAULT 0,
+  segments_stored BIGINT NOT NULL DEFAULT 0,
+  error TEXT
+);
+
+-- Conversation memory of niby-be-core (also created at startup if missing)
+CREATE TABLE IF NOT EXISTS niby.chat_memory (
+  memory_id TEXT PRIMARY KEY,
+  messages JSONB NOT NULL,
+  updated_at TIMESTAMPTZ NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS chat_memory_updated_at_idx ON niby.chat_memory (updated_at);
@@ -0,0 +1,77 @@
+package cloud.isaura.niby.rag.index.controller;
+
+import cloud.isaura.niby.rag.index.service.VectorIndexService;
+import cloud.isaura.niby.rag.index.service.VectorIndexSpec;
+import io.smallrye.common.annotation.RunOnVirtualThread;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+@Path("/niby/rag/index")
+public class VectorIndexController
+{
+    private static final Logger log = LoggerFactory.getLogger(VectorIndexController.class);
+
+    @Inject
+    VectorIndexService vectorIndexService;
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @RunOnVirtualThread
+    public Response state() {
+        try {
+            return Response.ok(vectorIndexService.state()).build();
+        } catch (SQLException e) {
+            log.error("Failed to read vector index state", e);
+            Map<String, Object> response = new HashMap<>();
+            response.put("status", "error");
+            response.put("message", "Failed to read vector index state: " + e.getMessage());
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity(response).build();
+        }
+    }
+
+    /**
+     * Rebuild the ANN index. Request keys override the configured spec:
+     * {@code type} (hnsw, ivfflat, none), {@code m}, {@code efConstruction}, {@code lists},
+     * {@code quantization} (full, halfvec, binary).
+     */
+    @POST
+    @Path("/rebuild")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @RunOnVirtualThread
+    public Response rebuild(Map<String, Object> request) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            VectorIndexSpec configured = vectorIndexService.configuredSpec();
+            Map<String, Object> overrides = request == null ? Map.of() : request;
+            VectorIndexSpec spec = new VectorIndexSpec(
+                    (String) overrides.getOrDefault("type", configured.type()),
+                    ((Number) overrides.getOrDefault("m", configured.m())).intValue(),
+                    ((Number) overrides.getOrDefault("efConstruction", configured.efConstruction())).intValue(),
+                    ((Number) overrides.getOrDefault("lists", configured.lists())).intValue(),
+                    (String) overrides.getOrDefault("quantization", configured.quantization()));
+
+            response.put("status", "accepted");
+            response.put("message", "Vector index rebuild started");
+            response.put("build", vectorIndexService.rebuild(spec));
+            log.info("Started vector index rebuild: {}", spec);
+            return Response.accepted(response).build();
+        } catch (IllegalArgumentException | ClassCastException e) {
+            response.put("status", "error");
+            response.put("message", e.getMessage());
+            return Response.status(Response.Status.BAD_REQUEST).entity(response).build();
+        } catch (IllegalStateException e) {
+            response.put("status", "error");
+            response.put("message", e.getMessage());
+            return Response.status(Response.Status.CONFLICT).entity(response).build();
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package cloud.isaura.niby.rag.index.service;
+
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Creates and rebuilds the pgvector ANN index (HNSW or IVFFlat, cosine distance) on the embedding table,
+ * which LangChain4j creates without one, and the GIN full-text index used by hybrid retrieval in niby-be-core.
+ * The index can be built on halfvec or binary quantized vectors (see {@link VectorIndexSpec}).
+ * <p>
+ * Builds run in the background with {@code CREATE INDEX CONCURRENTLY} under a temporary name and are
+ * swapped in afterwards, so searches and ingestion keep working on the previous index meanwhile.
+ * Query-time recall ({@code hnsw.ef_search}, {@code ivfflat.probes}) is set per connection by
+ * niby-be-core.
+ */
+@ApplicationScoped
+public class VectorIndexService
+{
+    private static final Logger LOG = LoggerFactory.getLogger(VectorIndexService.class);
+
+    @Inject
+    DataSource dataSource;
+
+    @ConfigProperty(name = "quarkus.langchain4j.pgvector.table", defaultValue = "niby.nifi_doc_embeddings")
+    String table;
+
+    @ConfigProperty(name = "vector-index.type", defaultValue = "hnsw")
+    String type;
+
+    @ConfigProperty(name = "vector-index.hnsw.m", defaultValue = "16")
+    int m;
+
+    @ConfigProperty(name = "vector-index.hnsw.ef-construction", defaultValue = "64")
+    int efConstruction;
+
+    @ConfigProperty(name = "vector-index.ivfflat.lists", defaultValue = "0")
+    int lists;
+
+    @ConfigProperty(name = "vector-index.quantization", defaultValue = "full")
+    String quantization;
+
+    @ConfigProperty(name = "quarkus.langchain4j.pgvector.dimension", defaultValue = "384")
+    int dimension;
+
+    @ConfigProperty(name = "vector-index.create-on-startup", defaultValue = "true")
+    boolean createOnStartup;
+
+    @ConfigProperty(name = "vector-index.maintenance-work-mem", defaultValue = "256MB")
+    String maintenanceWorkMem;
+
+    @ConfigProperty(name = "rag.full-text.config", defaultValue = "english")
+    String textSearchConfig;
+
+    /**
+     * Outcome of the last build started by this process.
+     */
+    public record IndexBuild(String status, VectorIndexSpec spec, String definition, Instant startedAt,
+                             Instant finishedAt, Long durationMillis, String error)
+    {
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "vector-index-build");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean building = new AtomicBoolean();
+    private volatile IndexBuild lastBuild;
+
+    void onStart(@Observes StartupEvent event)
+    {
+        if (createOnStartup) {
+            ensureIndex();
+        }
+    }
+
+    @PreDestroy
+    void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    public VectorIndexSpec configuredSpec()
+    {
+        return new VectorIndexSpec(type, m, efConstruction, lists, quantization);
+    }
+
+    /**
+     * Build the configured ANN index and the full-text index if the embedding table exists without them,
+     * e.g. at first startup or after the table was dropped, or when the ANN index has another type or quantization.
+     */
+    public void ensureIndex()
+    {
+        try {
+            if (tableExists()) {
+                executor.submit(this::ensureFullTextIndex);
+            }
+        } catch (SQLException e) {
+            LOG.warn("Failed to check the full-text index of {}", table, e);
+        }
+
+        VectorIndexSpec spec = configuredSpec();
+        if (VectorIndexSpec.NONE.equals(spec.type())) {
+            return;
+        }
+        try {
+            if (!tableExists()) {
+                return;
+            }
+            List<Map<String, Object>> indexes = annIndexes();
+            if (indexes.isEmpty()) {
+                LOG.info("No ANN index on {}, building {}", table, spec);
+                rebuild(spec);
+            } else if (indexes.stream().noneMatch(index -> spec.describes((String) index.get("definition")))) {
+                LOG.info("ANN index on {} does not match the configured type and quantization, rebuilding {}", table, spec);
+                rebuild(spec);
+            }
+        } catch (SQLException e) {
+            LOG.warn("Failed to check the ANN index of {}", table, e);
+        } catch (IllegalStateException e) {
+            LOG.debug("Index build already running", e);
+        }
+    }
+
+    /**
+     * Replace the ANN index in the background. Type {@code none} drops it.
+     *
+     * @throws IllegalStateException if a build is already running
+     */
+    public IndexBuild rebuild(VectorIndexSpec spec)
+    {
+        if (!building.compareAndSet(false, true)) {
+            throw new IllegalStateException("A vector index build is already running");
+        }
+        IndexBuild started = new IndexBuild("BUILDING", spec, null, Instant.now(), null, null, null);
+        lastBuild = started;
+        executor.submit(() -> {
+            try {
+                String definition = build(spec);
+                Instant finished = Instant.now();
+                long millis = finished.toEpochMilli() - started.startedAt().toEpochMilli();
+                lastBuild = new IndexBuild("COMPLETED", spec, definition, started.startedAt(), finished, millis, null);
+                LOG.info("Vector index on {} rebuilt in {} ms: {}", table, millis, definition);
+            } catch (Exception e) {
+                Instant finished = Instant.now();
+                lastBuild = new IndexBuild("FAILED", spec, null, started.startedAt(), finished,
+                        finished.toEpochMilli() - started.startedAt().toEpochMilli(), e.getMessage());
+                LOG.error("Vector index build on {} failed", table, e);
+            } finally {
+                building.set(false);
+            }
+        });
+        return started;
+    }
+
+    /**
+     * Current ANN indexes with their size and validity, table size, and progress of a running build.
+     */
+    public Map<String, Object> state() throws SQLException
+    {
+        Map<String, Object> state = new HashMap<>();
+        state.put("table", table);
+        state.put("configured", configuredSpec());
+        state.put("lastBuild", lastBuild);
+        state.put("building", building.get());
+        if (!tableExists()) {
+            state.put("indexes", List.of());
+            return state;
+        }
+        state.put("estimatedRows", estimatedRows());
+        state.put("indexes", annIndexes());
+        state.put("fullTextIndex", fullTextIndex());
+        if (building.get()) {
+            state.put("progress", buildProgress());
+        }
+        return state;
+    }
+
+    private String build(VectorIndexSpec spec) throws SQLException
+    {
+        String indexName = indexName();
+        String buildName = indexName + "_build";
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            // CREATE INDEX CONCURRENTLY cannot run inside a transaction block
+            connection.setAutoCommit(true);
+            statement.execute("DROP INDEX CONCURRENTLY IF EXISTS " + qualified(buildName));
+            if (VectorIndexSpec.NONE.equals(spec.type())) {
+                statement.execute("DROP INDEX CONCURRENTLY IF EXISTS " + qualified(indexName));
+                return null;
+            }
+
+            statement.execute("SET maintenance_work_mem = '" + maintenanceWorkMem.replace("'", "") + "'");
+            try {
+                String with = VectorIndexSpec.HNSW.equals(spec.type())
+                        ? "m = " + spec.m() + ", ef_construction = " + spec.efConstruction()
+                        : "lists = " + spec.listsFor(exactRows(connection));
+                statement.execute("CREATE INDEX CONCURRENTLY " + buildName + " ON " + table
+                        + " USING " + spec.type() + " (" + spec.indexedColumn(dimension) + ") WITH (" + with + ")");
+
+                connection.setAutoCommit(false);
+                try {
+                    statement.execute("DROP INDEX IF EXISTS " + qualified(indexName));
+                    statement.execute("ALTER INDEX " + qualified(buildName) + " RENAME TO " + indexName);
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } finally {
+                // Also after a failed build: the connection goes back to the pool
+                statement.execute("RESET maintenance_work_mem");
+            }
+        }
+        return annIndexes().stream()
+                .filter(index -> indexName.equals(index.get("name")))
+                .map(index -> (String) index.get("definition"))
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * Create the GIN index on {@code to_tsvector(config, text)}, replacing it if a previous concurrent build left it invalid.
+     */
+    private void ensureFullTextIndex()
+    {
+        String indexName = table.substring(table.lastIndexOf('.') + 1) + "_text_fts_idx";
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            connection.setAutoCommit(true);
+            Map<String, Object> existing = fullTextIndex();
+            if (existing != null && Boolean.TRUE.equals(existing.get("valid"))) {
+                return;
+            }
+            if (existing != null) {
+                statement.execute("DROP INDEX CONCURRENTLY IF EXISTS " + qualified(indexName));
+            }
+            long start = System.currentTimeMillis();
+            statement.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + indexName + " ON " + table
+                    + " USING gin (to_tsvector('" + textSearchConfig.replace("'", "") + "'::regconfig, text))");
+            LOG.info("Full-text index {} created in {} ms", indexName, System.currentTimeMillis() - start);
+        } catch (SQLException e) {
+            LOG.warn("Failed to create the full-text index on {}", table, e);
+        }
+    }
+
+    private Map<String, Object> fullTextIndex() throws SQLException
+    {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT i.relname, pg_get_indexdef(i.oid), pg_relation_size(i.oid), ix.indisvalid "
+                             + "FROM pg_index ix "
+                             + "JOIN pg_class i ON i.oid = ix.indexrelid "
+                             + "JOIN pg_am am ON am.oid = i.relam "
+                             + "WHERE ix.indrelid = to_regclass(?) AND am.amname = 'gin' "
+                             + "AND pg_get_indexdef(i.oid) LIKE '%to_tsvector%'")) {
+            statement.setString(1, table);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                Map<String, Object> index = new HashMap<>();
+                index.put("name", rs.getString(1));
+                index.put("definition", rs.getString(2));
+                index.put("sizeBytes", rs.getLong(3));
+                index.put("valid", rs.getBoolean(4));
+                return index;
+            }
+        }
+    }
+
+    private boolean tableExists() throws SQLException
+    {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT to_regclass(?) IS NOT NULL")) {
+            statement.setString(1, table);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    private List<Map<String, Object>> annIndexes() throws SQLException
+    {
+        List<Map<String, Object>> indexes = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT i.relname, am.amname, pg_get_indexdef(i.oid), pg_relation_size(i.oid), ix.indisvalid "
+                             + "FROM pg_index ix "
+                             + "JOIN pg_class i ON i.oid = ix.indexrelid "
+                             + "JOIN pg_am am ON am.oid = i.relam "
+                             + "WHERE ix.indrelid = to_regclass(?) AND am.amname IN ('hnsw', 'ivfflat')")) {
+            statement.setString(1, table);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    Map<String, Object> index = new HashMap<>();
+                    index.put("name", rs.getString(1));
+                    index.put("type", rs.getString(2));
+                    index.put("definition", rs.getString(3));
+                    index.put("sizeBytes", rs.getLong(4));
+                    index.put("valid", rs.getBoolean(5));
+                    indexes.add(index);
+                }
+            }
+        }
+        return indexes;
+    }
+
+    private long estimatedRows() throws SQLException
+    {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT reltuples::bigint FROM pg_class WHERE oid = to_regclass(?)")) {
+            statement.setString(1, table);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? Math.max(0, rs.getLong(1)) : 0;
+            }
+        }
+    }
+
+    private long exactRows(Connection connection) throws SQLException
+    {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT count(*) FROM " + table)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private Map<String, Object> buildProgress() throws SQLException
+    {
+        Map<String, Object> progress = new HashMap<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT phase, blocks_done, blocks_total, tuples_done, tuples_total "
+                             + "FROM pg_stat_progress_create_index WHERE relid = to_regclass(?)")) {
+            statement.setString(1, table);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (rs.next()) {
+                    progress.put("phase", rs.getString(1));
+                    progress.put("blocksDone", rs.getLong(2));
+                    progress.put("blocksTotal", rs.getLong(3));
+                    progress.put("tuplesDone", rs.getLong(4));
+                    progress.put("tuplesTotal", rs.getLong(5));
+                }
+            }
+        }
+        return progress;
+    }
+
+    private String indexName()
+    {
+        return table.substring(table.lastIndexOf('.') + 1) + "_embedding_ann_idx";
+    }
+
+    private String qualified(String indexName)
+    {
+        int dot = table.lastIndexOf('.');
+        return dot < 0 ? indexName : table.substring(0, dot + 1) + indexName;
+    }
+}
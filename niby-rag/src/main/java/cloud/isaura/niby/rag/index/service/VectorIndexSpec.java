@@ -0,0 +1,86 @@
+package cloud.isaura.niby.rag.index.service;
+
+import java.util.Locale;
+
+/**
+ * Type and build parameters of the ANN index on the embedding column.
+ * <p>
+ * A quantized index is built on an expression of the embedding column, so the table keeps the
+ * full-precision vectors that niby-be-core uses to rescore the shortlist the index returns.
+ *
+ * @param type           {@code hnsw}, {@code ivfflat} or {@code none}
+ * @param m              HNSW: max connections per node and layer
+ * @param efConstruction HNSW: candidate list size while building
+ * @param lists          IVFFlat: number of inverted lists, {@code 0} to derive it from the row count
+ * @param quantization   {@code full} (4-byte floats), {@code halfvec} (2-byte floats, half the size)
+ *                       or {@code binary} (one bit per dimension, compared by Hamming distance)
+ */
+public record VectorIndexSpec(String type, int m, int efConstruction, int lists, String quantization)
+{
+    public static final String HNSW = "hnsw";
+    public static final String IVFFLAT = "ivfflat";
+    public static final String NONE = "none";
+
+    public static final String FULL = "full";
+    public static final String HALFVEC = "halfvec";
+    public static final String BINARY = "binary";
+
+    public VectorIndexSpec
+    {
+        type = type.toLowerCase(Locale.ROOT);
+        if (!type.equals(HNSW) && !type.equals(IVFFLAT) && !type.equals(NONE)) {
+            throw new IllegalArgumentException("Unknown vector index type: " + type);
+        }
+        quantization = quantization.toLowerCase(Locale.ROOT);
+        if (!quantization.equals(FULL) && !quantization.equals(HALFVEC) && !quantization.equals(BINARY)) {
+            throw new IllegalArgumentException("Unknown vector index quantization: " + quantization);
+        }
+        if (type.equals(HNSW) && (m < 2 || m > 100 || efConstruction < 2 * m)) {
+            throw new IllegalArgumentException("HNSW needs 2 <= m <= 100 and ef_construction >= 2 * m");
+        }
+        if (lists < 0) {
+            throw new IllegalArgumentException("lists must not be negative: " + lists);
+        }
+    }
+
+    /**
+     * Indexed expression and operator class; queries must order by the same expression to use the index.
+     */
+    String indexedColumn(int dimension)
+    {
+        return switch (quantization) {
+            case HALFVEC -> "(embedding::halfvec(" + dimension + ")) halfvec_cosine_ops";
+            case BINARY -> "(binary_quantize(embedding)::bit(" + dimension + ")) bit_hamming_ops";
+            default -> "embedding vector_cosine_ops";
+        };
+    }
+
+    /**
+     * Whether an index definition ({@code pg_get_indexdef}) has this type and quantization; build parameters are not compared.
+     */
+    boolean describes(String definition)
+    {
+        if (definition == null || !definition.contains("USING " + type + " ")) {
+            return false;
+        }
+        boolean binary = definition.contains("binary_quantize(");
+        boolean halfvec = definition.contains("halfvec");
+        return switch (quantization) {
+            case HALFVEC -> halfvec;
+            case BINARY -> binary;
+            default -> !binary && !halfvec;
+        };
+    }
+
+    /**
+     * pgvector guidance: rows / 1000 lists up to a million rows, sqrt(rows) above.
+     */
+    int listsFor(long rows)
+    {
+        if (lists > 0) {
+            return lists;
+        }
+        long derived = rows <= 1_000_000 ? rows / 1000 : (long) Math.sqrt(rows);
+        return (int) Math.max(1, derived);
+    }
+}
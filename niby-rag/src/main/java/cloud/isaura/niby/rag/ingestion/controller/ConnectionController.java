@@ -1,5 +1,6 @@
 package cloud.isaura.niby.rag.ingestion.controller;
 
+import io.smallrye.common.annotation.RunOnVirtualThread;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
@@ -27,6 +28,7 @@ public class ConnectionController
     @GET
     @Path("/connection")
     @Produces(MediaType.APPLICATION_JSON)
+    @RunOnVirtualThread
     public Response checkConnection() {
         Map<String, Object> response = new HashMap<>();
 
@@ -1,9 +1,13 @@
 package cloud.isaura.niby.rag.ingestion.controller;
 
 import cloud.isaura.niby.rag.ingestion.service.DocumentIngestionService;
+import cloud.isaura.niby.rag.ingestion.service.IngestionJob;
+import cloud.isaura.niby.rag.ingestion.service.IngestionJobService;
+import cloud.isaura.niby.shared.embedding.EmbeddingEngine;
 
 
 import dev.langchain4j.data.document.Document;
+import io.smallrye.common.annotation.RunOnVirtualThread;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
@@ -11,7 +15,6 @@ import jakarta.ws.rs.core.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -24,30 +27,71 @@ public class IngestionController
     @Inject
     DocumentIngestionService documentIngestionService;
 
+    @Inject
+    IngestionJobService ingestionJobService;
+
+    @Inject
+    EmbeddingEngine embeddingEngine;
+
     @POST
     @Path("/directory")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
+    @RunOnVirtualThread
     public Response ingestDirectory(Map<String, String> request) {
+        boolean fullRebuild = request != null && Boolean.parseBoolean(request.get("fullRebuild"));
 
+        IngestionJob job = ingestionJobService.submit(fullRebuild);
 
-        try {
-            documentIngestionService.ingestWithCustomParsers();
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "accepted");
+        response.put("message", "Directory ingestion submitted");
+        response.put("jobId", job.id());
+        response.put("job", job.snapshot());
 
-            Map<String, Object> response = new HashMap<>();
-            response.put("status", "success");
-            response.put("message", "Documents ingested successfully");
+        log.info("Submitted directory ingestion as job {}", job.id());
+        return Response.accepted(response).build();
+    }
 
-            log.info("Successfully ingested documents from directory");
-            return Response.ok(response).build();
+    @GET
+    @Path("/jobs")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<IngestionJob.Snapshot> listJobs() {
+        return ingestionJobService.list().stream().map(IngestionJob::snapshot).toList();
+    }
 
-        } catch (IOException e) {
-            Map<String, Object> response = new HashMap<>();
-            response.put("status", "error");
-            response.put("message", "Failed to ingest documents: " + e.getMessage());
+    @GET
+    @Path("/jobs/{jobId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getJob(@PathParam("jobId") String jobId) {
+        return ingestionJobService.find(jobId)
+                .map(job -> Response.ok(job.snapshot()).build())
+                .orElseGet(() -> jobNotFound(jobId));
+    }
 
-            log.error("Failed to ingest documents from directory", e);
-            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(response).build();
+    @POST
+    @Path("/jobs/{jobId}/cancel")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RunOnVirtualThread
+    public Response cancelJob(@PathParam("jobId") String jobId) {
+        return ingestionJobService.cancel(jobId)
+                .map(job -> Response.accepted(job.snapshot()).build())
+                .orElseGet(() -> jobNotFound(jobId));
+    }
+
+    @POST
+    @Path("/jobs/{jobId}/resume")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RunOnVirtualThread
+    public Response resumeJob(@PathParam("jobId") String jobId) {
+        try {
+            return ingestionJobService.resume(jobId)
+                    .map(job -> Response.accepted(job.snapshot()).build())
+                    .orElseGet(() -> jobNotFound(jobId));
+        } catch (IllegalStateException e) {
+            return Response.status(Response.Status.CONFLICT)
+                    .entity(Map.of("error", e.getMessage()))
+                    .build();
         }
     }
 
@@ -55,6 +99,7 @@ public class IngestionController
     @Path("/manual")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
+    @RunOnVirtualThread
     public Response manualIngest(List<Document> documents) {
         if (documents == null || documents.isEmpty()) {
             return Response.status(Response.Status.BAD_REQUEST)
@@ -82,4 +127,20 @@ public class IngestionController
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(response).build();
         }
     }
+
+    /**
+     * Throughput and latency of the embedding engine per lane; ingestion runs in the bulk lane.
+     */
+    @GET
+    @Path("/embedding")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<EmbeddingEngine.LaneStats> embeddingStats() {
+        return embeddingEngine.stats();
+    }
+
+    private Response jobNotFound(String jobId) {
+        return Response.status(Response.Status.NOT_FOUND)
+                .entity(Map.of("error", "Unknown ingestion job: " + jobId))
+                .build();
+    }
 }
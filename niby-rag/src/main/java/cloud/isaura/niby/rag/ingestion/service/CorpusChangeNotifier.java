@@ -0,0 +1,47 @@
+package cloud.isaura.niby.rag.ingestion.service;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Announces changes of the embedding table with a Postgres {@code NOTIFY}, so that
+ * niby-be-core can drop retrieval results cached against the previous corpus.
+ */
+@ApplicationScoped
+public class CorpusChangeNotifier
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CorpusChangeNotifier.class);
+
+    @Inject
+    DataSource dataSource;
+
+    @ConfigProperty(name = "niby.corpus.notify-channel", defaultValue = "niby_corpus_changed")
+    String channel;
+
+    /**
+     * Notify listeners that the corpus changed. Failures are logged, not thrown: the data is
+     * already committed and listeners fall back to their cache TTL.
+     *
+     * @param reason short description sent as the notification payload
+     */
+    public void corpusChanged(String reason)
+    {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT pg_notify(?, ?)")) {
+            statement.setString(1, channel);
+            statement.setString(2, reason);
+            statement.execute();
+            LOG.info("Notified corpus change on channel {}: {}", channel, reason);
+        } catch (SQLException e) {
+            LOG.warn("Failed to notify corpus change on channel {}", channel, e);
+        }
+    }
+}
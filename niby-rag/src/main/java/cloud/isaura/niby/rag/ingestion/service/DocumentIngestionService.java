@@ -1,25 +1,23 @@
 package cloud.isaura.niby.rag.ingestion.service;
 
+import cloud.isaura.niby.shared.embedding.EmbeddingEngine;
 import dev.langchain4j.data.document.Document;
-import dev.langchain4j.data.document.DocumentParser;
 import dev.langchain4j.data.document.DocumentSplitter;
-import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
 import dev.langchain4j.data.document.parser.TextDocumentParser;
 import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
-import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.store.embedding.EmbeddingStoreIngestor;
 import io.quarkiverse.langchain4j.pgvector.PgVectorEmbeddingStore;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,19 +30,55 @@ public class DocumentIngestionService
 {
     private static final Logger LOG = LoggerFactory.getLogger(DocumentIngestionService.class);
 
+    // Source of manually ingested segments in their ids, followed by the document hash
+    private static final String MANUAL_SOURCE = "manual:";
+
     @Inject
     PgVectorEmbeddingStore embeddingStore;
 
     @Inject
-    EmbeddingModel embeddingModel;
+    EmbeddingEngine embeddingEngine;
+
+    @Inject
+    IngestionManifest manifest;
+
+    @Inject
+    CorpusChangeNotifier corpusChangeNotifier;
 
     @ConfigProperty(name = "documents.el.directory")
     String documentsDirectory;
 
+    @ConfigProperty(name = "ingestion.pipeline.parse-threads", defaultValue = "2")
+    int parseThreads;
+
+    @ConfigProperty(name = "ingestion.pipeline.embed-threads", defaultValue = "2")
+    int embedThreads;
+
+    @ConfigProperty(name = "ingestion.pipeline.batch-size", defaultValue = "100")
+    int batchSize;
+
+    @ConfigProperty(name = "ingestion.pipeline.queue-capacity", defaultValue = "4")
+    int queueCapacity;
+
+    @ConfigProperty(name = "ingestion.pipeline.max-in-flight-segments", defaultValue = "600")
+    int maxInFlightSegments;
+
     /**
-     * Ingest with file type detection and custom parsers
+     * Incremental ingestion: only new or changed files are embedded.
      */
-    public void ingestWithCustomParsers() throws IOException
+    public IngestionReport ingestWithCustomParsers() throws IOException
+    {
+        return ingestWithCustomParsers(false, new IngestionProgress());
+    }
+
+    /**
+     * Ingest with file type detection and custom parsers.
+     * Files are streamed through a staged pipeline (see {@link IngestionPipeline}).
+     *
+     * @param fullRebuild drop every stored segment and the manifest before ingesting
+     * @param progress    receives live progress and carries cancellation requests
+     */
+    public IngestionReport ingestWithCustomParsers(boolean fullRebuild, IngestionProgress progress) throws IOException
     {
         // Resolve path - if relative, resolve from current working directory
         Path path = Path.of(documentsDirectory);
@@ -52,81 +86,82 @@ public class DocumentIngestionService
             path = Path.of(System.getProperty("user.dir")).resolve(documentsDirectory);
         }
 
-        try (Stream<Path> paths = Files.walk(path)) {
-            List<Document> documents = new ArrayList<>();
-
-            paths.filter(Files::isRegularFile)
-                    .forEach(file -> {
-                        LOG.info("Processing file: {}", file);
-                        Document doc = loadDocumentWithParser(file);
-                        if (doc != null) {
-                            documents.add(doc);
-                        }
-                    });
-
-            if (!documents.isEmpty()) {
-                ingestDocuments(documents);
-            }
-        }
-    }
-
-    private Document loadDocumentWithParser(Path file) {
-        String fileName = file.getFileName().toString().toLowerCase();
-        DocumentParser parser;
+        // Batch process segments to avoid token limit (each segment ~1500 tokens, limit is 300k tokens)
+        // The default batch of 100 segments (~150k tokens) stays well under limit
+        IngestionPipeline.Settings settings =
+                new IngestionPipeline.Settings(parseThreads, embedThreads, batchSize, queueCapacity, maxInFlightSegments);
 
         try {
-                parser = new TextDocumentParser();
-                return FileSystemDocumentLoader.loadDocument(file, parser);
-        } catch (Exception e) {
-            LOG.error("Failed to load document: {}", file, e);
-            return null;
-        }
-    }
-
-    private void ingestDocuments(List<Document> documents) {
-        DocumentSplitter splitter = recursive(1500, 200);
-
-        // Split all documents into segments first
-        List<TextSegment> allSegments = splitter.splitAll(documents);
-        LOG.info("Split {} documents into {} segments", documents.size(), allSegments.size());
+            Map<String, String> knownFileHashes;
+            try {
+                if (fullRebuild) {
+                    LOG.info("Full rebuild requested, removing all stored segments");
+                    progress.corpusChanged();
+                    embeddingStore.removeAll();
+                    manifest.clear();
+                }
+                knownFileHashes = manifest.fileHashes();
+            } catch (SQLException e) {
+                throw new IOException("Failed to read the ingestion manifest", e);
+            }
 
-        // Batch process segments to avoid token limit (each segment ~1500 tokens, limit is 300k tokens)
-        // Use conservative batch of 100 segments (~150k tokens) to stay well under limit
-        int segmentBatchSize = 100;
-        
-        for (int i = 0; i < allSegments.size(); i += segmentBatchSize) {
-            int endIndex = Math.min(i + segmentBatchSize, allSegments.size());
-            List<TextSegment> segmentBatch = allSegments.subList(i, endIndex);
-            
-            LOG.info("Embedding segments {}-{} of {}", i + 1, endIndex, allSegments.size());
-            
-            // Generate embeddings for this batch
-            List<Embedding> embeddings = embeddingModel.embedAll(segmentBatch).content();
-            
-            // Store in PGVector
-            embeddingStore.addAll(embeddings, segmentBatch);
+            return new IngestionPipeline(path, new TextDocumentParser(), recursive(1500, 200),
+                    embeddingEngine, embeddingStore, manifest, knownFileHashes, settings, progress).run();
+        } finally {
+            // Also after a failure or cancellation: batches stored so far are committed
+            if (progress.isCorpusChanged()) {
+                corpusChangeNotifier.corpusChanged("directory-ingestion");
+            }
         }
-        
-        LOG.info("Successfully ingested {} documents ({} segments)", documents.size(), allSegments.size());
     }
 
     /**
-     * Manual ingestion with more control
+     * Manual ingestion with more control.
+     * Documents are split one at a time and stored in windows of one batch, so memory use
+     * does not grow with the size of the request.
+     * <p>
+     * Manual documents are outside the manifest: they are not removed by incremental ingestion,
+     * only by a full rebuild. Their segment ids derive from the document text, so sending the
+     * same document again overwrites its segments instead of duplicating them.
      */
     public void manualIngest(List<Document> documents) {
         DocumentSplitter splitter = recursive(1500, 200);
 
-        // Split documents into segments
-        List<TextSegment> segments = splitter.splitAll(documents);
-
-        LOG.info("Split {} documents into {} segments", documents.size(), segments.size());
+        List<String> ids = new ArrayList<>(batchSize);
+        List<TextSegment> window = new ArrayList<>(batchSize);
+        long segments = 0;
+        for (Document document : documents) {
+            String source = MANUAL_SOURCE + IngestionManifest.sha256(document.text());
+            Map<String, Integer> occurrences = new HashMap<>();
+            for (TextSegment segment : splitter.split(document)) {
+                String segmentHash = IngestionManifest.sha256(segment.text());
+                int occurrence = occurrences.merge(segmentHash, 1, Integer::sum) - 1;
+                ids.add(IngestionManifest.segmentId(source, segmentHash, occurrence));
+                window.add(segment);
+                if (window.size() == batchSize) {
+                    storeWindow(ids, window);
+                    segments += window.size();
+                    ids = new ArrayList<>(batchSize);
+                    window = new ArrayList<>(batchSize);
+                }
+            }
+        }
+        if (!window.isEmpty()) {
+            storeWindow(ids, window);
+            segments += window.size();
+        }
+        if (segments > 0) {
+            corpusChangeNotifier.corpusChanged("manual-ingestion");
+        }
 
-        // Generate embeddings
-        List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+        LOG.info("Manual ingestion completed: {} documents, {} segments", documents.size(), segments);
+    }
 
-        // Store in PGVector
-        embeddingStore.addAll(embeddings, segments);
+    private void storeWindow(List<String> ids, List<TextSegment> segments) {
+        // Generate embeddings in the bulk lane, so queries embedded by this process go first
+        List<Embedding> embeddings = embeddingEngine.embedAll(segments, EmbeddingEngine.Lane.BULK).content();
 
-        LOG.info("Manual ingestion completed");
+        // Store in PGVector, replacing the segments of a document sent before
+        embeddingStore.addAll(ids, embeddings, segments);
     }
 }
@@ -56,32 +56,7 @@ public class HtmlContentExtractor {
     private static void extractAndSave(Path file, Path sourceDir, Path destDir) {
         try {
             Document doc = Jsoup.parse(file.toFile(), "UTF-8");
-
-            // Remove script, style, and other non-content elements
-            doc.select("script, style, nav, header, footer, aside").remove();
-
-            String title = doc.title();
-
-            // Use wholeText() to preserve line breaks and format better
-            doc.select("br").append("\\n");
-            doc.select("p").append("\\n\\n");
-            doc.select("h1, h2, h3, h4, h5, h6").append("\\n\\n");
-            doc.select("li").prepend("• ");
-            doc.select("tr").append("\\n");
-            doc.select("th, td").append(" | ");
-
-            String text = doc.body().text()
-                .replaceAll("\\\\n", "\n")
-                .replaceAll(" +", " ")
-                .replaceAll("\n{3,}", "\n\n")
-                .trim();
-
-            // Simple formatting: Title on first line, then text
-            StringBuilder content = new StringBuilder();
-            if (title != null && !title.isEmpty()) {
-                content.append(title).append(System.lineSeparator()).append(System.lineSeparator());
-            }
-            content.append(text);
+            String content = extractText(doc);
 
             Path relativePath = sourceDir.relativize(file);
             // Replace extension with .txt
@@ -89,7 +64,7 @@ public class HtmlContentExtractor {
             String nameWithoutExt = fileName.substring(0, fileName.lastIndexOf('.'));
             Path targetPath = destDir.resolve(relativePath.resolveSibling(nameWithoutExt + ".txt"));
 
-            Files.writeString(targetPath, content.toString(), StandardOpenOption.CREATE,
+            Files.writeString(targetPath, content, StandardOpenOption.CREATE,
                     StandardOpenOption.TRUNCATE_EXISTING);
             System.out.println("Processed: " + file);
 
@@ -97,4 +72,43 @@ public class HtmlContentExtractor {
             System.err.println("Failed to process file: " + file + " - " + e.getMessage());
         }
     }
+
+    /**
+     * Convert an HTML page to plain text: title on the first line, then the body text.
+     */
+    public static String extractText(String html) {
+        return extractText(Jsoup.parse(html));
+    }
+
+    /**
+     * Convert a parsed HTML page to plain text. The document is modified.
+     */
+    public static String extractText(Document doc) {
+        // Remove script, style, and other non-content elements
+        doc.select("script, style, nav, header, footer, aside").remove();
+
+        String title = doc.title();
+
+        // Use wholeText() to preserve line breaks and format better
+        doc.select("br").append("\\n");
+        doc.select("p").append("\\n\\n");
+        doc.select("h1, h2, h3, h4, h5, h6").append("\\n\\n");
+        doc.select("li").prepend("• ");
+        doc.select("tr").append("\\n");
+        doc.select("th, td").append(" | ");
+
+        String text = doc.body().text()
+            .replaceAll("\\\\n", "\n")
+            .replaceAll(" +", " ")
+            .replaceAll("\n{3,}", "\n\n")
+            .trim();
+
+        // Simple formatting: Title on first line, then text
+        StringBuilder content = new StringBuilder();
+        if (title != null && !title.isEmpty()) {
+            content.append(title).append(System.lineSeparator()).append(System.lineSeparator());
+        }
+        content.append(text);
+        return content.toString();
+    }
 }
@@ -0,0 +1,169 @@
+package cloud.isaura.niby.rag.ingestion.service;
+
+import java.time.Instant;
+import java.util.concurrent.Future;
+
+/**
+ * A directory ingestion submitted for asynchronous execution.
+ */
+public class IngestionJob
+{
+    public enum Status
+    {
+        QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED, INTERRUPTED;
+
+        /**
+         * @return whether a job in this status can be submitted again
+         */
+        public boolean isResumable()
+        {
+            return this == FAILED || this == CANCELLED || this == INTERRUPTED;
+        }
+    }
+
+    /**
+     * Point-in-time view of a job, as returned by the job endpoints.
+     */
+    public record Snapshot(String jobId,
+                           Status status,
+                           boolean fullRebuild,
+                           Instant createdAt,
+                           Instant startedAt,
+                           Instant finishedAt,
+                           int filesDiscovered,
+                           boolean discoveryComplete,
+                           int filesDone,
+                           long segmentsStored,
+                           double segmentsPerSecond,
+                           Long etaSeconds,
+                           String error,
+                           IngestionReport report)
+    {
+    }
+
+    private final String id;
+    private final Instant createdAt;
+    private volatile boolean fullRebuild;
+    private volatile Status status;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String error;
+    private volatile IngestionReport report;
+    private volatile IngestionProgress progress = new IngestionProgress();
+    private volatile Future<?> future;
+
+    IngestionJob(String id, boolean fullRebuild, Status status, Instant createdAt)
+    {
+        this.id = id;
+        this.fullRebuild = fullRebuild;
+        this.status = status;
+        this.createdAt = createdAt;
+    }
+
+    public String id()
+    {
+        return id;
+    }
+
+    public Status status()
+    {
+        return status;
+    }
+
+    public boolean fullRebuild()
+    {
+        return fullRebuild;
+    }
+
+    public Instant createdAt()
+    {
+        return createdAt;
+    }
+
+    public Instant startedAt()
+    {
+        return startedAt;
+    }
+
+    public Instant finishedAt()
+    {
+        return finishedAt;
+    }
+
+    public String error()
+    {
+        return error;
+    }
+
+    IngestionProgress progress()
+    {
+        return progress;
+    }
+
+    Future<?> future()
+    {
+        return future;
+    }
+
+    void queued(Future<?> future)
+    {
+        this.future = future;
+    }
+
+    /**
+     * Prepare a finished job for another run. Segments already committed are reused through the
+     * manifest, so the rerun continues from the last stored batch; a full rebuild is not repeated.
+     */
+    void resubmitted()
+    {
+        status = Status.QUEUED;
+        fullRebuild = false;
+        finishedAt = null;
+        error = null;
+        report = null;
+        progress = new IngestionProgress();
+    }
+
+    void running()
+    {
+        status = Status.RUNNING;
+        startedAt = Instant.now();
+        progress.started();
+    }
+
+    void completed(IngestionReport report)
+    {
+        this.report = report;
+        finish(Status.COMPLETED, null);
+    }
+
+    void finish(Status status, String error)
+    {
+        this.status = status;
+        this.error = error;
+        this.finishedAt = Instant.now();
+    }
+
+    void restore(Instant startedAt, Instant finishedAt, int filesDone, long segmentsStored, String error)
+    {
+        this.startedAt = startedAt;
+        this.finishedAt = finishedAt;
+        this.error = error;
+        progress.restore(filesDone, segmentsStored);
+    }
+
+    public Snapshot snapshot()
+    {
+        IngestionProgress current = progress;
+        boolean running = status == Status.RUNNING;
+        return new Snapshot(id, status, fullRebuild, createdAt, startedAt, finishedAt,
+                current.filesDiscovered(),
+                current.isDiscoveryComplete(),
+                current.filesDone(),
+                current.segmentsStored(),
+                running ? current.segmentsPerSecond() : 0,
+                running ? current.etaSeconds() : null,
+                error,
+                report);
+    }
+}
@@ -0,0 +1,126 @@
+package cloud.isaura.niby.rag.ingestion.service;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Persists ingestion jobs, so that their state survives a restart and interrupted jobs can be resumed.
+ */
+@ApplicationScoped
+public class IngestionJobRepository
+{
+    @Inject
+    DataSource dataSource;
+
+    @ConfigProperty(name = "ingestion.jobs.table", defaultValue = "niby.ingestion_jobs")
+    String jobsTable;
+
+    void createTable() throws SQLException
+    {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS " + jobsTable + " ("
+                    + "job_id UUID PRIMARY KEY, "
+                    + "status TEXT NOT NULL, "
+                    + "full_rebuild BOOLEAN NOT NULL, "
+                    + "created_at TIMESTAMPTZ NOT NULL, "
+                    + "started_at TIMESTAMPTZ, "
+                    + "finished_at TIMESTAMPTZ, "
+                    + "files_done INT NOT NULL DEFAULT 0, "
+                    + "segments_stored BIGINT NOT NULL DEFAULT 0, "
+                    + "error TEXT)");
+        }
+    }
+
+    /**
+     * Mark jobs left queued or running by a previous process as interrupted.
+     */
+    int markInterrupted() throws SQLException
+    {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "UPDATE " + jobsTable + " SET status = ? WHERE status IN (?, ?)")) {
+            statement.setString(1, IngestionJob.Status.INTERRUPTED.name());
+            statement.setString(2, IngestionJob.Status.QUEUED.name());
+            statement.setString(3, IngestionJob.Status.RUNNING.name());
+            return statement.executeUpdate();
+        }
+    }
+
+    /**
+     * @return the most recent jobs, newest first
+     */
+    List<IngestionJob> recent(int limit) throws SQLException
+    {
+        List<IngestionJob> jobs = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT job_id, status, full_rebuild, created_at, started_at, finished_at, "
+                             + "files_done, segments_stored, error FROM " + jobsTable
+                             + " ORDER BY created_at DESC LIMIT ?")) {
+            statement.setInt(1, limit);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    IngestionJob job = new IngestionJob(rs.getString("job_id"),
+                            rs.getBoolean("full_rebuild"),
+                            IngestionJob.Status.valueOf(rs.getString("status")),
+                            rs.getTimestamp("created_at").toInstant());
+                    job.restore(toInstant(rs.getTimestamp("started_at")),
+                            toInstant(rs.getTimestamp("finished_at")),
+                            rs.getInt("files_done"),
+                            rs.getLong("segments_stored"),
+                            rs.getString("error"));
+                    jobs.add(job);
+                }
+            }
+        }
+        return jobs;
+    }
+
+    void save(IngestionJob job) throws SQLException
+    {
+        IngestionJob.Snapshot snapshot = job.snapshot();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "INSERT INTO " + jobsTable + " (job_id, status, full_rebuild, created_at, started_at, "
+                             + "finished_at, files_done, segments_stored, error) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) "
+                             + "ON CONFLICT (job_id) DO UPDATE SET status = EXCLUDED.status, "
+                             + "full_rebuild = EXCLUDED.full_rebuild, started_at = EXCLUDED.started_at, "
+                             + "finished_at = EXCLUDED.finished_at, files_done = EXCLUDED.files_done, "
+                             + "segments_stored = EXCLUDED.segments_stored, error = EXCLUDED.error")) {
+            statement.setObject(1, UUID.fromString(snapshot.jobId()));
+            statement.setString(2, snapshot.status().name());
+            statement.setBoolean(3, snapshot.fullRebuild());
+            statement.setTimestamp(4, Timestamp.from(snapshot.createdAt()));
+            statement.setTimestamp(5, toTimestamp(snapshot.startedAt()));
+            statement.setTimestamp(6, toTimestamp(snapshot.finishedAt()));
+            statement.setInt(7, snapshot.filesDone());
+            statement.setLong(8, snapshot.segmentsStored());
+            statement.setString(9, snapshot.error());
+            statement.executeUpdate();
+        }
+    }
+
+    private static Instant toInstant(Timestamp timestamp)
+    {
+        return timestamp == null ? null : timestamp.toInstant();
+    }
+
+    private static Timestamp toTimestamp(Instant instant)
+    {
+        return instant == null ? null : Timestamp.from(instant);
+    }
+}
@@ -0,0 +1,228 @@
+package cloud.isaura.niby.rag.ingestion.service;
+
+import cloud.isaura.niby.rag.index.service.VectorIndexService;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs directory ingestions as background jobs, one at a time in submission order.
+ * <p>
+ * Jobs are persisted in Postgres. Jobs that were queued or running when the process stopped are
+ * marked interrupted at startup and, if configured, resumed: thanks to the ingestion manifest a
+ * resumed job skips committed files and reuses the segments of every batch already stored.
+ */
+@ApplicationScoped
+public class IngestionJobService
+{
+    private static final Logger LOG = LoggerFactory.getLogger(IngestionJobService.class);
+
+    @Inject
+    DocumentIngestionService documentIngestionService;
+
+    @Inject
+    IngestionJobRepository repository;
+
+    @Inject
+    VectorIndexService vectorIndexService;
+
+    @ConfigProperty(name = "ingestion.jobs.resume-interrupted", defaultValue = "true")
+    boolean resumeInterrupted;
+
+    @ConfigProperty(name = "ingestion.jobs.history-size", defaultValue = "50")
+    int historySize;
+
+    private final Map<String, IngestionJob> jobs = new ConcurrentHashMap<>();
+    // Jobs only coordinate blocking stages, so the single job runner is a virtual thread
+    private final ExecutorService executor =
+            Executors.newSingleThreadExecutor(Thread.ofVirtual().name("ingestion-job").factory());
+    private volatile boolean shuttingDown;
+
+    void onStart(@Observes StartupEvent event)
+    {
+        try {
+            repository.createTable();
+            int interrupted = repository.markInterrupted();
+            if (interrupted > 0) {
+                LOG.warn("{} ingestion job(s) were interrupted by the last shutdown", interrupted);
+            }
+            repository.recent(historySize).forEach(job -> jobs.put(job.id(), job));
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to initialize the ingestion job table", e);
+        }
+
+        if (resumeInterrupted) {
+            jobs.values().stream()
+                    .filter(job -> job.status() == IngestionJob.Status.INTERRUPTED)
+                    .sorted(Comparator.comparing(IngestionJob::createdAt))
+                    .forEach(job -> {
+                        LOG.info("Resuming interrupted ingestion job {}", job.id());
+                        job.resubmitted();
+                        enqueue(job);
+                    });
+        }
+    }
+
+    @PreDestroy
+    void shutdown()
+    {
+        shuttingDown = true;
+        jobs.values().forEach(job -> job.progress().cancel());
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Queue a new directory ingestion.
+     *
+     * @param fullRebuild drop every stored segment before ingesting
+     */
+    public IngestionJob submit(boolean fullRebuild)
+    {
+        IngestionJob job = new IngestionJob(UUID.randomUUID().toString(), fullRebuild,
+                IngestionJob.Status.QUEUED, Instant.now());
+        jobs.put(job.id(), job);
+        evictFinished();
+        enqueue(job);
+        LOG.info("Submitted ingestion job {} (full rebuild: {})", job.id(), fullRebuild);
+        return job;
+    }
+
+    public Optional<IngestionJob> find(String jobId)
+    {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    /**
+     * @return known jobs, newest first
+     */
+    public List<IngestionJob> list()
+    {
+        return jobs.values().stream()
+                .sorted(Comparator.comparing(IngestionJob::createdAt).reversed())
+                .toList();
+    }
+
+    /**
+     * Request cancellation. A running job stops after the batches in flight; already stored
+     * segments stay committed and can be picked up by {@link #resume(String)}.
+     */
+    public Optional<IngestionJob> cancel(String jobId)
+    {
+        IngestionJob job = jobs.get(jobId);
+        if (job == null) {
+            return Optional.empty();
+        }
+        job.progress().cancel();
+        if (job.status() == IngestionJob.Status.QUEUED && job.future() != null && job.future().cancel(false)) {
+            job.finish(IngestionJob.Status.CANCELLED, null);
+            save(job);
+        }
+        LOG.info("Cancellation requested for ingestion job {}", jobId);
+        return Optional.of(job);
+    }
+
+    /**
+     * Run a failed, cancelled or interrupted job again, continuing from its last stored batch.
+     *
+     * @throws IllegalStateException if the job is still queued, running or already completed
+     */
+    public Optional<IngestionJob> resume(String jobId)
+    {
+        IngestionJob job = jobs.get(jobId);
+        if (job == null) {
+            return Optional.empty();
+        }
+        synchronized (job) {
+            if (!job.status().isResumable()) {
+                throw new IllegalStateException("Job " + jobId + " cannot be resumed from status " + job.status());
+            }
+            job.resubmitted();
+        }
+        enqueue(job);
+        LOG.info("Resumed ingestion job {}", jobId);
+        return Optional.of(job);
+    }
+
+    /**
+     * Forget the oldest finished jobs beyond {@code ingestion.jobs.history-size}; they stay in the
+     * job table. Queued and running jobs are always kept.
+     */
+    private void evictFinished()
+    {
+        int excess = jobs.size() - historySize;
+        if (excess <= 0) {
+            return;
+        }
+        jobs.values().stream()
+                .filter(job -> job.status() != IngestionJob.Status.QUEUED && job.status() != IngestionJob.Status.RUNNING)
+                .sorted(Comparator.comparing(IngestionJob::createdAt))
+                .limit(excess)
+                .forEach(job -> jobs.remove(job.id(), job));
+    }
+
+    private void enqueue(IngestionJob job)
+    {
+        save(job);
+        job.queued(executor.submit(() -> run(job)));
+    }
+
+    private void run(IngestionJob job)
+    {
+        if (job.progress().isCancelled()) {
+            job.finish(shuttingDown ? IngestionJob.Status.INTERRUPTED : IngestionJob.Status.CANCELLED, null);
+            save(job);
+            return;
+        }
+
+        job.running();
+        save(job);
+        try {
+            job.completed(documentIngestionService.ingestWithCustomParsers(job.fullRebuild(), job.progress()));
+            LOG.info("Ingestion job {} completed", job.id());
+            // The embedding table may have been created or recreated by this run
+            vectorIndexService.ensureIndex();
+        } catch (CancellationException e) {
+            job.finish(shuttingDown ? IngestionJob.Status.INTERRUPTED : IngestionJob.Status.CANCELLED, null);
+            LOG.info("Ingestion job {} stopped: {}", job.id(), job.status());
+        } catch (Exception e) {
+            job.finish(IngestionJob.Status.FAILED, e.getMessage());
+            LOG.error("Ingestion job {} failed", job.id(), e);
+        }
+        save(job);
+    }
+
+    private void save(IngestionJob job)
+    {
+        try {
+            repository.save(job);
+        } catch (SQLException e) {
+            LOG.warn("Failed to persist state of ingestion job {}", job.id(), e);
+        }
+    }
+}
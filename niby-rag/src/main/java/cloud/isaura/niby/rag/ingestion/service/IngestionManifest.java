@@ -0,0 +1,276 @@
+package cloud.isaura.niby.rag.ingestion.service;
+
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.Priority;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Manifest of the ingested corpus, kept in Postgres next to the embedding table.
+ * <p>
+ * For every ingested file it records the content hash, and for every stored segment the
+ * embedding id and segment hash. Re-ingestion uses it to skip unchanged files, reuse
+ * unchanged segments of changed files and delete the segments of removed files.
+ * <p>
+ * Segments stored before the manifest existed have random ids that incremental ingestion can
+ * neither match nor delete. When the manifest tables are created, an existing embedding table
+ * is therefore cleared once, in the same transaction, and the next ingestion rebuilds it.
+ */
+@ApplicationScoped
+public class IngestionManifest
+{
+    private static final Logger LOG = LoggerFactory.getLogger(IngestionManifest.class);
+
+    @Inject
+    DataSource dataSource;
+
+    @ConfigProperty(name = "ingestion.manifest.files-table", defaultValue = "niby.nifi_doc_files")
+    String filesTable;
+
+    @ConfigProperty(name = "ingestion.manifest.segments-table", defaultValue = "niby.nifi_doc_segments")
+    String segmentsTable;
+
+    @ConfigProperty(name = "quarkus.langchain4j.pgvector.drop-table-first", defaultValue = "false")
+    boolean embeddingTableDropped;
+
+    @ConfigProperty(name = "quarkus.langchain4j.pgvector.table", defaultValue = "embeddings")
+    String embeddingTable;
+
+    @Inject
+    CorpusChangeNotifier corpusChangeNotifier;
+
+    /**
+     * A stored segment: its embedding id and the hash of its text.
+     */
+    public record SegmentEntry(String embeddingId, String filePath, String segmentHash)
+    {
+    }
+
+    // Runs before other startup observers, resumed ingestion jobs rely on the manifest tables
+    void onStart(@Observes @Priority(1) StartupEvent event)
+    {
+        boolean migrated = false;
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            boolean firstRun = !exists(connection, filesTable);
+            statement.execute("CREATE TABLE IF NOT EXISTS " + filesTable + " ("
+                    + "file_path TEXT PRIMARY KEY, "
+                    + "content_hash TEXT NOT NULL, "
+                    + "segment_count INT NOT NULL, "
+                    + "ingested_at TIMESTAMPTZ NOT NULL DEFAULT now())");
+            statement.execute("CREATE TABLE IF NOT EXISTS " + segmentsTable + " ("
+                    + "embedding_id UUID PRIMARY KEY, "
+                    + "file_path TEXT NOT NULL, "
+                    + "segment_hash TEXT NOT NULL)");
+            statement.execute("CREATE INDEX IF NOT EXISTS " + indexName(segmentsTable, "file_path")
+                    + " ON " + segmentsTable + " (file_path)");
+            if (embeddingTableDropped) {
+                // The embedding table has been recreated empty, the manifest no longer describes it
+                LOG.info("Embedding table was dropped at startup, clearing ingestion manifest");
+                statement.execute("TRUNCATE " + filesTable + ", " + segmentsTable);
+            } else if (firstRun && exists(connection, embeddingTable)) {
+                LOG.warn("No ingestion manifest yet, clearing embedding table {} once: its segments have ids "
+                        + "incremental ingestion cannot match, the next ingestion stores them again", embeddingTable);
+                statement.execute("TRUNCATE " + embeddingTable);
+                migrated = true;
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to initialize ingestion manifest tables", e);
+        }
+        if (migrated) {
+            corpusChangeNotifier.corpusChanged("manifest-migration");
+        }
+    }
+
+    /**
+     * @return content hash of every ingested file, by relative file path
+     */
+    public Map<String, String> fileHashes() throws SQLException
+    {
+        Map<String, String> hashes = new HashMap<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT file_path, content_hash FROM " + filesTable);
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                hashes.put(rs.getString(1), rs.getString(2));
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * @return embedding ids of the segments stored for a file
+     */
+    public List<String> segmentIds(String filePath) throws SQLException
+    {
+        List<String> ids = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT embedding_id FROM " + segmentsTable + " WHERE file_path = ?")) {
+            statement.setString(1, filePath);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getString(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Record segments that have just been written to the embedding store.
+     */
+    public void recordSegments(Collection<SegmentEntry> segments) throws SQLException
+    {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "INSERT INTO " + segmentsTable + " (embedding_id, file_path, segment_hash) VALUES (?, ?, ?) "
+                             + "ON CONFLICT (embedding_id) DO NOTHING")) {
+            for (SegmentEntry segment : segments) {
+                statement.setObject(1, UUID.fromString(segment.embeddingId()));
+                statement.setString(2, segment.filePath());
+                statement.setString(3, segment.segmentHash());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Mark a file as fully ingested, dropping the segment entries it no longer has.
+     */
+    public void commitFile(String filePath, String contentHash, int segmentCount,
+                           Collection<String> staleSegmentIds) throws SQLException
+    {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                deleteSegments(connection, staleSegmentIds);
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "INSERT INTO " + filesTable + " (file_path, content_hash, segment_count, ingested_at) "
+                                + "VALUES (?, ?, ?, now()) ON CONFLICT (file_path) DO UPDATE SET "
+                                + "content_hash = EXCLUDED.content_hash, segment_count = EXCLUDED.segment_count, "
+                                + "ingested_at = EXCLUDED.ingested_at")) {
+                    statement.setString(1, filePath);
+                    statement.setString(2, contentHash);
+                    statement.setInt(3, segmentCount);
+                    statement.executeUpdate();
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Forget a file that is no longer part of the corpus.
+     */
+    public void removeFile(String filePath) throws SQLException
+    {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                for (String table : List.of(segmentsTable, filesTable)) {
+                    try (PreparedStatement statement = connection.prepareStatement(
+                            "DELETE FROM " + table + " WHERE file_path = ?")) {
+                        statement.setString(1, filePath);
+                        statement.executeUpdate();
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Forget the whole corpus, used before a full rebuild.
+     */
+    public void clear() throws SQLException
+    {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("TRUNCATE " + filesTable + ", " + segmentsTable);
+        }
+    }
+
+    private void deleteSegments(Connection connection, Collection<String> embeddingIds) throws SQLException
+    {
+        if (embeddingIds.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement statement = connection.prepareStatement(
+                "DELETE FROM " + segmentsTable + " WHERE embedding_id = ?")) {
+            for (String id : embeddingIds) {
+                statement.setObject(1, UUID.fromString(id));
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Stable embedding id of a segment, so that re-ingesting the same text upserts the same row.
+     *
+     * @param occurrence index of this text among identical segments of the same file
+     */
+    public static String segmentId(String filePath, String segmentHash, int occurrence)
+    {
+        String key = filePath + '\n' + segmentHash + '#' + occurrence;
+        return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    public static String sha256(String text)
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static boolean exists(Connection connection, String table) throws SQLException
+    {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT to_regclass(?) IS NOT NULL")) {
+            statement.setString(1, table);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    private static String indexName(String table, String column)
+    {
+        String name = table.substring(table.lastIndexOf('.') + 1);
+        return name + "_" + column + "_idx";
+    }
+}
@@ -0,0 +1,527 @@
+package cloud.isaura.niby.rag.ingestion.service;
+
+import cloud.isaura.niby.shared.embedding.EmbeddingEngine;
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentParser;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Staged directory ingestion: file discovery -> parse and split -> embed -> store.
+ * <p>
+ * Every stage worker runs on its own virtual thread, so file reads and JDBC calls block cheaply;
+ * the CPU-bound embedding itself runs in the bulk lane of the shared {@link EmbeddingEngine}.
+ * Stages are connected by bounded queues, so a slow stage applies backpressure to the
+ * ones in front of it. On top of that, a window of segments in flight (split but not yet stored)
+ * bounds memory use by configuration rather than by corpus size; its high-water mark and the
+ * heap peak are part of the {@link IngestionReport}.
+ * The single writer stage stores batch N while the embedding workers already work on batch N+1.
+ * <p>
+ * Files whose content hash matches the {@link IngestionManifest} are skipped, segments of changed
+ * files that are already stored are reused, and files that disappeared are removed from the store.
+ * A file is committed to the manifest only once all of its new segments have been stored.
+ * <p>
+ * Progress is published through an {@link IngestionProgress}, whose cancellation flag stops all
+ * stages; what was stored before the cancellation stays committed.
+ * A pipeline instance runs once; create a new one for every ingestion.
+ */
+class IngestionPipeline
+{
+    private static final Logger LOG = LoggerFactory.getLogger(IngestionPipeline.class);
+
+    private static final long POLL_MILLIS = 100;
+
+    private static final Path END_OF_FILES = Path.of("");
+    private static final List<PendingSegment> END_OF_SEGMENTS = Collections.unmodifiableList(new ArrayList<>());
+    private static final EmbeddedBatch END_OF_EMBEDDINGS = new EmbeddedBatch(List.of(), List.of());
+
+    /**
+     * Parallelism and buffering of the pipeline stages.
+     *
+     * @param parseThreads  workers reading and splitting files
+     * @param embedThreads  batches handed to the {@link EmbeddingEngine} at the same time
+     * @param batchSize     segments per embedding / store batch
+     * @param queueCapacity capacity of each queue between two stages
+     * @param maxInFlightSegments segments allowed between split and store, at least one batch per parse thread
+     */
+    record Settings(int parseThreads, int embedThreads, int batchSize, int queueCapacity, int maxInFlightSegments)
+    {
+        Settings
+        {
+            if (parseThreads < 1 || embedThreads < 1 || batchSize < 1 || queueCapacity < 1) {
+                throw new IllegalArgumentException("Ingestion pipeline settings must be positive: " + parseThreads
+                        + "/" + embedThreads + "/" + batchSize + "/" + queueCapacity);
+            }
+            if (maxInFlightSegments < parseThreads * batchSize) {
+                // Every parse thread must be able to fill a batch, otherwise the window can never drain
+                throw new IllegalArgumentException("Ingestion window of " + maxInFlightSegments
+                        + " segments is smaller than parse threads x batch size (" + parseThreads * batchSize + ")");
+            }
+        }
+    }
+
+    /**
+     * A file being ingested; committed to the manifest when its last new segment is stored.
+     */
+    private record FileTicket(String filePath, String contentHash, int segmentCount,
+                              List<String> staleSegmentIds, AtomicInteger pendingSegments)
+    {
+    }
+
+    private record PendingSegment(IngestionManifest.SegmentEntry entry, TextSegment segment, FileTicket file)
+    {
+    }
+
+    private record EmbeddedBatch(List<Embedding> embeddings, List<PendingSegment> segments)
+    {
+    }
+
+    private final Path root;
+    private final DocumentParser parser;
+    private final DocumentSplitter splitter;
+    private final EmbeddingEngine embeddingEngine;
+    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final IngestionManifest manifest;
+    private final Map<String, String> knownFileHashes;
+    private final Settings settings;
+    private final IngestionProgress progress;
+
+    private final BlockingQueue<Path> files;
+    private final BlockingQueue<List<PendingSegment>> segmentBatches;
+    private final BlockingQueue<EmbeddedBatch> embeddedBatches;
+
+    private final Semaphore inFlightWindow;
+    private final AtomicInteger inFlightSegments = new AtomicInteger();
+    private final AtomicInteger peakInFlightSegments = new AtomicInteger();
+
+    private final AtomicInteger parseWorkersLeft;
+    private final AtomicInteger embedWorkersLeft;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private final AtomicInteger filesProcessed = new AtomicInteger();
+    private final AtomicInteger filesSkipped = new AtomicInteger();
+    private final AtomicInteger filesUnchanged = new AtomicInteger();
+    private final AtomicInteger filesRemoved = new AtomicInteger();
+    private final AtomicLong segmentsStored = new AtomicLong();
+    private final AtomicLong segmentsReused = new AtomicLong();
+    private final AtomicInteger batchesStored = new AtomicInteger();
+
+    IngestionPipeline(Path root,
+                      DocumentParser parser,
+                      DocumentSplitter splitter,
+                      EmbeddingEngine embeddingEngine,
+                      EmbeddingStore<TextSegment> embeddingStore,
+                      IngestionManifest manifest,
+                      Map<String, String> knownFileHashes,
+                      Settings settings,
+                      IngestionProgress progress)
+    {
+        this.root = root;
+        this.parser = parser;
+        this.splitter = splitter;
+        this.embeddingEngine = embeddingEngine;
+        this.embeddingStore = embeddingStore;
+        this.manifest = manifest;
+        this.knownFileHashes = knownFileHashes;
+        this.settings = settings;
+        this.progress = progress;
+        this.files = new ArrayBlockingQueue<>(settings.queueCapacity() * settings.parseThreads());
+        this.segmentBatches = new ArrayBlockingQueue<>(settings.queueCapacity());
+        this.embeddedBatches = new ArrayBlockingQueue<>(settings.queueCapacity());
+        this.inFlightWindow = new Semaphore(settings.maxInFlightSegments());
+        this.parseWorkersLeft = new AtomicInteger(settings.parseThreads());
+        this.embedWorkersLeft = new AtomicInteger(settings.embedThreads());
+    }
+
+    /**
+     * Run all stages and wait for them to finish.
+     *
+     * @throws IOException           if the directory cannot be walked or a stage fails
+     * @throws CancellationException if the run was cancelled through its progress
+     */
+    IngestionReport run() throws IOException
+    {
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newThreadPerTaskExecutor(stageThreadFactory());
+
+        LOG.info("Starting ingestion pipeline on {} (parse threads: {}, embed threads: {}, batch size: {}, window: {})",
+                root, settings.parseThreads(), settings.embedThreads(), settings.batchSize(),
+                settings.maxInFlightSegments());
+        List<MemoryPoolMXBean> heapPools = heapPools();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+        try {
+            List<Future<?>> stages = new ArrayList<>();
+            stages.add(executor.submit(() -> runStage("discovery", this::discoverFiles)));
+            for (int i = 0; i < settings.parseThreads(); i++) {
+                stages.add(executor.submit(() -> runStage("parse", this::parseAndSplit)));
+            }
+            for (int i = 0; i < settings.embedThreads(); i++) {
+                stages.add(executor.submit(() -> runStage("embed", this::embedBatches)));
+            }
+            stages.add(executor.submit(() -> runStage("store", this::storeBatches)));
+
+            for (Future<?> stage : stages) {
+                stage.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } catch (ExecutionException e) {
+            failure.compareAndSet(null, e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        rethrowFailure();
+
+        IngestionReport report = new IngestionReport(
+                filesProcessed.get(),
+                filesSkipped.get(),
+                filesUnchanged.get(),
+                filesRemoved.get(),
+                segmentsStored.get(),
+                segmentsReused.get(),
+                batchesStored.get(),
+                peakInFlightSegments.get(),
+                heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        LOG.info("Ingestion pipeline completed: {}", report);
+        return report;
+    }
+
+    private void discoverFiles() throws IOException, SQLException, InterruptedException
+    {
+        Set<String> seen = new HashSet<>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            Iterator<Path> iterator = paths.filter(Files::isRegularFile).iterator();
+            while (iterator.hasNext()) {
+                Path file = iterator.next();
+                seen.add(relativePath(file));
+                progress.fileDiscovered();
+                if (!put(files, file)) {
+                    return;
+                }
+            }
+        }
+        progress.discoveryCompleted();
+        for (int i = 0; i < settings.parseThreads(); i++) {
+            put(files, END_OF_FILES);
+        }
+        for (String filePath : knownFileHashes.keySet()) {
+            if (!seen.contains(filePath) && !aborted()) {
+                removeFile(filePath);
+            }
+        }
+    }
+
+    private void parseAndSplit() throws SQLException, InterruptedException
+    {
+        List<PendingSegment> batch = new ArrayList<>(settings.batchSize());
+        Path file;
+        while ((file = take(files)) != null && file != END_OF_FILES) {
+            LOG.info("Processing file: {}", file);
+            Document document = loadDocument(file);
+            if (document == null) {
+                filesSkipped.incrementAndGet();
+                progress.fileDone();
+                continue;
+            }
+            String filePath = relativePath(file);
+            String contentHash = IngestionManifest.sha256(document.text());
+            if (contentHash.equals(knownFileHashes.get(filePath))) {
+                filesUnchanged.incrementAndGet();
+                progress.fileDone();
+                continue;
+            }
+            for (PendingSegment segment : newSegments(filePath, contentHash, document)) {
+                if (!acquireWindow()) {
+                    return;
+                }
+                batch.add(segment);
+                if (batch.size() == settings.batchSize()) {
+                    if (!put(segmentBatches, batch)) {
+                        return;
+                    }
+                    batch = new ArrayList<>(settings.batchSize());
+                }
+            }
+            filesProcessed.incrementAndGet();
+        }
+        if (file == null) {
+            return;
+        }
+        if (!batch.isEmpty() && !put(segmentBatches, batch)) {
+            return;
+        }
+        if (parseWorkersLeft.decrementAndGet() == 0) {
+            for (int i = 0; i < settings.embedThreads(); i++) {
+                put(segmentBatches, END_OF_SEGMENTS);
+            }
+        }
+    }
+
+    private void embedBatches() throws InterruptedException
+    {
+        List<PendingSegment> batch;
+        while ((batch = take(segmentBatches)) != null && batch != END_OF_SEGMENTS) {
+            List<TextSegment> segments = batch.stream().map(PendingSegment::segment).toList();
+            List<Embedding> embeddings = embeddingEngine.embedAll(segments, EmbeddingEngine.Lane.BULK).content();
+            if (!put(embeddedBatches, new EmbeddedBatch(embeddings, batch))) {
+                return;
+            }
+        }
+        if (batch != null && embedWorkersLeft.decrementAndGet() == 0) {
+            put(embeddedBatches, END_OF_EMBEDDINGS);
+        }
+    }
+
+    private void storeBatches() throws SQLException, InterruptedException
+    {
+        EmbeddedBatch batch;
+        while ((batch = take(embeddedBatches)) != null && batch != END_OF_EMBEDDINGS) {
+            List<PendingSegment> pending = batch.segments();
+            List<String> ids = new ArrayList<>(pending.size());
+            List<TextSegment> segments = new ArrayList<>(pending.size());
+            List<IngestionManifest.SegmentEntry> entries = new ArrayList<>(pending.size());
+            for (PendingSegment segment : pending) {
+                ids.add(segment.entry().embeddingId());
+                segments.add(segment.segment());
+                entries.add(segment.entry());
+            }
+            embeddingStore.addAll(ids, batch.embeddings(), segments);
+            progress.corpusChanged();
+            manifest.recordSegments(entries);
+
+            releaseWindow(pending.size());
+            progress.segmentsStored(pending.size());
+            long stored = segmentsStored.addAndGet(pending.size());
+            LOG.info("Stored batch {} ({} segments, {} in total)",
+                    batchesStored.incrementAndGet(), pending.size(), stored);
+
+            for (PendingSegment segment : pending) {
+                if (segment.file().pendingSegments().decrementAndGet() == 0) {
+                    commitFile(segment.file());
+                }
+            }
+        }
+    }
+
+    /**
+     * Split a new or changed file and keep only the segments that are not stored yet.
+     * Files without new segments are committed right away.
+     */
+    private List<PendingSegment> newSegments(String filePath, String contentHash, Document document)
+            throws SQLException
+    {
+        List<TextSegment> segments = splitter.split(document);
+        Set<String> storedIds = new HashSet<>(manifest.segmentIds(filePath));
+        Set<String> currentIds = new HashSet<>();
+        Map<String, Integer> occurrences = new HashMap<>();
+        List<IngestionManifest.SegmentEntry> fresh = new ArrayList<>();
+        List<TextSegment> freshSegments = new ArrayList<>();
+
+        for (TextSegment segment : segments) {
+            String segmentHash = IngestionManifest.sha256(segment.text());
+            int occurrence = occurrences.merge(segmentHash, 1, Integer::sum) - 1;
+            String id = IngestionManifest.segmentId(filePath, segmentHash, occurrence);
+            currentIds.add(id);
+            if (storedIds.contains(id)) {
+                segmentsReused.incrementAndGet();
+            } else {
+                fresh.add(new IngestionManifest.SegmentEntry(id, filePath, segmentHash));
+                freshSegments.add(segment);
+            }
+        }
+
+        List<String> staleIds = storedIds.stream().filter(id -> !currentIds.contains(id)).toList();
+        FileTicket ticket = new FileTicket(filePath, contentHash, segments.size(), staleIds,
+                new AtomicInteger(fresh.size()));
+        if (fresh.isEmpty()) {
+            commitFile(ticket);
+            return List.of();
+        }
+
+        List<PendingSegment> pending = new ArrayList<>(fresh.size());
+        for (int i = 0; i < fresh.size(); i++) {
+            pending.add(new PendingSegment(fresh.get(i), freshSegments.get(i), ticket));
+        }
+        return pending;
+    }
+
+    private void commitFile(FileTicket file) throws SQLException
+    {
+        if (!file.staleSegmentIds().isEmpty()) {
+            embeddingStore.removeAll(file.staleSegmentIds());
+            progress.corpusChanged();
+        }
+        manifest.commitFile(file.filePath(), file.contentHash(), file.segmentCount(), file.staleSegmentIds());
+        progress.fileDone();
+        LOG.debug("Committed {} ({} segments, {} stale removed)",
+                file.filePath(), file.segmentCount(), file.staleSegmentIds().size());
+    }
+
+    private void removeFile(String filePath) throws SQLException
+    {
+        List<String> ids = manifest.segmentIds(filePath);
+        if (!ids.isEmpty()) {
+            embeddingStore.removeAll(ids);
+            progress.corpusChanged();
+        }
+        manifest.removeFile(filePath);
+        filesRemoved.incrementAndGet();
+        LOG.info("Removed {} ({} segments) no longer present in the corpus", filePath, ids.size());
+    }
+
+    private String relativePath(Path file)
+    {
+        return root.relativize(file).toString().replace('\\', '/');
+    }
+
+    private Document loadDocument(Path file)
+    {
+        try {
+            return FileSystemDocumentLoader.loadDocument(file, parser);
+        } catch (Exception e) {
+            LOG.error("Failed to load document: {}", file, e);
+            return null;
+        }
+    }
+
+    private boolean aborted()
+    {
+        return failure.get() != null || progress.isCancelled();
+    }
+
+    /**
+     * Wait for room in the in-flight window for one more segment.
+     */
+    private boolean acquireWindow() throws InterruptedException
+    {
+        while (!aborted()) {
+            if (inFlightWindow.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                int current = inFlightSegments.incrementAndGet();
+                peakInFlightSegments.accumulateAndGet(current, Math::max);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void releaseWindow(int segments)
+    {
+        inFlightSegments.addAndGet(-segments);
+        inFlightWindow.release(segments);
+    }
+
+    private <T> boolean put(BlockingQueue<T> queue, T item) throws InterruptedException
+    {
+        while (!aborted()) {
+            if (queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private <T> T take(BlockingQueue<T> queue) throws InterruptedException
+    {
+        while (!aborted()) {
+            T item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (item != null) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    private Void runStage(String name, Stage stage)
+    {
+        try {
+            stage.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } catch (Exception e) {
+            LOG.error("Ingestion stage '{}' failed", name, e);
+            failure.compareAndSet(null, e);
+        }
+        return null;
+    }
+
+    private void rethrowFailure() throws IOException
+    {
+        Throwable cause = failure.get();
+        if (cause == null) {
+            if (progress.isCancelled()) {
+                LOG.info("Ingestion pipeline cancelled after {} stored segments", segmentsStored.get());
+                throw new CancellationException("Ingestion cancelled");
+            }
+            return;
+        }
+        if (cause instanceof IOException ioException) {
+            throw ioException;
+        }
+        if (cause instanceof InterruptedException) {
+            throw new InterruptedIOException("Ingestion pipeline interrupted");
+        }
+        if (cause instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        throw new IOException("Ingestion pipeline failed", cause);
+    }
+
+    private static List<MemoryPoolMXBean> heapPools()
+    {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP && pool.isValid())
+                .toList();
+    }
+
+    private static ThreadFactory stageThreadFactory()
+    {
+        return Thread.ofVirtual().name("ingestion-stage-", 1).factory();
+    }
+
+    @FunctionalInterface
+    private interface Stage
+    {
+        void run() throws Exception;
+    }
+}
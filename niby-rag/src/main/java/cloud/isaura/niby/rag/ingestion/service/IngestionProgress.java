@@ -0,0 +1,116 @@
+package cloud.isaura.niby.rag.ingestion.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live progress of an ingestion run, updated by the pipeline stages and read by job status requests.
+ * Also carries the cancellation request, which the pipeline checks between queue operations.
+ */
+public class IngestionProgress
+{
+    private final AtomicInteger filesDiscovered = new AtomicInteger();
+    private final AtomicInteger filesDone = new AtomicInteger();
+    private final AtomicLong segmentsStored = new AtomicLong();
+    private volatile boolean discoveryComplete;
+    private volatile boolean cancelled;
+    private volatile boolean corpusChanged;
+    private volatile long startNanos = System.nanoTime();
+
+    void started()
+    {
+        startNanos = System.nanoTime();
+    }
+
+    void fileDiscovered()
+    {
+        filesDiscovered.incrementAndGet();
+    }
+
+    void discoveryCompleted()
+    {
+        discoveryComplete = true;
+    }
+
+    void fileDone()
+    {
+        filesDone.incrementAndGet();
+    }
+
+    void segmentsStored(int count)
+    {
+        segmentsStored.addAndGet(count);
+    }
+
+    /**
+     * Record that the embedding table was written to or deleted from.
+     */
+    void corpusChanged()
+    {
+        corpusChanged = true;
+    }
+
+    /**
+     * Seed the counters of a job restored from the job table.
+     */
+    void restore(int files, long segments)
+    {
+        filesDone.set(files);
+        segmentsStored.set(segments);
+    }
+
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    public int filesDiscovered()
+    {
+        return filesDiscovered.get();
+    }
+
+    public int filesDone()
+    {
+        return filesDone.get();
+    }
+
+    public long segmentsStored()
+    {
+        return segmentsStored.get();
+    }
+
+    public boolean isCorpusChanged()
+    {
+        return corpusChanged;
+    }
+
+    public boolean isDiscoveryComplete()
+    {
+        return discoveryComplete;
+    }
+
+    public double segmentsPerSecond()
+    {
+        double seconds = (System.nanoTime() - startNanos) / 1_000_000_000d;
+        return seconds > 0 ? segmentsStored.get() / seconds : 0;
+    }
+
+    /**
+     * Estimated seconds to completion from the file throughput so far,
+     * or {@code null} while the total is unknown or nothing has completed yet.
+     */
+    public Long etaSeconds()
+    {
+        int done = filesDone.get();
+        if (!discoveryComplete || done == 0) {
+            return null;
+        }
+        double secondsPerFile = (System.nanoTime() - startNanos) / 1_000_000_000d / done;
+        return Math.round(Math.max(0, filesDiscovered.get() - done) * secondsPerFile);
+    }
+}
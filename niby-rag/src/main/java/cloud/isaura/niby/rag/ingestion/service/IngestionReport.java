@@ -0,0 +1,28 @@
+package cloud.isaura.niby.rag.ingestion.service;
+
+/**
+ * Outcome of a directory ingestion run.
+ *
+ * @param filesProcessed       new or changed files parsed and split into segments
+ * @param filesSkipped         files that could not be loaded
+ * @param filesUnchanged       files whose content hash matched the manifest
+ * @param filesRemoved         files deleted from the store because they left the corpus
+ * @param segmentsStored       segments embedded and written to the embedding store
+ * @param segmentsReused       segments of changed files that were already stored
+ * @param batchesStored        store batches written
+ * @param peakInFlightSegments high-water mark of segments split but not yet stored
+ * @param peakHeapBytes        peak heap usage observed during the run (JVM wide)
+ * @param durationMillis       wall clock time of the run
+ */
+public record IngestionReport(int filesProcessed,
+                              int filesSkipped,
+                              int filesUnchanged,
+                              int filesRemoved,
+                              long segmentsStored,
+                              long segmentsReused,
+                              int batchesStored,
+                              int peakInFlightSegments,
+                              long peakHeapBytes,
+                              long durationMillis)
+{
+}
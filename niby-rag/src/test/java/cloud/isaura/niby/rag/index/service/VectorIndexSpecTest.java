@@ -0,0 +1,79 @@
+package cloud.isaura.niby.rag.index.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VectorIndexSpecTest
+{
+    private static final String FULL_HNSW = "CREATE INDEX nifi_doc_embeddings_embedding_idx ON niby.nifi_doc_embeddings "
+            + "USING hnsw (embedding vector_cosine_ops) WITH (m='16', ef_construction='64')";
+    private static final String BINARY_HNSW = "CREATE INDEX nifi_doc_embeddings_embedding_idx ON niby.nifi_doc_embeddings "
+            + "USING hnsw (((binary_quantize(embedding))::bit(384)) bit_hamming_ops) WITH (m='16', ef_construction='64')";
+    private static final String HALFVEC_IVFFLAT = "CREATE INDEX nifi_doc_embeddings_embedding_idx ON niby.nifi_doc_embeddings "
+            + "USING ivfflat (((embedding)::halfvec(384)) halfvec_cosine_ops) WITH (lists='100')";
+
+    @Test
+    void typeAndQuantizationAreNormalized()
+    {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(Locale.forLanguageTag("tr"));
+        try {
+            VectorIndexSpec spec = new VectorIndexSpec("IVFFLAT", 16, 64, 0, "BINARY");
+
+            assertEquals(VectorIndexSpec.IVFFLAT, spec.type());
+            assertEquals(VectorIndexSpec.BINARY, spec.quantization());
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    void invalidSpecsAreRejected()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new VectorIndexSpec("diskann", 16, 64, 0, "full"));
+        assertThrows(IllegalArgumentException.class, () -> new VectorIndexSpec("hnsw", 16, 64, 0, "int8"));
+        assertThrows(IllegalArgumentException.class, () -> new VectorIndexSpec("hnsw", 1, 64, 0, "full"));
+        assertThrows(IllegalArgumentException.class, () -> new VectorIndexSpec("hnsw", 16, 31, 0, "full"));
+        assertThrows(IllegalArgumentException.class, () -> new VectorIndexSpec("ivfflat", 16, 64, -1, "full"));
+    }
+
+    @Test
+    void indexedColumnMatchesTheQuantization()
+    {
+        assertEquals("embedding vector_cosine_ops", new VectorIndexSpec("hnsw", 16, 64, 0, "full").indexedColumn(384));
+        assertEquals("(embedding::halfvec(384)) halfvec_cosine_ops",
+                new VectorIndexSpec("hnsw", 16, 64, 0, "halfvec").indexedColumn(384));
+        assertEquals("(binary_quantize(embedding)::bit(384)) bit_hamming_ops",
+                new VectorIndexSpec("hnsw", 16, 64, 0, "binary").indexedColumn(384));
+    }
+
+    @Test
+    void existingIndexIsMatchedOnTypeAndQuantizationOnly()
+    {
+        assertTrue(new VectorIndexSpec("hnsw", 32, 128, 0, "full").describes(FULL_HNSW));
+        assertFalse(new VectorIndexSpec("hnsw", 16, 64, 0, "binary").describes(FULL_HNSW));
+        assertTrue(new VectorIndexSpec("hnsw", 16, 64, 0, "binary").describes(BINARY_HNSW));
+        assertFalse(new VectorIndexSpec("hnsw", 16, 64, 0, "full").describes(BINARY_HNSW));
+        assertTrue(new VectorIndexSpec("ivfflat", 16, 64, 0, "halfvec").describes(HALFVEC_IVFFLAT));
+        assertFalse(new VectorIndexSpec("hnsw", 16, 64, 0, "halfvec").describes(HALFVEC_IVFFLAT));
+        assertFalse(new VectorIndexSpec("hnsw", 16, 64, 0, "full").describes(null));
+    }
+
+    @Test
+    void listsAreDerivedFromTheRowCountUnlessConfigured()
+    {
+        VectorIndexSpec derived = new VectorIndexSpec("ivfflat", 16, 64, 0, "full");
+
+        assertEquals(1, derived.listsFor(500));
+        assertEquals(50, derived.listsFor(50_000));
+        assertEquals(1000, derived.listsFor(1_000_000));
+        assertEquals(2000, derived.listsFor(4_000_000));
+        assertEquals(64, new VectorIndexSpec("ivfflat", 16, 64, 64, "full").listsFor(4_000_000));
+    }
+}
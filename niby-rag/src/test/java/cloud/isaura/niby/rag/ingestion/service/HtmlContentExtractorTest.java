@@ -0,0 +1,53 @@
+package cloud.isaura.niby.rag.ingestion.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HtmlContentExtractorTest
+{
+    private static final String PAGE = "<html><head><title>PutFile</title><style>body { margin: 0 }</style>"
+            + "<script>var x = 1;</script></head><body>"
+            + "<nav><a href=\"#\">Home</a></nav>"
+            + "<h2>Description</h2>"
+            + "<p>Writes the contents of a FlowFile to the local file system.</p>"
+            + "<p>Conflicts are resolved<br>by the strategy.</p>"
+            + "<ul><li>replace</li><li>ignore</li></ul>"
+            + "<table><tr><th>Name</th><th>Default Value</th></tr><tr><td>Directory</td><td>/tmp</td></tr></table>"
+            + "<footer>Apache NiFi</footer></body></html>";
+
+    @Test
+    void titleComesFirstAndPageChromeIsDropped()
+    {
+        String text = HtmlContentExtractor.extractText(PAGE);
+
+        assertTrue(text.startsWith("PutFile" + System.lineSeparator() + System.lineSeparator() + "Description"), text);
+        assertFalse(text.contains("Home"), text);
+        assertFalse(text.contains("Apache NiFi"), text);
+        assertFalse(text.contains("var x"), text);
+        assertFalse(text.contains("margin"), text);
+    }
+
+    @Test
+    void blockStructureIsKeptAsLineBreaks()
+    {
+        String text = HtmlContentExtractor.extractText(PAGE);
+
+        assertTrue(text.contains("Writes the contents of a FlowFile to the local file system.\n\n"), text);
+        assertTrue(text.contains("Conflicts are resolved \nby the strategy."), text);
+        assertTrue(text.contains("• replace"), text);
+        assertTrue(text.contains("• ignore"), text);
+        assertTrue(text.contains("Name | Default Value |"), text);
+        assertTrue(text.contains("Directory | /tmp |"), text);
+        assertFalse(text.contains("\n\n\n"), text);
+        assertFalse(text.contains("  "), text);
+    }
+
+    @Test
+    void pageWithoutTitleStartsWithItsText()
+    {
+        assertEquals("PutFile", HtmlContentExtractor.extractText("<html><body><p>PutFile</p></body></html>"));
+    }
+}
@@ -0,0 +1,58 @@
+package cloud.isaura.niby.rag.ingestion.service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ingestion manifest kept in memory, in place of the Postgres tables.
+ */
+class InMemoryManifest extends IngestionManifest
+{
+    final Map<String, String> files = new ConcurrentHashMap<>();
+    final Map<String, SegmentEntry> segments = new ConcurrentHashMap<>();
+
+    @Override
+    public Map<String, String> fileHashes()
+    {
+        return new HashMap<>(files);
+    }
+
+    @Override
+    public List<String> segmentIds(String filePath)
+    {
+        return segments.values().stream()
+                .filter(segment -> segment.filePath().equals(filePath))
+                .map(SegmentEntry::embeddingId)
+                .toList();
+    }
+
+    @Override
+    public void recordSegments(Collection<SegmentEntry> entries)
+    {
+        entries.forEach(entry -> segments.putIfAbsent(entry.embeddingId(), entry));
+    }
+
+    @Override
+    public void commitFile(String filePath, String contentHash, int segmentCount, Collection<String> staleSegmentIds)
+    {
+        staleSegmentIds.forEach(segments::remove);
+        files.put(filePath, contentHash);
+    }
+
+    @Override
+    public void removeFile(String filePath)
+    {
+        segments.values().removeIf(segment -> segment.filePath().equals(filePath));
+        files.remove(filePath);
+    }
+
+    @Override
+    public void clear()
+    {
+        files.clear();
+        segments.clear();
+    }
+}
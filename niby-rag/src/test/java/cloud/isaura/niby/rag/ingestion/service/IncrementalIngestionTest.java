@@ -0,0 +1,152 @@
+package cloud.isaura.niby.rag.ingestion.service;
+
+import cloud.isaura.niby.shared.embedding.EmbeddingEngine;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.parser.TextDocumentParser;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static dev.langchain4j.data.document.splitter.DocumentSplitters.recursive;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IncrementalIngestionTest
+{
+    // Each paragraph is shorter than the segment size and two are longer, so a paragraph is a segment
+    private static final String FIRST = "The processor routes every flow file to the success relationship.";
+    private static final String SECOND = "Failed flow files are penalized and routed to the failure relationship.";
+    private static final String THIRD = "The batch size property limits the flow files handled per trigger.";
+
+    private static EmbeddingEngine embeddingEngine;
+
+    private final DocumentSplitter splitter = recursive(120, 0);
+    private final InMemoryManifest manifest = new InMemoryManifest();
+    private final RecordingEmbeddingStore store = new RecordingEmbeddingStore();
+
+    @TempDir
+    Path corpus;
+
+    @BeforeAll
+    static void startEngine()
+    {
+        embeddingEngine = EmbeddingEngine.allMiniLmL6V2(new EmbeddingEngine.Settings(1, 1, 1, 8, Duration.ZERO));
+    }
+
+    @AfterAll
+    static void stopEngine()
+    {
+        embeddingEngine.close();
+    }
+
+    @Test
+    void unchangedCorpusStoresNothing() throws IOException
+    {
+        write("a.txt", FIRST, SECOND);
+        write("b.txt", THIRD);
+        IngestionReport first = ingest();
+        assertEquals(3, first.segmentsStored());
+
+        IngestionReport second = ingest();
+
+        assertEquals(0, second.filesProcessed());
+        assertEquals(2, second.filesUnchanged());
+        assertEquals(0, second.segmentsStored());
+        assertEquals(1, store.batches.get());
+    }
+
+    @Test
+    void changedFileReusesItsUnchangedSegments() throws IOException
+    {
+        write("a.txt", FIRST, SECOND);
+        ingest();
+        Set<String> before = new HashSet<>(manifest.segmentIds("a.txt"));
+
+        write("a.txt", FIRST, THIRD);
+        IngestionReport report = ingest();
+
+        assertEquals(1, report.filesProcessed());
+        assertEquals(1, report.segmentsReused());
+        assertEquals(1, report.segmentsStored());
+        List<String> after = manifest.segmentIds("a.txt");
+        assertEquals(2, after.size());
+        assertEquals(1, after.stream().filter(before::contains).count());
+        // The segment of the replaced paragraph is gone from both the store and the manifest
+        assertEquals(new HashSet<>(after), store.segments.keySet());
+    }
+
+    @Test
+    void deletedFileIsRemoved() throws IOException
+    {
+        write("a.txt", FIRST);
+        write("b.txt", SECOND, THIRD);
+        ingest();
+
+        Files.delete(corpus.resolve("b.txt"));
+        IngestionReport report = ingest();
+
+        assertEquals(1, report.filesRemoved());
+        assertFalse(manifest.files.containsKey("b.txt"));
+        assertTrue(manifest.segmentIds("b.txt").isEmpty());
+        assertEquals(Set.copyOf(manifest.segmentIds("a.txt")), store.segments.keySet());
+    }
+
+    @Test
+    void newFileIsProcessed() throws IOException
+    {
+        write("a.txt", FIRST);
+        ingest();
+
+        write("b.txt", SECOND);
+        IngestionReport report = ingest();
+
+        assertEquals(1, report.filesProcessed());
+        assertEquals(1, report.filesUnchanged());
+        assertEquals(1, report.segmentsStored());
+        assertEquals(2, store.segments.size());
+    }
+
+    @Test
+    void repeatedParagraphsGetDistinctIds() throws IOException
+    {
+        write("a.txt", FIRST, SECOND, FIRST);
+
+        IngestionReport report = ingest();
+
+        assertEquals(3, report.segmentsStored());
+        assertEquals(3, store.segments.size());
+        assertEquals(3, manifest.segmentIds("a.txt").size());
+    }
+
+    @Test
+    void segmentIdsAreDeterministic()
+    {
+        String hash = IngestionManifest.sha256(FIRST);
+
+        assertEquals(IngestionManifest.segmentId("a.txt", hash, 0), IngestionManifest.segmentId("a.txt", hash, 0));
+        assertNotEquals(IngestionManifest.segmentId("a.txt", hash, 0), IngestionManifest.segmentId("a.txt", hash, 1));
+        assertNotEquals(IngestionManifest.segmentId("a.txt", hash, 0), IngestionManifest.segmentId("b.txt", hash, 0));
+    }
+
+    private IngestionReport ingest() throws IOException
+    {
+        return new IngestionPipeline(corpus, new TextDocumentParser(), splitter, embeddingEngine, store, manifest,
+                manifest.fileHashes(), new IngestionPipeline.Settings(1, 1, 4, 1, 4), new IngestionProgress()).run();
+    }
+
+    private void write(String file, String... paragraphs) throws IOException
+    {
+        Files.writeString(corpus.resolve(file), String.join("\n\n", paragraphs));
+    }
+}
@@ -0,0 +1,197 @@
+package cloud.isaura.niby.rag.ingestion.service;
+
+import cloud.isaura.niby.rag.index.service.VectorIndexService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class IngestionJobServiceTest
+{
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    private static final IngestionReport REPORT = new IngestionReport(1, 0, 0, 0, 3, 0, 1, 3, 0, 5);
+
+    private final IngestionJobService service = new IngestionJobService();
+
+    // Full rebuild flag of every ingestion run, and whether it ran on a virtual thread
+    private final Queue<Boolean> runs = new ConcurrentLinkedQueue<>();
+    private final Queue<Boolean> virtualRuns = new ConcurrentLinkedQueue<>();
+    // Jobs loaded from the job table at startup
+    private final List<IngestionJob> storedJobs = new ArrayList<>();
+    // Released to let runs complete; until then a run waits, and stops when cancelled
+    private volatile CountDownLatch release = new CountDownLatch(0);
+
+    @BeforeEach
+    void setUp()
+    {
+        service.resumeInterrupted = true;
+        service.historySize = 50;
+        service.repository = new IngestionJobRepository()
+        {
+            @Override
+            void createTable()
+            {
+            }
+
+            @Override
+            int markInterrupted()
+            {
+                return 0;
+            }
+
+            @Override
+            List<IngestionJob> recent(int limit)
+            {
+                return storedJobs;
+            }
+
+            @Override
+            void save(IngestionJob job)
+            {
+            }
+        };
+        service.vectorIndexService = new VectorIndexService()
+        {
+            @Override
+            public void ensureIndex()
+            {
+            }
+        };
+        service.documentIngestionService = new DocumentIngestionService()
+        {
+            @Override
+            public IngestionReport ingestWithCustomParsers(boolean fullRebuild, IngestionProgress progress)
+            {
+                runs.add(fullRebuild);
+                virtualRuns.add(Thread.currentThread().isVirtual());
+                while (release.getCount() > 0) {
+                    if (progress.isCancelled()) {
+                        throw new CancellationException("Ingestion cancelled");
+                    }
+                    sleep(5);
+                }
+                return REPORT;
+            }
+        };
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        release.countDown();
+        service.shutdown();
+    }
+
+    @Test
+    void cancelledJobIsResumedWithoutRepeatingTheFullRebuild()
+    {
+        release = new CountDownLatch(1);
+        service.onStart(null);
+        IngestionJob job = service.submit(true);
+        awaitStatus(job, IngestionJob.Status.RUNNING);
+
+        service.cancel(job.id());
+        awaitStatus(job, IngestionJob.Status.CANCELLED);
+
+        release.countDown();
+        service.resume(job.id());
+        awaitStatus(job, IngestionJob.Status.COMPLETED);
+
+        assertEquals(List.of(true, false), List.copyOf(runs));
+        assertEquals(REPORT, job.snapshot().report());
+    }
+
+    @Test
+    void cancelledQueuedJobNeverRuns()
+    {
+        release = new CountDownLatch(1);
+        service.onStart(null);
+        IngestionJob running = service.submit(false);
+        awaitStatus(running, IngestionJob.Status.RUNNING);
+        IngestionJob queued = service.submit(false);
+
+        service.cancel(queued.id());
+        assertEquals(IngestionJob.Status.CANCELLED, queued.status());
+
+        release.countDown();
+        awaitStatus(running, IngestionJob.Status.COMPLETED);
+        assertEquals(List.of(false), List.copyOf(runs));
+    }
+
+    @Test
+    void interruptedJobIsResumedAtStartup()
+    {
+        IngestionJob interrupted = new IngestionJob("job-1", true, IngestionJob.Status.INTERRUPTED,
+                Instant.parse("2026-01-01T00:00:00Z"));
+        storedJobs.add(interrupted);
+
+        service.onStart(null);
+
+        awaitStatus(interrupted, IngestionJob.Status.COMPLETED);
+        assertEquals(List.of(false), List.copyOf(runs));
+    }
+
+    @Test
+    void interruptedJobStaysInterruptedWhenResumingIsOff()
+    {
+        service.resumeInterrupted = false;
+        IngestionJob interrupted = new IngestionJob("job-1", false, IngestionJob.Status.INTERRUPTED,
+                Instant.parse("2026-01-01T00:00:00Z"));
+        storedJobs.add(interrupted);
+
+        service.onStart(null);
+
+        assertEquals(IngestionJob.Status.INTERRUPTED, service.find("job-1").orElseThrow().status());
+        assertEquals(List.of(), List.copyOf(runs));
+    }
+
+    @Test
+    void jobRunsOnAVirtualThread()
+    {
+        service.onStart(null);
+        IngestionJob job = service.submit(false);
+        awaitStatus(job, IngestionJob.Status.COMPLETED);
+
+        assertEquals(List.of(true), List.copyOf(virtualRuns));
+    }
+
+    @Test
+    void completedJobCannotBeResumed()
+    {
+        service.onStart(null);
+        IngestionJob job = service.submit(false);
+        awaitStatus(job, IngestionJob.Status.COMPLETED);
+
+        assertThrows(IllegalStateException.class, () -> service.resume(job.id()));
+    }
+
+    private static void awaitStatus(IngestionJob job, IngestionJob.Status status)
+    {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            while (job.status() != status) {
+                Thread.sleep(5);
+            }
+        }, () -> "job " + job.id() + " is " + job.status());
+    }
+
+    private static void sleep(long millis)
+    {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package cloud.isaura.niby.rag.ingestion.service;
+
+import cloud.isaura.niby.shared.embedding.EmbeddingEngine;
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.parser.TextDocumentParser;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static dev.langchain4j.data.document.splitter.DocumentSplitters.recursive;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IngestionPipelineTest
+{
+    private static final int FILES = 12;
+    private static final int PARAGRAPHS = 6;
+    private static final Duration TIMEOUT = Duration.ofSeconds(60);
+
+    private static EmbeddingEngine embeddingEngine;
+
+    private final DocumentSplitter splitter = recursive(120, 0);
+    private final InMemoryManifest manifest = new InMemoryManifest();
+    private final RecordingEmbeddingStore store = new RecordingEmbeddingStore();
+    private final IngestionProgress progress = new IngestionProgress();
+
+    @TempDir
+    Path corpus;
+
+    @BeforeAll
+    static void startEngine()
+    {
+        embeddingEngine = EmbeddingEngine.allMiniLmL6V2(new EmbeddingEngine.Settings(1, 1, 1, 8, Duration.ZERO));
+    }
+
+    @AfterAll
+    static void stopEngine()
+    {
+        embeddingEngine.close();
+    }
+
+    @Test
+    void storesEverySegmentWithinTheWindow() throws IOException
+    {
+        int segments = writeCorpus();
+        // A slow store holds the stages in front of it back
+        store.beforeBatch = batch -> sleep(10);
+
+        IngestionReport report = assertTimeoutPreemptively(TIMEOUT,
+                () -> pipeline(new IngestionPipeline.Settings(2, 2, 4, 1, 8)).run());
+
+        assertEquals(FILES, report.filesProcessed());
+        assertEquals(segments, report.segmentsStored());
+        assertTrue(report.peakInFlightSegments() <= 8, "peak in flight " + report.peakInFlightSegments());
+        assertEquals(segments, store.segments.size());
+        assertEquals(store.segments.keySet(), manifest.segments.keySet());
+        assertEquals(FILES, manifest.files.size());
+    }
+
+    @Test
+    void stalledStoreFillsTheWindowAndNoMore() throws IOException
+    {
+        int segments = writeCorpus();
+        // Holds the first batch until the parse stage has had every chance to run ahead
+        store.beforeBatch = batch -> {
+            if (batch == 1) {
+                sleep(300);
+            }
+        };
+
+        IngestionReport report = assertTimeoutPreemptively(TIMEOUT,
+                () -> pipeline(new IngestionPipeline.Settings(2, 2, 4, 4, 12)).run());
+
+        assertEquals(12, report.peakInFlightSegments());
+        assertEquals(segments, report.segmentsStored());
+        assertTrue(report.peakHeapBytes() > 0);
+    }
+
+    @Test
+    void stagesRunOnVirtualThreads() throws IOException
+    {
+        writeCorpus();
+        Set<Boolean> virtualStore = ConcurrentHashMap.newKeySet();
+        store.beforeBatch = batch -> virtualStore.add(Thread.currentThread().isVirtual());
+
+        assertTimeoutPreemptively(TIMEOUT, () -> pipeline(new IngestionPipeline.Settings(2, 2, 4, 1, 8)).run());
+
+        assertEquals(Set.of(true), virtualStore);
+    }
+
+    @Test
+    void cancellationStopsTheRunAndKeepsCommittedFiles() throws IOException
+    {
+        int segments = writeCorpus();
+        store.beforeBatch = batch -> {
+            if (batch == 2) {
+                progress.cancel();
+            }
+        };
+
+        assertTimeoutPreemptively(TIMEOUT, () -> assertThrows(CancellationException.class,
+                () -> pipeline(new IngestionPipeline.Settings(2, 2, 4, 1, 8)).run()));
+
+        assertTrue(store.segments.size() < segments, "stored " + store.segments.size() + " of " + segments);
+        // A file is committed only once all of its segments are stored
+        for (String file : manifest.files.keySet()) {
+            assertTrue(store.segments.keySet().containsAll(manifest.segmentIds(file)), file);
+        }
+    }
+
+    @Test
+    void storeFailureFailsTheRun() throws IOException
+    {
+        writeCorpus();
+        store.beforeBatch = batch -> {
+            if (batch == 2) {
+                throw new IllegalStateException("Store unavailable");
+            }
+        };
+
+        IllegalStateException failure = assertTimeoutPreemptively(TIMEOUT, () -> assertThrows(
+                IllegalStateException.class, () -> pipeline(new IngestionPipeline.Settings(2, 2, 4, 1, 8)).run()));
+
+        assertEquals("Store unavailable", failure.getMessage());
+        // Only the first batch made it to the store
+        assertTrue(store.segments.size() <= 4, "stored " + store.segments.size());
+    }
+
+    @Test
+    void windowMustHoldABatchPerParseThread()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new IngestionPipeline.Settings(2, 2, 4, 1, 7));
+    }
+
+    private IngestionPipeline pipeline(IngestionPipeline.Settings settings)
+    {
+        return new IngestionPipeline(corpus, new TextDocumentParser(), splitter, embeddingEngine, store, manifest,
+                manifest.fileHashes(), settings, progress);
+    }
+
+    /**
+     * @return number of segments of the corpus
+     */
+    private int writeCorpus() throws IOException
+    {
+        int segments = 0;
+        for (int file = 0; file < FILES; file++) {
+            StringBuilder text = new StringBuilder();
+            for (int paragraph = 0; paragraph < PARAGRAPHS; paragraph++) {
+                text.append("File ").append(file).append(", paragraph ").append(paragraph)
+                        .append(": the processor routes flow files to the success relationship.\n\n");
+            }
+            Files.writeString(corpus.resolve("doc-" + file + ".txt"), text);
+            segments += splitter.split(Document.from(text.toString())).size();
+        }
+        return segments;
+    }
+
+    private static void sleep(long millis)
+    {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
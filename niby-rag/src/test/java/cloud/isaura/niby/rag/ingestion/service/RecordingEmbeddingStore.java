@@ -0,0 +1,76 @@
+package cloud.isaura.niby.rag.ingestion.service;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Embedding store keeping the stored segments by id, with a hook called before every batch.
+ */
+class RecordingEmbeddingStore implements EmbeddingStore<TextSegment>
+{
+    final Map<String, TextSegment> segments = new ConcurrentHashMap<>();
+    final AtomicInteger batches = new AtomicInteger();
+
+    // Receives the number of the batch about to be stored, starting at 1
+    volatile IntConsumer beforeBatch = batch -> {
+    };
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> embedded)
+    {
+        if (ids.size() != embeddings.size() || ids.size() != embedded.size()) {
+            throw new IllegalArgumentException("Batch of " + ids.size() + " ids, " + embeddings.size()
+                    + " embeddings and " + embedded.size() + " segments");
+        }
+        beforeBatch.accept(batches.incrementAndGet());
+        for (int i = 0; i < ids.size(); i++) {
+            segments.put(ids.get(i), embedded.get(i));
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids)
+    {
+        ids.forEach(segments::remove);
+    }
+
+    @Override
+    public String add(Embedding embedding)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void add(String id, Embedding embedding)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request)
+    {
+        throw new UnsupportedOperationException();
+    }
+}
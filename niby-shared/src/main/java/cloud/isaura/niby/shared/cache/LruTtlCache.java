@@ -0,0 +1,127 @@
+package cloud.isaura.niby.shared.cache;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Small thread-safe cache bounded by entry count (least recently used first out)
+ * and by time to live. Loads happen outside the lock, so a slow loader never
+ * blocks lookups of other keys; concurrent misses on the same key may load twice.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class LruTtlCache<K, V>
+{
+    /**
+     * Counters of a cache since it was created.
+     */
+    public record Stats(long hits, long misses, long evictions, int size, int maxEntries)
+    {
+        public double hitRate()
+        {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+    }
+
+    private record Entry<V>(V value, long expiresAtNanos)
+    {
+    }
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public LruTtlCache(int maxEntries, Duration ttl)
+    {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    /**
+     * @return the cached value, or {@code null} if absent or expired
+     */
+    public V get(K key)
+    {
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && entry.expiresAtNanos() - System.nanoTime() > 0) {
+                hits.increment();
+                return entry.value();
+            }
+            if (entry != null) {
+                entries.remove(key);
+                evictions.increment();
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(K key, V value)
+    {
+        synchronized (entries) {
+            entries.put(key, new Entry<>(value, System.nanoTime() + ttlNanos));
+            Iterator<Map.Entry<K, Entry<V>>> eldest = entries.entrySet().iterator();
+            while (entries.size() > maxEntries && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Return the cached value, loading and caching it on a miss. {@code null} values are not cached.
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> loader)
+    {
+        V value = get(key);
+        if (value == null) {
+            value = loader.apply(key);
+            if (value != null) {
+                put(key, value);
+            }
+        }
+        return value;
+    }
+
+    public void remove(K key)
+    {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    public void invalidateAll()
+    {
+        synchronized (entries) {
+            evictions.add(entries.size());
+            entries.clear();
+        }
+    }
+
+    public int size()
+    {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public Stats stats()
+    {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), size(), maxEntries);
+    }
+}
@@ -1,16 +1,46 @@
 package cloud.isaura.niby.shared.config;
 
+import cloud.isaura.niby.shared.embedding.EmbeddingEngine;
 import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Disposes;
 import jakarta.enterprise.inject.Produces;
+import jakarta.enterprise.inject.Typed;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
 
 @ApplicationScoped
 public class EmbeddingModelProducer {
 
+    @ConfigProperty(name = "niby.embedding.sessions", defaultValue = "2")
+    int sessions;
+
+    @ConfigProperty(name = "niby.embedding.intra-op-threads", defaultValue = "0")
+    int intraOpThreads;
+
+    @ConfigProperty(name = "niby.embedding.inter-op-threads", defaultValue = "1")
+    int interOpThreads;
+
+    @ConfigProperty(name = "niby.embedding.max-batch", defaultValue = "16")
+    int maxBatch;
+
+    @ConfigProperty(name = "niby.embedding.batch-window", defaultValue = "0ms")
+    Duration batchWindow;
+
+    /**
+     * The shared embedding model: queries and ingestion batches go through one engine,
+     * see {@link EmbeddingEngine} for the lanes and the session pool.
+     */
     @Produces
     @ApplicationScoped
-    public EmbeddingModel embeddingModel() {
-        return new AllMiniLmL6V2EmbeddingModel();
+    @Typed({EmbeddingEngine.class, EmbeddingModel.class})
+    public EmbeddingEngine embeddingModel() {
+        return EmbeddingEngine.allMiniLmL6V2(
+                new EmbeddingEngine.Settings(sessions, intraOpThreads, interOpThreads, maxBatch, batchWindow));
+    }
+
+    void close(@Disposes EmbeddingEngine engine) {
+        engine.close();
     }
 }
@@ -0,0 +1,186 @@
+package cloud.isaura.niby.shared.embedding;
+
+import ai.djl.huggingface.tokenizers.Encoding;
+import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer;
+import ai.onnxruntime.NodeInfo;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.TensorInfo;
+import dev.langchain4j.model.embedding.onnx.AbstractInProcessEmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.OnnxBertBiEncoder;
+import dev.langchain4j.model.embedding.onnx.PoolingMode;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One ONNX session of a BERT sentence encoder with mean pooling, embedding a whole list of texts
+ * in a single inference call.
+ * <p>
+ * Texts are tokenized separately and padded to the longest one; the attention mask keeps padding
+ * out of both the encoder and the pooling, so a text gets the same vector alone or in a batch.
+ * Texts longer than the model input go through the LangChain4j encoder on the same session, which
+ * splits them into windows and averages the window vectors.
+ * <p>
+ * A session is used by one thread at a time.
+ */
+final class BertSession implements AutoCloseable
+{
+    private static final int MAX_TOKENS = 512;
+
+    private final OrtEnvironment environment;
+    private final OrtSession session;
+    private final HuggingFaceTokenizer tokenizer;
+    private final boolean typeIds;
+    private final int dimension;
+    private final LongTextModel longTextModel;
+
+    BertSession(OrtEnvironment environment, byte[] model, byte[] tokenizerJson, int intraOpThreads, int interOpThreads)
+            throws OrtException, IOException
+    {
+        this.environment = environment;
+        try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+            options.setIntraOpNumThreads(intraOpThreads);
+            options.setInterOpNumThreads(interOpThreads);
+            options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT);
+            this.session = environment.createSession(model, options);
+        }
+        this.tokenizer = HuggingFaceTokenizer.newInstance(new ByteArrayInputStream(tokenizerJson),
+                Map.of("padding", "false"));
+        this.typeIds = session.getInputNames().contains("token_type_ids");
+        NodeInfo output = session.getOutputInfo().values().iterator().next();
+        long[] shape = ((TensorInfo) output.getInfo()).getShape();
+        this.dimension = (int) shape[shape.length - 1];
+        this.longTextModel = new LongTextModel(new OnnxBertBiEncoder(environment, session,
+                new ByteArrayInputStream(tokenizerJson), PoolingMode.MEAN));
+    }
+
+    int dimension()
+    {
+        return dimension;
+    }
+
+    /**
+     * @return one normalized vector per text, in order
+     */
+    float[][] embed(List<String> texts) throws OrtException
+    {
+        float[][] vectors = new float[texts.size()][];
+        List<Integer> batch = new ArrayList<>(texts.size());
+        List<Encoding> encodings = new ArrayList<>(texts.size());
+        for (int i = 0; i < texts.size(); i++) {
+            Encoding encoding = tokenizer.encode(texts.get(i), true, false);
+            if (encoding.getIds().length > MAX_TOKENS) {
+                vectors[i] = longTextModel.embed(texts.get(i)).content().vector();
+            } else {
+                batch.add(i);
+                encodings.add(encoding);
+            }
+        }
+        if (!batch.isEmpty()) {
+            float[][] batchVectors = run(encodings);
+            for (int i = 0; i < batch.size(); i++) {
+                vectors[batch.get(i)] = batchVectors[i];
+            }
+        }
+        return vectors;
+    }
+
+    private float[][] run(List<Encoding> encodings) throws OrtException
+    {
+        int rows = encodings.size();
+        int length = 0;
+        for (Encoding encoding : encodings) {
+            length = Math.max(length, encoding.getIds().length);
+        }
+        long[] ids = new long[rows * length];
+        long[] mask = new long[rows * length];
+        long[] types = new long[rows * length];
+        for (int row = 0; row < rows; row++) {
+            Encoding encoding = encodings.get(row);
+            int offset = row * length;
+            System.arraycopy(encoding.getIds(), 0, ids, offset, encoding.getIds().length);
+            System.arraycopy(encoding.getAttentionMask(), 0, mask, offset, encoding.getAttentionMask().length);
+            System.arraycopy(encoding.getTypeIds(), 0, types, offset, encoding.getTypeIds().length);
+        }
+
+        long[] shape = {rows, length};
+        Map<String, OnnxTensor> inputs = new HashMap<>();
+        try {
+            inputs.put("input_ids", OnnxTensor.createTensor(environment, LongBuffer.wrap(ids), shape));
+            inputs.put("attention_mask", OnnxTensor.createTensor(environment, LongBuffer.wrap(mask), shape));
+            if (typeIds) {
+                inputs.put("token_type_ids", OnnxTensor.createTensor(environment, LongBuffer.wrap(types), shape));
+            }
+            try (OrtSession.Result result = session.run(inputs)) {
+                float[][][] hidden = (float[][][]) result.get(0).getValue();
+                float[][] vectors = new float[rows][];
+                for (int row = 0; row < rows; row++) {
+                    vectors[row] = meanPool(hidden[row], mask, row * length);
+                }
+                return vectors;
+            }
+        } finally {
+            inputs.values().forEach(OnnxTensor::close);
+        }
+    }
+
+    private float[] meanPool(float[][] tokens, long[] mask, int offset)
+    {
+        float[] vector = new float[dimension];
+        int count = 0;
+        for (int token = 0; token < tokens.length; token++) {
+            if (mask[offset + token] == 0) {
+                continue;
+            }
+            count++;
+            for (int i = 0; i < dimension; i++) {
+                vector[i] += tokens[token][i];
+            }
+        }
+        double norm = 0;
+        for (int i = 0; i < dimension; i++) {
+            vector[i] /= count;
+            norm += vector[i] * vector[i];
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < dimension; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+
+    @Override
+    public void close() throws OrtException
+    {
+        tokenizer.close();
+        session.close();
+    }
+
+    /**
+     * LangChain4j's encoder on this session, run in the calling thread.
+     */
+    private static final class LongTextModel extends AbstractInProcessEmbeddingModel
+    {
+        private final OnnxBertBiEncoder encoder;
+
+        LongTextModel(OnnxBertBiEncoder encoder)
+        {
+            super(Runnable::run);
+            this.encoder = encoder;
+        }
+
+        @Override
+        protected OnnxBertBiEncoder model()
+        {
+            return encoder;
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package cloud.isaura.niby.shared.embedding;
+
+import ai.onnxruntime.OrtEnvironment;
+import cloud.isaura.niby.shared.metrics.RollingRate;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process embedding engine running a pool of ONNX sessions, each owned by one worker thread.
+ * <p>
+ * Work arrives in two lanes. {@link Lane#QUERY} holds interactive single-text requests: a free
+ * worker takes every query waiting (up to {@code maxBatch}) and embeds them in one inference
+ * call, so concurrent queries are micro-batched instead of queueing one behind the other.
+ * {@link Lane#BULK} holds ingestion batches, cut into chunks of {@code maxBatch} texts of similar
+ * length; a worker only takes a bulk chunk when no query is waiting, so a query waits at most for
+ * the chunks already running.
+ * <p>
+ * CPU use is bounded by {@code sessions x intraOpThreads}. Per-lane throughput and latency are
+ * available through {@link #stats()}.
+ * <p>
+ * {@link #embed(TextSegment)} goes through the query lane and {@link #embedAll(List)} through the
+ * bulk lane; both block the caller until the vectors are ready.
+ */
+public class EmbeddingEngine implements EmbeddingModel, AutoCloseable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(EmbeddingEngine.class);
+
+    public enum Lane
+    {
+        QUERY, BULK
+    }
+
+    /**
+     * @param sessions       ONNX sessions, each with its own worker thread and a copy of the model
+     * @param intraOpThreads threads per session for a single operator, {@code 0} to share the cores between sessions
+     * @param interOpThreads threads per session for independent operators
+     * @param maxBatch       texts per inference call; also bounds how long a query waits behind a running bulk chunk
+     * @param batchWindow    how long a query may wait for more queries to share its call, measured from its
+     *                       arrival; {@code 0} batches only the queries that queued up while every session was busy
+     */
+    public record Settings(int sessions, int intraOpThreads, int interOpThreads, int maxBatch, Duration batchWindow)
+    {
+        public Settings
+        {
+            if (sessions < 1 || intraOpThreads < 0 || interOpThreads < 1 || maxBatch < 1 || batchWindow.isNegative()) {
+                throw new IllegalArgumentException("Invalid embedding engine settings: " + sessions + "/"
+                        + intraOpThreads + "/" + interOpThreads + "/" + maxBatch + "/" + batchWindow);
+            }
+        }
+
+        int resolvedIntraOpThreads()
+        {
+            return intraOpThreads > 0 ? intraOpThreads
+                    : Math.max(1, Runtime.getRuntime().availableProcessors() / sessions);
+        }
+    }
+
+    /**
+     * Counters of one lane since startup; the rate is over the last minute and the latency
+     * percentiles over the last {@value #LATENCY_SAMPLES} requests.
+     *
+     * @param requests calls to the engine
+     * @param texts    texts submitted
+     * @param batches  inference calls
+     * @param queued   texts waiting for a session right now
+     */
+    public record LaneStats(Lane lane, long requests, long texts, long batches, int queued,
+                            double textsPerBatch, double textsPerSecond, double meanQueueMillis,
+                            double p50Millis, double p95Millis, double p99Millis)
+    {
+    }
+
+    private static final int LATENCY_SAMPLES = 1024;
+
+    /**
+     * Texts taken by one inference call, with the slots of the request their vectors go to.
+     */
+    private static final class Task
+    {
+        final Request request;
+        final List<String> texts;
+        final int[] slots;
+        final long enqueuedNanos = System.nanoTime();
+
+        Task(Request request, List<String> texts, int[] slots)
+        {
+            this.request = request;
+            this.texts = texts;
+            this.slots = slots;
+        }
+    }
+
+    /**
+     * One call to the engine, completed when its last task is done.
+     */
+    private final class Request
+    {
+        final Lane lane;
+        final Embedding[] embeddings;
+        final AtomicInteger pendingTasks;
+        final CompletableFuture<List<Embedding>> future = new CompletableFuture<>();
+        final long startNanos = System.nanoTime();
+
+        Request(Lane lane, int size, int tasks)
+        {
+            this.lane = lane;
+            this.embeddings = new Embedding[size];
+            this.pendingTasks = new AtomicInteger(tasks);
+        }
+
+        void completed(Task task, float[][] vectors)
+        {
+            for (int i = 0; i < vectors.length; i++) {
+                embeddings[task.slots[i]] = Embedding.from(vectors[i]);
+            }
+            if (pendingTasks.decrementAndGet() == 0) {
+                metrics.get(lane).requestDone(System.nanoTime() - startNanos);
+                future.complete(Arrays.asList(embeddings));
+            }
+        }
+    }
+
+    private final Settings settings;
+    private final List<BertSession> sessions;
+    private final List<Thread> workers = new ArrayList<>();
+    private final Map<Lane, LaneMetrics> metrics = new EnumMap<>(Lane.class);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+    private final ArrayDeque<Task> queries = new ArrayDeque<>();
+    private final ArrayDeque<Task> bulk = new ArrayDeque<>();
+    private boolean closed;
+
+    EmbeddingEngine(Settings settings, List<BertSession> sessions)
+    {
+        this.settings = settings;
+        this.sessions = sessions;
+        for (Lane lane : Lane.values()) {
+            metrics.put(lane, new LaneMetrics());
+        }
+        for (int i = 0; i < sessions.size(); i++) {
+            BertSession session = sessions.get(i);
+            Thread worker = new Thread(() -> work(session), "embedding-session-" + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * Engine over the bundled all-MiniLM-L6-v2 model, the one {@link AllMiniLmL6V2EmbeddingModel} uses.
+     */
+    public static EmbeddingEngine allMiniLmL6V2(Settings settings)
+    {
+        ClassLoader classLoader = AllMiniLmL6V2EmbeddingModel.class.getClassLoader();
+        int intraOpThreads = settings.resolvedIntraOpThreads();
+        List<BertSession> sessions = new ArrayList<>(settings.sessions());
+        try {
+            byte[] model = readResource(classLoader, "all-minilm-l6-v2.onnx");
+            byte[] tokenizer = readResource(classLoader, "all-minilm-l6-v2-tokenizer.json");
+            for (int i = 0; i < settings.sessions(); i++) {
+                sessions.add(new BertSession(OrtEnvironment.getEnvironment(), model, tokenizer,
+                        intraOpThreads, settings.interOpThreads()));
+            }
+        } catch (Exception e) {
+            sessions.forEach(EmbeddingEngine::closeQuietly);
+            throw new IllegalStateException("Failed to load the all-MiniLM-L6-v2 embedding model", e);
+        }
+        LOG.info("Embedding engine started: {} session(s) x {} intra-op thread(s), max batch {}, batch window {}",
+                settings.sessions(), intraOpThreads, settings.maxBatch(), settings.batchWindow());
+        return new EmbeddingEngine(settings, sessions);
+    }
+
+    @Override
+    public Response<Embedding> embed(String text)
+    {
+        return embed(TextSegment.from(text));
+    }
+
+    @Override
+    public Response<Embedding> embed(TextSegment textSegment)
+    {
+        return Response.from(embedAll(List.of(textSegment), Lane.QUERY).content().get(0));
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments)
+    {
+        return embedAll(textSegments, Lane.BULK);
+    }
+
+    /**
+     * Embed texts in the given lane, blocking until all of them are done.
+     */
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments, Lane lane)
+    {
+        if (textSegments.isEmpty()) {
+            return Response.from(List.of());
+        }
+        try {
+            return Response.from(submit(textSegments, lane).get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for embeddings", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Embedding failed", e.getCause());
+        }
+    }
+
+    @Override
+    public int dimension()
+    {
+        return sessions.get(0).dimension();
+    }
+
+    public List<LaneStats> stats()
+    {
+        lock.lock();
+        int queuedQueries;
+        int queuedBulk;
+        try {
+            queuedQueries = queries.stream().mapToInt(task -> task.texts.size()).sum();
+            queuedBulk = bulk.stream().mapToInt(task -> task.texts.size()).sum();
+        } finally {
+            lock.unlock();
+        }
+        return List.of(metrics.get(Lane.QUERY).stats(Lane.QUERY, queuedQueries),
+                metrics.get(Lane.BULK).stats(Lane.BULK, queuedBulk));
+    }
+
+    @Override
+    public void close()
+    {
+        lock.lock();
+        try {
+            closed = true;
+            workAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        sessions.forEach(EmbeddingEngine::closeQuietly);
+    }
+
+    private CompletableFuture<List<Embedding>> submit(List<TextSegment> textSegments, Lane lane)
+    {
+        List<Task> tasks = new ArrayList<>();
+        Request request;
+        if (lane == Lane.QUERY) {
+            // Queries are batched with each other when they are taken, one task per text
+            request = new Request(lane, textSegments.size(), textSegments.size());
+            for (int i = 0; i < textSegments.size(); i++) {
+                tasks.add(new Task(request, List.of(textSegments.get(i).text()), new int[]{i}));
+            }
+        } else {
+            // Similar lengths in a chunk keep padding, and so wasted compute, low
+            Integer[] order = new Integer[textSegments.size()];
+            Arrays.setAll(order, i -> i);
+            Arrays.sort(order, Comparator.comparingInt(i -> textSegments.get(i).text().length()));
+            int chunks = (order.length + settings.maxBatch() - 1) / settings.maxBatch();
+            request = new Request(lane, textSegments.size(), chunks);
+            for (int start = 0; start < order.length; start += settings.maxBatch()) {
+                int end = Math.min(order.length, start + settings.maxBatch());
+                List<String> texts = new ArrayList<>(end - start);
+                int[] slots = new int[end - start];
+                for (int i = start; i < end; i++) {
+                    texts.add(textSegments.get(order[i]).text());
+                    slots[i - start] = order[i];
+                }
+                tasks.add(new Task(request, texts, slots));
+            }
+        }
+        metrics.get(lane).requested(textSegments.size());
+
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Embedding engine is closed");
+            }
+            (lane == Lane.QUERY ? queries : bulk).addAll(tasks);
+            workAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return request.future;
+    }
+
+    private void work(BertSession session)
+    {
+        List<Task> batch;
+        while ((batch = next()) != null) {
+            Lane lane = batch.get(0).request.lane;
+            List<String> texts = new ArrayList<>();
+            long now = System.nanoTime();
+            for (Task task : batch) {
+                texts.addAll(task.texts);
+                metrics.get(lane).dequeued(now - task.enqueuedNanos);
+            }
+            try {
+                float[][] vectors = session.embed(texts);
+                metrics.get(lane).batchDone(texts.size());
+                int offset = 0;
+                for (Task task : batch) {
+                    task.request.completed(task, Arrays.copyOfRange(vectors, offset, offset + task.texts.size()));
+                    offset += task.texts.size();
+                }
+            } catch (Exception e) {
+                LOG.error("Embedding batch of {} texts failed", texts.size(), e);
+                batch.forEach(task -> task.request.future.completeExceptionally(e));
+            }
+        }
+    }
+
+    /**
+     * Wait for work: every waiting query up to the batch size, otherwise one bulk chunk.
+     *
+     * @return {@code null} once the engine is closed
+     */
+    private List<Task> next()
+    {
+        long windowNanos = settings.batchWindow().toNanos();
+        lock.lock();
+        try {
+            while (true) {
+                if (closed) {
+                    return null;
+                }
+                if (!queries.isEmpty()) {
+                    long waitNanos = queries.peekFirst().enqueuedNanos + windowNanos - System.nanoTime();
+                    if (queries.size() < settings.maxBatch() && waitNanos > 0) {
+                        workAvailable.awaitNanos(waitNanos);
+                        continue;
+                    }
+                    List<Task> batch = new ArrayList<>();
+                    while (!queries.isEmpty() && batch.size() < settings.maxBatch()) {
+                        batch.add(queries.pollFirst());
+                    }
+                    return batch;
+                }
+                if (!bulk.isEmpty()) {
+                    return List.of(bulk.pollFirst());
+                }
+                workAvailable.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static byte[] readResource(ClassLoader classLoader, String name) throws IOException
+    {
+        try (InputStream stream = classLoader.getResourceAsStream(name)) {
+            if (stream == null) {
+                throw new IOException("Resource not found: " + name);
+            }
+            return stream.readAllBytes();
+        }
+    }
+
+    private static void closeQuietly(BertSession session)
+    {
+        try {
+            session.close();
+        } catch (Exception e) {
+            LOG.warn("Failed to close an embedding session", e);
+        }
+    }
+
+    /**
+     * Counters of one lane.
+     */
+    private static final class LaneMetrics
+    {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder texts = new LongAdder();
+        private final LongAdder batches = new LongAdder();
+        private final LongAdder batchedTexts = new LongAdder();
+        private final LongAdder dequeued = new LongAdder();
+        private final LongAdder queueNanos = new LongAdder();
+
+        private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_SAMPLES);
+        private final AtomicLong latencyCount = new AtomicLong();
+
+        // Texts per second of the last minute
+        private final RollingRate textRate = new RollingRate();
+
+        void requested(int size)
+        {
+            requests.increment();
+            texts.add(size);
+        }
+
+        void dequeued(long waitedNanos)
+        {
+            dequeued.increment();
+            queueNanos.add(waitedNanos);
+        }
+
+        void batchDone(int size)
+        {
+            batches.increment();
+            batchedTexts.add(size);
+            textRate.add(size);
+        }
+
+        void requestDone(long latencyNanos)
+        {
+            latencies.set(Math.floorMod(latencyCount.getAndIncrement(), LATENCY_SAMPLES), latencyNanos);
+        }
+
+        LaneStats stats(Lane lane, int queued)
+        {
+            long batchCount = batches.sum();
+            long textCount = texts.sum();
+            long dequeuedCount = dequeued.sum();
+
+            long[] samples = new long[(int) Math.min(latencyCount.get(), LATENCY_SAMPLES)];
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = latencies.get(i);
+            }
+            Arrays.sort(samples);
+            return new LaneStats(lane, requests.sum(), textCount, batchCount, queued,
+                    batchCount == 0 ? 0 : (double) batchedTexts.sum() / batchCount,
+                    textRate.perSecond(),
+                    dequeuedCount == 0 ? 0 : queueNanos.sum() / 1e6 / dequeuedCount,
+                    percentileMillis(samples, 50), percentileMillis(samples, 95), percentileMillis(samples, 99));
+        }
+
+        private static double percentileMillis(long[] sorted, int percentile)
+        {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+        }
+    }
+}
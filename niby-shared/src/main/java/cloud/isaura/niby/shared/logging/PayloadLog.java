@@ -0,0 +1,152 @@
+package cloud.isaura.niby.shared.logging;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Gate for hot-path log lines carrying payloads: messages, streamed chunks, retrieved documents.
+ * Used by niby-be-core, which logs through SLF4J, and by the niby-ui relay, which logs through
+ * JBoss Logging.
+ * <p>
+ * Callers check {@code enabled} before building the log arguments, so a suppressed line costs no
+ * formatting or allocation. Lines are written at INFO, so a logger above INFO writes none of them.
+ * With the logger at INFO or finer, a line is written when the logger is at DEBUG, when its
+ * session has been put in debug mode at runtime, or otherwise within
+ * {@code niby.log.payload.per-second} lines per second across the application; the rest are
+ * counted as suppressed. Payloads are cut to {@code max-chars}.
+ */
+@ApplicationScoped
+public class PayloadLog
+{
+    @ConfigProperty(name = "niby.log.payload.per-second", defaultValue = "10")
+    int perSecond;
+
+    @ConfigProperty(name = "niby.log.payload.max-chars", defaultValue = "200")
+    int maxChars;
+
+    LongSupplier nanoTime = System::nanoTime;
+
+    // Debug sessions and when their debug mode expires, in nanoTime
+    private final Map<String, Long> debugSessions = new ConcurrentHashMap<>();
+    private final AtomicLong windowSecond = new AtomicLong();
+    private final AtomicInteger windowCount = new AtomicInteger();
+    private final LongAdder suppressed = new LongAdder();
+
+    /**
+     * @param session chat session of the line, {@code null} if unknown
+     * @return whether the payload line should be written
+     */
+    public boolean enabled(org.slf4j.Logger logger, String session)
+    {
+        return logger.isInfoEnabled() && enabled(logger.isDebugEnabled(), session);
+    }
+
+    /**
+     * @param session chat session of the line, {@code null} if unknown
+     * @return whether the payload line should be written
+     */
+    public boolean enabled(org.jboss.logging.Logger logger, String session)
+    {
+        return logger.isInfoEnabled() && enabled(logger.isDebugEnabled(), session);
+    }
+
+    /**
+     * @param debugEnabled whether the logger of the line, known to be at INFO or finer, is at DEBUG
+     */
+    boolean enabled(boolean debugEnabled, String session)
+    {
+        if (debugEnabled) {
+            return true;
+        }
+        if (session != null && !debugSessions.isEmpty() && isDebugging(session)) {
+            return true;
+        }
+        if (perSecond < 0 || permit()) {
+            return true;
+        }
+        suppressed.increment();
+        return false;
+    }
+
+    private boolean permit()
+    {
+        long second = nanoTime.getAsLong() / 1_000_000_000L;
+        long current = windowSecond.get();
+        if (current != second && windowSecond.compareAndSet(current, second)) {
+            windowCount.set(0);
+        }
+        return windowCount.incrementAndGet() <= perSecond;
+    }
+
+    private boolean isDebugging(String session)
+    {
+        Long expiresAt = debugSessions.get(session);
+        if (expiresAt == null) {
+            return false;
+        }
+        if (nanoTime.getAsLong() - expiresAt > 0) {
+            debugSessions.remove(session, expiresAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Payload cut to the configured length, to be called only for lines that are written.
+     */
+    public String preview(String text)
+    {
+        if (text == null || text.length() <= maxChars) {
+            return text;
+        }
+        return text.substring(0, maxChars) + "... (" + text.length() + " chars)";
+    }
+
+    /**
+     * Log every payload line of a session for a while, outside the rate limit. The lines are still
+     * written at INFO, so they show only where the logger is at INFO or finer.
+     */
+    public void debugSession(String session, Duration duration)
+    {
+        debugSessions.put(session, nanoTime.getAsLong() + duration.toNanos());
+    }
+
+    public boolean stopDebugSession(String session)
+    {
+        return debugSessions.remove(session) != null;
+    }
+
+    /**
+     * @return debug sessions and their remaining debug time in seconds
+     */
+    public Map<String, Long> debugSessions()
+    {
+        long now = nanoTime.getAsLong();
+        Map<String, Long> sessions = new TreeMap<>();
+        debugSessions.forEach((session, expiresAt) -> {
+            if (expiresAt - now > 0) {
+                sessions.put(session, Duration.ofNanos(expiresAt - now).toSeconds());
+            }
+        });
+        return sessions;
+    }
+
+    public int perSecond()
+    {
+        return perSecond;
+    }
+
+    public long suppressed()
+    {
+        return suppressed.sum();
+    }
+}
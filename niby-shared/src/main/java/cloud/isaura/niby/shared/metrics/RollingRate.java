@@ -0,0 +1,46 @@
+package cloud.isaura.niby.shared.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free rate of events per second over the last minute, from one bucket per second. A bucket
+ * is reset when its second comes round again.
+ */
+public class RollingRate
+{
+    private static final int WINDOW_SECONDS = 60;
+
+    private final AtomicLongArray bucketSecond = new AtomicLongArray(WINDOW_SECONDS);
+    private final AtomicLongArray bucketCount = new AtomicLongArray(WINDOW_SECONDS);
+
+    LongSupplier currentTimeMillis = System::currentTimeMillis;
+
+    public void add(long count)
+    {
+        long second = currentTimeMillis.getAsLong() / 1000;
+        int bucket = (int) (second % WINDOW_SECONDS);
+        long stamp = bucketSecond.get(bucket);
+        if (stamp != second && bucketSecond.compareAndSet(bucket, stamp, second)) {
+            bucketCount.set(bucket, 0);
+        }
+        bucketCount.addAndGet(bucket, count);
+    }
+
+    /**
+     * @return average events per second over the previous full minute; the current second is still
+     * filling up, so it is left out
+     */
+    public double perSecond()
+    {
+        long now = currentTimeMillis.getAsLong() / 1000;
+        long recent = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            long second = bucketSecond.get(i);
+            if (second < now && now - second <= WINDOW_SECONDS) {
+                recent += bucketCount.get(i);
+            }
+        }
+        return (double) recent / WINDOW_SECONDS;
+    }
+}
@@ -0,0 +1,98 @@
+package cloud.isaura.niby.shared.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LruTtlCacheTest
+{
+    private static final Duration LONG_TTL = Duration.ofMinutes(10);
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntry()
+    {
+        LruTtlCache<String, Integer> cache = new LruTtlCache<>(2, LONG_TTL);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        // Reading "a" makes "b" the eldest
+        assertEquals(1, cache.get("a"));
+
+        cache.put("c", 3);
+
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.get("a"));
+        assertEquals(3, cache.get("c"));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.stats().evictions());
+    }
+
+    @Test
+    void expiresEntriesAfterTheTtl() throws InterruptedException
+    {
+        LruTtlCache<String, Integer> cache = new LruTtlCache<>(10, Duration.ofMillis(50));
+        cache.put("a", 1);
+        assertEquals(1, cache.get("a"));
+
+        Thread.sleep(100);
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        LruTtlCache.Stats stats = cache.stats();
+        assertEquals(1, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(1, stats.evictions());
+        assertEquals(0.5, stats.hitRate());
+    }
+
+    @Test
+    void putRenewsTheTtl() throws InterruptedException
+    {
+        LruTtlCache<String, Integer> cache = new LruTtlCache<>(10, Duration.ofMillis(200));
+        cache.put("a", 1);
+        Thread.sleep(120);
+
+        cache.put("a", 2);
+        Thread.sleep(120);
+
+        assertEquals(2, cache.get("a"));
+    }
+
+    @Test
+    void computeIfAbsentLoadsOnlyOnMiss()
+    {
+        LruTtlCache<String, Integer> cache = new LruTtlCache<>(10, LONG_TTL);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals(1, cache.computeIfAbsent("a", key -> loads.incrementAndGet()));
+        assertEquals(1, cache.computeIfAbsent("a", key -> loads.incrementAndGet()));
+        assertNull(cache.computeIfAbsent("b", key -> null));
+
+        assertEquals(1, loads.get());
+        // A null value is not cached
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void invalidateAllCountsEvictions()
+    {
+        LruTtlCache<String, Integer> cache = new LruTtlCache<>(10, LONG_TTL);
+        cache.put("a", 1);
+        cache.put("b", 2);
+
+        cache.invalidateAll();
+
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.stats().evictions());
+    }
+
+    @Test
+    void rejectsANonPositiveSize()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new LruTtlCache<String, Integer>(0, LONG_TTL));
+    }
+}
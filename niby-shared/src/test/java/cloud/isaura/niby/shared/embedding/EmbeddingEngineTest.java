@@ -0,0 +1,123 @@
+package cloud.isaura.niby.shared.embedding;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import dev.langchain4j.store.embedding.CosineSimilarity;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EmbeddingEngineTest
+{
+    private static final Duration TIMEOUT = Duration.ofSeconds(120);
+
+    private static final List<TextSegment> TEXTS = List.of(
+            TextSegment.from("PutFile"),
+            TextSegment.from("The processor writes the content of a flow file to the local file system."),
+            TextSegment.from("Routes flow files to the failure relationship when the destination directory "
+                    + "does not exist and the processor is configured not to create missing directories."),
+            TextSegment.from("Conflict resolution strategy"),
+            TextSegment.from("Maximum file count in the output directory"));
+
+    @Test
+    void batchedVectorsMatchSingleTextVectors()
+    {
+        try (EmbeddingEngine engine = engine(8, Duration.ZERO)) {
+            // Texts of different lengths share one padded inference call
+            List<Embedding> batched = engine.embedAll(TEXTS, EmbeddingEngine.Lane.BULK).content();
+            AllMiniLmL6V2EmbeddingModel reference = new AllMiniLmL6V2EmbeddingModel();
+
+            assertEquals(TEXTS.size(), batched.size());
+            for (int i = 0; i < TEXTS.size(); i++) {
+                Embedding single = engine.embed(TEXTS.get(i)).content();
+                assertEquals(engine.dimension(), single.dimension());
+                assertEquals(1, CosineSimilarity.between(single, batched.get(i)), 1e-4, TEXTS.get(i).text());
+                assertEquals(1, CosineSimilarity.between(reference.embed(TEXTS.get(i)).content(), batched.get(i)),
+                        1e-3, TEXTS.get(i).text());
+            }
+        }
+    }
+
+    @Test
+    void queryDoesNotWaitForQueuedBulkWork()
+    {
+        try (EmbeddingEngine engine = engine(4, Duration.ZERO)) {
+            List<TextSegment> corpus = IntStream.range(0, 400)
+                    .mapToObj(i -> TextSegment.from("Paragraph " + i + " of the processor documentation."))
+                    .toList();
+            CompletableFuture<List<Embedding>> ingestion =
+                    CompletableFuture.supplyAsync(() -> engine.embedAll(corpus, EmbeddingEngine.Lane.BULK).content());
+
+            assertTimeoutPreemptively(TIMEOUT, () -> {
+                while (bulk(engine).queued() == 0 && !ingestion.isDone()) {
+                    Thread.sleep(1);
+                }
+                engine.embed("How do I write flow files to disk?");
+
+                // The query overtook the bulk chunks still waiting
+                assertFalse(ingestion.isDone());
+                assertTrue(bulk(engine).queued() > 0);
+                assertEquals(corpus.size(), ingestion.join().size());
+            });
+            assertEquals(1, query(engine).requests());
+            assertEquals(100, bulk(engine).batches());
+        }
+    }
+
+    @Test
+    void concurrentQueriesShareAnInferenceCall()
+    {
+        try (EmbeddingEngine engine = engine(4, Duration.ofSeconds(5));
+             ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<CompletableFuture<Embedding>> queries = new ArrayList<>();
+            assertTimeoutPreemptively(TIMEOUT, () -> {
+                // The window holds the first query until the batch is full
+                for (TextSegment text : TEXTS.subList(0, 4)) {
+                    queries.add(CompletableFuture.supplyAsync(() -> engine.embed(text).content(), callers));
+                }
+                queries.forEach(CompletableFuture::join);
+            });
+
+            EmbeddingEngine.LaneStats stats = query(engine);
+            assertEquals(4, stats.texts());
+            assertEquals(1, stats.batches());
+        }
+    }
+
+    @Test
+    void closedEngineRejectsWork()
+    {
+        EmbeddingEngine engine = engine(4, Duration.ZERO);
+        engine.close();
+
+        assertThrows(IllegalStateException.class, () -> engine.embed("PutFile"));
+    }
+
+    private static EmbeddingEngine engine(int maxBatch, Duration batchWindow)
+    {
+        return EmbeddingEngine.allMiniLmL6V2(new EmbeddingEngine.Settings(1, 1, 1, maxBatch, batchWindow));
+    }
+
+    private static EmbeddingEngine.LaneStats query(EmbeddingEngine engine)
+    {
+        return engine.stats().get(0);
+    }
+
+    private static EmbeddingEngine.LaneStats bulk(EmbeddingEngine engine)
+    {
+        return engine.stats().get(1);
+    }
+}
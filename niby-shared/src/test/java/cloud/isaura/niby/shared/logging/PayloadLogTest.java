@@ -0,0 +1,95 @@
+package cloud.isaura.niby.shared.logging;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PayloadLogTest
+{
+    private static final long SECOND = 1_000_000_000L;
+
+    private final PayloadLog payloadLog = new PayloadLog();
+    private long now = 5 * SECOND;
+
+    @BeforeEach
+    void setUp()
+    {
+        payloadLog.perSecond = 2;
+        payloadLog.maxChars = 10;
+        payloadLog.nanoTime = () -> now;
+    }
+
+    @Test
+    void writesAtMostTheRateLimitPerSecond()
+    {
+        assertTrue(payloadLog.enabled(false, null));
+        assertTrue(payloadLog.enabled(false, null));
+        assertFalse(payloadLog.enabled(false, null));
+        assertEquals(1, payloadLog.suppressed());
+
+        now += SECOND;
+
+        assertTrue(payloadLog.enabled(false, null));
+    }
+
+    @Test
+    void negativeRateLimitWritesEveryLine()
+    {
+        payloadLog.perSecond = -1;
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(payloadLog.enabled(false, null));
+        }
+        assertEquals(0, payloadLog.suppressed());
+    }
+
+    @Test
+    void debugLoggerBypassesTheRateLimit()
+    {
+        payloadLog.perSecond = 0;
+
+        assertTrue(payloadLog.enabled(true, null));
+        assertFalse(payloadLog.enabled(false, null));
+    }
+
+    @Test
+    void debugSessionBypassesTheRateLimitUntilItExpires()
+    {
+        payloadLog.perSecond = 0;
+        payloadLog.debugSession("session-1", Duration.ofMinutes(1));
+
+        assertTrue(payloadLog.enabled(false, "session-1"));
+        assertFalse(payloadLog.enabled(false, "session-2"));
+        assertEquals(Map.of("session-1", 60L), payloadLog.debugSessions());
+
+        now += Duration.ofMinutes(2).toNanos();
+
+        assertFalse(payloadLog.enabled(false, "session-1"));
+        assertEquals(Map.of(), payloadLog.debugSessions());
+    }
+
+    @Test
+    void stoppedDebugSessionIsRateLimitedAgain()
+    {
+        payloadLog.perSecond = 0;
+        payloadLog.debugSession("session-1", Duration.ofMinutes(1));
+
+        assertTrue(payloadLog.stopDebugSession("session-1"));
+
+        assertFalse(payloadLog.enabled(false, "session-1"));
+        assertFalse(payloadLog.stopDebugSession("session-1"));
+    }
+
+    @Test
+    void previewCutsLongPayloads()
+    {
+        assertEquals("short", payloadLog.preview("short"));
+        assertEquals("0123456789... (12 chars)", payloadLog.preview("0123456789ab"));
+    }
+}
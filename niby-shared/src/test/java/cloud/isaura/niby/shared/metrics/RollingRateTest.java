@@ -0,0 +1,55 @@
+package cloud.isaura.niby.shared.metrics;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RollingRateTest
+{
+    private final RollingRate rate = new RollingRate();
+    private long now = 1_000_000_000L;
+
+    @BeforeEach
+    void setUp()
+    {
+        rate.currentTimeMillis = () -> now;
+    }
+
+    @Test
+    void averagesThePreviousFullMinute()
+    {
+        rate.add(30);
+        now += 1000;
+        rate.add(90);
+        // The current second is not counted yet
+        assertEquals(0.5, rate.perSecond(), 1e-9);
+
+        now += 1000;
+
+        assertEquals(2.0, rate.perSecond(), 1e-9);
+    }
+
+    @Test
+    void secondsOlderThanTheWindowAreDropped()
+    {
+        rate.add(60);
+        now += 1000;
+        assertEquals(1.0, rate.perSecond(), 1e-9);
+
+        now += 60_000;
+
+        assertEquals(0.0, rate.perSecond(), 1e-9);
+    }
+
+    @Test
+    void bucketIsResetWhenItsSecondComesRoundAgain()
+    {
+        rate.add(600);
+        now += 60_000;
+        rate.add(60);
+        now += 1000;
+
+        assertEquals(1.0, rate.perSecond(), 1e-9);
+    }
+}
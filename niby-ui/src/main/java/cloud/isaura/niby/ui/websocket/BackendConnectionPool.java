@@ -0,0 +1,323 @@
+package cloud.isaura.niby.ui.websocket;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Context;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.websocket.ClientEndpointConfig;
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.ContainerProvider;
+import jakarta.websocket.Endpoint;
+import jakarta.websocket.EndpointConfig;
+import jakarta.websocket.MessageHandler;
+import jakarta.websocket.Session;
+import jakarta.websocket.WebSocketContainer;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Fixed pool of long-lived connections to the niby-be-core multiplexed endpoint. Every browser
+ * connection is pinned to one pooled connection by its id; frames carry the id so that streamed
+ * chunks can be routed back to the right browser.
+ * <p>
+ * Pooled connections are opened lazily and reopened on the next send after they drop. When one
+ * drops, the browser connections pinned to it are closed: they reconnect and resume their turns,
+ * which the backend detached from the lost connection.
+ * <p>
+ * A connection is opened outside the slot lock, within {@code niby.backend.multiplex.connect-timeout};
+ * concurrent sends to a slot being opened wait for that one attempt.
+ */
+@ApplicationScoped
+public class BackendConnectionPool {
+
+    private static final Logger LOG = Logger.getLogger(BackendConnectionPool.class);
+
+    // Connect timeout key of the Undertow WebSocket client, in seconds
+    private static final String CONNECT_TIMEOUT = "io.undertow.websocket.CONNECT_TIMEOUT";
+
+    // 1012: service restart, the browser reconnects
+    private static final io.quarkus.websockets.next.CloseReason BACKEND_LOST =
+            new io.quarkus.websockets.next.CloseReason(1012, "Backend connection lost");
+
+    @ConfigProperty(name = "niby.backend.host")
+    String backendHost;
+
+    @ConfigProperty(name = "niby.backend.port")
+    int backendPort;
+
+    @ConfigProperty(name = "niby.backend.multiplex.path", defaultValue = "/niby-ws-mux")
+    String muxPath;
+
+    @ConfigProperty(name = "niby.backend.multiplex.pool-size", defaultValue = "4")
+    int poolSize;
+
+    @ConfigProperty(name = "niby.backend.multiplex.connect-timeout", defaultValue = "5s")
+    Duration connectTimeout;
+
+    @Inject
+    ChatWebSocketProxy proxy;
+
+    @Inject
+    ConnectionManager connectionManager;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    OpenTelemetry openTelemetry;
+
+    private Session[] sessions;
+    private CompletableFuture<Session>[] connecting;
+    private Object[] locks;
+
+    @PostConstruct
+    @SuppressWarnings("unchecked")
+    void init() {
+        sessions = new Session[poolSize];
+        connecting = new CompletableFuture[poolSize];
+        locks = new Object[poolSize];
+        for (int i = 0; i < poolSize; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public void open(String clientConnectionId) throws IOException {
+        send(new MuxFrame(MuxFrame.OPEN, clientConnectionId, null));
+    }
+
+    public void message(String clientConnectionId, String message) throws IOException {
+        // Only frames relayed in a span, i.e. chat messages, carry a trace context
+        Map<String, String> trace = null;
+        Context context = Context.current();
+        if (Span.fromContext(context).getSpanContext().isValid()) {
+            trace = new HashMap<>();
+            openTelemetry.getPropagators().getTextMapPropagator().inject(context, trace, Map::put);
+        }
+        send(new MuxFrame(MuxFrame.MESSAGE, clientConnectionId, message, trace == null || trace.isEmpty() ? null : trace));
+    }
+
+    /**
+     * Tell the backend the browser connection is gone, which cancels its streams in progress.
+     */
+    public void close(String clientConnectionId) {
+        int slot = slotFor(clientConnectionId);
+        synchronized (locks[slot]) {
+            Session session = sessions[slot];
+            if (session == null || !session.isOpen()) {
+                return;
+            }
+            try {
+                session.getBasicRemote().sendText(toJson(new MuxFrame(MuxFrame.CLOSE, clientConnectionId, null)));
+            } catch (IOException e) {
+                LOG.warnf(e, "Failed to send close frame for client %s", clientConnectionId);
+            }
+        }
+    }
+
+    /**
+     * Number of pooled connections currently open.
+     */
+    public int getOpenConnectionCount() {
+        int open = 0;
+        for (int slot = 0; slot < poolSize; slot++) {
+            synchronized (locks[slot]) {
+                if (sessions[slot] != null && sessions[slot].isOpen()) {
+                    open++;
+                }
+            }
+        }
+        return open;
+    }
+
+    @PreDestroy
+    void closeAll() {
+        for (int slot = 0; slot < poolSize; slot++) {
+            synchronized (locks[slot]) {
+                if (sessions[slot] != null) {
+                    try {
+                        sessions[slot].close();
+                    } catch (IOException e) {
+                        LOG.warnf(e, "Error closing pooled backend connection %d", slot);
+                    }
+                    sessions[slot] = null;
+                }
+            }
+        }
+    }
+
+    private void send(MuxFrame frame) throws IOException {
+        int slot = slotFor(frame.cid());
+        String text = toJson(frame);
+        Session session = sessionFor(slot);
+        // Basic remote sends are not thread-safe, the slot lock also serializes them
+        synchronized (locks[slot]) {
+            session.getBasicRemote().sendText(text);
+        }
+    }
+
+    /**
+     * Open connection of a slot. The first caller finding none opens it without holding the slot
+     * lock; the others wait for the same attempt.
+     */
+    private Session sessionFor(int slot) throws IOException {
+        CompletableFuture<Session> attempt;
+        boolean opener = false;
+        synchronized (locks[slot]) {
+            Session session = sessions[slot];
+            if (session != null && session.isOpen()) {
+                return session;
+            }
+            attempt = connecting[slot];
+            if (attempt == null) {
+                attempt = new CompletableFuture<>();
+                connecting[slot] = attempt;
+                opener = true;
+            }
+        }
+        if (opener) {
+            Session opened = null;
+            try {
+                opened = connect(slot);
+            } finally {
+                install(slot, attempt, opened);
+            }
+            return attempt.join();
+        }
+        try {
+            return attempt.join();
+        } catch (CompletionException e) {
+            throw new IOException("Failed to open pooled backend connection " + slot, e.getCause());
+        }
+    }
+
+    /**
+     * Install a connection opened for a slot, or record that the attempt failed.
+     */
+    private void install(int slot, CompletableFuture<Session> attempt, Session opened) {
+        Session installed = opened;
+        synchronized (locks[slot]) {
+            connecting[slot] = null;
+            Session current = sessions[slot];
+            if (current != null && current.isOpen()) {
+                // Installed meanwhile, keep it
+                installed = current;
+            } else if (opened != null) {
+                sessions[slot] = opened;
+            }
+        }
+        if (installed == null) {
+            attempt.completeExceptionally(new IOException("Failed to open pooled backend connection " + slot));
+            return;
+        }
+        if (installed != opened && opened != null) {
+            closeQuietly(slot, opened);
+        }
+        attempt.complete(installed);
+    }
+
+    /**
+     * Open a connection to the multiplexed endpoint for a slot, within the connect timeout.
+     */
+    Session connect(int slot) throws IOException {
+        try {
+            WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+            URI uri = new URI(String.format("ws://%s:%d%s", backendHost, backendPort, muxPath));
+            ClientEndpointConfig config = ClientEndpointConfig.Builder.create().build();
+            config.getUserProperties().put(CONNECT_TIMEOUT, (int) Math.max(1, connectTimeout.toSeconds()));
+            Session session = container.connectToServer(new MuxClientEndpoint(this, slot), config, uri);
+            LOG.infof("Opened pooled backend connection %d to %s", slot, uri);
+            return session;
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to open pooled backend connection " + slot, e);
+        }
+    }
+
+    private static void closeQuietly(int slot, Session session) {
+        try {
+            session.close();
+        } catch (IOException e) {
+            LOG.debugf("Error closing pooled backend connection %d: %s", slot, e.getMessage());
+        }
+    }
+
+    private int slotFor(String clientConnectionId) {
+        return Math.floorMod(clientConnectionId.hashCode(), poolSize);
+    }
+
+    private String toJson(MuxFrame frame) throws JsonProcessingException {
+        return objectMapper.writeValueAsString(frame);
+    }
+
+    void onFrame(String text) {
+        try {
+            MuxFrame frame = objectMapper.readValue(text, MuxFrame.class);
+            if (MuxFrame.MESSAGE.equals(frame.type()) && frame.cid() != null) {
+                proxy.sendToClient(frame.cid(), frame.payload());
+            }
+        } catch (JsonProcessingException e) {
+            LOG.warnf("Ignoring malformed frame from backend: %s", e.getMessage());
+        }
+    }
+
+    void onSessionClosed(int slot, Session session) {
+        synchronized (locks[slot]) {
+            if (sessions[slot] != session) {
+                return;
+            }
+            sessions[slot] = null;
+        }
+        int closed = connectionManager.closeClientConnections(id -> slotFor(id) == slot, BACKEND_LOST);
+        if (closed > 0) {
+            LOG.infof("Closed %d client connection(s) of pooled backend connection %d", closed, slot);
+        }
+    }
+
+    /**
+     * Client endpoint of one pooled connection, demultiplexing frames to the browser connections.
+     */
+    static class MuxClientEndpoint extends Endpoint {
+
+        private static final Logger LOG = Logger.getLogger(MuxClientEndpoint.class);
+
+        private final BackendConnectionPool pool;
+        private final int slot;
+
+        MuxClientEndpoint(BackendConnectionPool pool, int slot) {
+            this.pool = pool;
+            this.slot = slot;
+        }
+
+        @Override
+        public void onOpen(Session session, EndpointConfig config) {
+            session.addMessageHandler(String.class, (MessageHandler.Whole<String>) pool::onFrame);
+        }
+
+        @Override
+        public void onClose(Session session, CloseReason closeReason) {
+            LOG.infof("Pooled backend connection %d closed: %s", slot, closeReason);
+            pool.onSessionClosed(slot, session);
+        }
+
+        @Override
+        public void onError(Session session, Throwable throwable) {
+            LOG.errorf(throwable, "Pooled backend connection %d error", slot);
+            pool.onSessionClosed(slot, session);
+            closeQuietly(slot, session);
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package cloud.isaura.niby.ui.websocket;
 
+import cloud.isaura.niby.shared.logging.PayloadLog;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.StartupEvent;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
 import jakarta.inject.Inject;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
@@ -12,6 +17,9 @@ import java.util.concurrent.ConcurrentMap;
 
 /**
  * Backend client that communicates with the niby-be-core service via WebSocket.
+ * <p>
+ * In multiplex mode (the default) all clients share the fixed {@link BackendConnectionPool};
+ * otherwise every client gets its own backend connection.
  */
 @ApplicationScoped
 public class BackendWebSocketClient {
@@ -24,15 +32,43 @@ public class BackendWebSocketClient {
     @ConfigProperty(name = "niby.backend.port")
     int backendPort;
 
+    @ConfigProperty(name = "niby.backend.multiplex.enabled", defaultValue = "true")
+    boolean multiplexEnabled;
+
     @Inject
     ChatWebSocketProxy proxy;
 
+    @Inject
+    BackendConnectionPool connectionPool;
+
+    @Inject
+    PayloadLog payloadLog;
+
+    @Inject
+    MeterRegistry registry;
+
     private final ConcurrentMap<String, Session> backendSessions = new ConcurrentHashMap<>();
 
+    void registerGauges(@Observes StartupEvent event) {
+        Gauge.builder("niby.ui.backend.connections", this, BackendWebSocketClient::getActiveBackendConnectionCount)
+                .description("Open connections to niby-be-core")
+                .tag("mode", multiplexEnabled ? "multiplex" : "per-client")
+                .register(registry);
+    }
+
     /**
      * Establish a backend WebSocket connection for a specific client
      */
     public void connectForClient(String clientConnectionId) {
+        if (multiplexEnabled) {
+            try {
+                connectionPool.open(clientConnectionId);
+            } catch (Exception e) {
+                LOG.errorf(e, "Failed to open multiplexed backend session for client %s", clientConnectionId);
+                proxy.sendErrorToClient(clientConnectionId, "Sorry, I'm experiencing technical difficulties connecting to the backend service.");
+            }
+            return;
+        }
         LOG.infof("Establishing backend WebSocket connection for client %s", clientConnectionId);
         
         try {
@@ -53,7 +89,7 @@ public class BackendWebSocketClient {
             
         } catch (Exception e) {
             LOG.errorf(e, "Failed to connect to backend WebSocket for client %s", clientConnectionId);
-            proxy.sendToClient(clientConnectionId, "Sorry, I'm experiencing technical difficulties connecting to the backend service.");
+            proxy.sendErrorToClient(clientConnectionId, "Sorry, I'm experiencing technical difficulties connecting to the backend service.");
         }
     }
 
@@ -61,6 +97,16 @@ public class BackendWebSocketClient {
      * Send a message to the backend WebSocket for a specific client
      */
     public void sendToBackend(String clientConnectionId, String message) {
+        if (multiplexEnabled) {
+            try {
+                LOG.debugf("Sending multiplexed message to backend for client %s", clientConnectionId);
+                connectionPool.message(clientConnectionId, message);
+            } catch (Exception e) {
+                LOG.errorf(e, "Failed to send message to backend for client %s", clientConnectionId);
+                proxy.sendErrorToClient(clientConnectionId, "Sorry, I encountered an error while processing your request.");
+            }
+            return;
+        }
         Session session = backendSessions.get(clientConnectionId);
         if (session == null || !session.isOpen()) {
             LOG.warnf("No active backend session for client %s", clientConnectionId);
@@ -71,11 +117,13 @@ public class BackendWebSocketClient {
         
         if (session != null && session.isOpen()) {
             try {
-                LOG.infof("Sending message to backend for client %s: %s", clientConnectionId, message);
+                if (payloadLog.enabled(LOG, null)) {
+                    LOG.infof("Sending message to backend for client %s: %s", clientConnectionId, payloadLog.preview(message));
+                }
                 session.getBasicRemote().sendText(message);
             } catch (Exception e) {
                 LOG.errorf(e, "Failed to send message to backend for client %s", clientConnectionId);
-                proxy.sendToClient(clientConnectionId, "Sorry, I encountered an error while processing your request.");
+                proxy.sendErrorToClient(clientConnectionId, "Sorry, I encountered an error while processing your request.");
             }
         }
     }
@@ -84,6 +132,10 @@ public class BackendWebSocketClient {
      * Disconnect backend WebSocket connection for a specific client
      */
     public void disconnectForClient(String clientConnectionId) {
+        if (multiplexEnabled) {
+            connectionPool.close(clientConnectionId);
+            return;
+        }
         Session session = backendSessions.remove(clientConnectionId);
         if (session != null) {
             try {
@@ -99,7 +151,7 @@ public class BackendWebSocketClient {
      * Get the number of active backend connections
      */
     public int getActiveBackendConnectionCount() {
-        return backendSessions.size();
+        return multiplexEnabled ? connectionPool.getOpenConnectionCount() : backendSessions.size();
     }
 
     /**
@@ -136,9 +188,12 @@ public class BackendWebSocketClient {
             String clientConnectionId = (String) session.getUserProperties().get("clientConnectionId");
             BackendWebSocketClient parent = (BackendWebSocketClient) session.getUserProperties().get("parent");
             
-            LOG.infof("Received streaming message from backend for client %s: %s", clientConnectionId, message);
             // Forward the streaming message to the client
             if (parent != null && clientConnectionId != null) {
+                if (parent.payloadLog.enabled(LOG, null)) {
+                    LOG.infof("Received streaming message from backend for client %s: %s",
+                            clientConnectionId, parent.payloadLog.preview(message));
+                }
                 parent.proxy.sendToClient(clientConnectionId, message);
             }
         }
@@ -162,7 +217,7 @@ public class BackendWebSocketClient {
             LOG.errorf(throwable, "Backend WebSocket error for client %s", clientConnectionId);
             if (parent != null && clientConnectionId != null) {
                 parent.backendSessions.remove(clientConnectionId);
-                parent.proxy.sendToClient(clientConnectionId, "Sorry, I encountered an error while processing your request.");
+                parent.proxy.sendErrorToClient(clientConnectionId, "Sorry, I encountered an error while processing your request.");
             }
         }
     }
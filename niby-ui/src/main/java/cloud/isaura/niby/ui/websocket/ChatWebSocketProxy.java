@@ -1,5 +1,14 @@
 package cloud.isaura.niby.ui.websocket;
 
+import cloud.isaura.niby.shared.logging.PayloadLog;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
 import io.quarkus.websockets.next.OnClose;
 import io.quarkus.websockets.next.OnError;
 import io.quarkus.websockets.next.OnTextMessage;
@@ -10,9 +19,15 @@ import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import org.jboss.logging.Logger;
 
+import java.io.IOException;
+import java.util.Map;
+
 /**
  * WebSocket proxy endpoint that handles client connections and forwards messages
  * to the backend niby-be-core service.
+ * <p>
+ * Frames of the chat protocol are relayed as they are in both directions; only the outbound
+ * side batches frames queued behind a slow client into a JSON array (see {@link ClientOutbox}).
  */
 @WebSocket(path = "/niby-ws")
 @ApplicationScoped
@@ -26,6 +41,15 @@ public class ChatWebSocketProxy {
     @Inject
     ConnectionManager connectionManager;
 
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    Tracer tracer;
+
+    @Inject
+    PayloadLog payloadLog;
+
     @OnOpen
     public void onOpen(WebSocketConnection connection) {
         LOG.infof("Client connected: %s", connection.id());
@@ -37,17 +61,50 @@ public class ChatWebSocketProxy {
 
     @OnTextMessage
     public void onMessage(String message, WebSocketConnection connection) {
-        LOG.infof("Received message from client %s: %s", connection.id(), message);
+        if (payloadLog.enabled(LOG, null)) {
+            LOG.infof("Received message from client %s: %s", connection.id(), payloadLog.preview(message));
+        }
         
-        try {
+        // Only chat messages are traced, the backend continues the trace for the turn (multiplexed
+        // connections only); credit frames go by at every chunk window
+        Span span = isMessage(message)
+                ? tracer.spanBuilder("niby-ui relay").setSpanKind(SpanKind.PRODUCER)
+                        .setAttribute("niby.client", connection.id())
+                        .startSpan()
+                : Span.getInvalid();
+        try (Scope ignored = span.makeCurrent()) {
             // Forward message to backend
             backendClient.sendToBackend(connection.id(), message);
         } catch (Exception e) {
+            span.recordException(e);
             LOG.errorf(e, "Failed to forward message to backend for client %s", connection.id());
             // Send error message back to client
-            if (connection.isOpen()) {
-                connection.sendTextAndAwait("Sorry, I'm experiencing technical difficulties. Please try again later.");
+            sendErrorToClient(connection.id(), "Sorry, I'm experiencing technical difficulties. Please try again later.");
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Whether a client frame is a chat message: typed {@code message}, untyped, or plain text.
+     * The frame is read only up to its {@code type} field, without building a tree
+     */
+    boolean isMessage(String frame) {
+        try (JsonParser parser = objectMapper.getFactory().createParser(frame)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return true;
             }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("type".equals(field)) {
+                    return "message".equals(parser.getValueAsString());
+                }
+                parser.skipChildren();
+            }
+            return true;
+        } catch (IOException e) {
+            return true;
         }
     }
 
@@ -68,14 +125,26 @@ public class ChatWebSocketProxy {
     }
 
     /**
-     * Send message to a specific client connection
+     * Send message to a specific client connection. Never blocks: the message is queued on the
+     * client's outbox, so a slow browser cannot hold up the thread relaying the backend stream
      */
     public void sendToClient(String connectionId, String message) {
-        WebSocketConnection clientConnection = connectionManager.getClientConnection(connectionId);
-        if (clientConnection != null && clientConnection.isOpen()) {
-            clientConnection.sendTextAndAwait(message);
+        ClientOutbox outbox = connectionManager.getOutbox(connectionId);
+        if (outbox != null) {
+            outbox.offer(message);
         } else {
             LOG.warnf("Cannot send message to client %s - connection not found or closed", connectionId);
         }
     }
+
+    /**
+     * Send an error frame of the chat protocol to a client, for failures of the relay itself
+     */
+    public void sendErrorToClient(String connectionId, String message) {
+        try {
+            sendToClient(connectionId, objectMapper.writeValueAsString(Map.of("type", "error", "text", message)));
+        } catch (JsonProcessingException e) {
+            LOG.errorf(e, "Failed to encode error frame for client %s", connectionId);
+        }
+    }
 }
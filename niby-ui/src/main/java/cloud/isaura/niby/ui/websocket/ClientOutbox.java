@@ -0,0 +1,118 @@
+package cloud.isaura.niby.ui.websocket;
+
+import io.quarkus.websockets.next.CloseReason;
+import io.quarkus.websockets.next.WebSocketConnection;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Bounded outbound queue of one browser connection.
+ * <p>
+ * At most one write is in flight; frames arriving meanwhile are queued and sent together as one
+ * JSON array when it completes, so a client that reads slowly gets fewer, larger messages and never
+ * blocks the thread relaying the backend stream. A client whose queue exceeds the limit, or whose write has
+ * been pending longer than the stall timeout, has its connection closed: the browser reconnects and
+ * resumes its turn from the last sequence number it received. Frames are never dropped, since a
+ * dropped chunk would leave a hole in the answer and hold back the credit it used.
+ */
+class ClientOutbox {
+
+    private static final Logger LOG = Logger.getLogger(ClientOutbox.class);
+
+    // 1013: try again later
+    private static final CloseReason TOO_SLOW = new CloseReason(1013, "Client too slow");
+
+    private final WebSocketConnection connection;
+    private final int maxQueuedChars;
+    private final long stallTimeoutNanos;
+
+    private final Deque<String> pending = new ArrayDeque<>();
+    private int queuedChars;
+    private boolean inFlight;
+    private long inFlightSince;
+    private boolean closed;
+
+    ClientOutbox(WebSocketConnection connection, int maxQueuedChars, Duration stallTimeout) {
+        this.connection = connection;
+        this.maxQueuedChars = maxQueuedChars;
+        this.stallTimeoutNanos = stallTimeout.toNanos();
+    }
+
+    /**
+     * Queue a frame for the client; never blocks.
+     */
+    void offer(String frame) {
+        String toSend;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (!inFlight) {
+                inFlight = true;
+                inFlightSince = System.nanoTime();
+                toSend = frame;
+            } else {
+                boolean stalled = System.nanoTime() - inFlightSince > stallTimeoutNanos;
+                if (stalled || queuedChars + frame.length() > maxQueuedChars) {
+                    overflow(stalled);
+                    return;
+                }
+                pending.addLast(frame);
+                queuedChars += frame.length();
+                return;
+            }
+        }
+        write(toSend);
+    }
+
+    void close() {
+        synchronized (this) {
+            closed = true;
+            pending.clear();
+            queuedChars = 0;
+        }
+    }
+
+    synchronized int queuedChars() {
+        return queuedChars;
+    }
+
+    private void write(String text) {
+        connection.sendText(text).subscribe().with(
+                ignored -> writeCompleted(),
+                error -> {
+                    LOG.warnf("Failed to send to client %s: %s", connection.id(), error.getMessage());
+                    close();
+                });
+    }
+
+    private void writeCompleted() {
+        String next;
+        synchronized (this) {
+            if (closed || pending.isEmpty()) {
+                inFlight = false;
+                return;
+            }
+            next = pending.size() == 1 ? pending.poll() : "[" + String.join(",", pending) + "]";
+            pending.clear();
+            queuedChars = 0;
+            inFlightSince = System.nanoTime();
+        }
+        write(next);
+    }
+
+    // Called holding the lock
+    private void overflow(boolean stalled) {
+        LOG.warnf("Client %s too slow (%s), closing its connection", connection.id(),
+                stalled ? "write stalled" : queuedChars + " chars queued");
+        closed = true;
+        pending.clear();
+        queuedChars = 0;
+        connection.close(TOO_SLOW).subscribe().with(
+                ignored -> { },
+                error -> LOG.debugf("Error closing slow client %s: %s", connection.id(), error.getMessage()));
+    }
+}
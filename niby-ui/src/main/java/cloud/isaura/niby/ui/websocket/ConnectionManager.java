@@ -1,11 +1,20 @@
 package cloud.isaura.niby.ui.websocket;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.websockets.next.CloseReason;
 import io.quarkus.websockets.next.WebSocketConnection;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
+import java.time.Duration;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
 
 /**
  * Manages WebSocket connections between clients and the proxy service.
@@ -15,13 +24,30 @@ public class ConnectionManager {
 
     private static final Logger LOG = Logger.getLogger(ConnectionManager.class);
 
+    @ConfigProperty(name = "niby.ui.outbound.max-queued-chars", defaultValue = "65536")
+    int maxQueuedChars;
+
+    @ConfigProperty(name = "niby.ui.outbound.stall-timeout", defaultValue = "10s")
+    Duration stallTimeout;
+
+    @Inject
+    MeterRegistry registry;
+
     private final ConcurrentMap<String, WebSocketConnection> clientConnections = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ClientOutbox> outboxes = new ConcurrentHashMap<>();
+
+    void registerGauges(@Observes StartupEvent event) {
+        Gauge.builder("niby.ui.client.connections", this, ConnectionManager::getActiveConnectionCount)
+                .description("Open browser connections")
+                .register(registry);
+    }
 
     /**
      * Add a client connection to the manager
      */
     public void addClientConnection(WebSocketConnection connection) {
         clientConnections.put(connection.id(), connection);
+        outboxes.put(connection.id(), new ClientOutbox(connection, maxQueuedChars, stallTimeout));
         LOG.infof("Added client connection: %s. Total connections: %d", 
                  connection.id(), clientConnections.size());
     }
@@ -31,6 +57,10 @@ public class ConnectionManager {
      */
     public void removeClientConnection(String connectionId) {
         WebSocketConnection removed = clientConnections.remove(connectionId);
+        ClientOutbox outbox = outboxes.remove(connectionId);
+        if (outbox != null) {
+            outbox.close();
+        }
         if (removed != null) {
             LOG.infof("Removed client connection: %s. Total connections: %d", 
                      connectionId, clientConnections.size());
@@ -44,6 +74,13 @@ public class ConnectionManager {
         return clientConnections.get(connectionId);
     }
 
+    /**
+     * Get the outbound queue of a client connection
+     */
+    ClientOutbox getOutbox(String connectionId) {
+        return outboxes.get(connectionId);
+    }
+
     /**
      * Check if a client connection exists and is open
      */
@@ -59,6 +96,24 @@ public class ConnectionManager {
         return clientConnections.size();
     }
 
+    /**
+     * Close the client connections whose id matches, e.g. those relayed through a lost backend connection
+     *
+     * @return number of connections closed
+     */
+    public int closeClientConnections(Predicate<String> filter, CloseReason reason) {
+        int closed = 0;
+        for (WebSocketConnection connection : clientConnections.values()) {
+            if (filter.test(connection.id()) && connection.isOpen()) {
+                connection.close(reason).subscribe().with(
+                        ignored -> { },
+                        error -> LOG.debugf("Error closing connection %s: %s", connection.id(), error.getMessage()));
+                closed++;
+            }
+        }
+        return closed;
+    }
+
     /**
      * Close all client connections (for shutdown)
      */
@@ -74,5 +129,7 @@ public class ConnectionManager {
             }
         });
         clientConnections.clear();
+        outboxes.values().forEach(ClientOutbox::close);
+        outboxes.clear();
     }
 }
@@ -0,0 +1,23 @@
+package cloud.isaura.niby.ui.websocket;
+
+import java.util.Map;
+
+/**
+ * Frame of the multiplexed protocol spoken with the niby-be-core {@code /niby-ws-mux} endpoint.
+ *
+ * @param type    {@code open}, {@code message} or {@code close} towards the backend; {@code message} back
+ * @param cid     id of the browser connection the frame belongs to
+ * @param payload chat message or streamed chunk, absent for open and close
+ * @param trace   W3C trace context of a message ({@code traceparent}, {@code tracestate}), so that the
+ *                backend spans of the turn join the trace of the relay
+ */
+public record MuxFrame(String type, String cid, String payload, Map<String, String> trace) {
+
+    public static final String OPEN = "open";
+    public static final String MESSAGE = "message";
+    public static final String CLOSE = "close";
+
+    public MuxFrame(String type, String cid, String payload) {
+        this(type, cid, payload, null);
+    }
+}
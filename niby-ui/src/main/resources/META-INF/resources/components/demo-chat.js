@@ -3,6 +3,11 @@ import { unsafeHTML } from 'https://unpkg.com/lit@3/directives/unsafe-html.js?mo
 import { marked } from 'https://cdn.jsdelivr.net/npm/marked/lib/marked.esm.js';
 import DOMPurify from 'https://cdn.jsdelivr.net/npm/dompurify@3.1.6/dist/purify.es.mjs';
 
+// Chunk frames the server may send before waiting for more credit; half of it is granted back as chunks are rendered
+const CREDIT_WINDOW = 32;
+
+const uuid = () => crypto.randomUUID?.() ?? `${Date.now().toString(36)}-${Math.random().toString(36).slice(2)}`;
+
 export class DemoChat extends LitElement {
     // ---------- Styles ----------
     static styles = css`
@@ -156,10 +161,11 @@ export class DemoChat extends LitElement {
         // Single selected mode (mutually exclusive)
         this.selectedMode = 'basic'; // default: Basic selected
 
-        // Streaming glue
-        this._isBotStreaming = false;
-        this._streamResetTimer = null;
-        this._streamBuffer = ''; // Accumulate chunks to properly parse <think> tags
+        // Session token issued by the server, kept for the browser tab so the chat memory survives reconnections
+        this._sessionId = sessionStorage.getItem('niby.session');
+
+        // Turn being streamed: { id, lastSeq, raw, unacked, resuming, bubble, thinking }, resumed after a reconnection
+        this._turn = null;
 
         // Reconnect control
         this._reconnectAttempts = 0;
@@ -171,6 +177,12 @@ export class DemoChat extends LitElement {
         this._onOpen = () => {
             this._reconnectAttempts = 0;
             this._connectionState = 'open';
+            if (this._turn) {
+                this._turn.unacked = 0;
+                this._turn.resuming = false;
+                this._send({ type: 'resume', session: this._sessionId, turn: this._turn.id,
+                    after: this._turn.lastSeq, credit: CREDIT_WINDOW });
+            }
             this.requestUpdate();
         };
 
@@ -198,7 +210,6 @@ export class DemoChat extends LitElement {
         super.disconnectedCallback();
         try { this.socket?.close(); } catch {}
         this.socket = null;
-        clearTimeout(this._streamResetTimer);
         clearTimeout(this._reconnectTimer);
     }
 
@@ -216,24 +227,103 @@ export class DemoChat extends LitElement {
         this.socket.addEventListener('error', this._onError);
     }
 
-    _handleServerMessage(raw) {
-        console.log('Raw server message:', raw);
+    _send(frame) {
+        if (this.socket?.readyState !== WebSocket.OPEN) return false;
+        this.socket.send(JSON.stringify(frame));
+        return true;
+    }
 
-        // Accumulate chunks in the buffer
-        this._streamBuffer += raw;
+    _handleServerMessage(raw) {
+        let frames;
+        try {
+            frames = JSON.parse(raw);
+        } catch {
+            console.warn('Ignoring non-protocol message:', raw);
+            return;
+        }
+        // The UI server batches frames queued behind a slow connection into an array
+        (Array.isArray(frames) ? frames : [frames]).forEach((frame) => this._handleFrame(frame));
+        this.requestUpdate();
+    }
 
-        // Try to extract complete <think> tags from the buffer
-        const { cleanText, thinkingText, remainingBuffer } = this._stripThink(this._streamBuffer);
+    _handleFrame(frame) {
+        const turn = this._turn;
+        const current = turn && frame.turn === turn.id;
+        switch (frame.type) {
+            case 'session':
+                this._sessionId = frame.text;
+                sessionStorage.setItem('niby.session', this._sessionId);
+                break;
+            case 'notice':
+                this.messages.push({ text: frame.text, sender: 'bot' });
+                break;
+            case 'start':
+                if (current) this._renderTurn(turn);
+                break;
+            case 'chunk':
+                // Chunks already received before a resume are skipped by their sequence number
+                if (!current || frame.seq <= turn.lastSeq) return;
+                if (frame.first !== turn.lastSeq + 1) {
+                    this._resumeAfterGap(turn);
+                    return;
+                }
+                turn.resuming = false;
+                turn.raw += frame.text;
+                turn.lastSeq = frame.seq;
+                this._renderTurn(turn);
+                if (++turn.unacked >= CREDIT_WINDOW / 2) {
+                    this._send({ type: 'credit', turn: turn.id, credit: turn.unacked });
+                    turn.unacked = 0;
+                }
+                break;
+            case 'end':
+                if (current && frame.seq > turn.lastSeq) {
+                    this._resumeAfterGap(turn);
+                } else if (current) {
+                    this._turn = null;
+                }
+                break;
+            case 'cancelled':
+                // A turn superseded by a newer message is no longer current, so only an explicit stop lands here
+                if (current && frame.seq > turn.lastSeq) {
+                    this._resumeAfterGap(turn);
+                } else if (current) {
+                    this._renderTurn(turn);
+                    turn.bubble.text += `${turn.bubble.text ? ' ' : ''}_(interrotto)_`;
+                    this._turn = null;
+                }
+                break;
+            case 'error':
+                if (current && frame.seq > turn.lastSeq) {
+                    this._resumeAfterGap(turn);
+                } else if (current) {
+                    this._renderTurn(turn);
+                    turn.bubble.text += `${turn.bubble.text ? '\n\n' : ''}_${frame.text}_`;
+                    this._turn = null;
+                } else if (!frame.turn) {
+                    this.messages.push({ text: frame.text, sender: 'bot' });
+                }
+                break;
+            default:
+                console.warn('Ignoring frame of unknown type:', frame);
+        }
+    }
 
-        // Update the buffer with any remaining incomplete content
-        this._streamBuffer = remainingBuffer;
+    // Chunks are missing before this frame: ask for the rest of the turn again instead of rendering a hole
+    _resumeAfterGap(turn) {
+        if (turn.resuming) return;
+        turn.resuming = true;
+        turn.unacked = 0;
+        this._send({ type: 'resume', session: this._sessionId, turn: turn.id, after: turn.lastSeq, credit: CREDIT_WINDOW });
+    }
 
-        console.log('Extracted thinking text:', thinkingText);
-        console.log('Clean text:', cleanText);
+    _renderTurn(turn) {
+        // The whole answer is re-parsed, so <think> tags split across chunks are handled
+        const { cleanText, thinkingText } = this._stripThink(turn.raw);
 
         // Bubble out the <think> content (hidden chain-of-thought UI)
-        if (thinkingText) {
-            console.log('Dispatching thinking-updated event with:', thinkingText);
+        if (thinkingText && thinkingText !== turn.thinking) {
+            turn.thinking = thinkingText;
             this.dispatchEvent(new CustomEvent('thinking-updated', {
                 detail: { thinkingText },
                 bubbles: true,
@@ -241,32 +331,11 @@ export class DemoChat extends LitElement {
             }));
         }
 
-        if (!cleanText) return;
-
-        // Stream chunks into the latest bot message
-        const last = this.messages[this.messages.length - 1];
-        if (this._isBotStreaming && last && last.sender === 'bot') {
-            // Add space before the new chunk if the last character isn't already a space or newline
-            // and the new chunk doesn't start with punctuation or whitespace
-            const needsSpace = last.text.length > 0 &&
-                              !last.text.match(/[\s\n]$/) &&
-                              !cleanText.match(/^[\s\n.,!?;:]/) &&
-                              cleanText.trim().length > 0;
-            last.text += (needsSpace ? ' ' : '') + cleanText;
-        } else {
-            this._isBotStreaming = true;
-            this.messages.push({ text: cleanText, sender: 'bot' });
+        if (!turn.bubble) {
+            turn.bubble = { text: '', sender: 'bot' };
+            this.messages.push(turn.bubble);
         }
-
-        // Debounce: if no chunks arrive for a short period, consider the bot done
-        clearTimeout(this._streamResetTimer);
-        this._streamResetTimer = setTimeout(() => {
-            this._isBotStreaming = false;
-            this._streamBuffer = ''; // Clear buffer when streaming is done
-            // Don't clear "thinking" panel automatically - let it persist until next message
-        }, 400);
-
-        this.requestUpdate();
+        turn.bubble.text = cleanText;
     }
 
     _stripThink(text) {
@@ -340,7 +409,9 @@ export class DemoChat extends LitElement {
             aria-label="Message to Niby"
             @keydown=${this._handleKeydown}
           />
-          <button ?disabled=${!canSend} @click=${this._sendMessage}>${canSend ? 'Send' : 'Wait…'}</button>
+          ${this._turn
+              ? html`<button ?disabled=${!canSend} @click=${this._stopTurn}>Stop</button>`
+              : html`<button ?disabled=${!canSend} @click=${this._sendMessage}>${canSend ? 'Send' : 'Wait…'}</button>`}
         </div>
       </div>
     `;
@@ -362,6 +433,10 @@ export class DemoChat extends LitElement {
         if (e.key === 'Enter') { e.preventDefault(); this._sendMessage(); }
     };
 
+    _stopTurn = () => {
+        if (this._turn) this._send({ type: 'cancel', turn: this._turn.id });
+    };
+
     _sendMessage = () => {
         const input = this.shadowRoot.querySelector('.input-row input');
         const message = (input?.value || '').trim();
@@ -377,9 +452,18 @@ export class DemoChat extends LitElement {
         // Show user bubble immediately
         this.messages.push({ text: message, sender: 'user' });
 
-        // Send as JSON with message and mode
-        if (this.socket?.readyState === WebSocket.OPEN) {
-            this.socket.send(JSON.stringify({ message, mode: this.selectedMode }));
+        // Start a turn; its id lets the answer be resumed after a reconnection
+        const turn = { id: uuid(), lastSeq: -1, raw: '', unacked: 0, resuming: false, bubble: null, thinking: '' };
+        const sent = this._send({
+            type: 'message',
+            session: this._sessionId,
+            turn: turn.id,
+            mode: this.selectedMode,
+            message,
+            credit: CREDIT_WINDOW
+        });
+        if (sent) {
+            this._turn = turn;
         } else {
             this.messages.push({ text: '_Riconnessione in corso… riprova fra poco._', sender: 'bot' });
         }
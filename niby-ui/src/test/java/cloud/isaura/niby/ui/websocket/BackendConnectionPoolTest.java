@@ -0,0 +1,167 @@
+package cloud.isaura.niby.ui.websocket;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.websockets.next.CloseReason;
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class BackendConnectionPoolTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final List<FakeSession> opened = new CopyOnWriteArrayList<>();
+    private final AtomicInteger closedClients = new AtomicInteger();
+    private final CountDownLatch connectStarted = new CountDownLatch(1);
+    private volatile CountDownLatch connectGate;
+    private volatile boolean backendDown;
+
+    private final BackendConnectionPool pool = new BackendConnectionPool() {
+        @Override
+        Session connect(int slot) throws IOException {
+            connectStarted.countDown();
+            if (connectGate != null) {
+                try {
+                    connectGate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (backendDown) {
+                throw new IOException("Connection refused");
+            }
+            FakeSession session = new FakeSession();
+            opened.add(session);
+            return session.session;
+        }
+    };
+
+    BackendConnectionPoolTest() {
+        pool.poolSize = 1;
+        pool.objectMapper = new ObjectMapper();
+        pool.connectionManager = new ConnectionManager() {
+            @Override
+            public int closeClientConnections(Predicate<String> filter, CloseReason reason) {
+                return closedClients.incrementAndGet();
+            }
+        };
+        pool.init();
+    }
+
+    @AfterEach
+    void releaseConnects() {
+        if (connectGate != null) {
+            connectGate.countDown();
+        }
+    }
+
+    @Test
+    void reusesTheOpenConnectionOfASlot() throws IOException {
+        pool.open("client-1");
+        pool.open("client-2");
+
+        assertEquals(1, opened.size());
+        assertEquals(2, opened.get(0).sent.size());
+        assertEquals(1, pool.getOpenConnectionCount());
+    }
+
+    @Test
+    void reconnectsASlotAfterItsConnectionDrops() throws IOException {
+        pool.open("client-1");
+        FakeSession first = opened.get(0);
+
+        first.open = false;
+        pool.onSessionClosed(0, first.session);
+        pool.open("client-1");
+
+        // The browsers pinned to the lost connection were closed, the next send opened a new one
+        assertEquals(1, closedClients.get());
+        assertEquals(2, opened.size());
+        assertEquals(1, opened.get(1).sent.size());
+    }
+
+    @Test
+    void failedConnectIsRetriedOnTheNextSend() throws IOException {
+        backendDown = true;
+        assertThrows(IOException.class, () -> pool.open("client-1"));
+
+        backendDown = false;
+        pool.open("client-1");
+
+        assertEquals(1, opened.size());
+    }
+
+    @Test
+    void slowConnectDoesNotHoldTheSlotLock() {
+        connectGate = new CountDownLatch(1);
+        CompletableFuture<Void> first = CompletableFuture.runAsync(() -> open("client-1"));
+        CompletableFuture<Void> second = CompletableFuture.runAsync(() -> open("client-2"));
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            connectStarted.await();
+            // The slot stays usable while the connection is being opened
+            assertEquals(0, pool.getOpenConnectionCount());
+            pool.close("client-3");
+
+            connectGate.countDown();
+            first.join();
+            second.join();
+        });
+        assertEquals(1, opened.size());
+        assertEquals(2, opened.get(0).sent.size());
+    }
+
+    private void open(String clientConnectionId) {
+        try {
+            pool.open(clientConnectionId);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Open session recording the texts sent through its basic remote.
+     */
+    private static final class FakeSession {
+
+        final List<String> sent = new CopyOnWriteArrayList<>();
+        volatile boolean open = true;
+
+        final RemoteEndpoint.Basic remote = (RemoteEndpoint.Basic) Proxy.newProxyInstance(
+                RemoteEndpoint.Basic.class.getClassLoader(), new Class<?>[]{RemoteEndpoint.Basic.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("sendText") && args.length == 1) {
+                        sent.add((String) args[0]);
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        final Session session = (Session) Proxy.newProxyInstance(
+                Session.class.getClassLoader(), new Class<?>[]{Session.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "isOpen" -> open;
+                    case "getBasicRemote" -> remote;
+                    case "close" -> {
+                        open = false;
+                        yield null;
+                    }
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,46 @@
+package cloud.isaura.niby.ui.websocket;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChatWebSocketProxyTest {
+
+    private final ChatWebSocketProxy proxy = new ChatWebSocketProxy();
+
+    ChatWebSocketProxyTest() {
+        proxy.objectMapper = new ObjectMapper();
+    }
+
+    @Test
+    void typedChatMessageIsAMessage() {
+        assertTrue(proxy.isMessage("{\"type\":\"message\",\"text\":\"How does PutFile work?\"}"));
+    }
+
+    @Test
+    void otherFrameTypesAreNotMessages() {
+        assertFalse(proxy.isMessage("{\"type\":\"credit\",\"channel\":\"c1\",\"credit\":8}"));
+        assertFalse(proxy.isMessage("{\"type\":1}"));
+    }
+
+    @Test
+    void untypedFramesAndPlainTextAreMessages() {
+        assertTrue(proxy.isMessage("{\"text\":\"How does PutFile work?\"}"));
+        assertTrue(proxy.isMessage("How does PutFile work?"));
+        assertTrue(proxy.isMessage("[\"credit\"]"));
+        assertTrue(proxy.isMessage(""));
+    }
+
+    @Test
+    void typeOfANestedObjectIsIgnored() {
+        assertFalse(proxy.isMessage("{\"meta\":{\"type\":\"message\",\"tags\":[1,2]},\"type\":\"credit\"}"));
+        assertTrue(proxy.isMessage("{\"meta\":{\"type\":\"credit\"},\"text\":\"PutFile\"}"));
+    }
+
+    @Test
+    void frameIsReadOnlyUpToItsType() {
+        assertFalse(proxy.isMessage("{\"type\":\"credit\",\"credit\":"));
+    }
+}
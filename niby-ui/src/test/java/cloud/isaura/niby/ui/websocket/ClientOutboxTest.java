@@ -0,0 +1,103 @@
+package cloud.isaura.niby.ui.websocket;
+
+import io.quarkus.websockets.next.CloseReason;
+import io.quarkus.websockets.next.WebSocketConnection;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.UniEmitter;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ClientOutboxTest {
+
+    private final FakeConnection client = new FakeConnection();
+
+    @Test
+    void sendsAtOnceWhenNoWriteIsPending() {
+        ClientOutbox outbox = new ClientOutbox(client.connection, 100, Duration.ofMinutes(1));
+
+        outbox.offer("{\"a\":1}");
+        client.completeWrite();
+        outbox.offer("{\"b\":2}");
+
+        assertEquals(List.of("{\"a\":1}", "{\"b\":2}"), client.sent);
+    }
+
+    @Test
+    void batchesFramesQueuedBehindAPendingWrite() {
+        ClientOutbox outbox = new ClientOutbox(client.connection, 100, Duration.ofMinutes(1));
+        outbox.offer("{\"a\":1}");
+        outbox.offer("{\"b\":2}");
+        outbox.offer("{\"c\":3}");
+        assertEquals(14, outbox.queuedChars());
+
+        client.completeWrite();
+
+        assertEquals(List.of("{\"a\":1}", "[{\"b\":2},{\"c\":3}]"), client.sent);
+        assertEquals(0, outbox.queuedChars());
+    }
+
+    @Test
+    void closesTheClientWhenTheQueueOverflows() {
+        ClientOutbox outbox = new ClientOutbox(client.connection, 10, Duration.ofMinutes(1));
+        outbox.offer("{\"a\":1}");
+        outbox.offer("{\"b\":2}");
+
+        outbox.offer("{\"c\":3}");
+
+        assertEquals(1013, client.closeReason.getCode());
+        assertEquals(0, outbox.queuedChars());
+        // Nothing is sent after the close, not even the frames queued before it
+        client.completeWrite();
+        outbox.offer("{\"d\":4}");
+        assertEquals(List.of("{\"a\":1}"), client.sent);
+    }
+
+    @Test
+    void closesTheClientWhenAWriteStalls() throws InterruptedException {
+        ClientOutbox outbox = new ClientOutbox(client.connection, 100, Duration.ofMillis(20));
+        outbox.offer("{\"a\":1}");
+        outbox.offer("{\"b\":2}");
+        assertNull(client.closeReason);
+
+        Thread.sleep(50);
+        outbox.offer("{\"c\":3}");
+
+        assertEquals(1013, client.closeReason.getCode());
+    }
+
+    /**
+     * Connection recording sent texts, whose writes complete only when the test says so.
+     */
+    private static final class FakeConnection {
+
+        final List<String> sent = new ArrayList<>();
+        final List<UniEmitter<? super Void>> writes = new ArrayList<>();
+        CloseReason closeReason;
+
+        final WebSocketConnection connection = (WebSocketConnection) Proxy.newProxyInstance(
+                WebSocketConnection.class.getClassLoader(), new Class<?>[]{WebSocketConnection.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "id" -> "client-1";
+                    case "sendText" -> {
+                        sent.add((String) args[0]);
+                        yield Uni.createFrom().<Void>emitter(writes::add);
+                    }
+                    case "close" -> {
+                        closeReason = (CloseReason) args[0];
+                        yield Uni.createFrom().voidItem();
+                    }
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+
+        void completeWrite() {
+            writes.remove(0).complete(null);
+        }
+    }
+}